@@ -163,20 +163,24 @@ public void importApplication(XWikiDocument packageDoc, String packageName, Stri
                     packageName), e);
         }
 
-        if (importer.install() == DocumentInfo.INSTALL_IMPOSSIBLE) {
-            throw new ApplicationManagerException(XWikiException.ERROR_XWIKI_UNKNOWN,
-                this.localizationManager.getTranslationPlain(ApplicationManagerMessageTool.ERROR_IMORT_INSTALL,
-                    packageName));
-        }
+        try {
+            if (importer.install() == DocumentInfo.INSTALL_IMPOSSIBLE) {
+                throw new ApplicationManagerException(XWikiException.ERROR_XWIKI_UNKNOWN,
+                    this.localizationManager.getTranslationPlain(ApplicationManagerMessageTool.ERROR_IMORT_INSTALL,
+                        packageName));
+            }
 
-        // Apply applications installation
-        for (DocumentInfoAPI docinfo : importer.getFiles()) {
-            XWikiDocument doc = docinfo.getDocInfo().getDoc();
+            // Apply applications installation
+            for (DocumentInfoAPI docinfo : importer.getFiles()) {
+                XWikiDocument doc = docinfo.getDocInfo().getDoc();
 
-            if (XWikiApplicationClass.getInstance(context).isInstance(doc)) {
-                this.applicationManager.reloadApplication(XWikiApplicationClass.getInstance(context)
-                    .newXObjectDocument(doc, 0, context), comment, context);
+                if (XWikiApplicationClass.getInstance(context).isInstance(doc)) {
+                    this.applicationManager.reloadApplication(XWikiApplicationClass.getInstance(context)
+                        .newXObjectDocument(doc, 0, context), comment, context);
+                }
             }
+        } finally {
+            importer.close();
         }
     }
 }
@@ -19,6 +19,9 @@
  */
 package org.xwiki.cache;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.xwiki.cache.event.CacheEntryListener;
 
 /**
@@ -69,6 +72,49 @@
      */
     void removeAll();
 
+    /**
+     * @param keys the keys used to access the values in the cache
+     * @return the values associated with the provided keys, keys which have no value are not part of the returned map
+     * @see #get(String)
+     * @since 6.0M1
+     */
+    Map<String, T> getAll(Collection<String> keys);
+
+    /**
+     * Add new values or overwrite the existing ones associated with the provided keys.
+     * 
+     * @param entries the values to store in the cache, indexed by key
+     * @see #set(String, Object)
+     * @since 6.0M1
+     */
+    void setAll(Map<String, ? extends T> entries);
+
+    /**
+     * Remove the entries associated with the provided keys from the cache.
+     * 
+     * @param keys the keys used to access the values in the cache
+     * @see #remove(String)
+     * @since 6.0M1
+     */
+    void removeAll(Collection<String> keys);
+
+    /**
+     * Return the value associated with the provided key, loading it and storing it in the cache if there is none.
+     * <p>
+     * When several threads ask for the same missing key at the same time the value is only loaded once: the other
+     * threads wait for the loading to finish and get the loaded value. A thread which is itself running a loader never
+     * waits, it loads the value on its own instead, so that loaders depending on each other cannot dead lock.
+     * </p>
+     * 
+     * @param key the key used to access the value in the cache
+     * @param loader used to load the value when it's not in the cache
+     * @return the value associated with the provided key, or null if there is no value in the cache and the loader did
+     *         not return any
+     * @throws CacheException when the loader failed to load the value (the original exception is the cause)
+     * @since 6.0M1
+     */
+    T computeIfAbsent(String key, CacheLoader<T> loader) throws CacheException;
+
     /**
      * Add the provided listener to the cache to catch events on entries like add, remove etc.
      * 
@@ -0,0 +1,39 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache;
+
+/**
+ * Load the value associated with a key when it's not in the cache.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 6.0M1
+ * @see Cache#computeIfAbsent(String, CacheLoader)
+ */
+public interface CacheLoader<T>
+{
+    /**
+     * @param key the key of the value to load
+     * @return the value associated with the provided key, or null if there is no value for this key (in which case
+     *         nothing is stored in the cache)
+     * @throws Exception when failing to load the value
+     */
+    T load(String key) throws Exception;
+}
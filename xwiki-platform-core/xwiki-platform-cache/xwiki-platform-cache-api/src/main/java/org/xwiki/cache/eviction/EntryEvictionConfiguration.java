@@ -63,7 +63,9 @@ public class EntryEvictionConfiguration extends HashMap<String, Object>
         /**
          * Evicts the least recently used entry when thresholds are hit.
          * <p>
-         * Support <code>maxentries</code> property. See {@link LRUEvictionConfiguration}.
+         * Support <code>maxentries</code> property. See {@link LRUEvictionConfiguration}. Some implementations also
+         * support <code>maxweight</code> and <code>weigher</code> properties. See
+         * {@link WeightedLRUEvictionConfiguration}.
          */
         LRU
     }
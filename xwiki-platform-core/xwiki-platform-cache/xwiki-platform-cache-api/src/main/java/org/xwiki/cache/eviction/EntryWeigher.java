@@ -0,0 +1,41 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.eviction;
+
+/**
+ * Compute the weight of a cache entry, used by {@link WeightedLRUEvictionConfiguration} to bound a cache by the
+ * total weight of its entries instead of their number.
+ * <p>
+ * The weight of an entry is computed once when it's inserted in the cache so computing it should be cheap. It's
+ * generally an estimation of the memory used by the entry, in bytes.
+ * 
+ * @param <T> the class of the data stored in the cache
+ * @version $Id$
+ * @since 6.0M1
+ */
+public interface EntryWeigher<T>
+{
+    /**
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return the weight of the entry, must be positive
+     */
+    long weigh(String key, T value);
+}
@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.eviction;
+
+/**
+ * Weigh {@link String} entries according to the memory they use (approximately two bytes per character plus the
+ * objects overhead). Typically used for caches of rendered content.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class StringWeigher implements EntryWeigher<String>
+{
+    /**
+     * The approximate overhead of a {@link String} object and its characters array.
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    @Override
+    public long weigh(String key, String value)
+    {
+        return weigh(key) + weigh(value);
+    }
+
+    /**
+     * @param str the string to weigh
+     * @return the approximate memory used by the string, in bytes
+     */
+    public static long weigh(String str)
+    {
+        return str != null ? STRING_OVERHEAD + 2L * str.length() : 0;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.eviction;
+
+/**
+ * An helper for {@link EntryEvictionConfiguration.Algorithm#LRU} cache algorithm bounding the cache by the total weight
+ * of its entries (generally their approximate size in bytes) in addition to their number.
+ * <p>
+ * <code>
+ * WeightedLRUEvictionConfiguration lec = new WeightedLRUEvictionConfiguration();
+ * lec.setMaxWeight(50 * 1024 * 1024);
+ * lec.setWeigher(new StringWeigher());
+ * conf.put(EntryEvictionConfiguration.CONFIGURATIONID, lec);
+ * </code>
+ * <p>
+ * Implementations not supporting weight based eviction only apply the entry count based constraints.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class WeightedLRUEvictionConfiguration extends LRUEvictionConfiguration
+{
+    /**
+     * The key to access the maximum total weight of the entries the cache can contain.
+     */
+    public static final String MAXWEIGHT_ID = "maxweight";
+
+    /**
+     * The key to access the {@link EntryWeigher} used to compute the weight of each entry.
+     */
+    public static final String WEIGHER_ID = "weigher";
+
+    /**
+     * Create a new EntryEvictionConfiguration based on LRU algorithm and entries weight.
+     */
+    public WeightedLRUEvictionConfiguration()
+    {
+    }
+
+    /**
+     * @param maxWeight the maximum total weight of the entries the cache can contain
+     * @param weigher the component used to compute the weight of each entry
+     */
+    public WeightedLRUEvictionConfiguration(long maxWeight, EntryWeigher<?> weigher)
+    {
+        setMaxWeight(maxWeight);
+        setWeigher(weigher);
+    }
+
+    /**
+     * @param maxWeight the maximum total weight of the entries the cache can contain
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        put(MAXWEIGHT_ID, maxWeight);
+    }
+
+    /**
+     * @return the maximum total weight of the entries the cache can contain, 0 if there is no limit
+     */
+    public long getMaxWeight()
+    {
+        Object obj = get(MAXWEIGHT_ID);
+
+        return obj == null ? 0 : ((Number) obj).longValue();
+    }
+
+    /**
+     * @param weigher the component used to compute the weight of each entry
+     */
+    public void setWeigher(EntryWeigher<?> weigher)
+    {
+        put(WEIGHER_ID, weigher);
+    }
+
+    /**
+     * @return the component used to compute the weight of each entry
+     */
+    public EntryWeigher<?> getWeigher()
+    {
+        return (EntryWeigher<?>) get(WEIGHER_ID);
+    }
+}
@@ -19,7 +19,13 @@
  */
 package org.xwiki.cache.internal;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.event.CacheEntryListener;
 
 /**
@@ -55,6 +61,34 @@ public void removeAll()
 
     }
 
+    @Override
+    public Map<String, T> getAll(Collection<String> keys)
+    {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys)
+    {
+
+    }
+
+    @Override
+    public T computeIfAbsent(String key, CacheLoader<T> loader) throws CacheException
+    {
+        try {
+            return loader.load(key);
+        } catch (Exception e) {
+            throw new CacheException(String.format("Failed to load the value of key [%s]", key), e);
+        }
+    }
+
     @Override
     public void addCacheEntryListener(CacheEntryListener<T> listener)
     {
@@ -0,0 +1,161 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.statistics.CacheStatistics;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
+import org.xwiki.cache.util.CacheStatisticsCounter;
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Default implementation of {@link CacheStatisticsManager}. Also register the statistics of each cache against the
+ * platform JMX server.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Component
+@Singleton
+public class DefaultCacheStatisticsManager implements CacheStatisticsManager
+{
+    /**
+     * The JMX domain used to register the caches statistics.
+     */
+    private static final String JMX_DOMAIN = "org.xwiki";
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The registered statistics.
+     */
+    private final Set<CacheStatistics> statistics = Collections
+        .newSetFromMap(new ConcurrentHashMap<CacheStatistics, Boolean>());
+
+    /**
+     * The JMX names of the registered statistics.
+     */
+    private final Map<CacheStatistics, ObjectName> objectNames = new ConcurrentHashMap<CacheStatistics, ObjectName>();
+
+    @Override
+    public void register(CacheStatistics cacheStatistics)
+    {
+        unregisterReleased();
+
+        this.statistics.add(cacheStatistics);
+
+        try {
+            ObjectName objectName = getObjectName(cacheStatistics);
+
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(cacheStatistics, objectName);
+
+            this.objectNames.put(cacheStatistics, objectName);
+        } catch (Exception e) {
+            this.logger.warn("Failed to register statistics of cache [{}] against the JMX Server: {}",
+                cacheStatistics.getName(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void unregister(CacheStatistics cacheStatistics)
+    {
+        this.statistics.remove(cacheStatistics);
+
+        ObjectName objectName = this.objectNames.remove(cacheStatistics);
+        if (objectName != null) {
+            try {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                mbs.unregisterMBean(objectName);
+            } catch (Exception e) {
+                this.logger.warn("Failed to unregister statistics of cache [{}] from the JMX Server: {}",
+                    cacheStatistics.getName(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Collection<CacheStatistics> getStatistics()
+    {
+        unregisterReleased();
+
+        return new ArrayList<CacheStatistics>(this.statistics);
+    }
+
+    @Override
+    public Collection<CacheStatistics> getStatistics(String name)
+    {
+        unregisterReleased();
+
+        List<CacheStatistics> result = new ArrayList<CacheStatistics>();
+        for (CacheStatistics cacheStatistics : this.statistics) {
+            if (name == null ? cacheStatistics.getName() == null : name.equals(cacheStatistics.getName())) {
+                result.add(cacheStatistics);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Unregister the statistics of the caches which have been garbage collected without being disposed.
+     */
+    private void unregisterReleased()
+    {
+        for (Iterator<CacheStatistics> it = this.statistics.iterator(); it.hasNext();) {
+            CacheStatistics cacheStatistics = it.next();
+            if (cacheStatistics instanceof CacheStatisticsCounter
+                && ((CacheStatisticsCounter) cacheStatistics).isReleased()) {
+                unregister(cacheStatistics);
+            }
+        }
+    }
+
+    /**
+     * @param cacheStatistics the statistics of the cache
+     * @return the JMX name to use for the passed cache statistics
+     * @throws Exception when failing to create the name
+     */
+    private ObjectName getObjectName(CacheStatistics cacheStatistics) throws Exception
+    {
+        // Several caches can share the same name (or have no name at all) so we add the identity of the object
+        return new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(String.valueOf(cacheStatistics
+            .getName())) + ",id=" + Integer.toHexString(System.identityHashCode(cacheStatistics)));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.script;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.statistics.CacheStatistics;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+/**
+ * Script service giving access to the caches statistics.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Component
+@Named("cache")
+@Singleton
+public class CacheScriptService implements ScriptService
+{
+    /**
+     * Used to access the caches statistics.
+     */
+    @Inject
+    private CacheStatisticsManager statisticsManager;
+
+    /**
+     * @return the statistics of all the caches currently in use
+     */
+    public Collection<CacheStatistics> getStatistics()
+    {
+        return this.statisticsManager.getStatistics();
+    }
+
+    /**
+     * @param name the name of the cache
+     * @return the statistics of the caches with the passed name
+     */
+    public Collection<CacheStatistics> getStatistics(String name)
+    {
+        return this.statisticsManager.getStatistics(name);
+    }
+}
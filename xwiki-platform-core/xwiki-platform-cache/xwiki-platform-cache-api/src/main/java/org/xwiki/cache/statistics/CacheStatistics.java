@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.statistics;
+
+import javax.management.MXBean;
+
+/**
+ * Statistics about the use of a cache.
+ * <p>
+ * Also exposed as a JMX bean by {@link CacheStatisticsManager}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@MXBean
+public interface CacheStatistics
+{
+    /**
+     * @return the name of the cache (generally its configuration identifier)
+     */
+    String getName();
+
+    /**
+     * @return the number of entries in the cache or -1 if the implementation does not provide it
+     */
+    long getSize();
+
+    /**
+     * @return the number of times a value was found in the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of times a value was not found in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the ratio between the hits and the total number of access (between 0 and 1)
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of entries removed from the cache by the eviction policy
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of values loaded through {@link org.xwiki.cache.Cache#computeIfAbsent(String,
+     *         org.xwiki.cache.CacheLoader)}
+     */
+    long getLoads();
+
+    /**
+     * @return the average time spent loading a value in milliseconds
+     */
+    double getAverageLoadTime();
+
+    /**
+     * Reset all the counters.
+     */
+    void reset();
+}
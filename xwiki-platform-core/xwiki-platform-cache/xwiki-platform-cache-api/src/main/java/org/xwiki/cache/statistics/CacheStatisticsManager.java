@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.statistics;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Keep track of the statistics of the caches currently in use.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Role
+public interface CacheStatisticsManager
+{
+    /**
+     * Start tracking the statistics of a cache.
+     * 
+     * @param statistics the statistics of the cache
+     */
+    void register(CacheStatistics statistics);
+
+    /**
+     * Stop tracking the statistics of a cache (generally because it's been disposed).
+     * 
+     * @param statistics the statistics of the cache
+     */
+    void unregister(CacheStatistics statistics);
+
+    /**
+     * @return the statistics of all the registered caches
+     */
+    Collection<CacheStatistics> getStatistics();
+
+    /**
+     * @param name the name of the cache
+     * @return the statistics of the registered caches with the passed name
+     */
+    Collection<CacheStatistics> getStatistics(String name);
+}
@@ -19,15 +19,28 @@
  */
 package org.xwiki.cache.util;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import javax.swing.event.EventListenerList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.DisposableCacheValue;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.cache.statistics.CacheStatistics;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
 
 /**
  * Base class for {@link Cache} implementations. It provides events {@link DisposableCacheValue} management.
@@ -52,9 +65,187 @@
      */
     protected final EventListenerList cacheEntryListeners = new EventListenerList();
 
+    /**
+     * Indicate if the current thread is running a {@link CacheLoader}, whatever the cache.
+     */
+    private static final ThreadLocal<Boolean> LOADING = new ThreadLocal<Boolean>();
+
+    /**
+     * The loadings in progress in {@link #computeIfAbsent(String, CacheLoader)}, indexed by key.
+     */
+    private final ConcurrentMap<String, FutureTask<T>> loadings = new ConcurrentHashMap<String, FutureTask<T>>();
+
+    /**
+     * The statistics of the cache, implementations are responsible for updating the hits, misses and evictions.
+     * 
+     * @since 6.0M1
+     */
+    protected final CacheStatisticsCounter statistics = new CacheStatisticsCounter(this);
+
+    /**
+     * The manager against which the statistics are registered, if any.
+     */
+    private CacheStatisticsManager statisticsManager;
+
+    /**
+     * @return the statistics of the cache
+     * @since 6.0M1
+     */
+    public CacheStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    /**
+     * Register the statistics of the cache. They are automatically unregistered when the cache is disposed.
+     * 
+     * @param manager the manager against which to register the statistics
+     * @since 6.0M1
+     */
+    public void registerStatistics(CacheStatisticsManager manager)
+    {
+        this.statisticsManager = manager;
+        this.statisticsManager.register(this.statistics);
+    }
+
+    /**
+     * @return the number of entries in the cache or -1 if the implementation does not provide it
+     * @since 6.0M1
+     */
+    protected long size()
+    {
+        return -1;
+    }
+
+    @Override
+    public Map<String, T> getAll(Collection<String> keys)
+    {
+        Map<String, T> values = new HashMap<String, T>(keys.size());
+        for (String key : keys) {
+            T value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+        for (Map.Entry<String, ? extends T> entry : entries.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys)
+    {
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public T computeIfAbsent(final String key, final CacheLoader<T> loader) throws CacheException
+    {
+        T value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        FutureTask<T> loading = new FutureTask<T>(new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                return load(key, loader);
+            }
+        });
+
+        FutureTask<T> currentLoading = this.loadings.putIfAbsent(key, loading);
+        if (currentLoading == null) {
+            try {
+                runLoading(loading);
+            } finally {
+                this.loadings.remove(key, loading);
+            }
+        } else if (LOADING.get() != null) {
+            // Waiting for another thread while holding a loading could dead lock, load it again instead
+            loading.run();
+        } else {
+            loading = currentLoading;
+        }
+
+        try {
+            return loading.get();
+        } catch (ExecutionException e) {
+            throw new CacheException(String.format("Failed to load the value of key [%s]", key), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new CacheException(String.format("Interrupted while loading the value of key [%s]", key), e);
+        }
+    }
+
+    /**
+     * Run the passed loading in the current thread, indicating that this thread is loading a value.
+     * 
+     * @param loading the loading to run
+     */
+    private void runLoading(FutureTask<T> loading)
+    {
+        Boolean wasLoading = LOADING.get();
+        LOADING.set(Boolean.TRUE);
+        try {
+            loading.run();
+        } finally {
+            if (wasLoading == null) {
+                LOADING.remove();
+            }
+        }
+    }
+
+    /**
+     * @param key the key of the value to load
+     * @param loader used to load the value
+     * @return the value associated with the key in the cache after the loading
+     * @throws Exception when failing to load the value
+     */
+    private T load(String key, CacheLoader<T> loader) throws Exception
+    {
+        long start = System.nanoTime();
+        T value = loader.load(key);
+        this.statistics.loaded(System.nanoTime() - start);
+
+        return value != null ? putIfAbsent(key, value) : null;
+    }
+
+    /**
+     * Store the value loaded by {@link #computeIfAbsent(String, CacheLoader)}. Implementations supporting it can
+     * override this method to not overwrite a value set by someone else in the meantime.
+     * 
+     * @param key the associated key used to access the value in the cache
+     * @param value the value to store in the cache
+     * @return the value associated with the key in the cache
+     * @since 6.0M1
+     */
+    protected T putIfAbsent(String key, T value)
+    {
+        set(key, value);
+
+        return value;
+    }
+
     @Override
     public void dispose()
     {
+        if (this.statisticsManager != null) {
+            this.statisticsManager.unregister(this.statistics);
+            this.statisticsManager = null;
+        }
+
         for (CacheEntryListener<T> listener : this.cacheEntryListeners.getListeners(CacheEntryListener.class)) {
             this.cacheEntryListeners.remove(CacheEntryListener.class, listener);
         }
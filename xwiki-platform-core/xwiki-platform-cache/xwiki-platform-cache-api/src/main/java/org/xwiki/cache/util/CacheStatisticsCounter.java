@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.statistics.CacheStatistics;
+
+/**
+ * Counters used by {@link AbstractCache} to provide {@link CacheStatistics}. Updating a counter is a single atomic
+ * increment so that it can be done on every cache access.
+ * <p>
+ * The counters only keep a weak reference to their cache: they are registered in places (like the JMX server) which
+ * should not prevent a cache that has not been disposed from being garbage collected.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class CacheStatisticsCounter implements CacheStatistics
+{
+    /**
+     * The cache to which these statistics belong.
+     */
+    private final Reference<AbstractCache<?>> cache;
+
+    /**
+     * The name of the cache, remembered for when the cache has been garbage collected.
+     */
+    private volatile String name;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * @param cache the cache to which these statistics belong
+     */
+    public CacheStatisticsCounter(AbstractCache<?> cache)
+    {
+        this.cache = new WeakReference<AbstractCache<?>>(cache);
+    }
+
+    /**
+     * @return {@code true} if the cache to which these statistics belong has been garbage collected
+     */
+    public boolean isReleased()
+    {
+        return this.cache.get() == null;
+    }
+
+    /**
+     * A value has been found in the cache.
+     */
+    public void hit()
+    {
+        this.hits.incrementAndGet();
+    }
+
+    /**
+     * A value has not been found in the cache.
+     */
+    public void miss()
+    {
+        this.misses.incrementAndGet();
+    }
+
+    /**
+     * @param count the number of entries removed by the eviction policy
+     */
+    public void evicted(int count)
+    {
+        this.evictions.addAndGet(count);
+    }
+
+    /**
+     * @param nanoTime the time it took to load a value, in nanoseconds
+     */
+    public void loaded(long nanoTime)
+    {
+        this.loads.incrementAndGet();
+        this.loadTime.addAndGet(nanoTime);
+    }
+
+    @Override
+    public String getName()
+    {
+        AbstractCache<?> currentCache = this.cache.get();
+        if (currentCache != null && currentCache.configuration != null) {
+            this.name = currentCache.configuration.getConfigurationId();
+        }
+
+        return this.name;
+    }
+
+    @Override
+    public long getSize()
+    {
+        AbstractCache<?> currentCache = this.cache.get();
+
+        return currentCache != null ? currentCache.size() : 0;
+    }
+
+    @Override
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long currentHits = getHits();
+        long total = currentHits + getMisses();
+
+        return total > 0 ? (double) currentHits / total : 0;
+    }
+
+    @Override
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    @Override
+    public long getLoads()
+    {
+        return this.loads.get();
+    }
+
+    @Override
+    public double getAverageLoadTime()
+    {
+        long currentLoads = getLoads();
+
+        return currentLoads > 0 ? (double) this.loadTime.get() / currentLoads / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.hits.set(0);
+        this.misses.set(0);
+        this.evictions.set(0);
+        this.loads.set(0);
+        this.loadTime.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: size=%d, hits=%d, misses=%d, evictions=%d, loads=%d", getName(), getSize(),
+            getHits(), getMisses(), getEvictions(), getLoads());
+    }
+}
@@ -19,11 +19,13 @@
  */
 package org.xwiki.cache.infinispan.internal;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.infinispan.Cache;
+import org.infinispan.context.Flag;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
@@ -33,6 +35,9 @@
 import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.EntryWeigher;
+import org.xwiki.cache.eviction.WeightedLRUEvictionConfiguration;
 import org.xwiki.cache.infinispan.internal.event.InfinispanCacheEntryEvent;
 import org.xwiki.cache.util.AbstractCache;
 
@@ -61,6 +66,11 @@
      */
     private EmbeddedCacheManager cacheManager;
 
+    /**
+     * Enforce the maximum total weight of the entries, null if the cache is not bounded by weight.
+     */
+    private InfinispanWeightEviction<T> weightEviction;
+
     /**
      * @param cacheManager the Infinispan cache manager
      * @param configuration the XWiki Cache configuration
@@ -68,11 +78,60 @@
     InfinispanCache(EmbeddedCacheManager cacheManager, CacheConfiguration configuration)
     {
         this.cacheManager = cacheManager;
+        this.configuration = configuration;
         this.cache = cacheManager.<String, T> getCache(configuration.getConfigurationId());
 
+        this.weightEviction = createWeightEviction(configuration);
+
         this.cache.addListener(this);
     }
 
+    /**
+     * @param configuration the XWiki Cache configuration
+     * @return the weight based eviction to enforce or null if the cache is not bounded by weight
+     */
+    @SuppressWarnings("unchecked")
+    private InfinispanWeightEviction<T> createWeightEviction(CacheConfiguration configuration)
+    {
+        Map<String, Object> eviction =
+            (Map<String, Object>) configuration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+
+        if (eviction != null) {
+            Number maxWeight = (Number) eviction.get(WeightedLRUEvictionConfiguration.MAXWEIGHT_ID);
+            EntryWeigher<T> weigher = (EntryWeigher<T>) eviction.get(WeightedLRUEvictionConfiguration.WEIGHER_ID);
+
+            if (maxWeight != null && maxWeight.longValue() > 0 && weigher != null) {
+                return new InfinispanWeightEviction<T>(weigher, maxWeight.longValue());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remember the weight of an inserted entry and evict the oldest entries if the cache is too heavy.
+     * 
+     * @param key the key of the inserted entry
+     * @param value the inserted value
+     */
+    private void weigh(String key, T value)
+    {
+        if (this.weightEviction != null) {
+            this.weightEviction.added(key, value);
+
+            String evictedKey = this.weightEviction.nextEviction();
+            while (evictedKey != null) {
+                // Weight is a local constraint, it should not impact the other members of the cluster
+                if (this.cache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL).remove(evictedKey) != null) {
+                    this.statistics.evicted(1);
+                }
+                this.weightEviction.removed(evictedKey);
+
+                evictedKey = this.weightEviction.nextEviction();
+            }
+        }
+    }
+
     @Override
     public void remove(String key)
     {
@@ -84,6 +143,8 @@ public void set(String key, T obj)
     {
         if (obj != null) {
             this.cache.put(key, obj);
+
+            weigh(key, obj);
         } else {
             this.cache.remove(key);
         }
@@ -92,13 +153,71 @@ public void set(String key, T obj)
     @Override
     public T get(String key)
     {
-        return this.cache.get(key);
+        T value = this.cache.get(key);
+
+        if (value != null) {
+            this.statistics.hit();
+
+            if (this.weightEviction != null) {
+                this.weightEviction.accessed(key);
+            }
+        } else {
+            this.statistics.miss();
+        }
+
+        return value;
+    }
+
+    @Override
+    protected long size()
+    {
+        return this.cache.size();
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+        if (this.weightEviction != null) {
+            // Each entry need to be weighed
+            super.setAll(entries);
+
+            return;
+        }
+
+        Map<String, T> values = new HashMap<String, T>(entries.size());
+        for (Map.Entry<String, ? extends T> entry : entries.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), entry.getValue());
+            } else {
+                this.cache.remove(entry.getKey());
+            }
+        }
+
+        this.cache.putAll(values);
+    }
+
+    @Override
+    protected T putIfAbsent(String key, T value)
+    {
+        T currentValue = this.cache.putIfAbsent(key, value);
+
+        if (currentValue != null) {
+            return currentValue;
+        }
+
+        weigh(key, value);
+
+        return value;
     }
 
     @Override
     public void removeAll()
     {
         this.cache.clear();
+
+        if (this.weightEviction != null) {
+            this.weightEviction.cleared();
+        }
     }
 
     @Override
@@ -119,10 +238,16 @@ public void dispose()
     @CacheEntriesEvicted
     public void nodeEvicted(CacheEntriesEvictedEvent<String, T> event)
     {
+        this.statistics.evicted(event.getEntries().size());
+
         for (Map.Entry<String, T> entry : event.getEntries().entrySet()) {
             String key = entry.getKey();
             T value = entry.getValue();
 
+            if (this.weightEviction != null) {
+                this.weightEviction.removed(key);
+            }
+
             // Looks like eviction does not produce any pre event
             cacheEntryRemoved(key, value);
         }
@@ -142,6 +267,10 @@ public void nodeRemoved(CacheEntryRemovedEvent<String, T> event)
                 this.preEventData.put(key, value);
             }
         } else {
+            if (this.weightEviction != null) {
+                this.weightEviction.removed(key);
+            }
+
             cacheEntryRemoved(event.getKey(), this.preEventData.get(key));
 
             this.preEventData.remove(key);
@@ -35,6 +35,7 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -72,6 +73,12 @@ public class InfinispanCacheFactory implements CacheFactory, Initializable, Disp
     @Inject
     private ComponentManager componentManager;
 
+    /**
+     * Used to expose the statistics of the created caches.
+     */
+    @Inject
+    private CacheStatisticsManager statisticsManager;
+
     /**
      * Optional Environment used to access configuration files.
      */
@@ -167,6 +174,9 @@ public <T> org.xwiki.cache.Cache<T> newCache(CacheConfiguration configuration) t
 
         // create cache
 
-        return new InfinispanCache<T>(this.cacheManager, loader.getCacheConfiguration());
+        InfinispanCache<T> cache = new InfinispanCache<T>(this.cacheManager, loader.getCacheConfiguration());
+        cache.registerStatistics(this.statisticsManager);
+
+        return cache;
     }
 }
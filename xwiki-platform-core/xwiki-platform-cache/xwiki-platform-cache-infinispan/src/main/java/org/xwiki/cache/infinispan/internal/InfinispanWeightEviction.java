@@ -0,0 +1,271 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.cache.infinispan.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.cache.eviction.EntryWeigher;
+
+/**
+ * Keep track of the weight of the entries of an {@link InfinispanCache} to enforce a maximum total weight, something
+ * Infinispan does not support natively.
+ * <p>
+ * The least recently used entries are evicted first, Infinispan own LRU eviction (based on the number of entries)
+ * still applies.
+ * <p>
+ * The entries are spread over several stripes, each one ordered from the least recently used entry to the most
+ * recently used one and protected by its own lock, so that concurrent reads of a hot cache rarely contend. The
+ * accesses are ordered across stripes with a lock free logical clock and the entry to evict is the least recently used
+ * one of all the stripes.
+ * 
+ * @param <T> the class of the data stored in the cache.
+ * @version $Id$
+ * @since 6.0M1
+ */
+class InfinispanWeightEviction<T>
+{
+    /**
+     * The number of stripes, must be a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * Used to compute the weight of the entries.
+     */
+    private final EntryWeigher<T> weigher;
+
+    /**
+     * The maximum total weight of the entries.
+     */
+    private final long maxWeight;
+
+    /**
+     * The weight of each entry, spread over the stripes according to the hash of the key.
+     */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * The current total weight.
+     */
+    private final AtomicLong totalWeight = new AtomicLong();
+
+    /**
+     * Logical clock used to order the accesses to the entries of the different stripes.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * The weight and last access time of an entry.
+     */
+    private static final class Weight
+    {
+        /**
+         * The weight of the entry.
+         */
+        private final long weight;
+
+        /**
+         * The value of the clock when the entry was last inserted or accessed. Protected by the lock of the stripe.
+         */
+        private long lastAccess;
+
+        /**
+         * @param weight the weight of the entry
+         * @param lastAccess the value of the clock when the entry was inserted
+         */
+        Weight(long weight, long lastAccess)
+        {
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * A part of the entries, ordered from the least recently used to the most recently used. Protected by its own
+     * lock.
+     */
+    private static final class Stripe extends LinkedHashMap<String, Weight>
+    {
+        /**
+         * Serialization identifier.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create an access ordered map.
+         */
+        Stripe()
+        {
+            super(16, 0.75F, true);
+        }
+    }
+
+    /**
+     * @param weigher used to compute the weight of the entries
+     * @param maxWeight the maximum total weight of the entries
+     */
+    InfinispanWeightEviction(EntryWeigher<T> weigher, long maxWeight)
+    {
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param key the key of an entry
+     * @return the stripe holding the weight of the entry
+     */
+    private Stripe getStripe(String key)
+    {
+        int hash = key.hashCode();
+
+        return this.stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param value the value inserted in the cache
+     */
+    void added(String key, T value)
+    {
+        long weight = this.weigher.weigh(key, value);
+
+        Stripe stripe = getStripe(key);
+        Weight previousWeight;
+        synchronized (stripe) {
+            previousWeight = stripe.put(key, new Weight(weight, this.clock.incrementAndGet()));
+        }
+
+        this.totalWeight.addAndGet(previousWeight != null ? weight - previousWeight.weight : weight);
+    }
+
+    /**
+     * @param key the key of the entry found in the cache
+     */
+    void accessed(String key)
+    {
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            // Move the entry to the most recently used end of its stripe
+            Weight weight = stripe.get(key);
+            if (weight != null) {
+                weight.lastAccess = this.clock.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param key the key of the entry removed from the cache
+     */
+    void removed(String key)
+    {
+        Stripe stripe = getStripe(key);
+        Weight weight;
+        synchronized (stripe) {
+            weight = stripe.remove(key);
+        }
+
+        if (weight != null) {
+            this.totalWeight.addAndGet(-weight.weight);
+        }
+    }
+
+    /**
+     * All the entries have been removed from the cache.
+     */
+    void cleared()
+    {
+        for (Stripe stripe : this.stripes) {
+            long stripeWeight = 0;
+            synchronized (stripe) {
+                for (Weight weight : stripe.values()) {
+                    stripeWeight += weight.weight;
+                }
+                stripe.clear();
+            }
+
+            this.totalWeight.addAndGet(-stripeWeight);
+        }
+    }
+
+    /**
+     * Forget the least recently used entry if the total weight is above the maximum.
+     * 
+     * @return the key of the entry to evict or null if the total weight is below the maximum
+     */
+    String nextEviction()
+    {
+        while (this.totalWeight.get() > this.maxWeight) {
+            Stripe oldestStripe = getOldestStripe();
+            if (oldestStripe == null) {
+                // Nothing left to evict
+                break;
+            }
+
+            Map.Entry<String, Weight> entry = null;
+            synchronized (oldestStripe) {
+                Iterator<Map.Entry<String, Weight>> it = oldestStripe.entrySet().iterator();
+                if (it.hasNext()) {
+                    entry = it.next();
+                    it.remove();
+                }
+            }
+
+            // The stripe might have been emptied in the meantime, look again
+            if (entry != null) {
+                this.totalWeight.addAndGet(-entry.getValue().weight);
+
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the stripe holding the least recently used entry, null if there is no entry
+     */
+    private Stripe getOldestStripe()
+    {
+        Stripe oldestStripe = null;
+        long oldestAccess = 0;
+
+        for (Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                Iterator<Weight> it = stripe.values().iterator();
+                if (it.hasNext()) {
+                    long lastAccess = it.next().lastAccess;
+                    if (oldestStripe == null || lastAccess < oldestAccess) {
+                        oldestStripe = stripe;
+                        oldestAccess = lastAccess;
+                    }
+                }
+            }
+        }
+
+        return oldestStripe;
+    }
+}
@@ -19,6 +19,13 @@
  */
 package org.xwiki.cache.infinispan;
 
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.StringWeigher;
+import org.xwiki.cache.eviction.WeightedLRUEvictionConfiguration;
 import org.xwiki.cache.tests.AbstractEvictionGenericTestCache;
 
 public class InfinispanCacheTest extends AbstractEvictionGenericTestCache
@@ -27,4 +34,103 @@ public InfinispanCacheTest()
     {
         super("infinispan", true);
     }
+
+    @Test
+    public void testMaxWeight() throws Exception
+    {
+        StringWeigher weigher = new StringWeigher();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        conf.put(EntryEvictionConfiguration.CONFIGURATIONID,
+            new WeightedLRUEvictionConfiguration(weigher.weigh("key1", "value1") * 2, weigher));
+
+        Cache<String> cache = getCacheFactory().newCache(conf);
+
+        cache.set("key1", "value1");
+        cache.set("key2", "value2");
+
+        Assert.assertEquals("value1", cache.get("key1"));
+        Assert.assertEquals("value2", cache.get("key2"));
+
+        cache.set("key3", "value3");
+
+        // The oldest entry is evicted to make room for the new one
+        Assert.assertNull(cache.get("key1"));
+        Assert.assertEquals("value2", cache.get("key2"));
+        Assert.assertEquals("value3", cache.get("key3"));
+
+        cache.dispose();
+    }
+
+    @Test
+    public void testMaxWeightEvictsLeastRecentlyUsed() throws Exception
+    {
+        StringWeigher weigher = new StringWeigher();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        conf.put(EntryEvictionConfiguration.CONFIGURATIONID,
+            new WeightedLRUEvictionConfiguration(weigher.weigh("key1", "value1") * 2, weigher));
+
+        Cache<String> cache = getCacheFactory().newCache(conf);
+
+        cache.set("key1", "value1");
+        cache.set("key2", "value2");
+
+        // Accessing an entry makes it the most recently used
+        Assert.assertEquals("value1", cache.get("key1"));
+
+        cache.set("key3", "value3");
+
+        Assert.assertEquals("value1", cache.get("key1"));
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertEquals("value3", cache.get("key3"));
+
+        // A removed then re-added entry is tracked only once, as the most recently used
+        cache.remove("key1");
+        cache.set("key1", "value1");
+        cache.set("key4", "value4");
+
+        Assert.assertEquals("value1", cache.get("key1"));
+        Assert.assertNull(cache.get("key3"));
+        Assert.assertEquals("value4", cache.get("key4"));
+
+        cache.dispose();
+    }
+
+    @Test
+    public void testMaxWeightEvictsLeastRecentlyUsedAmongManyEntries() throws Exception
+    {
+        StringWeigher weigher = new StringWeigher();
+
+        CacheConfiguration conf = new CacheConfiguration();
+        conf.put(EntryEvictionConfiguration.CONFIGURATIONID,
+            new WeightedLRUEvictionConfiguration(weigher.weigh("key10", "value10") * 10, weigher));
+
+        Cache<String> cache = getCacheFactory().newCache(conf);
+
+        for (int i = 10; i < 20; i++) {
+            cache.set("key" + i, "value" + i);
+        }
+
+        // Make the first half the most recently used entries
+        for (int i = 10; i < 15; i++) {
+            Assert.assertEquals("value" + i, cache.get("key" + i));
+        }
+
+        for (int i = 20; i < 25; i++) {
+            cache.set("key" + i, "value" + i);
+        }
+
+        for (int i = 10; i < 15; i++) {
+            Assert.assertEquals("value" + i, cache.get("key" + i));
+        }
+        for (int i = 15; i < 20; i++) {
+            Assert.assertNull(cache.get("key" + i));
+        }
+        for (int i = 20; i < 25; i++) {
+            Assert.assertEquals("value" + i, cache.get("key" + i));
+        }
+
+        cache.dispose();
+    }
 }
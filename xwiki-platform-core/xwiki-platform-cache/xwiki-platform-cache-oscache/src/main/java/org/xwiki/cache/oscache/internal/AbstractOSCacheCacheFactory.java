@@ -25,6 +25,7 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
 import org.xwiki.container.Container;
 
 /**
@@ -47,6 +48,12 @@ public abstract class AbstractOSCacheCacheFactory implements CacheFactory
     @Inject
     private Logger logger;
 
+    /**
+     * Used to expose the statistics of the created caches.
+     */
+    @Inject
+    private CacheStatisticsManager statisticsManager;
+
     /**
      * @return the default configuration identifier used to load cache configuration file
      */
@@ -59,6 +66,7 @@ public <T> org.xwiki.cache.Cache<T> newCache(CacheConfiguration configuration) t
 
         OSCacheCache<T> cache = new OSCacheCache<T>();
         cache.initialize(new OSCacheCacheConfiguration(this.container, configuration, getDefaultPropsId()));
+        cache.registerStatistics(this.statisticsManager);
 
         this.logger.debug("End OSCache initialisation");
 
@@ -121,7 +121,11 @@ public T get(String key)
         String cacheKey = cacheKey(key);
         try {
             value = (T) this.cacheAdmin.getFromCache(cacheKey, oscacheConfiguration.getTimeToLive());
+
+            this.statistics.hit();
         } catch (NeedsRefreshException e) {
+            this.statistics.miss();
+
             this.cacheAdmin.cancelUpdate(cacheKey);
 
             if (LOGGER.isDebugEnabled()) {
@@ -138,6 +142,12 @@ public void removeAll()
         this.cacheAdmin.flushAll();
     }
 
+    @Override
+    protected long size()
+    {
+        return this.cacheAdmin.getCache().getSize();
+    }
+
     @Override
     public void dispose()
     {
@@ -165,6 +175,9 @@ public void cacheEntryFlushed(CacheEntryEvent event)
     @Override
     public void cacheEntryRemoved(CacheEntryEvent event)
     {
+        // OSCache only remove entries by itself when evicting them (explicit removes are flushes)
+        this.statistics.evicted(1);
+
         sendEntryRemovedEvent(new OSCacheCacheEntryEvent<T>(this, event));
     }
 
@@ -19,11 +19,20 @@
  */
 package org.xwiki.cache.tests;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.statistics.CacheStatistics;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
+import org.xwiki.cache.util.AbstractCache;
 
 /**
  * Base class for testing cache component implementation.
@@ -123,6 +132,143 @@ public void testRemoveAll() throws Exception
         Assert.assertNull(cache.get(KEY2));
     }
 
+    /**
+     * Validate {@link Cache#getAll(java.util.Collection)}, {@link Cache#setAll(Map)} and
+     * {@link Cache#removeAll(java.util.Collection)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testBulkOperations() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        Map<String, Object> entries = new HashMap<String, Object>();
+        entries.put(KEY, VALUE);
+        entries.put(KEY2, VALUE2);
+        cache.setAll(entries);
+
+        Assert.assertEquals(entries, cache.getAll(Arrays.asList(KEY, KEY2, "missing")));
+
+        cache.removeAll(Arrays.asList(KEY));
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals(VALUE2, cache.get(KEY2));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate {@link Cache#computeIfAbsent(String, CacheLoader)}.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testComputeIfAbsent() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        final int[] loads = new int[1];
+        CacheLoader<Object> loader = new CacheLoader<Object>()
+        {
+            @Override
+            public Object load(String key)
+            {
+                ++loads[0];
+
+                return VALUE;
+            }
+        };
+
+        Assert.assertEquals(VALUE, cache.computeIfAbsent(KEY, loader));
+        Assert.assertEquals(VALUE, cache.computeIfAbsent(KEY, loader));
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(1, loads[0]);
+
+        if (cache instanceof AbstractCache) {
+            // Only the first call missed
+            Assert.assertEquals(1, ((AbstractCache<Object>) cache).getStatistics().getMisses());
+        }
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate that {@link Cache#computeIfAbsent(String, CacheLoader)} does not dead lock when the values
+     * being loaded by two threads depend on each other.
+     * 
+     * @throws Exception error.
+     */
+    @Test(timeout = 10000)
+    public void testComputeIfAbsentWithDependentLoaders() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        final Cache<Object> cache = factory.newCache(new CacheConfiguration());
+
+        // Make sure both loadings are in progress before each one asks for the value of the other
+        final CountDownLatch loading = new CountDownLatch(2);
+
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    cache.computeIfAbsent(KEY2, new DependentLoader(cache, loading, KEY, VALUE2));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+
+        Assert.assertEquals(VALUE, cache.computeIfAbsent(KEY, new DependentLoader(cache, loading, KEY2,
+            VALUE)));
+
+        thread.join();
+
+        Assert.assertEquals(VALUE, cache.get(KEY));
+        Assert.assertEquals(VALUE2, cache.get(KEY2));
+
+        cache.dispose();
+    }
+
+    /**
+     * Validate the statistics registered for the cache.
+     * 
+     * @throws Exception error.
+     */
+    @Test
+    public void testStatistics() throws Exception
+    {
+        CacheFactory factory = getCacheFactory();
+
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setConfigurationId("statistics");
+        Cache<Object> cache = factory.newCache(configuration);
+
+        CacheStatisticsManager statisticsManager = getComponentManager().getInstance(CacheStatisticsManager.class);
+        Assert.assertEquals(1, statisticsManager.getStatistics("statistics").size());
+        CacheStatistics statistics = statisticsManager.getStatistics("statistics").iterator().next();
+
+        cache.set(KEY, VALUE);
+        cache.get(KEY);
+        cache.get(KEY2);
+
+        Assert.assertEquals(1, statistics.getHits());
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertEquals(0.5, statistics.getHitRatio(), 0);
+
+        cache.dispose();
+
+        Assert.assertTrue(statisticsManager.getStatistics("statistics").isEmpty());
+    }
+
     /**
      * Validate event management.
      * 
@@ -213,4 +359,44 @@ public void testRecreateCache() throws Exception
 
         Assert.assertEquals(VALUE, cache.get(KEY));
     }
+
+    /**
+     * Loader which asks for the value of another key before returning its own value.
+     */
+    private static class DependentLoader implements CacheLoader<Object>
+    {
+        private final Cache<Object> cache;
+
+        private final CountDownLatch loading;
+
+        private final String dependency;
+
+        private final Object value;
+
+        DependentLoader(Cache<Object> cache, CountDownLatch loading, String dependency, Object value)
+        {
+            this.cache = cache;
+            this.loading = loading;
+            this.dependency = dependency;
+            this.value = value;
+        }
+
+        @Override
+        public Object load(String key) throws Exception
+        {
+            this.loading.countDown();
+            this.loading.await();
+
+            this.cache.computeIfAbsent(this.dependency, new CacheLoader<Object>()
+            {
+                @Override
+                public Object load(String dependencyKey)
+                {
+                    return null;
+                }
+            });
+
+            return this.value;
+        }
+    }
 }
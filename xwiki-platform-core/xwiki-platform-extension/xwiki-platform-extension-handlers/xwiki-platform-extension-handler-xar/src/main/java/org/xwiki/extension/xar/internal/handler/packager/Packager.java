@@ -25,7 +25,11 @@
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,11 +38,13 @@
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.extension.xar.internal.handler.XarExtensionPlan;
+import org.xwiki.extension.xar.internal.handler.XarExtensionPlanEntry;
 import org.xwiki.logging.marker.BeginTranslationMarker;
 import org.xwiki.logging.marker.EndTranslationMarker;
 import org.xwiki.logging.marker.TranslationMarker;
@@ -58,6 +64,7 @@
 import org.xwiki.wikistream.xar.input.XARInputProperties;
 import org.xwiki.wikistream.xar.internal.XARWikiStreamUtils;
 import org.xwiki.xar.XarEntry;
+import org.xwiki.xar.XarException;
 import org.xwiki.xar.XarFile;
 import org.xwiki.xar.internal.model.XarModel;
 
@@ -123,35 +130,134 @@
     private InputWikiStreamFactory xarWikiStreamFactory;
 
     public void importXAR(String comment, File xarFile, PackageConfiguration configuration) throws IOException,
-        XWikiException, ComponentLookupException, WikiStreamException
+        XWikiException, ComponentLookupException, WikiStreamException, XarException
     {
-        if (configuration.getWiki() == null) {
-            XWikiContext xcontext = this.xcontextProvider.get();
-            List<String> wikis = xcontext.getWiki().getVirtualWikisDatabaseNames(xcontext);
+        // When upgrading, open the new package to be able to compare its entries with the previous ones
+        XarFile nextXarFile = configuration.getXarExtensionPlan() != null ? new XarFile(xarFile) : null;
 
-            for (String subwiki : wikis) {
-                importXARToWiki(comment, xarFile, new WikiReference(subwiki), configuration);
+        try {
+            // The comparison of an entry with a given previous package does not depend on the wiki
+            Map<XarFile, Map<String, Boolean>> unchangedCache = new HashMap<XarFile, Map<String, Boolean>>();
+
+            if (configuration.getWiki() == null) {
+                XWikiContext xcontext = this.xcontextProvider.get();
+                List<String> wikis = xcontext.getWiki().getVirtualWikisDatabaseNames(xcontext);
+
+                for (String subwiki : wikis) {
+                    WikiReference wikiReference = new WikiReference(subwiki);
+                    importXARToWiki(comment, xarFile, wikiReference, configuration,
+                        getUnchangedEntries(nextXarFile, wikiReference, configuration, unchangedCache));
+                }
+            } else {
+                WikiReference wikiReference = new WikiReference(configuration.getWiki());
+                importXARToWiki(comment, xarFile, wikiReference, configuration,
+                    getUnchangedEntries(nextXarFile, wikiReference, configuration, unchangedCache));
             }
-        } else {
-            importXARToWiki(comment, xarFile, new WikiReference(configuration.getWiki()), configuration);
+        } finally {
+            if (nextXarFile != null) {
+                nextXarFile.close();
+            }
+        }
+    }
+
+    /**
+     * Find the entries of the new package which are exactly the same in the previous package installed on the passed
+     * wiki.
+     * <p>
+     * The 3 ways merge of such an entry can't modify the current document (there is no difference between the
+     * previous and the next version to apply) so there is no need to parse it or to load the current document.
+     * 
+     * @param nextXarFile the new package
+     * @param wikiReference the wiki where the package is imported
+     * @param configuration various setup for the import
+     * @param cache the already compared entries, by previous package
+     * @return the names of the entries to skip
+     */
+    private Set<String> getUnchangedEntries(XarFile nextXarFile, WikiReference wikiReference,
+        PackageConfiguration configuration, Map<XarFile, Map<String, Boolean>> cache)
+    {
+        Set<String> unchangedEntries = new HashSet<String>();
+
+        if (nextXarFile != null) {
+            XarExtensionPlan xarExtensionPlan = configuration.getXarExtensionPlan();
+
+            for (XarEntry nextEntry : nextXarFile.getEntries()) {
+                XarExtensionPlanEntry previousPlanEntry =
+                    xarExtensionPlan.getPreviousXarExtensionPlanEntry(wikiReference.getName(), nextEntry);
+
+                if (previousPlanEntry != null) {
+                    Map<String, Boolean> previousCache = cache.get(previousPlanEntry.xarFile);
+                    if (previousCache == null) {
+                        previousCache = new HashMap<String, Boolean>();
+                        cache.put(previousPlanEntry.xarFile, previousCache);
+                    }
+
+                    Boolean unchanged = previousCache.get(nextEntry.getEntryName());
+                    if (unchanged == null) {
+                        unchanged = isUnchanged(nextEntry, nextXarFile, previousPlanEntry.xarFile);
+                        previousCache.put(nextEntry.getEntryName(), unchanged);
+                    }
+
+                    if (unchanged) {
+                        unchangedEntries.add(nextEntry.getEntryName());
+                    }
+                }
+            }
+        }
+
+        return unchangedEntries;
+    }
+
+    private boolean isUnchanged(XarEntry nextEntry, XarFile nextXarFile, XarFile previousXarFile)
+    {
+        XarEntry previousEntry = previousXarFile.getEntry(nextEntry);
+
+        if (previousEntry == null) {
+            return false;
+        }
+
+        // Cheap check based on the size and checksum stored in the ZIP files
+        if (previousEntry.getEntrySize() != nextEntry.getEntrySize()
+            || previousEntry.getEntryChecksum() != nextEntry.getEntryChecksum()) {
+            return false;
+        }
+
+        // Make sure it's not a checksum collision
+        try {
+            InputStream previousStream = previousXarFile.getInputStream(previousEntry);
+            try {
+                InputStream nextStream = nextXarFile.getInputStream(nextEntry);
+                try {
+                    return IOUtils.contentEquals(previousStream, nextStream);
+                } finally {
+                    nextStream.close();
+                }
+            } finally {
+                previousStream.close();
+            }
+        } catch (IOException e) {
+            this.logger.warn("Failed to compare entry [{}] with the previous version, it will be merged", nextEntry,
+                e);
+
+            return false;
         }
     }
 
     private XarMergeResult importXARToWiki(String comment, File xarFile, WikiReference wikiReference,
-        PackageConfiguration configuration) throws IOException, ComponentLookupException, XWikiException,
-        WikiStreamException
+        PackageConfiguration configuration, Set<String> unchangedEntries) throws IOException,
+        ComponentLookupException, XWikiException, WikiStreamException
     {
         FileInputStream fis = new FileInputStream(xarFile);
         try {
-            return importXARToWiki(comment, fis, wikiReference, configuration);
+            return importXARToWiki(comment, fis, wikiReference, configuration, unchangedEntries);
         } finally {
             fis.close();
         }
     }
 
     private XarMergeResult importXARToWiki(String comment, InputStream xarInputStream, WikiReference wikiReference,
-        PackageConfiguration configuration) throws IOException, ComponentLookupException, XWikiException,
-        WikiStreamException
+        PackageConfiguration configuration, Set<String> unchangedEntries) throws IOException,
+        ComponentLookupException, XWikiException, WikiStreamException
     {
         XarMergeResult mergeResult = new XarMergeResult();
 
@@ -171,10 +277,15 @@ private XarMergeResult importXARToWiki(String comment, InputStream xarInputStrea
                     if (!entry.getName().equals(XarModel.PATH_PACKAGE)
                         && (configuration.getEntriesToImport() == null || configuration.getEntriesToImport().contains(
                             entry.getName()))) {
-                        XarEntryMergeResult entityMergeResult =
-                            importDocumentToWiki(comment, wikiReference, zis, configuration);
-                        if (entityMergeResult != null) {
-                            mergeResult.addMergeResult(entityMergeResult);
+                        if (unchangedEntries.contains(entry.getName())) {
+                            this.logger.debug("Skipping entry [{}] which did not change since the previous version",
+                                entry.getName());
+                        } else {
+                            XarEntryMergeResult entityMergeResult =
+                                importDocumentToWiki(comment, wikiReference, zis, configuration);
+                            if (entityMergeResult != null) {
+                                mergeResult.addMergeResult(entityMergeResult);
+                            }
                         }
                     }
                 }
@@ -19,7 +19,9 @@
  */
 package org.xwiki.extension.xar.internal.handler;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -80,6 +82,16 @@
 
     private Map<DocumentReference, XWikiDocument> documents = new HashMap<DocumentReference, XWikiDocument>();
 
+    /**
+     * The documents loaded from the database, in order.
+     */
+    private List<DocumentReference> loadedDocuments = new ArrayList<DocumentReference>();
+
+    /**
+     * The documents saved in the database, in order.
+     */
+    private List<DocumentReference> savedDocuments = new ArrayList<DocumentReference>();
+
     private ExtensionId localXarExtensiontId1;
 
     private ExtensionId localXarExtensiontId2;
@@ -122,6 +134,8 @@ public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
                     target = new DocumentReference(target, Locale.ROOT);
                 }
 
+                loadedDocuments.add(target);
+
                 XWikiDocument document = documents.get(target);
 
                 if (document == null) {
@@ -165,6 +179,7 @@ public Object answer(InvocationOnMock invocation) throws Throwable
                     }
 
                     documents.put(document.getDocumentReferenceWithLocale(), document);
+                    savedDocuments.add(document.getDocumentReferenceWithLocale());
 
                     return null;
                 }
@@ -706,6 +721,45 @@ public void testUpgradeOnWiki() throws Throwable
         Assert.assertFalse("Document wiki:space.modified has been removed from the database", space1modified.isNew());
     }
 
+    @Test
+    public void testUpgradeOnWikiSkipsUnchangedEntries() throws Throwable
+    {
+        mockHasAdminRight(true);
+
+        install(this.localXarExtensiontId1, "wiki", this.contextUser);
+
+        DocumentReference samepageReference = new DocumentReference("wiki", "samespace", "samepage", Locale.ROOT);
+        DocumentReference pageReference = new DocumentReference("wiki", "space", "page", Locale.ROOT);
+
+        Assert.assertTrue(this.savedDocuments.contains(samepageReference));
+        Assert.assertTrue(this.savedDocuments.contains(pageReference));
+
+        this.loadedDocuments.clear();
+        this.savedDocuments.clear();
+
+        // upgrade
+
+        install(this.localXarExtensiontId2, "wiki", this.contextUser);
+
+        // samespace.samepage is identical in both versions of the extension: it's neither loaded nor saved
+
+        Assert.assertFalse("Unchanged document wiki:samespace.samepage has been loaded",
+            this.loadedDocuments.contains(samepageReference));
+        Assert.assertFalse("Unchanged document wiki:samespace.samepage has been saved",
+            this.savedDocuments.contains(samepageReference));
+        Assert.assertEquals("Wrong versions", "1.1",
+            this.oldcore.getMockXWiki().getDocument(samepageReference, getXWikiContext()).getVersion());
+
+        // space.page changed: it's merged and saved
+
+        Assert.assertTrue("Changed document wiki:space.page has not been loaded",
+            this.loadedDocuments.contains(pageReference));
+        Assert.assertEquals("Changed document wiki:space.page has not been saved once", 1,
+            Collections.frequency(this.savedDocuments, pageReference));
+        Assert.assertEquals("Wrong content", "content 2",
+            this.oldcore.getMockXWiki().getDocument(pageReference, getXWikiContext()).getContent());
+    }
+
     @Test
     public void testUpgradeOnRoot() throws Throwable
     {
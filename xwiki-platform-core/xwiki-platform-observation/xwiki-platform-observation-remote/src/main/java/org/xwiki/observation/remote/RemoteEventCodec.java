@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Convert the remote events to the bytes actually sent on the network, and back.
+ * <p>
+ * Several remote events can be sent in the same network message, in which case they are decoded in the order they
+ * were encoded. The implementation to use is indicated by {@link RemoteObservationManagerConfiguration#getCodec()}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Role
+public interface RemoteEventCodec
+{
+    /**
+     * @param remoteEvents the remote events to encode
+     * @return the bytes to send on the network
+     * @throws RemoteEventException when failing to encode the events
+     */
+    byte[] encode(List<RemoteEventData> remoteEvents) throws RemoteEventException;
+
+    /**
+     * @param bytes the bytes received from the network
+     * @return the decoded remote events, in the order they were encoded
+     * @throws RemoteEventException when failing to decode the events, for example when the bytes don't have the
+     *             expected format
+     */
+    List<RemoteEventData> decode(byte[] bytes) throws RemoteEventException;
+}
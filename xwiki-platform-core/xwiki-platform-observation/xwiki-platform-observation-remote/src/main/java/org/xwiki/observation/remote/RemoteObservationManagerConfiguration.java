@@ -46,4 +46,25 @@
      * @return the identifier of the network adapter implementation to use to actually send and receive network messages
      */
     String getNetworkAdapter();
+
+    /**
+     * @return the identifier of the {@link RemoteEventCodec} implementation to use to convert remote events to network
+     *         messages
+     * @since 6.0M1
+     */
+    String getCodec();
+
+    /**
+     * @return the time in milliseconds during which the remote events are accumulated before being sent together in
+     *         the same network message, 0 to send each event as soon as it's produced
+     * @since 6.0M1
+     */
+    int getBatchDelay();
+
+    /**
+     * @return the maximum number of remote events sent in the same network message; the accumulated events are sent
+     *         right away when this number is reached
+     * @since 6.0M1
+     */
+    int getBatchSize();
 }
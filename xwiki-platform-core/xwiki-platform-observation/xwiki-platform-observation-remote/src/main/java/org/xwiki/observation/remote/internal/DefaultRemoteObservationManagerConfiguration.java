@@ -69,4 +69,22 @@ public String getNetworkAdapter()
     {
         return this.configurationSource.getProperty("observation.remote.networkadapter", "jgroups");
     }
+
+    @Override
+    public String getCodec()
+    {
+        return this.configurationSource.getProperty("observation.remote.codec", "binary");
+    }
+
+    @Override
+    public int getBatchDelay()
+    {
+        return this.configurationSource.getProperty("observation.remote.batch.delay", 5);
+    }
+
+    @Override
+    public int getBatchSize()
+    {
+        return this.configurationSource.getProperty("observation.remote.batch.size", 100);
+    }
 }
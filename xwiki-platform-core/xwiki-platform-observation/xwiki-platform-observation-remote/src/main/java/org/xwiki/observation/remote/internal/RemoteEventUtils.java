@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.xwiki.observation.event.AbstractFilterableEvent;
+
+/**
+ * Helpers to manipulate the events sent on the network.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public final class RemoteEventUtils
+{
+    /**
+     * Utility class.
+     */
+    private RemoteEventUtils()
+    {
+    }
+
+    /**
+     * @param eventClass the class of the event
+     * @return true if the whole state of the events of this class is the filter of {@link AbstractFilterableEvent},
+     *         i.e. if two events of this class with equal filters are interchangeable
+     */
+    public static boolean isStateless(Class< ? > eventClass)
+    {
+        if (!AbstractFilterableEvent.class.isAssignableFrom(eventClass)) {
+            return false;
+        }
+
+        for (Class< ? > current = eventClass; current != AbstractFilterableEvent.class; current =
+            current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
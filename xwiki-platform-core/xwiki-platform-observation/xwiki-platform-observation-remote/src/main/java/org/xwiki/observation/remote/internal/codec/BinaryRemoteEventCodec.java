@@ -0,0 +1,719 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.event.filter.AlwaysMatchingEventFilter;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.FixedNameEventFilter;
+import org.xwiki.observation.remote.RemoteEventCodec;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.internal.RemoteEventUtils;
+
+/**
+ * Compact binary encoding of the remote events.
+ * <p>
+ * A message starts with a magic number and the version of the format, followed by the number of remote events it
+ * contains and, for each of them, the event, the source and the data. Each value is preceded by a one byte tag
+ * indicating its type. Strings, numbers, maps, lists, entity references and events extending
+ * {@link AbstractFilterableEvent} without state of their own are written directly; each string is written only once
+ * per message, whatever the number of events it contains, and then referred to by its index in a table initialized
+ * with common values. Any other {@link Serializable} value falls back on standard Java serialization.
+ * <p>
+ * Messages produced with standard Java serialization (see {@link SerializationRemoteEventCodec}), including the ones
+ * sent by older versions, are still decoded. The members which don't use this codec can't read its messages though, so
+ * switching a cluster to it requires restarting all the members together.
+ * <p>
+ * The messages come from the network: they are validated while being decoded and any inconsistency is reported as a
+ * {@link RemoteEventException}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Component
+@Named("binary")
+@Singleton
+public class BinaryRemoteEventCodec implements RemoteEventCodec
+{
+    /**
+     * The first byte of a binary message.
+     */
+    private static final byte MAGIC_FIRST = 'X';
+
+    /**
+     * The second byte of a binary message.
+     */
+    private static final byte MAGIC_SECOND = 'E';
+
+    /**
+     * The version of the format. To increment when changing the tags or {@link #STRINGS}.
+     */
+    private static final byte VERSION = 1;
+
+    /**
+     * The strings to not write in full in any message.
+     */
+    private static final List<String> STRINGS = Arrays.asList("", "xwiki", "XWiki", "WebHome", "XWiki.XWikiGuest",
+        "contextwiki", "contextuser", "docname", "docversion", "doclanguage", "origdocversion", "origdoclanguage",
+        "WIKI", "SPACE", "DOCUMENT", "ATTACHMENT", "org.xwiki.bridge.event.DocumentCreatedEvent",
+        "org.xwiki.bridge.event.DocumentUpdatedEvent", "org.xwiki.bridge.event.DocumentDeletedEvent");
+
+    /**
+     * The encoding of the strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+
+    private static final int TAG_STRING = 1;
+
+    private static final int TAG_TRUE = 2;
+
+    private static final int TAG_FALSE = 3;
+
+    private static final int TAG_INTEGER = 4;
+
+    private static final int TAG_LONG = 5;
+
+    private static final int TAG_DATE = 6;
+
+    private static final int TAG_BYTES = 7;
+
+    private static final int TAG_MAP = 8;
+
+    private static final int TAG_LIST = 9;
+
+    private static final int TAG_REFERENCE = 10;
+
+    private static final int TAG_EVENT = 11;
+
+    private static final int TAG_SERIALIZABLE = 12;
+
+    /**
+     * The classes of references written with {@link #TAG_REFERENCE}, identified by their index.
+     */
+    private static final List<Class< ? extends EntityReference>> REFERENCE_CLASSES = Arrays
+        .<Class< ? extends EntityReference>> asList(WikiReference.class, SpaceReference.class, DocumentReference.class,
+            AttachmentReference.class);
+
+    private static final int FILTER_ALWAYS_MATCHING = 0;
+
+    private static final int FILTER_FIXED_NAME = 1;
+
+    /**
+     * Used to decode messages produced with Java serialization.
+     */
+    @Inject
+    @Named("serialization")
+    private RemoteEventCodec serializationCodec;
+
+    /**
+     * Indicate for each event class if it can be written with {@link #TAG_EVENT}. Weak keys so that the classes coming
+     * from extensions can be unloaded.
+     */
+    private final Map<Class< ? >, Boolean> compactEvents = Collections
+        .synchronizedMap(new WeakHashMap<Class< ? >, Boolean>());
+
+    /**
+     * Write the values of one message.
+     * 
+     * @version $Id$
+     */
+    private class Encoder
+    {
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        /**
+         * @param out the stream to write to
+         */
+        Encoder(DataOutputStream out)
+        {
+            this.out = out;
+
+            for (String string : STRINGS) {
+                this.strings.put(string, this.strings.size());
+            }
+        }
+
+        /**
+         * @param value the value to write
+         * @throws IOException when failing to write the value
+         */
+        void writeValue(Object value) throws IOException
+        {
+            if (value == null) {
+                this.out.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                this.out.writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                this.out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer) {
+                this.out.writeByte(TAG_INTEGER);
+                writeSignedVarLong((Integer) value);
+            } else if (value instanceof Long) {
+                this.out.writeByte(TAG_LONG);
+                writeSignedVarLong((Long) value);
+            } else if (value.getClass() == Date.class) {
+                this.out.writeByte(TAG_DATE);
+                writeSignedVarLong(((Date) value).getTime());
+            } else if (value instanceof byte[]) {
+                this.out.writeByte(TAG_BYTES);
+                writeBytes((byte[]) value);
+            } else if (value.getClass() == HashMap.class) {
+                this.out.writeByte(TAG_MAP);
+                writeMap((Map< ? , ? >) value);
+            } else if (value.getClass() == ArrayList.class) {
+                this.out.writeByte(TAG_LIST);
+                writeList((List< ? >) value);
+            } else if (REFERENCE_CLASSES.contains(value.getClass())) {
+                this.out.writeByte(TAG_REFERENCE);
+                writeReference((EntityReference) value);
+            } else if (isCompactEvent(value)) {
+                this.out.writeByte(TAG_EVENT);
+                writeEvent((AbstractFilterableEvent) value);
+            } else if (value instanceof Serializable) {
+                this.out.writeByte(TAG_SERIALIZABLE);
+                writeSerializable((Serializable) value);
+            } else {
+                throw new NotSerializableException(value.getClass().getName());
+            }
+        }
+
+        private void writeMap(Map< ? , ? > map) throws IOException
+        {
+            writeVarInt(map.size());
+            for (Map.Entry< ? , ? > entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeList(List< ? > list) throws IOException
+        {
+            writeVarInt(list.size());
+            for (Object element : list) {
+                writeValue(element);
+            }
+        }
+
+        private void writeReference(EntityReference reference) throws IOException
+        {
+            writeVarInt(REFERENCE_CLASSES.indexOf(reference.getClass()));
+
+            List<EntityReference> chain = reference.getReversedReferenceChain();
+            writeVarInt(chain.size());
+            for (EntityReference element : chain) {
+                writeString(element.getType().name());
+                writeString(element.getName());
+                if (element.getType() == EntityType.DOCUMENT) {
+                    writeLocale(element instanceof DocumentReference ? ((DocumentReference) element).getLocale()
+                        : null);
+                }
+            }
+        }
+
+        private void writeLocale(Locale locale) throws IOException
+        {
+            if (locale == null) {
+                this.out.writeBoolean(false);
+            } else {
+                this.out.writeBoolean(true);
+                writeString(locale.getLanguage());
+                writeString(locale.getCountry());
+                writeString(locale.getVariant());
+            }
+        }
+
+        private void writeEvent(AbstractFilterableEvent event) throws IOException
+        {
+            writeString(event.getClass().getName());
+
+            EventFilter filter = event.getEventFilter();
+            if (filter.getClass() == FixedNameEventFilter.class) {
+                writeVarInt(FILTER_FIXED_NAME);
+                writeString(filter.getFilter());
+            } else {
+                writeVarInt(FILTER_ALWAYS_MATCHING);
+            }
+        }
+
+        private void writeSerializable(Serializable value) throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+
+            writeBytes(bytes.toByteArray());
+        }
+
+        private void writeString(String value) throws IOException
+        {
+            Integer index = this.strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 1);
+            } else {
+                this.strings.put(value, this.strings.size());
+
+                writeVarInt(0);
+                writeBytes(value.getBytes(UTF8));
+            }
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException
+        {
+            writeVarInt(bytes.length);
+            this.out.write(bytes);
+        }
+
+        private void writeVarInt(int value) throws IOException
+        {
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                this.out.writeByte((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            this.out.writeByte(remaining);
+        }
+
+        private void writeSignedVarLong(long value) throws IOException
+        {
+            // Zigzag encoding so that small negative values are small too
+            long remaining = (value << 1) ^ (value >> 63);
+            while ((remaining & ~0x7FL) != 0) {
+                this.out.writeByte((int) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            this.out.writeByte((int) remaining);
+        }
+    }
+
+    /**
+     * Read the values of one message.
+     * 
+     * @version $Id$
+     */
+    private class Decoder
+    {
+        private final DataInputStream in;
+
+        private final List<String> strings = new ArrayList<String>(STRINGS);
+
+        /**
+         * @param in the stream to read from
+         */
+        Decoder(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        /**
+         * @return the value read
+         * @throws IOException when failing to read the value
+         */
+        Object readValue() throws IOException
+        {
+            int tag = this.in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_INTEGER:
+                    return (int) readSignedVarLong();
+                case TAG_LONG:
+                    return readSignedVarLong();
+                case TAG_DATE:
+                    return new Date(readSignedVarLong());
+                case TAG_BYTES:
+                    return readBytes();
+                case TAG_MAP:
+                    return readMap();
+                case TAG_LIST:
+                    return readList();
+                case TAG_REFERENCE:
+                    return readReference();
+                case TAG_EVENT:
+                    return readEvent();
+                case TAG_SERIALIZABLE:
+                    return readSerializable();
+                default:
+                    throw new IOException("Unknown value tag [" + tag + "]");
+            }
+        }
+
+        private HashMap<Object, Object> readMap() throws IOException
+        {
+            int size = readSize();
+            HashMap<Object, Object> map = new HashMap<Object, Object>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; ++i) {
+                Object key = readValue();
+                map.put(key, readValue());
+            }
+
+            return map;
+        }
+
+        private ArrayList<Object> readList() throws IOException
+        {
+            int size = readSize();
+            ArrayList<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; ++i) {
+                list.add(readValue());
+            }
+
+            return list;
+        }
+
+        private EntityReference readReference() throws IOException
+        {
+            int referenceClass = readVarInt();
+
+            EntityReference reference = null;
+            int size = readSize();
+            for (int i = 0; i < size; ++i) {
+                EntityType type = readEntityType();
+                reference = new EntityReference(readString(), type, reference);
+                if (type == EntityType.DOCUMENT) {
+                    Locale locale = readLocale();
+                    if (locale != null) {
+                        reference = new DocumentReference(reference, locale);
+                    }
+                }
+            }
+
+            switch (referenceClass) {
+                case 0:
+                    return new WikiReference(reference);
+                case 1:
+                    return new SpaceReference(reference);
+                case 2:
+                    return reference instanceof DocumentReference ? reference : new DocumentReference(reference);
+                case 3:
+                    return new AttachmentReference(reference);
+                default:
+                    throw new IOException("Unknown reference class [" + referenceClass + "]");
+            }
+        }
+
+        private EntityType readEntityType() throws IOException
+        {
+            String type = readString();
+            try {
+                return EntityType.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown entity type [" + type + "]", e);
+            }
+        }
+
+        private Locale readLocale() throws IOException
+        {
+            if (this.in.readBoolean()) {
+                return new Locale(readString(), readString(), readString());
+            }
+
+            return null;
+        }
+
+        private Object readEvent() throws IOException
+        {
+            String className = readString();
+
+            EventFilter filter;
+            int filterType = readVarInt();
+            if (filterType == FILTER_FIXED_NAME) {
+                filter = new FixedNameEventFilter(readString());
+            } else {
+                filter = new AlwaysMatchingEventFilter();
+            }
+
+            Class< ? > eventClass;
+            try {
+                eventClass = loadClass(className);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Failed to create event [" + className + "]", e);
+            }
+
+            // Only instantiate the events which could have been written with TAG_EVENT, not any class with a matching
+            // constructor
+            if (!AbstractFilterableEvent.class.isAssignableFrom(eventClass) || !isCompactEventClass(eventClass)) {
+                throw new IOException("Unexpected event class [" + className + "]");
+            }
+
+            try {
+                return eventClass.getConstructor(EventFilter.class).newInstance(filter);
+            } catch (Exception e) {
+                throw new IOException("Failed to create event [" + className + "]", e);
+            }
+        }
+
+        private Class< ? > loadClass(String className) throws ClassNotFoundException
+        {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null) {
+                try {
+                    return Class.forName(className, false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // Try the class loader of the codec
+                }
+            }
+
+            return Class.forName(className, false, BinaryRemoteEventCodec.class.getClassLoader());
+        }
+
+        private Object readSerializable() throws IOException
+        {
+            ObjectInputStream objectIn = new ContextClassLoaderObjectInputStream(new ByteArrayInputStream(readBytes()));
+            try {
+                return objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Failed to unserialize value", e);
+            }
+        }
+
+        private String readString() throws IOException
+        {
+            int index = readVarInt();
+            if (index > 0) {
+                if (index > this.strings.size()) {
+                    throw new IOException("Unknown string index [" + index + "]");
+                }
+
+                return this.strings.get(index - 1);
+            }
+
+            String value = new String(readBytes(), UTF8);
+            this.strings.add(value);
+
+            return value;
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            int length = readVarInt();
+            if (length < 0 || length > this.in.available()) {
+                throw new IOException("Invalid length [" + length + "]");
+            }
+
+            byte[] bytes = new byte[length];
+            this.in.readFully(bytes);
+
+            return bytes;
+        }
+
+        /**
+         * Each element takes at least one byte so a size larger than what's left to read means the message is
+         * corrupted, and must not be trusted to allocate a collection.
+         * 
+         * @return the number of elements of a collection
+         * @throws IOException when failing to read the size or when it's invalid
+         */
+        int readSize() throws IOException
+        {
+            int size = readVarInt();
+            if (size < 0 || size > this.in.available()) {
+                throw new IOException("Invalid size [" + size + "]");
+            }
+
+            return size;
+        }
+
+        private int readVarInt() throws IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = this.in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Malformed variable length integer");
+        }
+
+        private long readSignedVarLong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = this.in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+
+            throw new IOException("Malformed variable length integer");
+        }
+    }
+
+    @Override
+    public byte[] encode(List<RemoteEventData> remoteEvents) throws RemoteEventException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MAGIC_FIRST);
+            out.writeByte(MAGIC_SECOND);
+            out.writeByte(VERSION);
+
+            // The same encoder is used for all the events so that they share the strings table
+            Encoder encoder = new Encoder(out);
+            encoder.writeVarInt(remoteEvents.size());
+            for (RemoteEventData remoteEvent : remoteEvents) {
+                encoder.writeValue(remoteEvent.getEvent());
+                encoder.writeValue(remoteEvent.getSource());
+                encoder.writeValue(remoteEvent.getData());
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            throw new RemoteEventException("Failed to encode remote events " + remoteEvents, e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public List<RemoteEventData> decode(byte[] bytes) throws RemoteEventException
+    {
+        if (bytes.length < 3 || bytes[0] != MAGIC_FIRST || bytes[1] != MAGIC_SECOND) {
+            // Maybe a message sent with Java serialization
+            return this.serializationCodec.decode(bytes);
+        }
+        if (bytes[2] != VERSION) {
+            throw new RemoteEventException("Unsupported binary remote event version [" + bytes[2] + "]");
+        }
+
+        List<RemoteEventData> remoteEvents;
+        try {
+            Decoder decoder = new Decoder(new DataInputStream(new ByteArrayInputStream(bytes, 3, bytes.length - 3)));
+            int size = decoder.readSize();
+            remoteEvents = new ArrayList<RemoteEventData>(size);
+            for (int i = 0; i < size; ++i) {
+                RemoteEventData remoteEvent = new RemoteEventData();
+                remoteEvent.setEvent((Serializable) decoder.readValue());
+                remoteEvent.setSource((Serializable) decoder.readValue());
+                remoteEvent.setData((Serializable) decoder.readValue());
+                remoteEvents.add(remoteEvent);
+            }
+        } catch (IOException e) {
+            throw new RemoteEventException("Failed to decode remote events", e);
+        } catch (RuntimeException e) {
+            // A corrupted message can also lead to invalid references or unexpected value types
+            throw new RemoteEventException("Failed to decode remote events", e);
+        }
+
+        return remoteEvents;
+    }
+
+    /**
+     * @param value the value to write
+     * @return true if the value is an event which can be written with {@link #TAG_EVENT}
+     */
+    private boolean isCompactEvent(Object value)
+    {
+        if (!(value instanceof AbstractFilterableEvent)) {
+            return false;
+        }
+
+        Class< ? > filterClass = ((AbstractFilterableEvent) value).getEventFilter().getClass();
+        if (filterClass != FixedNameEventFilter.class && filterClass != AlwaysMatchingEventFilter.class) {
+            return false;
+        }
+
+        return isCompactEventClass(value.getClass());
+    }
+
+    /**
+     * @param eventClass the class of the event
+     * @return true if the event can be recreated from its name and its filter only
+     */
+    private boolean isCompactEventClass(Class< ? > eventClass)
+    {
+        Boolean compact = this.compactEvents.get(eventClass);
+        if (compact == null) {
+            compact = isStatelessEventClass(eventClass);
+            this.compactEvents.put(eventClass, compact);
+        }
+
+        return compact;
+    }
+
+    /**
+     * @param eventClass the class of the event
+     * @return true if the whole state of the event is in its filter
+     */
+    private boolean isStatelessEventClass(Class< ? > eventClass)
+    {
+        if (!Modifier.isPublic(eventClass.getModifiers())) {
+            return false;
+        }
+
+        try {
+            eventClass.getConstructor(EventFilter.class);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+        // The state of the event must be entirely in the filter of AbstractFilterableEvent
+        return RemoteEventUtils.isStateless(eventClass);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Resolve the classes of the deserialized objects with the context class loader first, so that the events and data
+ * coming from installed extensions can be read.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+class ContextClassLoaderObjectInputStream extends ObjectInputStream
+{
+    /**
+     * @param in the stream to read from
+     * @throws IOException when failing to read the stream header
+     */
+    ContextClassLoaderObjectInputStream(InputStream in) throws IOException
+    {
+        super(in);
+    }
+
+    @Override
+    protected Class< ? > resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+    {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader != null) {
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                // Try the default resolution
+            }
+        }
+
+        return super.resolveClass(desc);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.jgroups.util.Util;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.remote.RemoteEventCodec;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteEventException;
+
+/**
+ * Encode remote events with standard Java serialization, which is what was sent on the network before the codecs were
+ * introduced.
+ * <p>
+ * The serialized object is framed like the JGroups object messages (see {@link Util#objectToByteBuffer(Object)}). A
+ * message containing a single remote event holds the {@link RemoteEventData} itself, exactly like the messages sent by
+ * older versions, which can thus read it. Several remote events are serialized as a list, which only the members using
+ * codecs can read. Both raw and framed serialized objects are decoded.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Component
+@Named("serialization")
+@Singleton
+public class SerializationRemoteEventCodec implements RemoteEventCodec
+{
+    /**
+     * The first byte of any Java serialization stream.
+     */
+    private static final byte STREAM_MAGIC_FIRST = (byte) (ObjectOutputStream.STREAM_MAGIC >> 8);
+
+    /**
+     * The second byte of any Java serialization stream.
+     */
+    private static final byte STREAM_MAGIC_SECOND = (byte) ObjectOutputStream.STREAM_MAGIC;
+
+    /**
+     * @param bytes the bytes to test
+     * @return true if the passed bytes start like a Java serialization stream
+     */
+    public static boolean isSerialization(byte[] bytes)
+    {
+        return bytes.length >= 2 && bytes[0] == STREAM_MAGIC_FIRST && bytes[1] == STREAM_MAGIC_SECOND;
+    }
+
+    @Override
+    public byte[] encode(List<RemoteEventData> remoteEvents) throws RemoteEventException
+    {
+        Object object;
+        if (remoteEvents.size() == 1) {
+            object = remoteEvents.get(0);
+        } else {
+            object = new ArrayList<RemoteEventData>(remoteEvents);
+        }
+
+        try {
+            return Util.objectToByteBuffer(object);
+        } catch (Exception e) {
+            throw new RemoteEventException("Failed to serialize remote events " + remoteEvents, e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RemoteEventData> decode(byte[] bytes) throws RemoteEventException
+    {
+        Object object;
+        try {
+            if (isSerialization(bytes)) {
+                ObjectInputStream in = new ContextClassLoaderObjectInputStream(new ByteArrayInputStream(bytes));
+
+                object = in.readObject();
+            } else {
+                object = Util.objectFromByteBuffer(bytes);
+            }
+        } catch (Exception e) {
+            throw new RemoteEventException("Failed to unserialize remote events", e);
+        }
+
+        if (object instanceof RemoteEventData) {
+            return Collections.singletonList((RemoteEventData) object);
+        } else if (object instanceof List && isRemoteEventList((List< ? >) object)) {
+            return (List<RemoteEventData>) object;
+        }
+
+        throw new RemoteEventException("Unexpected serialized object [" + object + "]");
+    }
+
+    /**
+     * @param list the unserialized list
+     * @return true if the list only contains remote events
+     */
+    private boolean isRemoteEventList(List< ? > list)
+    {
+        for (Object element : list) {
+            if (!(element instanceof RemoteEventData)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
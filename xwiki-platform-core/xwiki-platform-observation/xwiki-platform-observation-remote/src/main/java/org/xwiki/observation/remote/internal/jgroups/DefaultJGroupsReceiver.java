@@ -19,6 +19,8 @@
  */
 package org.xwiki.observation.remote.internal.jgroups;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -28,13 +30,16 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.observation.remote.RemoteEventCodec;
 import org.xwiki.observation.remote.RemoteEventData;
 import org.xwiki.observation.remote.RemoteObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
 import org.xwiki.observation.remote.jgroups.JGroupsReceiver;
 
 /**
  * Default implementation of JGroupsReceiver. Receive remote events and send them as is to
- * {@link RemoteObservationManager} to be converted and injected as local events.
+ * {@link RemoteObservationManager} to be converted and injected as local events. When a message contains several remote
+ * events they are injected one after the other, in the order they were sent.
  * 
  * @version $Id$
  * @since 2.0M3
@@ -60,6 +65,17 @@ public class DefaultJGroupsReceiver extends ReceiverAdapter implements JGroupsRe
     @Inject
     private Logger logger;
 
+    /**
+     * Used to get the codec to use.
+     */
+    @Inject
+    private RemoteObservationManagerConfiguration configuration;
+
+    /**
+     * Convert the network messages to remote events.
+     */
+    private RemoteEventCodec codec;
+
     /**
      * @return the RemoteObservationManager
      */
@@ -76,13 +92,52 @@ public RemoteObservationManager getRemoteObservationManager()
         return remoteObservationManager;
     }
 
+    /**
+     * @return the codec used to convert the network messages to remote events
+     * @throws ComponentLookupException when failing to lookup the configured codec
+     */
+    private RemoteEventCodec getCodec() throws ComponentLookupException
+    {
+        if (this.codec == null) {
+            this.codec = this.componentManager.getInstance(RemoteEventCodec.class, this.configuration.getCodec());
+        }
+
+        return this.codec;
+    }
+
+    /**
+     * @param msg the network message
+     * @return the remote events sent in the message
+     * @throws Exception when failing to decode the message
+     */
+    private List<RemoteEventData> decode(Message msg) throws Exception
+    {
+        // The messages sent as serialized objects by the members not using codecs yet are framed like the ones of the
+        // serialization codec, which both provided codecs read.
+        return getCodec().decode(msg.getBuffer());
+    }
+
     @Override
     public void receive(Message msg)
     {
-        RemoteEventData remoteEvent = (RemoteEventData) msg.getObject();
+        List<RemoteEventData> remoteEvents;
+        try {
+            remoteEvents = decode(msg);
+        } catch (Exception e) {
+            this.logger.error("Failed to decode JGroups message [{}]", msg, e);
+
+            return;
+        }
 
-        this.logger.debug("Received JGroups remote event [{}]", remoteEvent);
+        for (RemoteEventData remoteEvent : remoteEvents) {
+            this.logger.debug("Received JGroups remote event [{}]", remoteEvent);
 
-        getRemoteObservationManager().notify(remoteEvent);
+            try {
+                getRemoteObservationManager().notify(remoteEvent);
+            } catch (Exception e) {
+                // Don't prevent the following events of the message from being injected
+                this.logger.error("Failed to inject remote event [{}]", remoteEvent, e);
+            }
+        }
     }
 }
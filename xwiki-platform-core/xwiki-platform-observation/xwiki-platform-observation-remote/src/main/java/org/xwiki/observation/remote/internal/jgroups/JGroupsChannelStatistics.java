@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about the remote events sent on a JGroups channel.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class JGroupsChannelStatistics implements JGroupsChannelStatisticsMBean
+{
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The number of messages sent.
+     */
+    private final AtomicLong messageCount = new AtomicLong();
+
+    /**
+     * The number of events sent.
+     */
+    private final AtomicLong eventCount = new AtomicLong();
+
+    /**
+     * The number of events not sent because identical to another event of the same message.
+     */
+    private final AtomicLong coalescedEventCount = new AtomicLong();
+
+    /**
+     * The highest number of events sent in a message.
+     */
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    /**
+     * The sum of the latencies of all the messages sent, in nanoseconds.
+     */
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    /**
+     * The highest latency of a message, in nanoseconds.
+     */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Record a message sent on the channel.
+     * 
+     * @param events the number of remote events in the message
+     * @param coalescedEvents the number of remote events which were not sent because identical to an event of the
+     *            message
+     * @param latency the time in nanoseconds between the production of the first event of the message and its sending
+     */
+    public void sent(int events, int coalescedEvents, long latency)
+    {
+        this.messageCount.incrementAndGet();
+        this.eventCount.addAndGet(events);
+        this.coalescedEventCount.addAndGet(coalescedEvents);
+        this.totalLatency.addAndGet(latency);
+        max(this.maxBatchSize, events);
+        max(this.maxLatency, latency);
+    }
+
+    /**
+     * @param max the maximum to update
+     * @param value the new value
+     */
+    private void max(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    @Override
+    public long getMessageCount()
+    {
+        return this.messageCount.get();
+    }
+
+    @Override
+    public long getEventCount()
+    {
+        return this.eventCount.get();
+    }
+
+    @Override
+    public long getCoalescedEventCount()
+    {
+        return this.coalescedEventCount.get();
+    }
+
+    @Override
+    public double getAverageBatchSize()
+    {
+        long messages = this.messageCount.get();
+
+        return messages > 0 ? (double) this.eventCount.get() / messages : 0;
+    }
+
+    @Override
+    public int getMaxBatchSize()
+    {
+        return (int) this.maxBatchSize.get();
+    }
+
+    @Override
+    public double getAverageLatency()
+    {
+        long messages = this.messageCount.get();
+
+        return messages > 0 ? this.totalLatency.get() / NANOS_PER_MILLI / messages : 0;
+    }
+
+    @Override
+    public double getMaxLatency()
+    {
+        return this.maxLatency.get() / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+/**
+ * Statistics about the remote events sent on a JGroups channel, exposed through JMX.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public interface JGroupsChannelStatisticsMBean
+{
+    /**
+     * @return the number of network messages sent
+     */
+    long getMessageCount();
+
+    /**
+     * @return the number of remote events sent
+     */
+    long getEventCount();
+
+    /**
+     * @return the number of remote events which were not sent because an identical event was sent in the same message
+     */
+    long getCoalescedEventCount();
+
+    /**
+     * @return the average number of remote events sent in a message
+     */
+    double getAverageBatchSize();
+
+    /**
+     * @return the highest number of remote events sent in a message
+     */
+    int getMaxBatchSize();
+
+    /**
+     * @return the average time in milliseconds between the production of the first event of a message and the sending
+     *         of the message
+     */
+    double getAverageLatency();
+
+    /**
+     * @return the highest time in milliseconds between the production of the first event of a message and the sending
+     *         of the message
+     */
+    double getMaxLatency();
+}
@@ -23,13 +23,24 @@
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.jgroups.JChannel;
 import org.jgroups.Message;
@@ -41,14 +52,25 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.environment.Environment;
 import org.xwiki.observation.remote.NetworkAdapter;
+import org.xwiki.observation.remote.RemoteEventCodec;
 import org.xwiki.observation.remote.RemoteEventData;
 import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+import org.xwiki.observation.remote.internal.RemoteEventUtils;
 import org.xwiki.observation.remote.jgroups.JGroupsReceiver;
 
 /**
  * JGroups based implementation of {@link NetworkAdapter}.
+ * <p>
+ * The remote events produced during a short delay (see {@link RemoteObservationManagerConfiguration#getBatchDelay()})
+ * are sent together in the same network message, in the order they were produced. When the same event is produced
+ * several times during that delay (same stateless event with the same source and data) only the latest occurrence is
+ * sent.
  * 
  * @version $Id$
  * @since 2.0RC1
@@ -56,7 +78,7 @@
 @Component
 @Named("jgroups")
 @Singleton
-public class JGroupsNetworkAdapter implements NetworkAdapter
+public class JGroupsNetworkAdapter implements NetworkAdapter, Initializable, Disposable
 {
     /**
      * Relative path where to find jgroups channels configurations.
@@ -75,30 +97,306 @@ public class JGroupsNetworkAdapter implements NetworkAdapter
     @Inject
     private Logger logger;
 
+    /**
+     * Used to get the codec to use.
+     */
+    @Inject
+    private RemoteObservationManagerConfiguration configuration;
+
+    /**
+     * Convert the remote events to network messages.
+     */
+    private RemoteEventCodec codec;
+
     /**
      * The network channels.
      */
     private Map<String, JChannel> channels = new ConcurrentHashMap<String, JChannel>();
 
+    /**
+     * The statistics of each network channel.
+     */
+    private Map<String, JGroupsChannelStatistics> statistics =
+        new ConcurrentHashMap<String, JGroupsChannelStatistics>();
+
+    /**
+     * The time in milliseconds during which the remote events are accumulated before being sent.
+     */
+    private int batchDelay;
+
+    /**
+     * The maximum number of remote events sent in the same message.
+     */
+    private int batchSize;
+
+    /**
+     * The remote events waiting to be sent, in the order they were produced.
+     */
+    private final List<RemoteEventData> pendingEvents = new ArrayList<RemoteEventData>();
+
+    /**
+     * The number of remote events removed from {@link #pendingEvents} because the same event was produced again.
+     */
+    private int pendingCoalescedEvents;
+
+    /**
+     * The time (see {@link System#nanoTime()}) at which the first event of {@link #pendingEvents} was produced.
+     */
+    private long pendingSince;
+
+    /**
+     * Indicate if a task sending {@link #pendingEvents} is already scheduled.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Send the accumulated remote events. A single thread is used so that the messages are sent in the order the
+     * events were produced.
+     */
+    private ScheduledExecutorService sender;
+
+    /**
+     * Send the accumulated remote events.
+     */
+    private final Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.batchDelay = this.configuration.getBatchDelay();
+        this.batchSize = this.configuration.getBatchSize();
+
+        if (this.batchDelay > 0 && this.batchSize > 1) {
+            this.sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "XWiki remote events sender");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+    }
+
     @Override
     public void send(RemoteEventData remoteEvent)
     {
         this.logger.debug("Send JGroups remote event [" + remoteEvent + "]");
 
+        if (this.sender == null) {
+            send(Collections.singletonList(remoteEvent), 0, System.nanoTime());
+
+            return;
+        }
+
+        synchronized (this.pendingEvents) {
+            // Only the latest occurrence of the event is kept so that it's still received after all the events
+            // produced before it
+            if (removePendingEvent(remoteEvent)) {
+                ++this.pendingCoalescedEvents;
+            } else if (this.pendingEvents.isEmpty()) {
+                this.pendingSince = System.nanoTime();
+            }
+
+            this.pendingEvents.add(remoteEvent);
+
+            try {
+                if (this.pendingEvents.size() >= this.batchSize) {
+                    this.sender.execute(this.flushTask);
+                } else if (!this.flushScheduled) {
+                    this.sender.schedule(this.flushTask, this.batchDelay, TimeUnit.MILLISECONDS);
+                    this.flushScheduled = true;
+                }
+
+                return;
+            } catch (RejectedExecutionException e) {
+                // The component has been disposed, send the event right away
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Remove from the pending events the one identical to the passed event, if any.
+     * <p>
+     * Only stateless events (see {@link RemoteEventUtils#isStateless(Class)}) are compared since the equality of other
+     * events does not guarantee they carry the same information. Events carrying a different source or data, like
+     * document events for different versions of the same document, are never merged.
+     * 
+     * @param remoteEvent the remote event
+     * @return true if an identical event was pending
+     */
+    private boolean removePendingEvent(RemoteEventData remoteEvent)
+    {
+        Object event = remoteEvent.getEvent();
+        if (event == null || !RemoteEventUtils.isStateless(event.getClass())) {
+            return false;
+        }
+
+        for (Iterator<RemoteEventData> it = this.pendingEvents.iterator(); it.hasNext();) {
+            RemoteEventData pendingEvent = it.next();
+            if (event.getClass() == pendingEvent.getEvent().getClass() && event.equals(pendingEvent.getEvent())
+                && isSame(pendingEvent.getSource(), remoteEvent.getSource())
+                && isSame(pendingEvent.getData(), remoteEvent.getData())) {
+                it.remove();
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return true if both values are equals or null
+     */
+    private static boolean isSame(Object value1, Object value2)
+    {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+
+    /**
+     * Send the accumulated remote events in one message.
+     */
+    private void flush()
+    {
+        List<RemoteEventData> remoteEvents;
+        int coalescedEvents;
+        long since;
+        synchronized (this.pendingEvents) {
+            this.flushScheduled = false;
+
+            if (this.pendingEvents.isEmpty()) {
+                return;
+            }
+
+            remoteEvents = new ArrayList<RemoteEventData>(this.pendingEvents);
+            coalescedEvents = this.pendingCoalescedEvents;
+            since = this.pendingSince;
+
+            this.pendingEvents.clear();
+            this.pendingCoalescedEvents = 0;
+        }
+
+        send(remoteEvents, coalescedEvents, since);
+    }
+
+    /**
+     * Send the accumulated remote events and wait until they are sent.
+     */
+    private void flushAndWait()
+    {
+        if (this.sender != null) {
+            try {
+                this.sender.submit(this.flushTask).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                this.logger.error("Failed to send the pending remote events", e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.sender != null) {
+            this.sender.shutdownNow();
+
+            try {
+                this.sender.awaitTermination(this.batchDelay, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // Send what was still waiting for the (cancelled) delayed flush
+            flush();
+        }
+    }
+
+    /**
+     * Send remote events in one message to all the channels.
+     * 
+     * @param remoteEvents the remote events to send
+     * @param coalescedEvents the number of remote events which are not sent because produced again later
+     * @param since the time (see {@link System#nanoTime()}) at which the first event was produced
+     */
+    private void send(List<RemoteEventData> remoteEvents, int coalescedEvents, long since)
+    {
+        byte[] buffer;
+        try {
+            buffer = getCodec().encode(remoteEvents);
+        } catch (Exception e) {
+            this.logger.error("Failed to encode message " + remoteEvents, e);
+
+            return;
+        }
+
         // Send the message to the whole group
-        Message message = new Message(null, null, remoteEvent);
+        Message message = new Message(null, null, buffer);
 
         // Send message to JGroups channels
         for (Map.Entry<String, JChannel> entry : this.channels.entrySet()) {
             try {
                 entry.getValue().send(message);
+
+                JGroupsChannelStatistics channelStatistics = this.statistics.get(entry.getKey());
+                if (channelStatistics != null) {
+                    channelStatistics.sent(remoteEvents.size(), coalescedEvents, System.nanoTime() - since);
+                }
             } catch (Exception e) {
-                this.logger.error("Failed to send message [" + remoteEvent + "] to the channel [" + entry.getKey()
+                this.logger.error("Failed to send message " + remoteEvents + " to the channel [" + entry.getKey()
                     + "]", e);
             }
         }
     }
 
+    /**
+     * @param channelId the identifier of the channel
+     * @return the statistics of the channel, null if the channel is not started
+     * @since 6.0M1
+     */
+    public JGroupsChannelStatisticsMBean getStatistics(String channelId)
+    {
+        return this.statistics.get(channelId);
+    }
+
+    /**
+     * @param channelId the identifier of the channel
+     * @return the name of the channel statistics in the JMX Server
+     * @throws Exception when failing to create the name
+     */
+    private ObjectName getStatisticsName(String channelId) throws Exception
+    {
+        return new ObjectName("org.xwiki:type=RemoteObservation,channel=" + ObjectName.quote(channelId));
+    }
+
+    /**
+     * @return the codec used to convert the remote events to network messages
+     * @throws ComponentLookupException when failing to lookup the configured codec
+     */
+    private RemoteEventCodec getCodec() throws ComponentLookupException
+    {
+        if (this.codec == null) {
+            this.codec = this.componentManager.getInstance(RemoteEventCodec.class, this.configuration.getCodec());
+        }
+
+        return this.codec;
+    }
+
     @Override
     public void startChannel(String channelId) throws RemoteEventException
     {
@@ -116,10 +414,14 @@ public void startChannel(String channelId) throws RemoteEventException
             throw new RemoteEventException("Failed to create channel [" + channelId + "]", e);
         }
 
-        // Register the channel against the JMX Server
+        JGroupsChannelStatistics channelStatistics = new JGroupsChannelStatistics();
+        this.statistics.put(channelId, channelStatistics);
+
+        // Register the channel and its statistics against the JMX Server
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             JmxConfigurator.registerChannel(channel, mbs, channel.getClusterName());
+            mbs.registerMBean(channelStatistics, getStatisticsName(channelId));
         } catch (Exception e) {
             this.logger.warn("Failed to register channel [" + channelId + "] against the JMX Server", e);
         }
@@ -136,14 +438,19 @@ public void stopChannel(String channelId) throws RemoteEventException
             throw new RemoteEventException(MessageFormat.format("Channel [{0}] is not started", channelId));
         }
 
+        // Don't lose the events produced just before
+        flushAndWait();
+
         channel.close();
 
         this.channels.remove(channelId);
+        this.statistics.remove(channelId);
 
-        // Unregister the channel from the JMX Server
+        // Unregister the channel and its statistics from the JMX Server
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             JmxConfigurator.unregister(channel, mbs, channel.getClusterName());
+            mbs.unregisterMBean(getStatisticsName(channelId));
         } catch (Exception e) {
             this.logger.warn("Failed to unregister channel [" + channelId + "] from the JMX Server", e);
         }
@@ -217,12 +524,27 @@ private ProtocolStackConfigurator loadChannelConfiguration(String channelId) thr
     @Override
     public void stopAllChannels() throws RemoteEventException
     {
+        // Don't lose the events produced just before, like the application stopped event
+        flushAndWait();
+
         for (Map.Entry<String, JChannel> channelEntry : this.channels.entrySet()) {
             channelEntry.getValue().close();
         }
 
         this.channels.clear();
 
+        // Unregister the channels statistics from the JMX Server
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (String channelId : this.statistics.keySet()) {
+            try {
+                mbs.unregisterMBean(getStatisticsName(channelId));
+            } catch (Exception e) {
+                this.logger.warn("Failed to unregister channel [" + channelId + "] statistics from the JMX Server", e);
+            }
+        }
+
+        this.statistics.clear();
+
         this.logger.info("All channels stopped");
     }
 }
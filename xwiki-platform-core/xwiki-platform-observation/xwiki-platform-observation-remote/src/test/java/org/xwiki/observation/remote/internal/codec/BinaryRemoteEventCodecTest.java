@@ -0,0 +1,376 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jgroups.util.Util;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.FixedNameEventFilter;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.test.TestEvent;
+
+/**
+ * Validate {@link BinaryRemoteEventCodec}.
+ * 
+ * @version $Id$
+ */
+public class BinaryRemoteEventCodecTest
+{
+    public static class StatelessEvent extends AbstractFilterableEvent
+    {
+        private static final long serialVersionUID = 1L;
+
+        public StatelessEvent(EventFilter eventFilter)
+        {
+            super(eventFilter);
+        }
+    }
+
+    public static class StatefulEvent extends AbstractFilterableEvent
+    {
+        private static final long serialVersionUID = 1L;
+
+        private String state;
+
+        public StatefulEvent(EventFilter eventFilter)
+        {
+            super(eventFilter);
+        }
+
+        public StatefulEvent(String name, String state)
+        {
+            super(name);
+
+            this.state = state;
+        }
+
+        public String getState()
+        {
+            return this.state;
+        }
+    }
+
+    /**
+     * Not an event, but with the same constructor as the events written by name. The name has the same length as
+     * {@link StatelessEvent} to be able to substitute it in an encoded message.
+     */
+    public static class NotAnEventType
+    {
+        private static boolean created;
+
+        public NotAnEventType(EventFilter eventFilter)
+        {
+            created = true;
+        }
+    }
+
+    /**
+     * Maps each byte to a char and back, to be able to edit binary messages as strings.
+     */
+    private static final Charset BYTES = Charset.forName("ISO-8859-1");
+
+    private BinaryRemoteEventCodec codec;
+
+    private SerializationRemoteEventCodec serializationCodec;
+
+    @Before
+    public void setUp()
+    {
+        this.serializationCodec = new SerializationRemoteEventCodec();
+        this.codec = new BinaryRemoteEventCodec();
+        ReflectionUtils.setFieldValue(this.codec, "serializationCodec", this.serializationCodec);
+    }
+
+    private RemoteEventData createRemoteEvent(Serializable event, Serializable source, Serializable data)
+    {
+        RemoteEventData remoteEvent = new RemoteEventData();
+        remoteEvent.setEvent(event);
+        remoteEvent.setSource(source);
+        remoteEvent.setData(data);
+
+        return remoteEvent;
+    }
+
+    private RemoteEventData createDocumentRemoteEvent()
+    {
+        HashMap<String, Serializable> source = new HashMap<String, Serializable>();
+        source.put("docname", new DocumentReference("wiki", Arrays.asList("Space", "Nested"), "Page", Locale.FRENCH));
+        source.put("docversion", "2.1");
+        source.put("doclanguage", "fr");
+        source.put("origdocversion", "1.1");
+        source.put("origdoclanguage", "fr");
+
+        HashMap<String, Serializable> data = new HashMap<String, Serializable>();
+        data.put("contextwiki", "wiki");
+        data.put("contextuser", "XWiki.Admin");
+
+        return createRemoteEvent(new StatelessEvent(new FixedNameEventFilter("wiki:Space.Nested.Page")), source, data);
+    }
+
+    private RemoteEventData roundTrip(RemoteEventData remoteEvent) throws RemoteEventException
+    {
+        List<RemoteEventData> remoteEvents =
+            this.codec.decode(this.codec.encode(Collections.singletonList(remoteEvent)));
+
+        Assert.assertEquals(1, remoteEvents.size());
+
+        return remoteEvents.get(0);
+    }
+
+    private void assertRoundTrip(RemoteEventData expected) throws RemoteEventException
+    {
+        RemoteEventData remoteEvent = roundTrip(expected);
+
+        assertEqualsWithClass(expected.getEvent(), remoteEvent.getEvent());
+        assertEqualsWithClass(expected.getSource(), remoteEvent.getSource());
+        assertEqualsWithClass(expected.getData(), remoteEvent.getData());
+    }
+
+    private void assertEqualsWithClass(Object expected, Object actual)
+    {
+        Assert.assertEquals(expected, actual);
+        if (expected != null) {
+            Assert.assertSame(expected.getClass(), actual.getClass());
+        }
+        if (expected instanceof Map) {
+            for (Map.Entry< ? , ? > entry : ((Map< ? , ? >) expected).entrySet()) {
+                assertEqualsWithClass(entry.getValue(), ((Map< ? , ? >) actual).get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void documentEvent() throws RemoteEventException
+    {
+        assertRoundTrip(createDocumentRemoteEvent());
+    }
+
+    @Test
+    public void values() throws RemoteEventException
+    {
+        HashMap<String, Serializable> data = new HashMap<String, Serializable>();
+        data.put("null", null);
+        data.put("true", true);
+        data.put("false", false);
+        data.put("integer", Integer.MIN_VALUE);
+        data.put("long", -42L);
+        data.put("date", new Date());
+        data.put("list", new ArrayList<String>(Arrays.asList("a", "b", "a")));
+        data.put("map", new HashMap<String, Integer>());
+        data.put("wiki", new WikiReference("wiki"));
+        data.put("space", new SpaceReference("Space", new WikiReference("wiki")));
+        data.put("document", new DocumentReference("wiki", "Space", "Page"));
+        data.put("attachment", new AttachmentReference("file.txt", new DocumentReference("wiki", "Space", "Page")));
+        data.put("unicode", "\u00e9\u4e2d\ud83d\ude00");
+        data.put("serializable", Locale.GERMANY);
+
+        assertRoundTrip(createRemoteEvent(new StatelessEvent(new FixedNameEventFilter("name")), "source", data));
+
+        RemoteEventData remoteEvent =
+            roundTrip(createRemoteEvent(new TestEvent(), new byte[] {1, 2, 3}, Long.MAX_VALUE));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) remoteEvent.getSource());
+        Assert.assertEquals(Long.MAX_VALUE, remoteEvent.getData());
+    }
+
+    @Test
+    public void eventWithState() throws RemoteEventException
+    {
+        RemoteEventData remoteEvent = roundTrip(createRemoteEvent(new StatefulEvent("name", "state"), null, null));
+
+        Assert.assertEquals("state", ((StatefulEvent) remoteEvent.getEvent()).getState());
+    }
+
+    @Test
+    public void serializableEvent() throws RemoteEventException
+    {
+        assertRoundTrip(createRemoteEvent(new TestEvent(), "some source", "some data"));
+    }
+
+    @Test
+    public void severalEvents() throws RemoteEventException
+    {
+        List<RemoteEventData> expected =
+            Arrays.asList(createDocumentRemoteEvent(), createRemoteEvent(new TestEvent(), "some source", null),
+                createDocumentRemoteEvent());
+
+        List<RemoteEventData> remoteEvents = this.codec.decode(this.codec.encode(expected));
+
+        Assert.assertEquals(expected.size(), remoteEvents.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEqualsWithClass(expected.get(i).getEvent(), remoteEvents.get(i).getEvent());
+            assertEqualsWithClass(expected.get(i).getSource(), remoteEvents.get(i).getSource());
+            assertEqualsWithClass(expected.get(i).getData(), remoteEvents.get(i).getData());
+        }
+    }
+
+    @Test
+    public void noEvent() throws RemoteEventException
+    {
+        Assert.assertTrue(this.codec.decode(this.codec.encode(Collections.<RemoteEventData> emptyList())).isEmpty());
+    }
+
+    @Test
+    public void decodeSerialization() throws RemoteEventException
+    {
+        RemoteEventData expected = createDocumentRemoteEvent();
+
+        List<RemoteEventData> remoteEvents =
+            this.codec.decode(this.serializationCodec.encode(Collections.singletonList(expected)));
+
+        Assert.assertEquals(1, remoteEvents.size());
+        Assert.assertEquals(expected.getEvent(), remoteEvents.get(0).getEvent());
+        Assert.assertEquals(expected.getSource(), remoteEvents.get(0).getSource());
+        Assert.assertEquals(expected.getData(), remoteEvents.get(0).getData());
+    }
+
+    @Test
+    public void decodeSerializedRemoteEvent() throws RemoteEventException, IOException
+    {
+        RemoteEventData expected = createDocumentRemoteEvent();
+
+        // What older versions used to send
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(expected);
+        out.close();
+
+        List<RemoteEventData> remoteEvents = this.codec.decode(bytes.toByteArray());
+
+        Assert.assertEquals(1, remoteEvents.size());
+        Assert.assertEquals(expected.getEvent(), remoteEvents.get(0).getEvent());
+        Assert.assertEquals(expected.getSource(), remoteEvents.get(0).getSource());
+    }
+
+    @Test
+    public void decodeJGroupsObjectMessage() throws Exception
+    {
+        RemoteEventData expected = createDocumentRemoteEvent();
+
+        // What older versions actually sent, a JGroups object message
+        List<RemoteEventData> remoteEvents = this.codec.decode(Util.objectToByteBuffer(expected));
+
+        Assert.assertEquals(1, remoteEvents.size());
+        Assert.assertEquals(expected.getEvent(), remoteEvents.get(0).getEvent());
+        Assert.assertEquals(expected.getSource(), remoteEvents.get(0).getSource());
+    }
+
+    @Test
+    public void serializationReadableByOlderVersions() throws Exception
+    {
+        RemoteEventData expected = createDocumentRemoteEvent();
+
+        // What older versions do with the received messages
+        Object object = Util.objectFromByteBuffer(this.serializationCodec.encode(Collections.singletonList(expected)));
+
+        Assert.assertTrue(object instanceof RemoteEventData);
+        Assert.assertEquals(expected.getEvent(), ((RemoteEventData) object).getEvent());
+    }
+
+    @Test
+    public void smallerThanSerialization() throws RemoteEventException
+    {
+        List<RemoteEventData> remoteEvent = Collections.singletonList(createDocumentRemoteEvent());
+
+        int binaryLength = this.codec.encode(remoteEvent).length;
+        int serializationLength = this.serializationCodec.encode(remoteEvent).length;
+
+        Assert.assertTrue("Binary message [" + binaryLength + "] is not smaller than serialized message ["
+            + serializationLength + "]", binaryLength * 3 < serializationLength);
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeInvalidMessage() throws RemoteEventException
+    {
+        this.codec.decode(new byte[] {1, 2, 3, 4});
+    }
+
+    @Test
+    public void decodeUnexpectedEventClass() throws RemoteEventException
+    {
+        byte[] bytes = this.codec.encode(Collections.singletonList(createDocumentRemoteEvent()));
+
+        String message = new String(bytes, BYTES).replace(StatelessEvent.class.getName(),
+            NotAnEventType.class.getName());
+        try {
+            this.codec.decode(message.getBytes(BYTES));
+            Assert.fail("Should have rejected the class which is not an event");
+        } catch (RemoteEventException e) {
+            Assert.assertFalse(NotAnEventType.created);
+        }
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeTruncatedMessage() throws RemoteEventException
+    {
+        byte[] bytes = this.codec.encode(Collections.singletonList(createDocumentRemoteEvent()));
+
+        this.codec.decode(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeInvalidEventCount() throws RemoteEventException
+    {
+        this.codec.decode(new byte[] {'X', 'E', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeInvalidBytesLength() throws RemoteEventException
+    {
+        // One event starting with a byte array of 2^28 - 1 bytes
+        this.codec.decode(new byte[] {'X', 'E', 1, 1, 7, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeInvalidStringIndex() throws RemoteEventException
+    {
+        // One event starting with a string referring to an index out of the strings table
+        this.codec.decode(new byte[] {'X', 'E', 1, 1, 1, 100, 0, 0});
+    }
+
+    @Test(expected = RemoteEventException.class)
+    public void decodeInvalidEntityType() throws RemoteEventException
+    {
+        // One event starting with a wiki reference of an unknown entity type
+        this.codec.decode(new byte[] {'X', 'E', 1, 1, 10, 0, 1, 0, 3, 'F', 'O', 'O', 0, 2, 'w', 'i', 0, 0});
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.remote.internal.jgroups;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.slf4j.Logger;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.remote.RemoteEventCodec;
+import org.xwiki.observation.remote.RemoteEventData;
+import org.xwiki.observation.remote.RemoteEventException;
+import org.xwiki.observation.remote.RemoteObservationManagerConfiguration;
+
+/**
+ * Validate the batching of the remote events in {@link JGroupsNetworkAdapter}.
+ *
+ * @version $Id$
+ */
+public class JGroupsNetworkAdapterTest
+{
+    public static class NamedEvent extends AbstractFilterableEvent
+    {
+        private static final long serialVersionUID = 1L;
+
+        public NamedEvent(String name)
+        {
+            super(name);
+        }
+    }
+
+    /**
+     * Keep the batches of events instead of encoding them.
+     */
+    private final List<List<RemoteEventData>> batches =
+        Collections.synchronizedList(new ArrayList<List<RemoteEventData>>());
+
+    private JGroupsNetworkAdapter adapter;
+
+    private JChannel channel;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        RemoteObservationManagerConfiguration configuration = mock(RemoteObservationManagerConfiguration.class);
+        when(configuration.getCodec()).thenReturn("test");
+        // Long enough to never be reached during the tests
+        when(configuration.getBatchDelay()).thenReturn(60000);
+        when(configuration.getBatchSize()).thenReturn(3);
+
+        RemoteEventCodec codec = new RemoteEventCodec()
+        {
+            @Override
+            public byte[] encode(List<RemoteEventData> remoteEvents)
+            {
+                batches.add(new ArrayList<RemoteEventData>(remoteEvents));
+
+                return new byte[0];
+            }
+
+            @Override
+            public List<RemoteEventData> decode(byte[] bytes) throws RemoteEventException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        ComponentManager componentManager = mock(ComponentManager.class);
+        when(componentManager.<RemoteEventCodec> getInstance(RemoteEventCodec.class, "test")).thenReturn(codec);
+
+        this.adapter = new JGroupsNetworkAdapter();
+        ReflectionUtils.setFieldValue(this.adapter, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.adapter, "componentManager", componentManager);
+        ReflectionUtils.setFieldValue(this.adapter, "logger", mock(Logger.class));
+        this.adapter.initialize();
+
+        this.channel = mock(JChannel.class);
+        Map<String, JChannel> channels = new ConcurrentHashMap<String, JChannel>();
+        channels.put("test", this.channel);
+        ReflectionUtils.setFieldValue(this.adapter, "channels", channels);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.adapter.dispose();
+    }
+
+    private RemoteEventData createRemoteEvent(String name, String source)
+    {
+        RemoteEventData remoteEvent = new RemoteEventData();
+        remoteEvent.setEvent(new NamedEvent(name));
+        remoteEvent.setSource(source);
+
+        return remoteEvent;
+    }
+
+    @Test
+    public void sendBatchWhenFull() throws Exception
+    {
+        RemoteEventData event1 = createRemoteEvent("event1", null);
+        RemoteEventData event2 = createRemoteEvent("event2", null);
+        RemoteEventData event3 = createRemoteEvent("event3", null);
+
+        this.adapter.send(event1);
+        this.adapter.send(event2);
+        this.adapter.send(event3);
+
+        verify(this.channel, timeout(10000)).send(any(Message.class));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(event1, event2, event3)), this.batches);
+    }
+
+    @Test
+    public void sendLatestOccurrenceOfIdenticalEvents() throws Exception
+    {
+        RemoteEventData event1 = createRemoteEvent("event1", "source");
+        RemoteEventData event2 = createRemoteEvent("event2", "source");
+        RemoteEventData event1Again = createRemoteEvent("event1", "source");
+
+        this.adapter.send(event1);
+        this.adapter.send(event2);
+        this.adapter.send(event1Again);
+
+        this.adapter.stopAllChannels();
+
+        Assert.assertEquals(1, this.batches.size());
+        Assert.assertSame(event2, this.batches.get(0).get(0));
+        Assert.assertSame(event1Again, this.batches.get(0).get(1));
+        Assert.assertEquals(2, this.batches.get(0).size());
+    }
+
+    @Test
+    public void sendEventsWithDifferentSourceSeparately() throws Exception
+    {
+        RemoteEventData event1 = createRemoteEvent("event", "source1");
+        RemoteEventData event2 = createRemoteEvent("event", "source2");
+
+        this.adapter.send(event1);
+        this.adapter.send(event2);
+
+        this.adapter.stopAllChannels();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(event1, event2)), this.batches);
+    }
+
+    @Test
+    public void flushBeforeStoppingChannel() throws Exception
+    {
+        RemoteEventData event = createRemoteEvent("event", null);
+
+        this.adapter.send(event);
+
+        Assert.assertTrue(this.batches.isEmpty());
+
+        this.adapter.stopChannel("test");
+
+        InOrder inOrder = inOrder(this.channel);
+        inOrder.verify(this.channel).send(any(Message.class));
+        inOrder.verify(this.channel).close();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(event)), this.batches);
+    }
+
+    @Test
+    public void flushWhenDisposed() throws Exception
+    {
+        RemoteEventData event = createRemoteEvent("event", null);
+        this.adapter.send(event);
+
+        this.adapter.dispose();
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(event)), this.batches);
+
+        // The events produced after are sent right away
+        RemoteEventData lateEvent = createRemoteEvent("late", null);
+        this.adapter.send(lateEvent);
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(event), Arrays.asList(lateEvent)), this.batches);
+    }
+}
@@ -46,6 +46,12 @@ public class XWikiAttachmentContent implements Cloneable
     /** An empty byte array returned for empty attachment contents. */
     private static final byte[] NULLFILE = new byte[0];
 
+    /**
+     * The size above which the content written through {@link #getContentOutputStream()} is stored in a temporary file
+     * instead of being kept in memory.
+     */
+    private static final int MEMORY_THRESHOLD = 10000;
+
     /** The XWikiAttachment (attachment metadata) which this attachment content is associated with. */
     private XWikiAttachment attachment;
 
@@ -55,6 +61,13 @@ public class XWikiAttachmentContent implements Cloneable
     /** Storage which holds the actual content. */
     private FileItem file;
 
+    /**
+     * The content provided by the store (or by {@link #setContent(byte[])}), read directly instead of being copied to a
+     * temporary file. Never modified in place and never exposed, a new {@link #file} is created when the content
+     * changes.
+     */
+    private byte[] storedContent;
+
     /** The owner document. */
     private XWikiDocument ownerDocument;
 
@@ -67,6 +80,7 @@ public class XWikiAttachmentContent implements Cloneable
     public XWikiAttachmentContent(XWikiAttachmentContent original)
     {
         this.file = original.file;
+        this.storedContent = original.storedContent != null ? original.storedContent.clone() : null;
         this.attachment = original.attachment;
         this.isContentDirty = original.isContentDirty;
         this.ownerDocument = original.ownerDocument;
@@ -106,6 +120,16 @@ protected FileItem getFileItem()
         return this.file;
     }
 
+    /**
+     * @return {@code true} if the content has been set on this object, {@code false} if it's still empty or, for
+     *         subclasses, if it's still the content of their own storage
+     * @since 6.0M1
+     */
+    protected boolean isContentSet()
+    {
+        return this.file != null || this.storedContent != null;
+    }
+
     /**
      * @return a new FileItem for temporarily storing attachment content.
      * @since 4.2M3
@@ -118,7 +142,7 @@ private static FileItem getNewFileItem()
             if (!dir.mkdirs() && !dir.exists()) {
                 throw new UnexpectedException("Failed to create directory for attachments " + dir);
             }
-            final DiskFileItem dfi = new DiskFileItem(null, null, false, null, 10000, dir);
+            final DiskFileItem dfi = new DiskFileItem(null, null, false, null, MEMORY_THRESHOLD, dir);
             // This causes the temp file to be created.
             dfi.getOutputStream().close();
             // Make sure this file is marked for deletion on VM exit because DiskFileItem does not.
@@ -157,12 +181,15 @@ public Object clone()
     }
 
     /**
-     * @return a byte array containing the binary content of the attachment.
+     * @return a copy of the binary content of the attachment, modifying it does not modify the attachment.
      * @deprecated use {@link #getContentInputStream()} instead
      */
     @Deprecated
     public byte[] getContent()
     {
+        if (this.storedContent != null) {
+            return this.storedContent.clone();
+        }
         if (this.file == null) {
             return NULLFILE;
         }
@@ -171,6 +198,10 @@ public byte[] getContent()
 
     /**
      * Set the content from a byte array.
+     * <p>
+     * This is what the Hibernate store uses when loading the content. The content is kept in memory, whatever its size,
+     * and read directly instead of being written to a temporary file and read back. It's only copied to a temporary
+     * file when it's modified through {@link #getContentOutputStream()}. The passed array can be modified afterward.
      * 
      * @param content a byte array containing the binary data of the attachment
      * @deprecated use {@link #setContent(java.io.InputStream, int)} instead
@@ -178,15 +209,11 @@ public byte[] getContent()
     @Deprecated
     public void setContent(byte[] content)
     {
-        try {
-            byte[] internalContent = new byte[0];
-            if (content != null) {
-                internalContent = content;
-            }
-
-            this.setContent(new ByteArrayInputStream(internalContent));
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to copy data to storage.", e);
+        this.storedContent = content != null ? content.clone() : NULLFILE;
+        this.file = null;
+        setContentDirty(true);
+        if (this.attachment != null) {
+            this.attachment.setFilesize(getSize());
         }
     }
 
@@ -236,6 +263,9 @@ public void setContentDirty(boolean contentDirty)
      */
     public InputStream getContentInputStream()
     {
+        if (this.storedContent != null) {
+            return new ByteArrayInputStream(this.storedContent);
+        }
         if (this.file == null) {
             return new ByteArrayInputStream(NULLFILE);
         }
@@ -246,6 +276,34 @@ public InputStream getContentInputStream()
         }
     }
 
+    /**
+     * Give access to the file holding the content when it's stored as is on the filesystem, so that it can be sent
+     * without loading the whole content in memory.
+     * 
+     * @return the file containing exactly the content of the attachment, {@code null} if the content is not stored in
+     *         a plain file
+     * @since 6.0M1
+     */
+    public File getContentFile()
+    {
+        if (this.file instanceof DiskFileItem && !this.file.isInMemory()) {
+            return ((DiskFileItem) this.file).getStoreLocation();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return {@code true} if the file returned by {@link #getContentFile()} stays available independently of this
+     *         object, {@code false} if it's a temporary file which can be deleted as soon as this object is not used
+     *         anymore
+     * @since 6.0M1
+     */
+    public boolean isContentFilePersistent()
+    {
+        return false;
+    }
+
     /**
      * Set the content of the attachment by writing to a provided OutputStream.
      * Content is *not* appended, this method clears the content and creates new content.
@@ -274,6 +332,7 @@ public void close() throws IOException
             {
                 super.close();
                 xac.file = fi;
+                xac.storedContent = null;
                 xac.setContentDirty(true);
                 if (xac.attachment != null) {
                     xac.attachment.setFilesize(xac.getSize());
@@ -320,6 +379,9 @@ public void setContent(InputStream is) throws IOException
      */
     public int getSize()
     {
+        if (this.storedContent != null) {
+            return this.storedContent.length;
+        }
         return (this.file != null) ? (int) this.file.getSize() : 0;
     }
 
@@ -70,6 +70,9 @@
     /** Set of {@link XWikiRCSNodeContent} which need to update. */
     private Set<XWikiRCSNodeContent> updatedNodeContents = new TreeSet<XWikiRCSNodeContent>();
 
+    /** Number of nodes which exist in the store but were not loaded in {@link #versionToNode}. */
+    private int unloadedNodesCount;
+
     /** @param id = {@link XWikiDocument#getId()} */
     public XWikiDocumentArchive(long id)
     {
@@ -130,7 +133,7 @@ protected XWikiRCSNodeContent makePatch(XWikiRCSNodeInfo newnode, XWikiDocument
         newnode.setContent(result);
         XWikiRCSNodeInfo latestNode = getLatestNode();
         if (latestNode != null) {
-            int nodesCount = getNodes().size();
+            int nodesCount = getNodes().size() + this.unloadedNodesCount;
             int nodesPerFull =
                 context.getWiki() == null ? 5 : Integer.parseInt(context.getWiki().getConfig()
                     .getProperty("xwiki.store.rcs.nodesPerFull", "5"));
@@ -190,6 +193,21 @@ public void setNodes(Collection<XWikiRCSNodeInfo> versions)
         }
     }
 
+    /**
+     * Set only the most recent nodes of the history, which is enough for adding a new version to it without loading
+     * the whole history from the store. Such an archive must not be used for anything else than
+     * {@link #updateArchive(XWikiDocument, String, Date, String, Version, XWikiContext)}.
+     * 
+     * @param nodes - the most recent XWikiRCSNodeInfo of the history
+     * @param nodesCount - the total number of nodes in the history, loaded or not
+     * @since 6.0M1
+     */
+    public void setLatestNodes(Collection<XWikiRCSNodeInfo> nodes, int nodesCount)
+    {
+        setNodes(nodes);
+        this.unloadedNodesCount = Math.max(0, nodesCount - getNodes().size());
+    }
+
     /**
      * @param context - used for load nodes content
      * @return serialization of class used in {@link com.xpn.xwiki.plugin.packaging.PackagePlugin}.
@@ -452,6 +470,7 @@ public void resetArchive()
     {
         versionToNode.clear();
         fullVersions.clear();
+        unloadedNodesCount = 0;
         deletedNodes.addAll(updatedNodeInfos);
         updatedNodeInfos.clear();
         updatedNodeContents.clear();
@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.attachment;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.tika.Tika;
+import org.apache.tika.metadata.Metadata;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.internal.cache.FileStringCache;
+
+/**
+ * Extract the text content of attachments with Tika and keep the result in a persistent cache stored in the permanent
+ * directory so that attachments which did not change are never parsed again, even after a restart.
+ * <p>
+ * The text is cached by content hash. The hash of each attachment version is cached too, keyed by the attachment id,
+ * version, date and size, so that the content of an attachment is only read to compute its hash the first time this
+ * version is seen.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@Component
+@Singleton
+public class DefaultAttachmentTextExtractor implements AttachmentTextExtractor, Initializable, Disposable
+{
+    /**
+     * The name of the cache.
+     */
+    public static final String CACHE_ID = "xwiki.attachment.text";
+
+    /**
+     * The name of the configuration property containing the maximum size of the cache, in bytes.
+     */
+    public static final String MAXSIZE_PROPERTY = "attachment.textcache.maxSize";
+
+    /**
+     * The default maximum size of the cache: 100MB.
+     */
+    public static final long MAXSIZE_DEFAULT = 100L * 1024 * 1024;
+
+    /**
+     * The separator between the elements of the cache key.
+     */
+    private static final char KEY_SEPARATOR = '/';
+
+    /**
+     * The prefix of the keys of the content hashes, indexed by attachment version.
+     */
+    private static final String ATTACHMENT_KEY_PREFIX = "attachment/";
+
+    /**
+     * The prefix of the keys of the extracted texts, indexed by content hash.
+     */
+    private static final String CONTENT_KEY_PREFIX = "content/";
+
+    /**
+     * Used to get the permanent directory.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * Used to read the size of the cache.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to expose the cache statistics.
+     */
+    @Inject
+    private CacheStatisticsManager statisticsManager;
+
+    /**
+     * The cache of extracted text, {@code null} if disabled.
+     */
+    private FileStringCache cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        long maxSize = this.configuration.getProperty(MAXSIZE_PROPERTY, MAXSIZE_DEFAULT);
+
+        if (maxSize > 0) {
+            File directory = new File(this.environment.getPermanentDirectory(), "cache/attachment-text");
+            this.cache = new FileStringCache(new CacheConfiguration(CACHE_ID), directory, maxSize);
+            this.cache.registerStatistics(this.statisticsManager);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getText(final XWikiAttachment attachment, final XWikiContext xcontext) throws XWikiException
+    {
+        if (this.cache == null) {
+            return parse(attachment, xcontext);
+        }
+
+        // Only read the whole content to compute its hash when this version of the attachment was never seen
+        String attachmentKey = getAttachmentKey(attachment);
+        String contentKey = this.cache.get(attachmentKey);
+        if (contentKey == null) {
+            contentKey = getContentKey(attachment, xcontext);
+            this.cache.set(attachmentKey, contentKey);
+        }
+
+        try {
+            return this.cache.computeIfAbsent(contentKey, new CacheLoader<String>()
+            {
+                @Override
+                public String load(String cacheKey) throws Exception
+                {
+                    return parse(attachment, xcontext);
+                }
+            });
+        } catch (CacheException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to extract the text content of attachment [" + attachment.getReference() + "]", e.getCause());
+        }
+    }
+
+    /**
+     * @param attachment the attachment
+     * @return the cache key of the content hash of this version of the attachment
+     */
+    private String getAttachmentKey(XWikiAttachment attachment)
+    {
+        StringBuilder key = new StringBuilder(ATTACHMENT_KEY_PREFIX);
+        key.append(attachment.getId());
+        key.append(KEY_SEPARATOR);
+        key.append(attachment.getVersion());
+        key.append(KEY_SEPARATOR);
+        key.append(attachment.getDate() != null ? attachment.getDate().getTime() : 0);
+        key.append(KEY_SEPARATOR);
+        key.append(attachment.getFilesize());
+
+        return key.toString();
+    }
+
+    /**
+     * @param attachment the attachment
+     * @param xcontext the XWiki context
+     * @return the cache key of the attachment text, based on the hash of its content
+     * @throws XWikiException when failing to read the attachment content
+     */
+    private String getContentKey(XWikiAttachment attachment, XWikiContext xcontext) throws XWikiException
+    {
+        try {
+            InputStream in = attachment.getContentInputStream(xcontext);
+            try {
+                return CONTENT_KEY_PREFIX + DigestUtils.sha1Hex(in);
+            } finally {
+                in.close();
+            }
+        } catch (XWikiException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to read the content of attachment [" + attachment.getReference() + "]", e);
+        }
+    }
+
+    /**
+     * @param attachment the attachment
+     * @param xcontext the XWiki context
+     * @return the text content of the attachment
+     * @throws XWikiException when failing to parse the attachment content
+     */
+    private String parse(XWikiAttachment attachment, XWikiContext xcontext) throws XWikiException
+    {
+        try {
+            Tika tika = new Tika();
+
+            Metadata metadata = new Metadata();
+            metadata.set(Metadata.RESOURCE_NAME_KEY, attachment.getFilename());
+
+            InputStream in = attachment.getContentInputStream(xcontext);
+
+            try {
+                return tika.parseToString(in, metadata);
+            } finally {
+                in.close();
+            }
+        } catch (XWikiException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to parse the content of attachment [" + attachment.getReference() + "]", e);
+        }
+    }
+}
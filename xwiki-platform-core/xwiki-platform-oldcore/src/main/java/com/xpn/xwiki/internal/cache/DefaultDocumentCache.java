@@ -34,6 +34,9 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.WeightedLRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -145,6 +148,15 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
 
         CacheConfiguration mappingCacheConfiguration = (CacheConfiguration) cacheConfiguration.clone();
         mappingCacheConfiguration.setConfigurationId(cacheConfiguration.getConfigurationId() + ".mapping");
+        // The weigher of the cache would not know how to weigh the mapping entries
+        Object eviction = mappingCacheConfiguration.get(EntryEvictionConfiguration.CONFIGURATIONID);
+        if (eviction instanceof WeightedLRUEvictionConfiguration) {
+            LRUEvictionConfiguration mappingEviction = new LRUEvictionConfiguration();
+            mappingEviction.putAll((WeightedLRUEvictionConfiguration) eviction);
+            mappingEviction.remove(WeightedLRUEvictionConfiguration.MAXWEIGHT_ID);
+            mappingEviction.remove(WeightedLRUEvictionConfiguration.WEIGHER_ID);
+            mappingCacheConfiguration.put(EntryEvictionConfiguration.CONFIGURATIONID, mappingEviction);
+        }
 
         this.mappingCache = this.cacheManager.createNewCache(mappingCacheConfiguration);
 
@@ -162,11 +174,11 @@ public C get(DocumentReference documentReference, Object... extensions)
     @Override
     public void set(C data, DocumentReference documentReference, Object... extensions)
     {
-        String key = getKey(documentReference, extensions);
-        this.cache.set(key, data);
-
         String documentReferenceString = this.serializer.serialize(documentReference);
 
+        String key = getKey(documentReferenceString, extensions);
+        this.cache.set(key, data);
+
         Collection<String> keys = this.mappingCache.get(documentReferenceString);
 
         if (keys == null) {
@@ -186,39 +198,60 @@ public void set(C data, DocumentReference documentReference, Object... extension
      */
     protected String getKey(DocumentReference documentReference, Object... extensions)
     {
-        StringBuffer buffer = new StringBuffer();
+        return getKey(this.serializer.serialize(documentReference), extensions);
+    }
+
+    /**
+     * Generate a key based on the provided serialized document reference and extensions.
+     * 
+     * @param documentReferenceString the serialized reference of the document
+     * @param extensions the extensions to the document reference
+     * @return the value
+     * @since 6.0M1
+     */
+    protected String getKey(String documentReferenceString, Object... extensions)
+    {
+        if (extensions.length == 0) {
+            return documentReferenceString;
+        }
+
+        StringBuilder builder = new StringBuilder(documentReferenceString.length() + extensions.length * 16);
 
-        if (extensions.length > 0) {
-            buffer.append(escape(this.serializer.serialize(documentReference)));
-            for (Object extension : extensions) {
-                buffer.append(':');
-                buffer.append(escape(extension != null ? extension.toString() : ""));
+        appendEscaped(builder, documentReferenceString);
+        for (Object extension : extensions) {
+            builder.append(':');
+            if (extension != null) {
+                appendEscaped(builder, extension.toString());
             }
-        } else {
-            buffer.append(this.serializer.serialize(documentReference));
         }
 
-        return buffer.toString();
+        return builder.toString();
     }
 
     /**
-     * Escape each element of the key.
+     * Append an escaped element of the key.
      * 
+     * @param builder the key being built
      * @param str the element of the key to escape
-     * @return the escaped key element
      */
-    private String escape(String str)
+    private void appendEscaped(StringBuilder builder, String str)
     {
-        return str.replace("\\", "\\\\").replace(":", "\\:");
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c == '\\' || c == ':') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
     }
 
     @Override
     public void remove(C data, DocumentReference documentReference, Object... extensions)
     {
-        String key = getKey(documentReference, extensions);
-        this.cache.remove(key);
+        String documentReferenceString = this.serializer.serialize(documentReference);
 
-        String documentReferenceString = serializer.serialize(documentReference);
+        String key = getKey(documentReferenceString, extensions);
+        this.cache.remove(key);
 
         Collection<String> keys = mappingCache.get(documentReferenceString);
 
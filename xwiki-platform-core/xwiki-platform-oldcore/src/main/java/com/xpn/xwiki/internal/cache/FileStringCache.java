@@ -0,0 +1,298 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.util.AbstractCache;
+
+/**
+ * A persistent cache of strings stored as compressed files in a directory and limited by the total size of these files.
+ * <p>
+ * The file of an entry is named after the SHA-1 of its key, the least recently used files are removed when the total
+ * size goes above the configured maximum. The entries found in the directory are reused when the cache is created, so
+ * that the content of the cache survives restarts. This cache does not send entry events.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class FileStringCache extends AbstractCache<String>
+{
+    /**
+     * The logger to use to log.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileStringCache.class);
+
+    /**
+     * The extension of the files holding the entries.
+     */
+    private static final String EXTENSION = ".txt.gz";
+
+    /**
+     * The encoding of the stored strings.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The directory where the entries are stored.
+     */
+    private final File directory;
+
+    /**
+     * The maximum total size of the entries files, in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The size of the entries files indexed by file name, from the least to the most recently used.
+     */
+    private final Map<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * The total size of the entries files, in bytes.
+     */
+    private long totalSize;
+
+    /**
+     * @param configuration the configuration of the cache
+     * @param directory the directory where to store the entries
+     * @param maxSize the maximum total size of the entries files, in bytes
+     */
+    public FileStringCache(CacheConfiguration configuration, File directory, long maxSize)
+    {
+        this.configuration = configuration;
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        this.directory.mkdirs();
+
+        // Index the existing entries, the least recently used first
+        File[] files = this.directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                return file.getName().endsWith(EXTENSION);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>()
+            {
+                @Override
+                public int compare(File file1, File file2)
+                {
+                    long modified1 = file1.lastModified();
+                    long modified2 = file2.lastModified();
+
+                    return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                this.entries.put(file.getName(), file.length());
+                this.totalSize += file.length();
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * @param key the key of the entry
+     * @return the name of the file holding the entry
+     */
+    private String getFileName(String key)
+    {
+        return DigestUtils.sha1Hex(key) + EXTENSION;
+    }
+
+    @Override
+    public String get(String key)
+    {
+        String fileName = getFileName(key);
+
+        synchronized (this) {
+            // Also marks the entry as recently used
+            if (this.entries.get(fileName) == null) {
+                this.statistics.miss();
+
+                return null;
+            }
+        }
+
+        File file = new File(this.directory, fileName);
+
+        String value;
+        try {
+            InputStream stream = new GZIPInputStream(new FileInputStream(file));
+            try {
+                value = IOUtils.toString(stream, ENCODING);
+            } finally {
+                stream.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Evicted in the meantime
+            this.statistics.miss();
+
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the cache entry [{}], removing it", file, e);
+
+            remove(key);
+
+            this.statistics.miss();
+
+            return null;
+        }
+
+        // Keep the order of use across restarts
+        file.setLastModified(System.currentTimeMillis());
+
+        this.statistics.hit();
+
+        return value;
+    }
+
+    @Override
+    public void set(String key, String value)
+    {
+        String fileName = getFileName(key);
+        File file = new File(this.directory, fileName);
+
+        try {
+            // Write in a temporary file first so that a partially written entry is never read
+            File temporaryFile = File.createTempFile("entry", ".tmp", this.directory);
+            try {
+                OutputStream stream = new GZIPOutputStream(new FileOutputStream(temporaryFile));
+                try {
+                    IOUtils.write(value, stream, ENCODING);
+                } finally {
+                    stream.close();
+                }
+
+                synchronized (this) {
+                    Long previousSize = this.entries.remove(fileName);
+                    if (previousSize != null) {
+                        this.totalSize -= previousSize;
+                        file.delete();
+                    }
+
+                    if (temporaryFile.renameTo(file)) {
+                        this.entries.put(fileName, file.length());
+                        this.totalSize += file.length();
+                    }
+
+                    evict();
+                }
+            } finally {
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to store the cache entry [{}]", file, e);
+        }
+    }
+
+    @Override
+    public void remove(String key)
+    {
+        String fileName = getFileName(key);
+
+        synchronized (this) {
+            Long size = this.entries.remove(fileName);
+            if (size != null) {
+                this.totalSize -= size;
+                new File(this.directory, fileName).delete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeAll()
+    {
+        try {
+            FileUtils.cleanDirectory(this.directory);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clean the cache directory [{}]", this.directory, e);
+        }
+
+        this.entries.clear();
+        this.totalSize = 0;
+    }
+
+    @Override
+    protected synchronized long size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the total size of the entries files, in bytes
+     */
+    public synchronized long getTotalSize()
+    {
+        return this.totalSize;
+    }
+
+    /**
+     * Remove the least recently used entries until the total size goes below the maximum.
+     */
+    private synchronized void evict()
+    {
+        if (this.totalSize <= this.maxSize) {
+            return;
+        }
+
+        List<String> evicted = new ArrayList<String>();
+        for (Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator(); it.hasNext()
+            && this.totalSize > this.maxSize;) {
+            Map.Entry<String, Long> entry = it.next();
+            this.totalSize -= entry.getValue();
+            evicted.add(entry.getKey());
+            it.remove();
+        }
+
+        for (String fileName : evicted) {
+            new File(this.directory, fileName).delete();
+        }
+
+        this.statistics.evicted(evicted.size());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.util.List;
+
+import org.xwiki.cache.eviction.EntryWeigher;
+import org.xwiki.cache.eviction.StringWeigher;
+
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+/**
+ * Estimate the memory used by a {@link XWikiDocument} stored in a cache, mostly based on the size of its content, its
+ * objects and its loaded attachments.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class XWikiDocumentWeigher implements EntryWeigher<XWikiDocument>
+{
+    /**
+     * The approximate memory used by a document without any content.
+     */
+    private static final int DOCUMENT_OVERHEAD = 2048;
+
+    /**
+     * The approximate memory used by an object without any property.
+     */
+    private static final int OBJECT_OVERHEAD = 256;
+
+    /**
+     * The approximate memory used by a property excluding its value.
+     */
+    private static final int PROPERTY_OVERHEAD = 128;
+
+    /**
+     * The approximate memory used by a non textual property value.
+     */
+    private static final int VALUE_OVERHEAD = 32;
+
+    /**
+     * The approximate memory used by an attachment excluding its content.
+     */
+    private static final int ATTACHMENT_OVERHEAD = 512;
+
+    @Override
+    public long weigh(String key, XWikiDocument document)
+    {
+        long weight = DOCUMENT_OVERHEAD + StringWeigher.weigh(key);
+
+        weight += StringWeigher.weigh(document.getContent());
+        weight += StringWeigher.weigh(document.getXClassXML());
+
+        for (List<BaseObject> objects : document.getXObjects().values()) {
+            for (BaseObject object : objects) {
+                // Objects can be null when one has been removed from the list
+                if (object != null) {
+                    weight += weigh(object);
+                }
+            }
+        }
+
+        for (XWikiAttachment attachment : document.getAttachmentList()) {
+            weight += ATTACHMENT_OVERHEAD;
+            // Only count the content when it's loaded in memory
+            if (attachment.getAttachment_content() != null) {
+                weight += attachment.getFilesize();
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * @param object the object to weigh
+     * @return the approximate memory used by the object
+     */
+    private long weigh(BaseObject object)
+    {
+        long weight = OBJECT_OVERHEAD;
+
+        for (Object field : object.getFieldList()) {
+            weight += PROPERTY_OVERHEAD;
+
+            Object value = ((BaseProperty) field).getValue();
+            if (value instanceof String) {
+                weight += StringWeigher.weigh((String) value);
+            } else if (value instanceof List) {
+                for (Object item : (List< ? >) value) {
+                    weight += item instanceof String ? StringWeigher.weigh((String) item) : VALUE_OVERHEAD;
+                }
+            } else {
+                weight += VALUE_OVERHEAD;
+            }
+        }
+
+        return weight;
+    }
+}
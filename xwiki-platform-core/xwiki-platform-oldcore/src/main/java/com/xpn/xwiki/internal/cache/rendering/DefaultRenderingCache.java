@@ -19,11 +19,11 @@
  */
 package com.xpn.xwiki.internal.cache.rendering;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -31,6 +31,8 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.StringWeigher;
+import org.xwiki.cache.eviction.WeightedLRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
@@ -49,11 +51,6 @@
 @Singleton
 public class DefaultRenderingCache implements RenderingCache, Initializable
 {
-    /**
-     * UTF-8 encoding key.
-     */
-    private static final String UTF8 = "UTF-8";
-
     /**
      * Identifier of the rendering cache.
      */
@@ -76,13 +73,32 @@ public class DefaultRenderingCache implements RenderingCache, Initializable
     @Inject
     private DocumentCache<String> cache;
 
+    /**
+     * The request parameters taken into account in the cache key, all if empty.
+     */
+    private Set<String> parameters;
+
+    /**
+     * The request parameters ignored in the cache key.
+     */
+    private Set<String> ignoredParameters;
+
     @Override
     public void initialize() throws InitializationException
     {
+        this.parameters = Collections.unmodifiableSet(new HashSet<String>(this.configuration.getParameters()));
+        this.ignoredParameters =
+            Collections.unmodifiableSet(new HashSet<String>(this.configuration.getIgnoredParameters()));
+
         if (this.configuration.isEnabled()) {
             CacheConfiguration cacheConfiguration = new CacheConfiguration();
             cacheConfiguration.setConfigurationId(NAME);
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            LRUEvictionConfiguration lru;
+            if (this.configuration.getMaxWeight() > 0) {
+                lru = new WeightedLRUEvictionConfiguration(this.configuration.getMaxWeight(), new StringWeigher());
+            } else {
+                lru = new LRUEvictionConfiguration();
+            }
             lru.setMaxEntries(this.configuration.getSize());
             lru.setTimeToLive(this.configuration.getDuration());
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
@@ -147,11 +163,8 @@ private String getRequestParameters(XWikiContext context)
         if (context.getRequest() != null) {
             Map<String, String[]> parameters = context.getRequest().getParameterMap();
 
-            if (parameters != null) {
-                // Sort the Map so that the returned value can be used as a key that doesn't change if the servlet
-                // container sends the parameter in a different order.
-                SortedMap<String, String[]> sortedMap = new TreeMap<String, String[]>(parameters);
-                return constructRequestString(sortedMap);
+            if (parameters != null && !parameters.isEmpty()) {
+                return constructRequestString(parameters);
             }
         }
 
@@ -159,35 +172,78 @@ private String getRequestParameters(XWikiContext context)
     }
 
     /**
-     * Encode the passed parameters in UTF-8 and return a String representing them.
+     * @param name the name of the request parameter
+     * @return true if the parameter should be part of the cache key
+     */
+    private boolean isKeyParameter(String name)
+    {
+        return !name.equals(PARAMETER_REFRESH) && (this.parameters.isEmpty() || this.parameters.contains(name))
+            && !this.ignoredParameters.contains(name);
+    }
+
+    /**
+     * Return a String representing the passed parameters that can be used as a key that doesn't change if the servlet
+     * container sends the parameters in a different order.
      *
-     * @param sortedMap the map representing the Request parameters
+     * @param parameters the map representing the Request parameters
      * @return the encoded parameters as a String
      */
-    private String constructRequestString(SortedMap<String, String[]> sortedMap)
+    private String constructRequestString(Map<String, String[]> parameters)
     {
+        String[] names = new String[parameters.size()];
+        int count = 0;
+        for (String name : parameters.keySet()) {
+            if (isKeyParameter(name)) {
+                names[count++] = name;
+            }
+        }
+
+        if (count == 0) {
+            return "";
+        }
+
+        Arrays.sort(names, 0, count);
+
         StringBuilder sb = new StringBuilder();
-        // TODO: Create a common class to serialize and encode parameters since this is a common need, and use
-        // a Commons Collection Predicate to exclude the refresh parameter.
-        for (Map.Entry<String, String[]> entry : sortedMap.entrySet()) {
-            // If the parameter is the refresh parameter then ignore it
-            if (!entry.getKey().equals(PARAMETER_REFRESH)) {
-                for (String value : entry.getValue()) {
-                    if (sb.length() > 0) {
-                        sb.append('&');
-                    }
-                    try {
-                        sb.append(URLEncoder.encode(entry.getKey(), UTF8)).append('=')
-                                .append(URLEncoder.encode(value, UTF8));
-                    } catch (UnsupportedEncodingException e) {
-                        // That should never happen since UTF-8 is supposed to be available in any JVM.
-                        throw new RuntimeException(
-                            String.format("Failed to URL encode [[%s]:[%s]] parameter using UTF-8.",
-                                entry.getKey(), entry.getValue()), e);
-                    }
+        for (int i = 0; i < count; ++i) {
+            String name = names[i];
+            for (String value : parameters.get(name)) {
+                if (sb.length() > 0) {
+                    sb.append('&');
                 }
+                appendEscaped(sb, name);
+                sb.append('=');
+                appendEscaped(sb, value);
             }
         }
+
         return sb.toString();
     }
+
+    /**
+     * Append the passed parameter name or value escaping the characters used as separators in the key. This is a lot
+     * cheaper than a full URL encoding and produces a key just as unique.
+     *
+     * @param sb the key being built
+     * @param str the string to escape
+     */
+    private void appendEscaped(StringBuilder sb, String str)
+    {
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '%':
+                    sb.append("%25");
+                    break;
+                case '&':
+                    sb.append("%26");
+                    break;
+                case '=':
+                    sb.append("%3D");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
 }
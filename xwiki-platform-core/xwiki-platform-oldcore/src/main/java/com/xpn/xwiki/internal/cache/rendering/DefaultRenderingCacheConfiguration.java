@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.internal.cache.rendering;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -78,6 +79,21 @@ public class DefaultRenderingCacheConfiguration implements RenderingCacheConfigu
      */
     private static final int PROPVALUE_SIZE = 100;
 
+    /**
+     * Name of the property indication the maximum estimated memory used by the cache.
+     */
+    private static final String PROPNAME_MAXWEIGHT = PREFIX + "maxweight";
+
+    /**
+     * Name of the property listing the request parameters taken into account in the cache key.
+     */
+    private static final String PROPNAME_PARAMETERS = PREFIX + "parameters";
+
+    /**
+     * Name of the property listing the request parameters ignored in the cache key.
+     */
+    private static final String PROPNAME_IGNOREDPARAMETERS = PREFIX + "ignoredparameters";
+
     /**
      * xwiki.properties file configurations.
      */
@@ -150,6 +166,35 @@ public int getSize()
         return this.farmConfiguration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE);
     }
 
+    @Override
+    public long getMaxWeight()
+    {
+        return this.farmConfiguration.getProperty(PROPNAME_MAXWEIGHT, 0L);
+    }
+
+    @Override
+    public List<String> getParameters()
+    {
+        return getList(PROPNAME_PARAMETERS);
+    }
+
+    @Override
+    public List<String> getIgnoredParameters()
+    {
+        return getList(PROPNAME_IGNOREDPARAMETERS);
+    }
+
+    /**
+     * @param key the name of the property
+     * @return the list value of the property, empty if not set
+     */
+    private List<String> getList(String key)
+    {
+        List<String> list = this.farmConfiguration.getProperty(key, List.class);
+
+        return list != null ? list : Collections.<String> emptyList();
+    }
+
     @Override
     public boolean isCached(DocumentReference documentReference)
     {
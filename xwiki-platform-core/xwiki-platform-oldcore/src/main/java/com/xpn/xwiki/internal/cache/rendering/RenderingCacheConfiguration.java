@@ -19,6 +19,8 @@
  */
 package com.xpn.xwiki.internal.cache.rendering;
 
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 
@@ -46,6 +48,26 @@
      */
     int getSize();
 
+    /**
+     * @return the maximum estimated memory (in bytes) used by the cached results, 0 if there is no limit
+     * @since 6.0M1
+     */
+    long getMaxWeight();
+
+    /**
+     * @return the names of the request parameters taken into account in the cache key, all the parameters are taken
+     *         into account if empty
+     * @since 6.0M1
+     */
+    List<String> getParameters();
+
+    /**
+     * @return the names of the request parameters which are never taken into account in the cache key (typically
+     *         tracking parameters)
+     * @since 6.0M1
+     */
+    List<String> getIgnoredParameters();
+
     /**
      * Indicate if the provided document's rendering result should be cached.
      * 
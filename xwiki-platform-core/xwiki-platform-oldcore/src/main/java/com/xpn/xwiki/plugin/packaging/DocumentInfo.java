@@ -19,12 +19,15 @@
  */
 package com.xpn.xwiki.plugin.packaging;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
 
 public class DocumentInfo
 {
@@ -32,6 +35,35 @@
 
     private XWikiDocument doc;
 
+    /**
+     * Indicate if the document is loaded when needed instead of being kept in memory, from {@link #archive} or from the
+     * wiki.
+     */
+    private boolean lazy;
+
+    /**
+     * The archive from which the document is loaded, null if the document is loaded from the wiki.
+     */
+    private PackageArchive archive;
+
+    /**
+     * The name of the archive entry containing the document.
+     */
+    private String entryName;
+
+    /**
+     * Indicate if the history of the document is loaded from the archive.
+     */
+    private boolean withVersions;
+
+    private DocumentReference documentReference;
+
+    private String fullName;
+
+    private String language;
+
+    private boolean isNew;
+
     private int installable = INSTALL_IMPOSSIBLE;
 
     private int action = ACTION_NOT_DEFINED;
@@ -63,23 +95,106 @@ public DocumentInfo(XWikiDocument doc)
         this.doc = doc;
     }
 
+    /**
+     * Create the informations of a document which is not kept in memory but loaded from the archive when needed.
+     * 
+     * @param doc the document read from the archive, used only to initialize the informations
+     * @param archive the archive containing the document
+     * @param entryName the name of the archive entry containing the document
+     * @param withVersions indicate if the history of the document should be loaded from the archive
+     */
+    DocumentInfo(XWikiDocument doc, PackageArchive archive, String entryName, boolean withVersions)
+    {
+        this.lazy = true;
+        this.archive = archive;
+        this.entryName = entryName;
+        this.withVersions = withVersions;
+        this.documentReference = doc.getDocumentReference();
+        this.fullName = doc.getFullName();
+        this.language = doc.getLanguage();
+        this.isNew = doc.isNew();
+    }
+
+    /**
+     * Create the informations of a document which is not kept in memory but loaded from the wiki when needed.
+     * 
+     * @param documentReference the reference of the document
+     * @param fullName the full name of the document
+     * @param language the language of the document, empty for the default language
+     */
+    DocumentInfo(DocumentReference documentReference, String fullName, String language)
+    {
+        this.lazy = true;
+        this.documentReference = documentReference;
+        this.fullName = fullName;
+        this.language = language;
+    }
+
     public XWikiDocument getDoc()
     {
+        if (this.doc == null && this.lazy) {
+            if (this.archive != null) {
+                try {
+                    this.doc = this.archive.getDocument(this.entryName, this.withVersions);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to load document [{}] from the package", this.entryName, e);
+                }
+            } else {
+                XWikiContext context = Utils.getContext();
+                try {
+                    XWikiDocument wikiDoc = context.getWiki().getDocument(this.documentReference, context);
+                    if (StringUtils.isNotEmpty(this.language)) {
+                        wikiDoc = wikiDoc.getTranslatedDocument(this.language, context);
+                    }
+                    // Don't modify the cached document
+                    this.doc = wikiDoc.clone();
+                } catch (XWikiException e) {
+                    LOGGER.error("Failed to load document [{}] with language [{}]", this.documentReference,
+                        this.language, e);
+                }
+            }
+        }
+
         return doc;
     }
 
+    /**
+     * Forget the document if it can be loaded again, to not keep all the documents of the package in memory.
+     * 
+     * @since 6.0M1
+     */
+    public void releaseDoc()
+    {
+        if (this.lazy) {
+            this.doc = null;
+        }
+    }
+
+    /**
+     * @return the reference of the document
+     * @since 6.0M1
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.lazy ? this.documentReference : doc.getDocumentReference();
+    }
+
     public boolean isNew()
     {
-        return doc.isNew();
+        return this.lazy ? this.isNew : doc.isNew();
     }
 
     public void changeSpace(String Space)
     {
-        if (doc.getSpace().compareTo("XWiki") != 0) {
+        XWikiDocument document = getDoc();
+        if (document.getSpace().compareTo("XWiki") != 0) {
             return;
         }
-        doc.setSpace(Space);
+        document.setSpace(Space);
         installable = INSTALL_IMPOSSIBLE;
+
+        // The modified document can't be loaded again
+        this.lazy = false;
     }
 
     public int getFileType()
@@ -94,12 +209,12 @@ public void setFileType(int fileType)
 
     public String getFullName()
     {
-        return (doc.getFullName());
+        return this.lazy ? this.fullName : (doc.getFullName());
     }
 
     public String getLanguage()
     {
-        return (doc.getLanguage());
+        return this.lazy ? this.language : (doc.getLanguage());
     }
 
     public int isInstallable()
@@ -109,26 +224,30 @@ public int isInstallable()
 
     public int testInstall(boolean isAdmin, XWikiContext context)
     {
+        boolean hasDoc = this.doc != null || this.lazy;
+
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Package test install document " + ((doc == null) ? "" : getFullName()) + " "
-                + ((doc == null) ? "" : getLanguage()));
+            LOGGER.debug("Package test install document " + (hasDoc ? getFullName() : "") + " "
+                + (hasDoc ? getLanguage() : ""));
         }
 
         installable = INSTALL_IMPOSSIBLE;
 
         try {
-            if (this.doc == null) {
+            if (!hasDoc) {
                 return installable;
             }
             try {
-                if ((!isAdmin) && (!context.getWiki().checkAccess("edit", this.doc, context))) {
+                // Don't load the document only to check the access right
+                XWikiDocument accessDoc = this.doc != null ? this.doc : new XWikiDocument(this.documentReference);
+                if ((!isAdmin) && (!context.getWiki().checkAccess("edit", accessDoc, context))) {
                     return installable;
                 }
-                XWikiDocument doc1 = context.getWiki().getDocument(doc.getFullName(), context);
+                XWikiDocument doc1 = context.getWiki().getDocument(getFullName(), context);
                 boolean isNew = doc1.isNew();
                 if (!isNew) {
-                    if ((doc.getLanguage() != null) && (!doc.getLanguage().equals(""))) {
-                        isNew = !doc1.getTranslationList(context).contains(doc.getLanguage());
+                    if ((getLanguage() != null) && (!getLanguage().equals(""))) {
+                        isNew = !doc1.getTranslationList(context).contains(getLanguage());
                     }
                 }
 
@@ -144,8 +263,8 @@ public int testInstall(boolean isAdmin, XWikiContext context)
             return installable;
         } finally {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Package test install document " + ((doc == null) ? "" : getFullName()) + " "
-                    + ((doc == null) ? "" : getLanguage()) + " result " + installable);
+                LOGGER.debug("Package test install document " + (hasDoc ? getFullName() : "") + " "
+                    + (hasDoc ? getLanguage() : "") + " result " + installable);
             }
         }
     }
@@ -201,5 +320,8 @@ public void setAction(int action)
     public void setDoc(XWikiDocument doc)
     {
         this.doc = doc;
+
+        // The document now only exists in memory
+        this.lazy = false;
     }
 }
@@ -30,20 +30,19 @@
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import net.sf.json.JSONObject;
 
-import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -62,8 +61,11 @@
 import org.xwiki.extension.repository.ExtensionRepositoryManager;
 import org.xwiki.extension.repository.InstalledExtensionRepository;
 import org.xwiki.extension.repository.LocalExtensionRepository;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 
 import com.xpn.xwiki.XWiki;
@@ -116,6 +118,11 @@
 
     private List<DocumentInfo> classFiles = null;
 
+    /**
+     * The imported package, from which the documents are read when needed.
+     */
+    private PackageArchive archive;
+
     private boolean backupPack = false;
 
     private boolean preserveVersion = false;
@@ -398,10 +405,15 @@ public String export(OutputStream os, XWikiContext context) throws IOException,
         // and the filenames will be correctly converted to the character set of the local
         // file system.
         zos.setCreateUnicodeExtraFields(ZipArchiveOutputStream.UnicodeExtraFieldPolicy.ALWAYS);
-        for (int i = 0; i < this.files.size(); i++) {
-            DocumentInfo docinfo = this.files.get(i);
-            XWikiDocument doc = docinfo.getDoc();
-            addToZip(doc, zos, this.withVersions, context);
+        int threads = getExportThreads(context);
+        if (threads > 1 && this.files.size() > 1) {
+            new ParallelPackageExporter(this, threads, context).export(this.files, zos);
+        } else {
+            for (int i = 0; i < this.files.size(); i++) {
+                DocumentInfo docinfo = this.files.get(i);
+                addToZip(getExportedDoc(docinfo), zos, this.withVersions, context);
+                docinfo.releaseDoc();
+            }
         }
         addInfosToZip(zos, context);
         zos.finish();
@@ -410,6 +422,33 @@ public String export(OutputStream os, XWikiContext context) throws IOException,
         return "";
     }
 
+    /**
+     * @param docinfo the exported document
+     * @return the document to serialize
+     * @throws XWikiException when the document could not be loaded
+     */
+    private XWikiDocument getExportedDoc(DocumentInfo docinfo) throws XWikiException
+    {
+        XWikiDocument doc = docinfo.getDoc();
+        if (doc == null) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_DOC_EXPORT,
+                "Failed to load document [" + docinfo.getFullName() + "]");
+        }
+
+        return doc;
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the number of threads to use to load and serialize the exported documents
+     */
+    private int getExportThreads(XWikiContext context)
+    {
+        int defaultThreads = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+        return (int) context.getWiki().ParamAsLong("xwiki.plugin.packaging.export.threads", defaultThreads);
+    }
+
     public String exportToDir(File dir, XWikiContext context) throws IOException, XWikiException
     {
         if (!dir.exists()) {
@@ -423,8 +462,8 @@ public String exportToDir(File dir, XWikiContext context) throws IOException, XW
 
         for (int i = 0; i < this.files.size(); i++) {
             DocumentInfo docinfo = this.files.get(i);
-            XWikiDocument doc = docinfo.getDoc();
-            addToDir(doc, dir, this.withVersions, context);
+            addToDir(getExportedDoc(docinfo), dir, this.withVersions, context);
+            docinfo.releaseDoc();
         }
         addInfosToDir(dir, context);
 
@@ -432,9 +471,8 @@ public String exportToDir(File dir, XWikiContext context) throws IOException, XW
     }
 
     /**
-     * Load this package in memory from a byte array. It may be installed later using {@link #install(XWikiContext)}.
-     * Your should prefer {@link #Import(InputStream, XWikiContext)} which may avoid loading the package twice in
-     * memory.
+     * Load this package from a byte array. It may be installed later using {@link #install(XWikiContext)}. Your should
+     * prefer {@link #Import(InputStream, XWikiContext)} which may avoid loading the package twice in memory.
      * 
      * @param file a byte array containing the content of a zipped package file
      * @param context current XWikiContext
@@ -448,7 +486,13 @@ public String Import(byte file[], XWikiContext context) throws IOException, XWik
     }
 
     /**
-     * Load this package in memory from an InputStream. It may be installed later using {@link #install(XWikiContext)}.
+     * Load this package from an InputStream. It may be installed later using {@link #install(XWikiContext)}.
+     * <p>
+     * The package is copied to a temporary file and only the informations about its documents are kept in memory; the
+     * documents are read again from the temporary file, one at a time, when installing the package. The memory used
+     * thus does not depend on the size of the package. The documents are kept in memory when some
+     * {@link DocumentFilter}s are registered though, since reading them again would lose the filters changes. The
+     * temporary file is deleted by {@link #close()}.
      * 
      * @param file an InputStream of a zipped package file
      * @param context current XWikiContext
@@ -459,30 +503,44 @@ public String Import(byte file[], XWikiContext context) throws IOException, XWik
      */
     public String Import(InputStream file, XWikiContext context) throws IOException, XWikiException
     {
-        ZipArchiveInputStream zis;
-        ArchiveEntry entry;
-        Document description = null;
+        close();
 
+        this.archive = new PackageArchive(file);
+
+        boolean imported = false;
         try {
-            zis = new ZipArchiveInputStream(file, XAR_FILENAME_ENCODING, false);
-
-            List<XWikiDocument> docsToLoad = new LinkedList<XWikiDocument>();
-            /*
-             * Loop 1: Cycle through the zip input stream and load out all of the documents, when we find the
-             * package.xml file we put it aside to so that we only include documents which are in the file.
-             */
-            while ((entry = zis.getNextEntry()) != null) {
+            this.archive.open();
+
+            // Start with the manifest (package.xml) so that we only include documents which are in the file.
+            InputStream descriptionStream = this.archive.getInputStream(DefaultPackageFileName);
+            // Make sure a manifest was included in the package...
+            if (descriptionStream == null) {
+                throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Could not find the package definition");
+            }
+            Document description;
+            try {
+                description = fromXml(descriptionStream);
+            } finally {
+                descriptionStream.close();
+            }
+            Map<String, Set<String>> packageFiles = getPackageFiles(description);
+
+            // Documents already added, to ignore the duplicates without looking through all the files each time
+            Set<String> addedFiles = new HashSet<String>();
+
+            Enumeration<ZipArchiveEntry> entries = this.archive.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
                 if (entry.isDirectory() || (entry.getName().indexOf("META-INF") != -1)) {
                     // The entry is either a directory or is something inside of the META-INF dir.
                     // (we use that directory to put meta data such as LICENSE/NOTICE files.)
                     continue;
-                } else if (entry.getName().compareTo(DefaultPackageFileName) == 0) {
-                    // The entry is the manifest (package.xml). Read this differently.
-                    description = fromXml(new CloseShieldInputStream(zis));
-                } else {
+                } else if (entry.getName().compareTo(DefaultPackageFileName) != 0) {
+                    // The document is parsed to get its informations and then forgotten, it's parsed again when
+                    // installing the package
                     XWikiDocument doc = null;
                     try {
-                        doc = readFromXML(new CloseShieldInputStream(zis));
+                        doc = this.archive.getDocument(entry.getName(), this.withVersions);
                     } catch (Throwable ex) {
                         LOGGER.warn("Failed to parse document [" + entry.getName()
                             + "] from XML during import, thus it will not be installed. " + "The error was: "
@@ -493,44 +551,121 @@ public String Import(InputStream file, XWikiContext context) throws IOException,
                         continue;
                     }
 
-                    // Run all of the registered DocumentFilters on this document and
-                    // if no filters throw exceptions, add it to the list to import.
+                    // Run all of the registered DocumentFilters on this document and if no filters throw
+                    // exceptions, add it to the list to import.
                     try {
                         this.filter(doc, context);
-                        docsToLoad.add(doc);
                     } catch (ExcludeDocumentException e) {
                         LOGGER.info("Skip the document '" + doc.getDocumentReference() + "'");
+
+                        continue;
+                    }
+
+                    Set<String> languages = packageFiles.get(doc.getFullName());
+                    if (languages != null && languages.contains(doc.getLanguage())) {
+                        if (addedFiles.add(doc.getLanguage() + ':' + doc.getFullName())) {
+                            add(doc, entry.getName(), context);
+                        }
+                    } else {
+                        LOGGER.warn("document " + doc.getDocumentReference()
+                            + " does not exist in package definition." + " It will not be installed.");
+                        // It will be listed in the "skipped documents" section after the
+                        // import.
+                        addToSkipped(doc.getFullName(), context);
                     }
-                }
-            }
-            // Make sure a manifest was included in the package...
-            if (description == null) {
-                throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Could not find the package definition");
-            }
-            /*
-             * Loop 2: Cycle through the list of documents and if they are in the manifest then add them, otherwise log
-             * a warning and add them to the skipped list.
-             */
-            for (XWikiDocument doc : docsToLoad) {
-                if (documentExistInPackageFile(doc.getFullName(), doc.getLanguage(), description)) {
-                    this.add(doc, context);
-                } else {
-                    LOGGER.warn("document " + doc.getDocumentReference() + " does not exist in package definition."
-                        + " It will not be installed.");
-                    // It will be listed in the "skipped documents" section after the
-                    // import.
-                    addToSkipped(doc.getFullName(), context);
                 }
             }
 
             updateFileInfos(description);
+
+            imported = true;
         } catch (DocumentException e) {
             throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Error when reading the XML");
+        } finally {
+            if (imported) {
+                this.archive.close();
+            } else {
+                close();
+            }
         }
 
         return "";
     }
 
+    /**
+     * Delete the temporary copy of the package loaded by {@link #Import(InputStream, XWikiContext)}. It should be
+     * called once the package has been installed, or when it's not going to be installed. The documents which are not
+     * kept in memory can't be read anymore after that.
+     * 
+     * @since 6.0M1
+     */
+    public void close()
+    {
+        if (this.archive != null) {
+            this.archive.delete();
+            this.archive = null;
+        }
+    }
+
+    /**
+     * Add a document read from {@link #archive} and already filtered to the package, without keeping it in memory
+     * unless some {@link DocumentFilter}s are registered.
+     * 
+     * @param doc the document read from the archive
+     * @param entryName the name of the archive entry containing the document
+     * @param context the XWiki context
+     * @throws XWikiException when failing to check the access right
+     */
+    private void add(XWikiDocument doc, String entryName, XWikiContext context) throws XWikiException
+    {
+        if (!context.getWiki().checkAccess("edit", doc, context)) {
+            return;
+        }
+
+        DocumentInfo docinfo;
+        if (this.documentFilters.isEmpty()) {
+            docinfo = new DocumentInfo(doc, this.archive, entryName, this.withVersions);
+        } else {
+            // The filters may have modified the document, reading it again from the archive would lose that
+            docinfo = new DocumentInfo(doc);
+        }
+        this.files.add(docinfo);
+        BaseClass bclass = doc.getXClass();
+        if (bclass.getFieldList().size() > 0) {
+            this.classFiles.add(docinfo);
+        }
+        if (bclass.getCustomMapping() != null) {
+            this.customMappingFiles.add(docinfo);
+        }
+    }
+
+    /**
+     * @param xml the package definition
+     * @return the languages of the documents listed in the package definition, indexed by document full name
+     */
+    private Map<String, Set<String>> getPackageFiles(Document xml)
+    {
+        Map<String, Set<String>> packageFiles = new HashMap<String, Set<String>>();
+
+        @SuppressWarnings("unchecked")
+        List<Element> fileList = xml.getRootElement().element("files").elements("file");
+        for (Element el : fileList) {
+            String language = el.attributeValue("language");
+            if (language == null) {
+                language = "";
+            }
+            String docName = el.getStringValue();
+            Set<String> languages = packageFiles.get(docName);
+            if (languages == null) {
+                languages = new HashSet<String>();
+                packageFiles.put(docName, languages);
+            }
+            languages.add(language);
+        }
+
+        return packageFiles;
+    }
+
     private boolean documentExistInPackageFile(String docName, String language, Document xml)
     {
         Element docFiles = xml.getRootElement();
@@ -558,6 +693,15 @@ private boolean documentExistInPackageFile(String docName, String language, Docu
 
     private void updateFileInfos(Document xml)
     {
+        // Index the files to not look through all of them for each file of the package definition
+        Map<String, DocumentInfo> filesIndex = new HashMap<String, DocumentInfo>();
+        for (DocumentInfo docInfo : this.files) {
+            String key = docInfo.getLanguage() + ':' + docInfo.getFullName();
+            if (!filesIndex.containsKey(key)) {
+                filesIndex.put(key, docInfo);
+            }
+        }
+
         Element docFiles = xml.getRootElement();
         Element infosFiles = docFiles.element("files");
 
@@ -570,20 +714,9 @@ private void updateFileInfos(Document xml)
                 language = "";
             }
             String docName = el.getStringValue();
-            setDocumentDefaultAction(docName, language, Integer.parseInt(defaultAction));
-        }
-    }
-
-    private void setDocumentDefaultAction(String docName, String language, int defaultAction)
-    {
-        if (this.files == null) {
-            return;
-        }
-
-        for (DocumentInfo docInfo : this.files) {
-            if (docInfo.getFullName().equals(docName) && docInfo.getLanguage().equals(language)) {
-                docInfo.setAction(defaultAction);
-                return;
+            DocumentInfo docInfo = filesIndex.get(language + ':' + docName);
+            if (docInfo != null) {
+                docInfo.setAction(Integer.parseInt(defaultAction));
             }
         }
     }
@@ -625,10 +758,32 @@ public int install(XWikiContext context) throws XWikiException
             return DocumentInfo.INSTALL_IMPOSSIBLE;
         }
 
+        if (this.archive != null) {
+            try {
+                this.archive.open();
+            } catch (IOException e) {
+                throw new PackageException(XWikiException.ERROR_XWIKI_UNKNOWN, "Failed to open the package", e);
+            }
+        }
+
+        try {
+            return installFiles(isAdmin, context);
+        } finally {
+            if (this.archive != null) {
+                this.archive.close();
+            }
+        }
+    }
+
+    private int installFiles(boolean isAdmin, XWikiContext context) throws XWikiException
+    {
         boolean hasCustomMappings = false;
         for (DocumentInfo docinfo : this.customMappingFiles) {
-            BaseClass bclass = docinfo.getDoc().getXClass();
-            hasCustomMappings |= context.getWiki().getStore().injectCustomMapping(bclass, context);
+            XWikiDocument doc = docinfo.getDoc();
+            if (doc != null) {
+                hasCustomMappings |= context.getWiki().getStore().injectCustomMapping(doc.getXClass(), context);
+                docinfo.releaseDoc();
+            }
         }
 
         if (hasCustomMappings) {
@@ -657,14 +812,18 @@ public int install(XWikiContext context) throws XWikiException
                 if (installDocument(classFile, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
                     status = DocumentInfo.INSTALL_ERROR;
                 }
+                // Documents read from the package are read again if needed instead of being all kept in memory
+                classFile.releaseDoc();
             }
 
             // Install the remaining documents (without class definitions).
+            Set<DocumentInfo> installedClassFiles = new HashSet<DocumentInfo>(this.classFiles);
             for (DocumentInfo docInfo : this.files) {
-                if (!this.classFiles.contains(docInfo)) {
+                if (!installedClassFiles.contains(docInfo)) {
                     if (installDocument(docInfo, isAdmin, backup, context) == DocumentInfo.INSTALL_ERROR) {
                         status = DocumentInfo.INSTALL_ERROR;
                     }
+                    docInfo.releaseDoc();
                 }
             }
             setStatus(status, context);
@@ -761,6 +920,12 @@ private int installDocument(DocumentInfo doc, boolean isAdmin, boolean backup, X
             return DocumentInfo.INSTALL_OK;
         }
 
+        // The document could not be read again from the package
+        if (doc.getDoc() == null) {
+            addToErrors(doc.getFullName() + ":" + doc.getLanguage(), context);
+            return DocumentInfo.INSTALL_ERROR;
+        }
+
         int status = doc.testInstall(isAdmin, context);
         if (status == DocumentInfo.INSTALL_IMPOSSIBLE) {
             addToErrors(doc.getFullName() + ":" + doc.getLanguage(), context);
@@ -1284,17 +1449,62 @@ protected Document fromXml(InputStream xml) throws DocumentException
     }
 
     public void addAllWikiDocuments(XWikiContext context) throws XWikiException
+    {
+        addAllWikiDocuments(null, context);
+    }
+
+    /**
+     * Add to the package all the documents of the current wiki modified since the passed date, for example to make an
+     * incremental backup.
+     * <p>
+     * The documents are not loaded when added, unless some {@link DocumentFilter}s need to be applied; they are loaded
+     * when exporting the package, one at a time.
+     * 
+     * @param since the date from which the modified documents are added, null to add all the documents
+     * @param context the XWiki context
+     * @throws XWikiException when failing to list the documents
+     * @since 6.0M1
+     */
+    public void addAllWikiDocuments(Date since, XWikiContext context) throws XWikiException
     {
         XWiki wiki = context.getWiki();
+        List<Object[]> documents;
         try {
-            List<String> documentNames = wiki.getStore().getQueryManager().getNamedQuery("getAllDocuments").execute();
-            for (String docName : documentNames) {
-                add(docName, DocumentInfo.ACTION_OVERWRITE, context);
+            StringBuilder statement = new StringBuilder("select doc.fullName, doc.language from XWikiDocument as doc");
+            if (since != null) {
+                statement.append(" where doc.date >= :since");
+            }
+            // Always export the documents in the same order
+            statement.append(" order by doc.fullName, doc.language");
+
+            Query query = wiki.getStore().getQueryManager().createQuery(statement.toString(), Query.HQL);
+            if (since != null) {
+                query.bindValue("since", since);
             }
+            documents = query.execute();
         } catch (QueryException ex) {
             throw new PackageException(PackageException.ERROR_XWIKI_STORE_HIBERNATE_SEARCH,
                 "Cannot retrieve the list of documents to export", ex);
         }
+
+        DocumentReferenceResolver<String> resolver =
+            Utils.getComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        for (Object[] document : documents) {
+            String docFullName = (String) document[0];
+            String language = document[1] != null ? (String) document[1] : "";
+
+            if (!this.documentFilters.isEmpty()) {
+                // The filters need the document
+                add(docFullName, language, DocumentInfo.ACTION_OVERWRITE, context);
+            } else {
+                DocumentReference documentReference = resolver.resolve(docFullName);
+                if (wiki.checkAccess("edit", new XWikiDocument(documentReference), context)) {
+                    DocumentInfo docinfo = new DocumentInfo(documentReference, docFullName, language);
+                    docinfo.setAction(DocumentInfo.ACTION_OVERWRITE);
+                    this.files.add(docinfo);
+                }
+            }
+        }
     }
 
     public void deleteAllWikiDocuments(XWikiContext context) throws XWikiException
@@ -1430,20 +1640,24 @@ public JSONObject toJSON(XWikiContext wikiContext)
             fileInfos.put("language", String.valueOf(docInfo.getLanguage()));
             fileInfos.put("fullName", docInfo.getFullName());
 
+            // Don't load the documents read from the package only to get their space and name
+            DocumentReference documentReference = docInfo.getDocumentReference();
+            String space = documentReference.getLastSpaceReference().getName();
+            String docName = documentReference.getName();
+
             // If the space does not exist in the map of spaces, we create it.
-            if (files.get(docInfo.getDoc().getSpace()) == null) {
-                files.put(docInfo.getDoc().getSpace(), new HashMap<String, List<Map<String, String>>>());
+            if (files.get(space) == null) {
+                files.put(space, new HashMap<String, List<Map<String, String>>>());
             }
 
             // If the document name does not exists in the space map of docs, we create it.
-            if (files.get(docInfo.getDoc().getSpace()).get(docInfo.getDoc().getName()) == null) {
-                files.get(docInfo.getDoc().getSpace()).put(docInfo.getDoc().getName(),
-                    new ArrayList<Map<String, String>>());
+            if (files.get(space).get(docName) == null) {
+                files.get(space).put(docName, new ArrayList<Map<String, String>>());
             }
 
             // Finally we add the file infos (language, fullname and action) to the list of translations
             // for that document.
-            files.get(docInfo.getDoc().getSpace()).get(docInfo.getDoc().getName()).add(fileInfos);
+            files.get(space).get(docName).add(fileInfos);
         }
 
         json.put("infos", infos);
@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import net.sf.json.JSONObject;
@@ -275,6 +276,17 @@ public String Import(InputStream file) throws IOException, XWikiException
         return this.pack.Import(file, getXWikiContext());
     }
 
+    /**
+     * Delete the temporary copy of the package loaded by {@link #Import(InputStream)}, once it has been installed or
+     * when it's not going to be installed.
+     * 
+     * @since 6.0M1
+     */
+    public void close()
+    {
+        this.pack.close();
+    }
+
     public int testInstall()
     {
         return this.pack.testInstall(false, getXWikiContext());
@@ -291,6 +303,20 @@ public void backupWiki() throws XWikiException, IOException
         this.export();
     }
 
+    /**
+     * Export the documents of the current wiki modified since the passed date, to make an incremental backup.
+     * 
+     * @param since the date from which the modified documents are exported
+     * @throws XWikiException when failing to list or serialize the documents
+     * @throws IOException when failing to write the package
+     * @since 6.0M1
+     */
+    public void backupWiki(Date since) throws XWikiException, IOException
+    {
+        this.pack.addAllWikiDocuments(since, getXWikiContext());
+        this.export();
+    }
+
     public String toXml()
     {
         return this.pack.toXml(getXWikiContext());
@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.packaging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * A copy of an imported package in a temporary file, from which the documents are read when needed instead of being
+ * all kept in memory.
+ * <p>
+ * The temporary file is deleted by {@link #delete()} when the {@link Package} is closed.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+class PackageArchive
+{
+    /**
+     * The copy of the package.
+     */
+    private final File file;
+
+    /**
+     * The opened archive, null when closed.
+     */
+    private ZipFile zipFile;
+
+    /**
+     * Copy the passed package to a temporary file.
+     * 
+     * @param stream the content of the package
+     * @throws IOException when failing to copy the package
+     */
+    PackageArchive(InputStream stream) throws IOException
+    {
+        Environment environment = Utils.getComponent(Environment.class);
+        File dir = new File(environment.getTemporaryDirectory(), "packaging");
+        if (!dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Failed to create directory for packages " + dir);
+        }
+
+        this.file = File.createTempFile("package", ".xar", dir);
+
+        boolean copied = false;
+        OutputStream out = new FileOutputStream(this.file);
+        try {
+            IOUtils.copy(stream, out);
+            copied = true;
+        } finally {
+            out.close();
+            if (!copied) {
+                FileUtils.deleteQuietly(this.file);
+            }
+        }
+    }
+
+    /**
+     * Open the archive, to be able to read several documents without reading the archive index each time.
+     * 
+     * @throws IOException when failing to open the archive
+     */
+    synchronized void open() throws IOException
+    {
+        if (this.zipFile == null) {
+            this.zipFile = new ZipFile(this.file, Package.XAR_FILENAME_ENCODING);
+        }
+    }
+
+    /**
+     * Close the archive opened with {@link #open()}.
+     */
+    synchronized void close()
+    {
+        ZipFile.closeQuietly(this.zipFile);
+        this.zipFile = null;
+    }
+
+    /**
+     * Close the archive and delete the temporary file, the documents can't be read anymore.
+     */
+    synchronized void delete()
+    {
+        close();
+        FileUtils.deleteQuietly(this.file);
+    }
+
+    /**
+     * @return the entries of the opened archive
+     */
+    synchronized Enumeration<ZipArchiveEntry> getEntries()
+    {
+        return this.zipFile.getEntries();
+    }
+
+    /**
+     * @param entryName the name of the entry
+     * @return the content of the entry in the opened archive, null if there is no such entry
+     * @throws IOException when failing to read the entry
+     */
+    synchronized InputStream getInputStream(String entryName) throws IOException
+    {
+        ZipArchiveEntry entry = this.zipFile.getEntry(entryName);
+
+        return entry != null ? this.zipFile.getInputStream(entry) : null;
+    }
+
+    /**
+     * Read a document from the archive, opening it if needed.
+     * 
+     * @param entryName the name of the entry containing the document
+     * @param withVersions indicate if the history of the document should be read
+     * @return the document
+     * @throws IOException when failing to read the archive
+     * @throws XWikiException when failing to parse the document
+     */
+    synchronized XWikiDocument getDocument(String entryName, boolean withVersions) throws IOException, XWikiException
+    {
+        boolean opened = this.zipFile == null;
+        if (opened) {
+            open();
+        }
+
+        try {
+            InputStream stream = getInputStream(entryName);
+            if (stream == null) {
+                throw new IOException("Missing entry [" + entryName + "] in package [" + this.file + "]");
+            }
+
+            XWikiDocument doc = new XWikiDocument();
+            try {
+                doc.fromXML(stream, withVersions);
+            } finally {
+                stream.close();
+            }
+
+            return doc;
+        } finally {
+            if (opened) {
+                close();
+            }
+        }
+    }
+}
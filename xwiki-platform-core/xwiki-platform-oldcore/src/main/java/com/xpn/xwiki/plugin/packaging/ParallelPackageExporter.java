@@ -0,0 +1,308 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.packaging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.util.AbstractXWikiRunnable;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Load and serialize the documents of a {@link Package} on a pool of threads while the zip entries are written in the
+ * order of the package files.
+ * <p>
+ * At most a fixed number of serialized documents wait to be written. Each one is kept in memory up to a threshold,
+ * above which (typically because of attachments) it's serialized in a temporary file and then copied to the zip.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+class ParallelPackageExporter
+{
+    /**
+     * The size above which a serialized document is written in a temporary file.
+     */
+    private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    /**
+     * The number of documents serialized in advance for each thread.
+     */
+    private static final int DOCUMENTS_PER_THREAD = 4;
+
+    /**
+     * The package to export.
+     */
+    private final Package pack;
+
+    /**
+     * The number of threads loading and serializing the documents.
+     */
+    private final int threads;
+
+    /**
+     * The XWiki context of the export, cloned for each document.
+     */
+    private final XWikiContext context;
+
+    /**
+     * A document loaded and serialized by a thread of the pool.
+     */
+    private class ExportTask extends AbstractXWikiRunnable
+    {
+        /**
+         * The document to serialize.
+         */
+        private final DocumentInfo docInfo;
+
+        /**
+         * The XWiki context of the thread serializing the document.
+         */
+        private final XWikiContext taskContext;
+
+        /**
+         * The name of the zip entry of the document.
+         */
+        private String entryName;
+
+        /**
+         * The serialized document.
+         */
+        private DeferredFileOutputStream content;
+
+        /**
+         * The error which prevented the document from being serialized.
+         */
+        private Exception exception;
+
+        /**
+         * @param docInfo the document to serialize
+         */
+        ExportTask(DocumentInfo docInfo)
+        {
+            this.docInfo = docInfo;
+            this.taskContext = context.clone();
+            // The clone is shallow and the hibernate session of the export thread must not be shared
+            this.taskContext.remove("hibsession");
+            this.taskContext.remove("hibtransaction");
+        }
+
+        @Override
+        protected void declareProperties(ExecutionContext executionContext)
+        {
+            this.taskContext.declareInExecutionContext(executionContext);
+        }
+
+        @Override
+        protected void runInternal()
+        {
+            try {
+                XWikiDocument doc = this.docInfo.getDoc();
+                if (doc == null) {
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_DOC_EXPORT,
+                        "Failed to load document [" + this.docInfo.getFullName() + "]");
+                }
+
+                // Serialize the document in the context of its wiki
+                this.taskContext.setDatabase(doc.getDocumentReference().getWikiReference().getName());
+
+                this.entryName = pack.getPathFromDocument(doc, this.taskContext);
+                this.content =
+                    new DeferredFileOutputStream(MEMORY_THRESHOLD, "export", ".xml", getTemporaryDirectory());
+                try {
+                    doc.toXML(this.content, true, false, true, pack.isWithVersions(), this.taskContext);
+                } finally {
+                    this.content.close();
+                }
+            } catch (Exception e) {
+                this.exception = e;
+            } finally {
+                this.docInfo.releaseDoc();
+            }
+        }
+
+        /**
+         * Write the serialized document to the zip.
+         * 
+         * @param zos the zip
+         * @throws XWikiException when the document could not be serialized
+         * @throws IOException when failing to write the zip
+         */
+        void write(ZipArchiveOutputStream zos) throws XWikiException, IOException
+        {
+            try {
+                if (this.exception instanceof XWikiException) {
+                    throw (XWikiException) this.exception;
+                } else if (this.exception instanceof IOException) {
+                    throw (IOException) this.exception;
+                } else if (this.exception != null) {
+                    Object[] args = new Object[] {this.docInfo.getFullName()};
+                    throw new XWikiException(XWikiException.MODULE_XWIKI_DOC, XWikiException.ERROR_XWIKI_DOC_EXPORT,
+                        "Error exporting document {0}", this.exception, args);
+                }
+
+                zos.putArchiveEntry(new ZipArchiveEntry(this.entryName));
+                if (this.content.isInMemory()) {
+                    zos.write(this.content.getData());
+                } else {
+                    InputStream stream = new FileInputStream(this.content.getFile());
+                    try {
+                        IOUtils.copy(stream, zos);
+                    } finally {
+                        stream.close();
+                    }
+                }
+                zos.closeArchiveEntry();
+            } finally {
+                dispose();
+            }
+        }
+
+        /**
+         * Delete the temporary file of the serialized document, if any.
+         */
+        void dispose()
+        {
+            if (this.content != null && !this.content.isInMemory()) {
+                this.content.getFile().delete();
+            }
+            this.content = null;
+        }
+    }
+
+    /**
+     * @param pack the package to export
+     * @param threads the number of threads loading and serializing the documents
+     * @param context the XWiki context of the export
+     */
+    ParallelPackageExporter(Package pack, int threads, XWikiContext context)
+    {
+        this.pack = pack;
+        this.threads = threads;
+        this.context = context;
+    }
+
+    /**
+     * @return the directory where to write the documents too big to be kept in memory
+     */
+    private File getTemporaryDirectory()
+    {
+        return Utils.getComponent(Environment.class).getTemporaryDirectory();
+    }
+
+    /**
+     * Write the documents to the zip.
+     * 
+     * @param files the documents to export
+     * @param zos the zip to write to
+     * @throws XWikiException when a document could not be serialized
+     * @throws IOException when failing to write the zip
+     */
+    void export(List<DocumentInfo> files, ZipArchiveOutputStream zos) throws XWikiException, IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory()
+        {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "XWiki package export " + ++this.count);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        // The documents being serialized or waiting to be written, in the order of the files
+        Queue<ExportTask> tasks = new LinkedList<ExportTask>();
+        Queue<Future< ? >> futures = new LinkedList<Future< ? >>();
+        int window = this.threads * DOCUMENTS_PER_THREAD;
+
+        try {
+            int next = 0;
+            while (next < files.size() || !tasks.isEmpty()) {
+                // Keep the pool busy without serializing too many documents in advance
+                while (next < files.size() && tasks.size() < window) {
+                    ExportTask task = new ExportTask(files.get(next++));
+                    tasks.add(task);
+                    futures.add(pool.submit(task));
+                }
+
+                ExportTask task = tasks.remove();
+                waitFor(futures.remove());
+                task.write(zos);
+            }
+        } finally {
+            pool.shutdownNow();
+
+            // Clean the documents serialized in advance when the export failed
+            if (!tasks.isEmpty()) {
+                try {
+                    pool.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (ExportTask task : tasks) {
+                    task.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param future the future of a task
+     * @throws IOException when interrupted while waiting
+     */
+    private void waitFor(Future< ? > future) throws IOException
+    {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while exporting the package", e);
+        } catch (ExecutionException e) {
+            // ExportTask doesn't throw exceptions
+            throw new IOException("Failed to export the package", e.getCause());
+        }
+    }
+}
@@ -22,12 +22,19 @@
 import java.util.Date;
 import java.util.List;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.stats.impl.StatsUtil;
 import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.stats.impl.XWikiStats;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.web.Utils;
 
 /**
@@ -96,6 +103,52 @@ public void store(List<XWikiStatsStoreItem> statsList)
         }
     }
 
+    /**
+     * Add the counters of the provided statistics object to the ones stored in the database, or save the object if it
+     * is not stored yet. The counters are incremented by the database so the stored object does not have to be loaded
+     * first.
+     * 
+     * @param store the store to use.
+     * @param stats the statistics object holding the values to add to the stored counters.
+     * @param counters the names of the counters to increment.
+     * @throws XWikiException when failing to store the statistics.
+     * @since 6.0M1
+     */
+    protected void increment(final XWikiHibernateStore store, final XWikiStats stats, final String... counters)
+        throws XWikiException
+    {
+        final XWikiContext xcontext = this.context;
+
+        store.executeWrite(xcontext, new HibernateCallback<Object>()
+        {
+            @Override
+            public Object doInHibernate(Session session) throws HibernateException, XWikiException
+            {
+                StringBuilder hql = new StringBuilder("update ").append(stats.getClass().getName()).append(" set ");
+                for (int i = 0; i < counters.length; i++) {
+                    if (i > 0) {
+                        hql.append(", ");
+                    }
+                    hql.append(counters[i]).append(" = coalesce(").append(counters[i]).append(", 0) + :")
+                        .append(counters[i]);
+                }
+                hql.append(" where id = :id");
+
+                Query query = session.createQuery(hql.toString());
+                for (String counter : counters) {
+                    query.setInteger(counter, stats.getIntValue(counter));
+                }
+                query.setLong("id", stats.getId());
+
+                if (query.executeUpdate() == 0) {
+                    store.saveXWikiCollection(stats, xcontext, false);
+                }
+
+                return null;
+            }
+        });
+    }
+
     /**
      * Store provided statistics into the database.
      * 
@@ -29,6 +29,7 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.stats.impl.DocumentStats;
 import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.stats.impl.XWikiStats;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 
 /**
@@ -97,18 +98,8 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
         DocumentStats documentStat =
             new DocumentStats(lastItem.name, lastItem.action, lastItem.periodDate, lastItem.periodType);
 
-        // Load old statistics object from database
-        try {
-            // TODO Fix use of deprecated call.
-            store.loadXWikiCollection(documentStat, context, true);
-        } catch (XWikiException e) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Failed to load document statistics object [{}]", getId(), e);
-            }
-        }
-
-        // Increment counters
-        documentStat.setIntValue("pageViews", documentStat.getPageViews() + stats.size());
+        // Only the increments are set, they are added to the stored counters
+        documentStat.setPageViews(stats.size());
         for (XWikiStatsStoreItem statItem : stats) {
             DocumentStatsStoreItem docStat = (DocumentStatsStoreItem) statItem;
 
@@ -117,10 +108,9 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
             }
         }
 
-        // Re-save statistics object
         try {
-            // TODO Fix use of deprecated call.
-            store.saveXWikiCollection(documentStat, context, true);
+            increment(store, documentStat, XWikiStats.Property.pageViews.toString(),
+                DocumentStats.Property.visits.toString());
         } catch (XWikiException e) {
             LOGGER.error("Failed to save document statistics object [{}]", getId(), e);
         }
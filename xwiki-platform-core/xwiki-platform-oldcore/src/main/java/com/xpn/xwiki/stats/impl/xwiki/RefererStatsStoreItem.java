@@ -29,6 +29,7 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.stats.impl.RefererStats;
 import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.stats.impl.XWikiStats;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 
 /**
@@ -85,23 +86,11 @@ public void storeInternal(List<XWikiStatsStoreItem> stats)
         RefererStats refererStat =
             new RefererStats(lastItem.name, lastItem.referer, lastItem.periodDate, lastItem.periodType);
 
-        // Load old statistics object from database
-        try {
-            // TODO Fix use of deprecated call.
-            store.loadXWikiCollection(refererStat, context, true);
-        } catch (XWikiException e) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Failed to load referer statictics object [" + getId() + "]");
-            }
-        }
-
-        // Increment counters
-        refererStat.setIntValue("pageViews", refererStat.getPageViews() + stats.size());
+        // Only the increment is set, it is added to the stored counter
+        refererStat.setPageViews(stats.size());
 
-        // Re-save statistics object
         try {
-            // TODO Fix use of deprecated call.
-            store.saveXWikiCollection(refererStat, context, true);
+            increment(store, refererStat, XWikiStats.Property.pageViews.toString());
         } catch (XWikiException e) {
             LOGGER.error("Failed to save referer statictics object [" + getId() + "]");
         }
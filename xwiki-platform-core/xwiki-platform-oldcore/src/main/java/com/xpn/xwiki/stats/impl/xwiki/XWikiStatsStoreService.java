@@ -24,7 +24,9 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +44,9 @@
 
 /**
  * Back-end statistics storing service.
+ * <p>
+ * The statistics are queued without ever blocking the request thread and stored periodically by a dedicated thread,
+ * which aggregates the statistics having the same id so that each of them is stored only once per period.
  * 
  * @version $Id$
  * @since 1.4M2
@@ -56,7 +61,39 @@ public class XWikiStatsStoreService extends AbstractXWikiRunnable
     /**
      * The queue containing the statistics to store.
      */
-    private ArrayBlockingQueue<XWikiStatsStoreItem> queue;
+    private final Queue<XWikiStatsStoreItem> queue = new ConcurrentLinkedQueue<XWikiStatsStoreItem>();
+
+    /**
+     * The number of statistics in the queue, maintained separately since {@link ConcurrentLinkedQueue#size()} is not a
+     * constant time operation.
+     */
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    /**
+     * The number of statistics which were dropped because the queue was full since the last time the statistics were
+     * stored.
+     */
+    private final AtomicInteger droppedCount = new AtomicInteger();
+
+    /**
+     * The maximum number of statistics waiting to be stored.
+     */
+    private final int maxQueueSize;
+
+    /**
+     * The time to wait between two storages of the queued statistics, in milliseconds.
+     */
+    private final long flushInterval;
+
+    /**
+     * Used to wait between two storages and to wake up the storing thread when the service is stopped.
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * Indicate if the service has been stopped.
+     */
+    private boolean stopped;
 
     /**
      * The thread on which the storing service is running.
@@ -76,8 +113,8 @@ public class XWikiStatsStoreService extends AbstractXWikiRunnable
     public XWikiStatsStoreService(XWikiContext context)
     {
         this.xwikiContext = context.clone();
-        long queueSize = context.getWiki().ParamAsLong("stats.queue.size", 200);
-        this.queue = new ArrayBlockingQueue<XWikiStatsStoreItem>((int) queueSize);
+        this.maxQueueSize = (int) context.getWiki().ParamAsLong("stats.queue.size", 10000);
+        this.flushInterval = Math.max(1, context.getWiki().ParamAsLong("stats.queue.flushInterval", 1000));
     }
 
     @Override
@@ -93,6 +130,9 @@ protected void declareProperties(ExecutionContext executionContext)
     public void start()
     {
         if (this.thread == null) {
+            synchronized (this.flushLock) {
+                this.stopped = false;
+            }
             this.thread = new Thread(this, "Statistics storing daemon");
             // The JVM should be allowed to shutdown while this thread is running
             this.thread.setDaemon(true);
@@ -105,53 +145,74 @@ public void start()
      */
     public void stop()
     {
-        this.queue.clear();
+        synchronized (this.flushLock) {
+            this.stopped = true;
+            this.flushLock.notifyAll();
+        }
         try {
-            this.queue.put(new StopStatsRegisterObject());
-            this.thread.join();
-            this.thread = null;
+            if (this.thread != null) {
+                this.thread.join();
+                this.thread = null;
+            }
         } catch (InterruptedException e) {
             if (LOGGER.isWarnEnabled()) {
                 LOGGER.warn("Thread join has been interrupted", e);
             }
         }
+        this.queue.clear();
+        this.queueSize.set(0);
     }
 
     @Override
     public void runInternal()
     {
         try {
-            while (true) {
+            while (waitForNextFlush()) {
                 register();
             }
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("Statistics storing thread received stop order.");
+            }
+            // Store what was queued before the stop order instead of losing up to a full flush interval of statistics
+            register();
         } catch (InterruptedException e) {
             if (LOGGER.isWarnEnabled()) {
                 LOGGER.warn("Statistics storing thread has been interrupted.", e);
             }
-        } catch (StopStatsStoreException e) {
-            if (LOGGER.isInfoEnabled()) {
-                LOGGER.warn("Statistics storing thread received stop order.", e);
-            }
         }
     }
 
     /**
-     * Store the statistics in the queue.
+     * Wait until the queued statistics have to be stored.
      * 
+     * @return false if the service has been stopped.
      * @throws InterruptedException thread has been interrupted.
-     * @throws StopStatsStoreException service received stop order.
      */
-    private void register() throws InterruptedException, StopStatsStoreException
+    private boolean waitForNextFlush() throws InterruptedException
     {
-        XWikiStatsStoreItem stat = this.queue.take();
+        synchronized (this.flushLock) {
+            if (!this.stopped) {
+                this.flushLock.wait(this.flushInterval);
+            }
+            return !this.stopped;
+        }
+    }
 
+    /**
+     * Store the statistics in the queue.
+     */
+    private void register()
+    {
         List<List<XWikiStatsStoreItem>> statsList = new ArrayList<List<XWikiStatsStoreItem>>();
         Map<String, List<XWikiStatsStoreItem>> statsMap = new HashMap<String, List<XWikiStatsStoreItem>>();
 
-        do {
-            if (stat instanceof StopStatsRegisterObject) {
-                throw new StopStatsStoreException();
+        // Only take what is currently queued so that a steady flow of statistics does not delay the storage forever
+        for (int count = this.queueSize.get(); count > 0; count--) {
+            XWikiStatsStoreItem stat = this.queue.poll();
+            if (stat == null) {
+                break;
             }
+            this.queueSize.decrementAndGet();
 
             String statId = stat.getId();
 
@@ -165,9 +226,13 @@ private void register() throws InterruptedException, StopStatsStoreException
             }
 
             stats.add(stat);
+        }
 
-            stat = this.queue.poll();
-        } while (stat != null);
+        int dropped = this.droppedCount.getAndSet(0);
+        if (dropped > 0) {
+            LOGGER.warn("[{}] statistics have been dropped because the storing thread could not keep up."
+                + " Increasing [stats.queue.size] or decreasing [stats.queue.flushInterval] may help.", dropped);
+        }
 
         for (List<XWikiStatsStoreItem> stats : statsList) {
             stats.get(0).store(stats);
@@ -185,10 +250,12 @@ private void register() throws InterruptedException, StopStatsStoreException
      */
     public void add(XWikiStatsStoreItem statsRegisterItem)
     {
-        try {
-            this.queue.put(statsRegisterItem);
-        } catch (InterruptedException e) {
-            LOGGER.error("Statistics storage thread has been interrupted", e);
+        // Never block the request thread, rather drop the statistic when the storing thread can't keep up
+        if (this.queueSize.incrementAndGet() > this.maxQueueSize) {
+            this.queueSize.decrementAndGet();
+            this.droppedCount.incrementAndGet();
+        } else {
+            this.queue.offer(statsRegisterItem);
         }
     }
 
@@ -280,32 +347,3 @@ private void addRefererStats(XWikiDocument doc, XWikiContext context)
         }
     }
 }
-
-/**
- * Item used to stop the statistics storing.
- * 
- * @version $Id$
- */
-class StopStatsRegisterObject implements XWikiStatsStoreItem
-{
-    @Override
-    public String getId()
-    {
-        return null;
-    }
-
-    @Override
-    public void store(List<XWikiStatsStoreItem> register)
-    {
-    }
-}
-
-/**
- * Used to order stopping storing thread.
- * 
- * @version $Id$
- */
-class StopStatsStoreException extends Exception
-{
-
-}
@@ -19,50 +19,298 @@
  */
 package com.xpn.xwiki.store;
 
-/*
- import org.hibernate.jdbc.BatchingBatcher;
- import org.hibernate.jdbc.JDBCContext;
- import org.hibernate.jdbc.ConnectionManager;
- import org.hibernate.HibernateException;
- import org.hibernate.ScrollMode;
- import org.hibernate.Interceptor;
- import org.hibernate.dialect.Dialect;
-
- import java.sql.SQLException;
- import java.sql.ResultSet;
- import java.sql.PreparedStatement;
- import java.sql.CallableStatement;
- */
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
-public class XWikiBatcher
-{
-}
+import org.hibernate.HibernateException;
+import org.hibernate.Interceptor;
+import org.hibernate.ScrollMode;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.jdbc.BatchingBatcher;
+import org.hibernate.jdbc.ConnectionManager;
+import org.hibernate.jdbc.Expectation;
 
-/*
- * private static ThreadLocal sqlStats = new ThreadLocal() { protected synchronized Object initialValue() { return new
- * XWikiBatcherStats(); } }; public static XWikiBatcherStats getSQLStats() { return (XWikiBatcherStats) sqlStats.get();
- * } public void addToBatch(int expectedRowCount) throws SQLException, HibernateException {
- * getSQLStats().incrementAddToBatchCounter(); super.addToBatch(expectedRowCount); } public
- * XWikiBatcher(ConnectionManager cmgr, Interceptor interceptor) { super(cmgr, interceptor); } public void
- * abortBatch(SQLException sqle) { getSQLStats().incrementAbortBatchCounter(); super.abortBatch(sqle); } public
- * CallableStatement prepareCallableStatement(String sql) throws SQLException, HibernateException {
- * addToPreparedSql(sql); return super.prepareCallableStatement(sql); } private void addToPreparedSql(String sql) {
- * getSQLStats().addToSqlList(sql); getSQLStats().incrementPreparedSQLCounter(); } public PreparedStatement
- * prepareStatement(String sql, boolean getGeneratedKeys, String[] param) throws SQLException, HibernateException {
- * addToPreparedSql(sql); return super.prepareStatement(sql, getGeneratedKeys, param); } public PreparedStatement
- * prepareSelectStatement(String sql) throws SQLException, HibernateException { addToPreparedSql(sql); return
- * super.prepareSelectStatement(sql); } public PreparedStatement prepareQueryStatement(String sql, boolean scrollable,
- * ScrollMode scrollMode) throws SQLException, HibernateException { addToPreparedSql(sql); return
- * super.prepareQueryStatement(sql, scrollable, scrollMode); } public CallableStatement
- * prepareCallableQueryStatement(String sql, boolean scrollable, ScrollMode scrollMode) throws SQLException,
- * HibernateException { addToPreparedSql(sql); return super.prepareCallableQueryStatement(sql, scrollable, scrollMode);
- * } public PreparedStatement prepareBatchStatement(String sql) throws SQLException, HibernateException {
- * addToPreparedSql(sql); return super.prepareBatchStatement(sql); } public CallableStatement
- * prepareBatchCallableStatement(String sql) throws SQLException, HibernateException { addToPreparedSql(sql); return
- * super.prepareBatchCallableStatement(sql); } public ResultSet getResultSet(PreparedStatement ps) throws SQLException {
- * getSQLStats().incrementResultSetCounter(); return super.getResultSet(ps); } public ResultSet
- * getResultSet(CallableStatement ps, Dialect dialect) throws SQLException { getSQLStats().incrementResultSetCounter();
- * return super.getResultSet(ps, dialect); } protected void doExecuteBatch(PreparedStatement ps) throws SQLException,
- * HibernateException { getSQLStats().incrementExecuteBatchCounter(); super.doExecuteBatch(ps);
- * getSQLStats().resetOnNextSQL(); } }
+/**
+ * Hibernate batcher collecting statistics about the SQL statements executed by the current thread (see
+ * {@link #getSQLStats()}) and by the whole instance (see {@link XWikiSQLStatistics}).
+ * <p>
+ * Enabled by setting the <code>jdbc.factory_class</code> Hibernate property to {@link XWikiBatcherFactory}.
+ * 
+ * @version $Id$
  */
+public class XWikiBatcher extends BatchingBatcher
+{
+    /**
+     * The statistics of the current thread.
+     */
+    private static final ThreadLocal<XWikiBatcherStats> SQL_STATS = new ThreadLocal<XWikiBatcherStats>()
+    {
+        @Override
+        protected XWikiBatcherStats initialValue()
+        {
+            return new XWikiBatcherStats();
+        }
+    };
+
+    /**
+     * The SQL of the statements prepared by this batcher which are not closed yet, used to attribute execution time.
+     */
+    private final Map<PreparedStatement, String> statements = new IdentityHashMap<PreparedStatement, String>();
+
+    /**
+     * @param connectionManager the Hibernate connection manager
+     * @param interceptor the Hibernate interceptor
+     */
+    public XWikiBatcher(ConnectionManager connectionManager, Interceptor interceptor)
+    {
+        super(connectionManager, interceptor);
+    }
+
+    /**
+     * @return the SQL statistics of the current thread
+     */
+    public static XWikiBatcherStats getSQLStats()
+    {
+        return SQL_STATS.get();
+    }
+
+    /**
+     * @param sql the SQL of the prepared statement
+     * @param statement the prepared statement
+     * @param <S> the type of statement
+     * @return the passed statement
+     */
+    private <S extends PreparedStatement> S prepared(String sql, S statement)
+    {
+        getSQLStats().addToSqlList(sql);
+        getSQLStats().incrementPreparedSQLCounter();
+
+        this.statements.put(statement, sql);
+
+        return statement;
+    }
+
+    /**
+     * Hibernate executes the non batched updates directly on the prepared statement, without going through the
+     * batcher, so the statement is wrapped to measure them.
+     * 
+     * @param statement the prepared statement
+     * @param type the interface of the statement
+     * @param <S> the type of statement
+     * @return a statement measuring the execution time of its updates
+     */
+    private <S extends PreparedStatement> S timeUpdates(final S statement, Class<S> type)
+    {
+        return type.cast(Proxy.newProxyInstance(XWikiBatcher.class.getClassLoader(), new Class< ? >[] {type},
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    if (!method.getName().equals("executeUpdate")) {
+                        return invokeStatement(statement, method, args);
+                    }
+
+                    long startTime = System.nanoTime();
+                    try {
+                        return invokeStatement(statement, method, args);
+                    } finally {
+                        executed((PreparedStatement) proxy, startTime);
+                    }
+                }
+            }));
+    }
+
+    /**
+     * @param statement the statement on which to call the method
+     * @param method the method to call
+     * @param args the arguments of the method
+     * @return the result of the method
+     * @throws Throwable the exception thrown by the method
+     */
+    private static Object invokeStatement(PreparedStatement statement, Method method, Object[] args) throws Throwable
+    {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @param statement the executed statement
+     * @param startTime the time when the execution started, in nanoseconds
+     */
+    private void executed(PreparedStatement statement, long startTime)
+    {
+        long time = System.nanoTime() - startTime;
+
+        getSQLStats().addExecutionTime(time);
+
+        String sql = this.statements.get(statement);
+        if (sql != null) {
+            XWikiSQLStatistics.getInstance().executed(sql, time);
+        }
+    }
+
+    @Override
+    public PreparedStatement prepareSelectStatement(String sql) throws SQLException, HibernateException
+    {
+        return prepared(sql, super.prepareSelectStatement(sql));
+    }
+
+    @Override
+    public PreparedStatement prepareQueryStatement(String sql, boolean scrollable, ScrollMode scrollMode)
+        throws SQLException, HibernateException
+    {
+        return prepared(sql, super.prepareQueryStatement(sql, scrollable, scrollMode));
+    }
+
+    @Override
+    public CallableStatement prepareCallableQueryStatement(String sql, boolean scrollable, ScrollMode scrollMode)
+        throws SQLException, HibernateException
+    {
+        return prepared(sql, super.prepareCallableQueryStatement(sql, scrollable, scrollMode));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException, HibernateException
+    {
+        return prepared(sql, timeUpdates(super.prepareStatement(sql), PreparedStatement.class));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, boolean getGeneratedKeys) throws SQLException,
+        HibernateException
+    {
+        return prepared(sql, timeUpdates(super.prepareStatement(sql, getGeneratedKeys), PreparedStatement.class));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException,
+        HibernateException
+    {
+        return prepared(sql, timeUpdates(super.prepareStatement(sql, columnNames), PreparedStatement.class));
+    }
+
+    @Override
+    public CallableStatement prepareCallableStatement(String sql) throws SQLException, HibernateException
+    {
+        return prepared(sql, timeUpdates(super.prepareCallableStatement(sql), CallableStatement.class));
+    }
+
+    @Override
+    public PreparedStatement prepareBatchStatement(String sql) throws SQLException, HibernateException
+    {
+        PreparedStatement statement = super.prepareBatchStatement(sql);
+
+        // The same statement is reused for all the batched operations
+        if (!this.statements.containsKey(statement)) {
+            prepared(sql, statement);
+        }
+
+        return statement;
+    }
+
+    @Override
+    public CallableStatement prepareBatchCallableStatement(String sql) throws SQLException, HibernateException
+    {
+        CallableStatement statement = super.prepareBatchCallableStatement(sql);
+
+        if (!this.statements.containsKey(statement)) {
+            prepared(sql, statement);
+        }
+
+        return statement;
+    }
+
+    @Override
+    public ResultSet getResultSet(PreparedStatement ps) throws SQLException
+    {
+        getSQLStats().incrementResultSetCounter();
+
+        long startTime = System.nanoTime();
+        try {
+            return super.getResultSet(ps);
+        } finally {
+            executed(ps, startTime);
+        }
+    }
+
+    @Override
+    public ResultSet getResultSet(CallableStatement ps, Dialect dialect) throws SQLException
+    {
+        getSQLStats().incrementResultSetCounter();
+
+        long startTime = System.nanoTime();
+        try {
+            return super.getResultSet(ps, dialect);
+        } finally {
+            executed(ps, startTime);
+        }
+    }
+
+    @Override
+    public void addToBatch(Expectation expectation) throws SQLException, HibernateException
+    {
+        getSQLStats().incrementAddToBatchCounter();
+
+        super.addToBatch(expectation);
+    }
+
+    @Override
+    protected void doExecuteBatch(PreparedStatement ps) throws SQLException, HibernateException
+    {
+        getSQLStats().incrementExecuteBatchCounter();
+
+        long startTime = System.nanoTime();
+        try {
+            super.doExecuteBatch(ps);
+        } finally {
+            executed(ps, startTime);
+            this.statements.remove(ps);
+        }
+
+        getSQLStats().resetOnNextSQL();
+    }
+
+    @Override
+    public void abortBatch(SQLException sqle)
+    {
+        getSQLStats().incrementAbortBatchCounter();
+
+        super.abortBatch(sqle);
+    }
+
+    @Override
+    public void closeStatement(PreparedStatement ps) throws SQLException
+    {
+        this.statements.remove(ps);
+
+        super.closeStatement(ps);
+    }
+
+    @Override
+    public void closeQueryStatement(PreparedStatement ps, ResultSet rs) throws SQLException
+    {
+        this.statements.remove(ps);
+
+        super.closeQueryStatement(ps, rs);
+    }
+
+    @Override
+    public void closeStatements()
+    {
+        this.statements.clear();
+
+        super.closeStatements();
+    }
+}
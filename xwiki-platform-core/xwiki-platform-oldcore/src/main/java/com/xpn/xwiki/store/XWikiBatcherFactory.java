@@ -19,10 +19,30 @@
  */
 package com.xpn.xwiki.store;
 
-public class XWikiBatcherFactory
+import org.hibernate.Interceptor;
+import org.hibernate.jdbc.Batcher;
+import org.hibernate.jdbc.BatchingBatcherFactory;
+import org.hibernate.jdbc.ConnectionManager;
+
+/**
+ * Create {@link XWikiBatcher} instances. To use it set the <code>jdbc.factory_class</code> property to
+ * <code>com.xpn.xwiki.store.XWikiBatcherFactory</code> in hibernate.cfg.xml.
+ * 
+ * @version $Id$
+ */
+public class XWikiBatcherFactory extends BatchingBatcherFactory
 {
+    /**
+     * Register the SQL statistics against the JMX server.
+     */
+    public XWikiBatcherFactory()
+    {
+        XWikiSQLStatistics.getInstance().register();
+    }
+
+    @Override
+    public Batcher createBatcher(ConnectionManager connectionManager, Interceptor interceptor)
+    {
+        return new XWikiBatcher(connectionManager, interceptor);
+    }
 }
-/*
- * public class XWikiBatcherFactory extends BatchingBatcherFactory { public Batcher createBatcher(ConnectionManager
- * cmgr, Interceptor interceptor) { return new XWikiBatcher( cmgr, interceptor ); } }
- */
@@ -22,17 +22,39 @@
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * SQL statistics of the current request collected by {@link XWikiBatcher}.
+ * 
+ * @version $Id$
+ */
 public class XWikiBatcherStats
 {
+    /**
+     * The xwiki.cfg property indicating the number of statements above which the statistics of the request are logged.
+     */
+    public static final String THRESHOLD_PROPERTY = "xwiki.store.hibernate.sqlstats.threshold";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiBatcherStats.class);
 
-    private List sqlList = new ArrayList();
+    /**
+     * The maximum number of statements remembered in the SQL lists, we don't want a request executing a huge number
+     * of statements to also use a huge amount of memory.
+     */
+    private static final int MAX_SQL_LIST_SIZE = 1000;
+
+    private List<String> sqlList = new ArrayList<String>();
+
+    private List<String> recentSqlList = new ArrayList<String>();
 
-    private List recentSqlList = new ArrayList();
+    private long executionTime;
 
     private boolean resetOnNextSQL = false;
 
@@ -48,7 +70,10 @@
 
     public void resetStats()
     {
-        sqlList = new ArrayList();
+        sqlList = new ArrayList<String>();
+        recentSqlList = new ArrayList<String>();
+        resetOnNextSQL = false;
+        executionTime = 0;
         preparedSQLCounter = 0;
         executeBatchCounter = 0;
         abortBatchCounter = 0;
@@ -56,19 +81,19 @@ public void resetStats()
         addToBatchCounter = 0;
     }
 
-    public List getSqlList()
+    public List<String> getSqlList()
     {
         return sqlList;
     }
 
-    public List getRecentSqlList()
+    public List<String> getRecentSqlList()
     {
         return recentSqlList;
     }
 
     public void resetRecentSqlList()
     {
-        recentSqlList = new ArrayList();
+        recentSqlList = new ArrayList<String>();
     }
 
     public void addToSqlList(String sql)
@@ -77,8 +102,28 @@ public void addToSqlList(String sql)
             resetRecentSqlList();
             resetOnNextSQL = false;
         }
-        this.recentSqlList.add(sql);
-        this.sqlList.add(sql);
+        if (this.sqlList.size() < MAX_SQL_LIST_SIZE) {
+            this.recentSqlList.add(sql);
+            this.sqlList.add(sql);
+        }
+    }
+
+    /**
+     * @param time the time spent executing a statement, in nanoseconds
+     * @since 6.0M1
+     */
+    public void addExecutionTime(long time)
+    {
+        this.executionTime += time;
+    }
+
+    /**
+     * @return the time spent executing statements (queries and batches), in milliseconds
+     * @since 6.0M1
+     */
+    public long getExecutionTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.executionTime);
     }
 
     public void resetOnNextSQL()
@@ -138,7 +183,7 @@ public void incrementAddToBatchCounter()
 
     public void printSQLList(PrintStream out)
     {
-        out.println("SQL: number of queries " + sqlList.size());
+        out.println("SQL: number of queries " + preparedSQLCounter);
         for (int i = 0; i < sqlList.size(); i++) {
             out.println("SQL: " + sqlList.get(i));
         }
@@ -148,10 +193,33 @@ public void printSQLList(PrintStream out)
     public void logSQLList()
     {
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("SQL: number of queries " + sqlList.size());
+            LOGGER.debug("SQL: number of queries " + preparedSQLCounter);
             for (int i = 0; i < sqlList.size(); i++) {
                 LOGGER.debug("SQL: " + sqlList.get(i));
             }
         }
     }
+
+    /**
+     * Log the statistics of the request if it executed more statements than the configured threshold.
+     * 
+     * @param context the XWiki context of the request
+     * @since 6.0M1
+     */
+    public void endRequest(XWikiContext context)
+    {
+        int threshold =
+            context.getWiki() != null ? NumberUtils.toInt(context.getWiki().Param(THRESHOLD_PROPERTY), 0) : 0;
+
+        if (threshold > 0 && preparedSQLCounter > threshold) {
+            LOGGER.warn("Request [{}] with action [{}] prepared [{}] SQL statements (threshold is [{}]), "
+                + "read [{}] result sets and executed [{}] batches in [{}] ms", new Object[] {context.getURL(),
+                context.getAction(), preparedSQLCounter, threshold, resultSetCounter, executeBatchCounter,
+                getExecutionTime()});
+
+            if (LOGGER.isDebugEnabled()) {
+                logSQLList();
+            }
+        }
+    }
 }
@@ -21,6 +21,7 @@
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,9 +32,11 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheFactory;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.cache.eviction.WeightedLRUEvictionConfiguration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
@@ -46,6 +49,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.internal.cache.XWikiDocumentWeigher;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 
@@ -69,6 +73,26 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
 
     private int pageExistCacheCapacity = 10000;
 
+    /**
+     * Maximum estimated memory used by the documents in the cache, 0 if only the number of documents is limited.
+     */
+    private long cacheMaxWeight;
+
+    /**
+     * Number of document loads served by the document cache.
+     */
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Number of document loads or existence checks for missing documents served by the page exist cache.
+     */
+    private final AtomicLong negativeCacheHits = new AtomicLong();
+
+    /**
+     * Number of document loads and existence checks which had to go to the underlying store.
+     */
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     /**
      * Used to know if a received event is a local or remote one.
      */
@@ -113,6 +137,13 @@ public synchronized void initCache(XWikiContext context) throws XWikiException
                 }
             } catch (Exception e) {
             }
+            try {
+                String maxWeight = context.getWiki().Param("xwiki.store.cache.maxweight");
+                if (maxWeight != null) {
+                    this.cacheMaxWeight = Long.parseLong(maxWeight);
+                }
+            } catch (Exception e) {
+            }
             try {
                 String capacity = context.getWiki().Param("xwiki.store.cache.pageexistcapacity");
                 if (capacity != null) {
@@ -132,7 +163,12 @@ public void initCache(int capacity, int pageExistCacheCapacity, XWikiContext con
         try {
             CacheConfiguration cacheConfiguration = new CacheConfiguration();
             cacheConfiguration.setConfigurationId("xwiki.store.pagecache");
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            LRUEvictionConfiguration lru;
+            if (this.cacheMaxWeight > 0) {
+                lru = new WeightedLRUEvictionConfiguration(this.cacheMaxWeight, new XWikiDocumentWeigher());
+            } else {
+                lru = new LRUEvictionConfiguration();
+            }
             lru.setMaxEntries(capacity);
             cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
 
@@ -278,25 +314,46 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
 
         LOGGER.debug("Cache: Trying to get doc {} from cache", key);
 
-        XWikiDocument cachedoc = getCache().get(key);
+        DocumentLoader loader = new DocumentLoader(doc, context);
+
+        XWikiDocument cachedoc;
+        try {
+            // Concurrent loads of the same document wait for the first one instead of all hitting the store. A thread
+            // which is itself loading a document (e.g. the classes of the objects of another document) never waits
+            // for another loading, so documents depending on each other can't dead lock.
+            cachedoc = getCache().computeIfAbsent(key, loader);
+        } catch (CacheException e) {
+            if (e.getCause() instanceof XWikiException) {
+                throw (XWikiException) e.getCause();
+            }
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_READING_DOC, "Failed to load document [" + key + "]",
+                e.getCause());
+        }
+
+        if (loader.loaded) {
+            this.cacheMisses.incrementAndGet();
+
+            doc = cachedoc != null ? cachedoc : loader.missingDocument;
+        } else if (cachedoc != null) {
+            this.cacheHits.incrementAndGet();
 
-        if (cachedoc != null) {
             doc = cachedoc;
             doc.setFromCache(true);
 
             LOGGER.debug("Cache: got doc {} from cache", key);
         } else {
-            LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+            // We already know that the document does not exist: no need to ask the store nor to fill the document
+            // cache with an empty document.
+            this.negativeCacheHits.incrementAndGet();
 
-            doc = this.store.loadXWikiDoc(doc, context);
             doc.setStore(this.store);
+            doc.setNew(true);
+            // Same as what the store does for a document that does not exist.
+            doc.setOriginalDocument(new XWikiDocument(doc.getDocumentReference()));
 
-            LOGGER.debug("Cache: Got doc {} from storage", key);
-
-            getCache().set(key, doc);
-            getPageExistCache().set(key, new Boolean(!doc.isNew()));
-
-            LOGGER.debug("Cache: put doc {} in cache", key);
+            LOGGER.debug("Cache: doc {} is known to not exist", key);
         }
 
         LOGGER.debug("Cache: end for doc {} in cache", key);
@@ -315,8 +372,7 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
         initCache(context);
 
         getCache().remove(key);
-        getPageExistCache().remove(key);
-        getPageExistCache().set(key, new Boolean(false));
+        getPageExistCache().set(key, Boolean.FALSE);
     }
 
     @Override
@@ -628,17 +684,58 @@ public boolean exists(XWikiDocument doc, XWikiContext context) throws XWikiExcep
             Boolean result = getPageExistCache().get(key);
 
             if (result != null) {
+                if (!result) {
+                    this.negativeCacheHits.incrementAndGet();
+                }
+
                 return result;
             }
+
+            // A document in the document cache always exists (missing documents are never put in it)
+            if (getCache().get(key) != null) {
+                this.cacheHits.incrementAndGet();
+                getPageExistCache().set(key, Boolean.TRUE);
+
+                return true;
+            }
         } catch (Exception e) {
         }
 
+        this.cacheMisses.incrementAndGet();
+
         boolean result = this.store.exists(doc, context);
-        getPageExistCache().set(key, new Boolean(result));
+        getPageExistCache().set(key, Boolean.valueOf(result));
 
         return result;
     }
 
+    /**
+     * @return the number of document loads and existence checks served by the document cache
+     * @since 6.0M1
+     */
+    public long getCacheHits()
+    {
+        return this.cacheHits.get();
+    }
+
+    /**
+     * @return the number of document loads and existence checks for missing documents served by the page exist cache
+     * @since 6.0M1
+     */
+    public long getNegativeCacheHits()
+    {
+        return this.negativeCacheHits.get();
+    }
+
+    /**
+     * @return the number of document loads and existence checks which had to go to the underlying store
+     * @since 6.0M1
+     */
+    public long getCacheMisses()
+    {
+        return this.cacheMisses.get();
+    }
+
     public Cache<XWikiDocument> getCache()
     {
         return this.cache;
@@ -688,4 +785,62 @@ public QueryManager getQueryManager()
     {
         return getStore().getQueryManager();
     }
+
+    /**
+     * Load a document missing from the document cache from the persistent storage.
+     */
+    private class DocumentLoader implements CacheLoader<XWikiDocument>
+    {
+        private final XWikiDocument document;
+
+        private final XWikiContext context;
+
+        /**
+         * True if the document has been loaded from the persistent storage.
+         */
+        private boolean loaded;
+
+        /**
+         * The loaded document when it does not exist (it's not put in the document cache).
+         */
+        private XWikiDocument missingDocument;
+
+        DocumentLoader(XWikiDocument document, XWikiContext context)
+        {
+            this.document = document;
+            this.context = context;
+        }
+
+        @Override
+        public XWikiDocument load(String key) throws XWikiException
+        {
+            if (Boolean.FALSE.equals(getPageExistCache().get(key))) {
+                return null;
+            }
+
+            LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
+
+            XWikiDocument doc = XWikiCacheStore.this.store.loadXWikiDoc(this.document, this.context);
+            doc.setStore(XWikiCacheStore.this.store);
+
+            this.loaded = true;
+
+            LOGGER.debug("Cache: Got doc {} from storage", key);
+
+            if (doc.isNew()) {
+                // Only remember that the document does not exist, it's a lot cheaper than keeping an empty document
+                // in the document cache and it does not evict existing documents.
+                getPageExistCache().set(key, Boolean.FALSE);
+                this.missingDocument = doc;
+
+                return null;
+            }
+
+            getPageExistCache().set(key, Boolean.TRUE);
+
+            LOGGER.debug("Cache: put doc {} in cache", key);
+
+            return doc;
+        }
+    }
 }
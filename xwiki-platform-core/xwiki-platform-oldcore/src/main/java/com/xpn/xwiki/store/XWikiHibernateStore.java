@@ -25,6 +25,7 @@
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -62,10 +63,8 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.ExecutionContext;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
@@ -91,6 +90,7 @@
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.BaseStringProperty;
 import com.xpn.xwiki.objects.DBStringListProperty;
+import com.xpn.xwiki.objects.DateProperty;
 import com.xpn.xwiki.objects.DoubleProperty;
 import com.xpn.xwiki.objects.FloatProperty;
 import com.xpn.xwiki.objects.IntegerProperty;
@@ -123,6 +123,14 @@
 @Singleton
 public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWikiStoreInterface
 {
+    /**
+     * The property types stored in a single {@code value} column, which can be loaded for a whole document at once.
+     */
+    private static final Set<String> BULK_VALUE_PROPERTIES = new HashSet<String>(Arrays.asList(
+        IntegerProperty.class.getName(), LongProperty.class.getName(), FloatProperty.class.getName(),
+        DoubleProperty.class.getName(), StringProperty.class.getName(), DateProperty.class.getName(),
+        LargeStringProperty.class.getName()));
+
     @Inject
     private Logger logger;
 
@@ -869,12 +877,8 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                 @SuppressWarnings("unchecked")
                 Iterator<BaseObject> it = query.list().iterator();
 
-                EntityReference localGroupEntityReference = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
-                    new EntityReference("XWiki", EntityType.SPACE));
-                DocumentReference groupsDocumentReference = new DocumentReference(context.getDatabase(),
-                    localGroupEntityReference.getParent().getName(), localGroupEntityReference.getName());
-
-                boolean hasGroups = false;
+                // Objects whose properties can be fetched with the document-wide property queries.
+                List<BaseObject> bulkObjects = new ArrayList<BaseObject>();
                 while (it.hasNext()) {
                     BaseObject object = it.next();
                     DocumentReference classReference = object.getXClassReference();
@@ -904,44 +908,28 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
                         object = newobject;
                     }
 
-                    if (classReference.equals(groupsDocumentReference)) {
-                        // Groups objects are handled differently.
-                        hasGroups = true;
-                    } else {
+                    if (hasCustomMapping(getObjectXClass(object, doc, context), context)) {
+                        // Custom mapped properties live in their own table so they are loaded one object at a time.
                         loadXWikiCollectionInternal(object, doc, context, false, true);
+                    } else {
+                        bulkObjects.add(object);
                     }
                     doc.setXObject(object.getNumber(), object);
                 }
 
-                // AFAICT this was added as an emergency patch because loading of objects has proven
-                // too slow and the objects which cause the most overhead are the XWikiGroups objects
-                // as each group object (each group member) would otherwise cost 2 database queries.
-                // This will do every group member in a single query.
-                if (hasGroups) {
-                    Query query2 = session.createQuery("select bobject.number, prop.value from StringProperty as prop,"
-                        + "BaseObject as bobject where bobject.name = :name and bobject.className='XWiki.XWikiGroups' "
-                        + "and bobject.id=prop.id.id and prop.id.name='member' order by bobject.number");
-                    query2.setText("name", doc.getFullName());
-                    @SuppressWarnings("unchecked")
-                    Iterator<Object[]> it2 = query2.list().iterator();
-                    while (it2.hasNext()) {
-                        Object[] result = it2.next();
-                        Integer number = (Integer) result[0];
-                        String member = (String) result[1];
-                        BaseObject obj = BaseClass.newCustomClassInstance(groupsDocumentReference, context);
-                        obj.setDocumentReference(doc.getDocumentReference());
-                        obj.setXClassReference(localGroupEntityReference);
-                        obj.setNumber(number.intValue());
-                        obj.setStringValue("member", member);
-                        doc.setXObject(obj.getNumber(), obj);
-                    }
+                // Load the properties of all the remaining objects with a fixed number of queries (one for the
+                // property index and one per property table) instead of several queries per object.
+                if (!bulkObjects.isEmpty()) {
+                    loadXWikiObjectsProperties(bulkObjects, doc, session, context);
                 }
             }
 
             doc.setContentDirty(false);
             doc.setMetaDataDirty(false);
 
-            // We need to ensure that the loaded document becomes the original document
+            // We need to ensure that the loaded document becomes the original document. It has to be a real copy: the
+            // cached instance is sometimes modified in place (e.g. XWiki#addUserToGroup) and the model has no hook on
+            // the object and property setters which would allow to copy it lazily on the first modification.
             doc.setOriginalDocument(doc.clone());
 
             if (bTransaction) {
@@ -1222,22 +1210,11 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
             // If the class reference is null in the loaded object then skip loading properties
             if (classReference != null) {
-
-                BaseClass bclass = null;
-                if (!classReference.equals(object.getDocumentReference())) {
-                    // Let's check if the class has a custom mapping
-                    bclass = object.getXClass(context);
-                } else {
-                    // We need to get it from the document otherwise
-                    // we will go in an endless loop
-                    if (doc != null) {
-                        bclass = doc.getXClass();
-                    }
-                }
+                BaseClass bclass = getObjectXClass(object, doc, context);
 
                 List<String> handledProps = new ArrayList<String>();
                 try {
-                    if ((bclass != null) && (bclass.hasCustomMapping()) && context.getWiki().hasCustomMappings()) {
+                    if (hasCustomMapping(bclass, context)) {
                         Session dynamicSession = session.getSession(EntityMode.MAP);
                         Object map = dynamicSession.load(bclass.getName(), object.getId());
                         // Let's make sure to look for null fields in the dynamic mapping
@@ -1265,55 +1242,8 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
                         continue;
                     }
                     String classType = (String) result[1];
-                    BaseProperty property = null;
 
-                    try {
-                        property = (BaseProperty) Class.forName(classType).newInstance();
-                        property.setObject(object);
-                        property.setName(name);
-                        loadXWikiProperty(property, context, false);
-                    } catch (Exception e) {
-                        // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
-                        try {
-                            if (property instanceof StringProperty) {
-                                LargeStringProperty property2 = new LargeStringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof TextAreaClass) {
-                                        property = property2;
-                                    }
-                                }
-
-                            } else if (property instanceof LargeStringProperty) {
-                                StringProperty property2 = new StringProperty();
-                                property2.setObject(object);
-                                property2.setName(name);
-                                loadXWikiProperty(property2, context, false);
-                                property.setValue(property2.getValue());
-
-                                if (bclass != null) {
-                                    if (bclass.get(name) instanceof StringClass) {
-                                        property = property2;
-                                    }
-                                }
-                            } else {
-                                throw e;
-                            }
-                        } catch (Throwable e2) {
-                            Object[] args =
-                                {object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name};
-                            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
-                                "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'",
-                                e, args);
-                        }
-                    }
-
-                    object.addField(name, property);
+                    object.addField(name, loadXWikiCollectionProperty(object, bclass, name, classType, context));
                 }
             }
 
@@ -1337,6 +1267,251 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
 
     }
 
+    /**
+     * @param object the object for which to get the class
+     * @param doc the document being loaded, used when the object is an instance of the class defined in that same
+     *            document (otherwise we would go in an endless loop), can be {@code null}
+     * @param context the XWiki context
+     * @return the class of the passed object, or {@code null} if it cannot be found
+     * @throws XWikiException when failing to load the class
+     */
+    private BaseClass getObjectXClass(BaseCollection object, XWikiDocument doc, XWikiContext context)
+        throws XWikiException
+    {
+        if (!object.getXClassReference().equals(object.getDocumentReference())) {
+            return object.getXClass(context);
+        }
+
+        return doc != null ? doc.getXClass() : null;
+    }
+
+    private boolean hasCustomMapping(BaseClass bclass, XWikiContext context)
+    {
+        return bclass != null && bclass.hasCustomMapping() && context.getWiki().hasCustomMappings();
+    }
+
+    /**
+     * Load a single property of an object, working around the mismatch between {@link StringProperty} and
+     * {@link LargeStringProperty} which can happen when the type of a class field changed.
+     * 
+     * @param object the object owning the property
+     * @param bclass the class of the object, can be {@code null}
+     * @param name the name of the property
+     * @param classType the property type, as stored in the properties table
+     * @param context the XWiki context
+     * @return the loaded property
+     * @throws XWikiException when failing to load the property
+     */
+    protected BaseProperty loadXWikiCollectionProperty(BaseCollection object, BaseClass bclass, String name,
+        String classType, XWikiContext context) throws XWikiException
+    {
+        BaseProperty property = null;
+
+        try {
+            property = (BaseProperty) Class.forName(classType).newInstance();
+            property.setObject(object);
+            property.setName(name);
+            loadXWikiProperty(property, context, false);
+        } catch (Exception e) {
+            // WORKAROUND IN CASE OF MIXMATCH BETWEEN STRING AND LARGESTRING
+            try {
+                if (property instanceof StringProperty) {
+                    LargeStringProperty property2 = new LargeStringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof TextAreaClass) {
+                            property = property2;
+                        }
+                    }
+
+                } else if (property instanceof LargeStringProperty) {
+                    StringProperty property2 = new StringProperty();
+                    property2.setObject(object);
+                    property2.setName(name);
+                    loadXWikiProperty(property2, context, false);
+                    property.setValue(property2.getValue());
+
+                    if (bclass != null) {
+                        if (bclass.get(name) instanceof StringClass) {
+                            property = property2;
+                        }
+                    }
+                } else {
+                    throw e;
+                }
+            } catch (Throwable e2) {
+                Object[] args =
+                    {object.getName(), object.getClass(), Integer.valueOf(object.getNumber() + ""), name};
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_OBJECT,
+                    "Exception while loading object '{0}' of class '{1}', number '{2}' and property '{3}'", e,
+                    args);
+            }
+        }
+
+        return property;
+    }
+
+    /**
+     * Load the properties of all the passed objects using one query for the property index and one query per property
+     * table, whatever the number of objects. Properties that cannot be resolved this way (e.g. because their value is
+     * not stored in the table matching their declared type) are loaded one by one as before.
+     * 
+     * @param objects the objects of the document, already created but without properties
+     * @param doc the document being loaded
+     * @param session the current Hibernate session
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load a property
+     */
+    protected void loadXWikiObjectsProperties(List<BaseObject> objects, XWikiDocument doc, Session session,
+        XWikiContext context) throws XWikiException
+    {
+        Map<Long, BaseObject> objectsById = new HashMap<Long, BaseObject>();
+        for (BaseObject object : objects) {
+            objectsById.put(object.getId(), object);
+        }
+
+        // The property index: which property of which object is stored with which type
+        Query query = session.createQuery("select prop.id.id, prop.id.name, prop.classType from BaseProperty as prop, "
+            + "BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id");
+        query.setText("name", doc.getFullName());
+        @SuppressWarnings("unchecked")
+        List<Object[]> index = query.list();
+
+        Set<String> classTypes = new HashSet<String>();
+        for (Object[] result : index) {
+            if (objectsById.containsKey(result[0])) {
+                classTypes.add((String) result[2]);
+            }
+        }
+
+        // The values, one query per property table actually used by the document
+        Map<String, Map<Long, Map<String, Object>>> values = new HashMap<String, Map<Long, Map<String, Object>>>();
+        for (String classType : classTypes) {
+            Map<Long, Map<String, Object>> typeValues = loadXWikiPropertyValues(classType, doc, session);
+            if (typeValues != null) {
+                values.put(classType, typeValues);
+            }
+        }
+
+        for (Object[] result : index) {
+            BaseObject object = objectsById.get(result[0]);
+            if (object == null) {
+                continue;
+            }
+            String name = (String) result[1];
+            String classType = (String) result[2];
+
+            BaseProperty property = null;
+            Map<Long, Map<String, Object>> typeValues = values.get(classType);
+            if (typeValues != null) {
+                Map<String, Object> objectValues = typeValues.get(object.getId());
+                if (objectValues != null && objectValues.containsKey(name)) {
+                    property = createXWikiProperty(classType, object, name, objectValues.get(name));
+                }
+            }
+
+            if (property == null) {
+                property = loadXWikiCollectionProperty(object, getObjectXClass(object, doc, context), name,
+                    classType, context);
+            }
+
+            object.addField(name, property);
+        }
+    }
+
+    /**
+     * @param classType the property type
+     * @param doc the document being loaded
+     * @param session the current Hibernate session
+     * @return the values of all the properties of the passed type for all the objects of the document, indexed by
+     *         object id and property name, or {@code null} if the type is not supported by the bulk loading
+     */
+    private Map<Long, Map<String, Object>> loadXWikiPropertyValues(String classType, XWikiDocument doc,
+        Session session)
+    {
+        String entity = StringUtils.substringAfterLast(classType, ".");
+
+        Query query;
+        if (DBStringListProperty.class.getName().equals(classType)) {
+            query = session.createQuery("select prop.id.id, prop.id.name, index(item), item from DBStringListProperty "
+                + "as prop join prop.list as item, BaseObject as bobject where bobject.name = :name "
+                + "and bobject.id = prop.id.id");
+        } else if (StringListProperty.class.getName().equals(classType)) {
+            query = session.createQuery("select prop.id.id, prop.id.name, prop.textValue from StringListProperty "
+                + "as prop, BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id");
+        } else if (BULK_VALUE_PROPERTIES.contains(classType)) {
+            query = session.createQuery("select prop.id.id, prop.id.name, prop.value from " + entity
+                + " as prop, BaseObject as bobject where bobject.name = :name and bobject.id = prop.id.id");
+        } else {
+            return null;
+        }
+        query.setText("name", doc.getFullName());
+
+        Map<Long, Map<String, Object>> values = new HashMap<Long, Map<String, Object>>();
+        for (Object[] result : (List<Object[]>) query.list()) {
+            Long id = (Long) result[0];
+            String name = (String) result[1];
+
+            Map<String, Object> objectValues = values.get(id);
+            if (objectValues == null) {
+                objectValues = new HashMap<String, Object>();
+                values.put(id, objectValues);
+            }
+
+            if (result.length == 4) {
+                // List items come one per row, with their position in the list
+                @SuppressWarnings("unchecked")
+                List<String> list = (List<String>) objectValues.get(name);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    objectValues.put(name, list);
+                }
+                int position = ((Number) result[2]).intValue();
+                while (list.size() <= position) {
+                    list.add(null);
+                }
+                list.set(position, (String) result[3]);
+            } else {
+                objectValues.put(name, result[2]);
+            }
+        }
+
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private BaseProperty createXWikiProperty(String classType, BaseObject object, String name, Object value)
+    {
+        BaseProperty property;
+        try {
+            property = (BaseProperty) Class.forName(classType).newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+        property.setObject(object);
+        property.setName(name);
+
+        if (property instanceof StringListProperty) {
+            ((StringListProperty) property).setTextValue(value != null ? (String) value : "");
+        } else if (property instanceof ListProperty) {
+            ((ListProperty) property).setList(value != null ? (List<String>) value : new ArrayList<String>());
+        } else if (property instanceof BaseStringProperty && value == null) {
+            // In Oracle, empty string are converted to NULL. Since an undefined property is not found at all, it is
+            // safe to assume that a retrieved NULL value should actually be an empty string.
+            property.setValue("");
+        } else {
+            property.setValue(value);
+        }
+        property.setValueDirty(false);
+
+        return property;
+    }
+
     /**
      * @deprecated This is internal to XWikiHibernateStore and may be removed in the future.
      */
@@ -29,7 +29,11 @@
 import javax.inject.Singleton;
 
 import org.hibernate.HibernateException;
+import org.hibernate.Criteria;
 import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +63,18 @@ public class XWikiHibernateVersioningStore extends XWikiHibernateBaseStore imple
     /** Logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(XWikiHibernateVersioningStore.class);
 
+    /** The name of the property holding the document id of a history node. */
+    private static final String DOCID = "id.docId";
+
+    /** The name of the property holding the first number of the version of a history node. */
+    private static final String VERSION1 = "id.version1";
+
+    /** The name of the property holding the second number of the version of a history node. */
+    private static final String VERSION2 = "id.version2";
+
+    /** The name of the property telling if a history node holds a diff or a full version. */
+    private static final String DIFF = "diff";
+
     /** Needed for computing the archive cache key. */
     @Inject
     private EntityReferenceSerializer<String> referenceSerializer;
@@ -198,10 +214,21 @@ public Object doInHibernate(Session session) throws HibernateException
     public XWikiDocument loadXWikiDoc(XWikiDocument basedoc, String sversion, XWikiContext context)
         throws XWikiException
     {
-        XWikiDocumentArchive archive = getXWikiDocumentArchive(basedoc, context);
         Version version = new Version(sversion);
 
-        XWikiDocument doc = archive.loadDocument(version, context);
+        XWikiDocument doc;
+        XWikiDocumentArchive archive = basedoc.getDocumentArchive();
+        if (archive == null) {
+            // Only the nodes between the requested version and the nearest newer full version are needed to
+            // rebuild it, no need to load the whole history
+            archive = loadPartialXWikiDocArchive(basedoc, version, context);
+            doc = archive.loadDocument(version, context);
+            if (doc != null) {
+                doc.setMostRecent(version.equals(basedoc.getRCSVersion()));
+            }
+        } else {
+            doc = archive.loadDocument(version, context);
+        }
         if (doc == null) {
             Object[] args = {basedoc.getFullName(), version.toString()};
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
@@ -243,7 +270,12 @@ public void updateXWikiDocArchive(XWikiDocument doc, boolean bTransaction, XWiki
         throws XWikiException
     {
         try {
-            XWikiDocumentArchive archiveDoc = getXWikiDocumentArchive(doc, context);
+            XWikiDocumentArchive archiveDoc = doc.getDocumentArchive();
+            if (archiveDoc == null) {
+                // Adding a version only touches the latest node of the history so don't load the whole history.
+                // The partial archive is not attached to the document since it can't be used for anything else.
+                archiveDoc = loadLatestXWikiDocArchive(doc, bTransaction, context);
+            }
             archiveDoc.updateArchive(doc, doc.getAuthor(), doc.getDate(), doc.getComment(), doc.getRCSVersion(),
                 context);
             doc.setRCSVersion(archiveDoc.getLatestVersion());
@@ -274,7 +306,7 @@ public List<XWikiRCSNodeInfo> doInHibernate(Session session) throws HibernateExc
             {
                 try {
                     return session.createCriteria(XWikiRCSNodeInfo.class)
-                        .add(Restrictions.eq("id.docId", Long.valueOf(id))).add(Restrictions.isNotNull("diff")).list();
+                        .add(Restrictions.eq(DOCID, Long.valueOf(id))).add(Restrictions.isNotNull(DIFF)).list();
                 } catch (IllegalArgumentException ex) {
                     // This happens when the database has wrong values...
                     LOGGER.warn("Invalid history for document " + id);
@@ -284,6 +316,141 @@ public List<XWikiRCSNodeInfo> doInHibernate(Session session) throws HibernateExc
         });
     }
 
+    /**
+     * Load an archive containing only the latest node of the document history, which is all that is needed for adding
+     * a new version to it.
+     * 
+     * @param doc the document for which to load the history
+     * @param bTransaction should store to use old transaction(false) or create new (true)
+     * @param context the XWiki context
+     * @return the partial archive
+     * @throws XWikiException if any error
+     */
+    private XWikiDocumentArchive loadLatestXWikiDocArchive(XWikiDocument doc, boolean bTransaction,
+        XWikiContext context) throws XWikiException
+    {
+        final long id = doc.getId();
+        final XWikiDocumentArchive archiveDoc = new XWikiDocumentArchive(id);
+
+        String db = context.getDatabase();
+        try {
+            if (doc.getDatabase() != null) {
+                context.setDatabase(doc.getDatabase());
+            }
+            executeRead(context, bTransaction, new HibernateCallback<Object>()
+            {
+                @SuppressWarnings("unchecked")
+                @Override
+                public Object doInHibernate(Session session) throws HibernateException
+                {
+                    try {
+                        List<XWikiRCSNodeInfo> nodes =
+                            createRCSNodeInfoCriteria(session, id).addOrder(Order.desc(VERSION1))
+                                .addOrder(Order.desc(VERSION2)).setMaxResults(1).list();
+                        Number count =
+                            (Number) createRCSNodeInfoCriteria(session, id).setProjection(Projections.rowCount())
+                                .uniqueResult();
+                        archiveDoc.setLatestNodes(nodes, count == null ? nodes.size() : count.intValue());
+                    } catch (IllegalArgumentException ex) {
+                        // This happens when the database has wrong values...
+                        LOGGER.warn("Invalid history for document " + id);
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            context.setDatabase(db);
+        }
+
+        return archiveDoc;
+    }
+
+    /**
+     * Load an archive containing only the nodes needed for rebuilding the passed version of the document, that is the
+     * nodes from this version to the nearest newer full version. The whole history is loaded if no such full version
+     * can be found.
+     * 
+     * @param doc the document for which to load the history
+     * @param version the version to rebuild
+     * @param context the XWiki context
+     * @return the partial archive
+     * @throws XWikiException if any error
+     */
+    private XWikiDocumentArchive loadPartialXWikiDocArchive(XWikiDocument doc, Version version,
+        XWikiContext context) throws XWikiException
+    {
+        final long id = doc.getId();
+        final Criterion fromVersion = createVersionCriterion(version, true);
+
+        String db = context.getDatabase();
+        try {
+            if (doc.getDatabase() != null) {
+                context.setDatabase(doc.getDatabase());
+            }
+            List<XWikiRCSNodeInfo> nodes = executeRead(context, true, new HibernateCallback<List<XWikiRCSNodeInfo>>()
+            {
+                @SuppressWarnings("unchecked")
+                @Override
+                public List<XWikiRCSNodeInfo> doInHibernate(Session session) throws HibernateException
+                {
+                    try {
+                        List<XWikiRCSNodeInfo> fullNodes =
+                            createRCSNodeInfoCriteria(session, id).add(fromVersion)
+                                .add(Restrictions.eq(DIFF, Boolean.FALSE)).addOrder(Order.asc(VERSION1))
+                                .addOrder(Order.asc(VERSION2)).setMaxResults(1).list();
+                        if (fullNodes.isEmpty()) {
+                            return null;
+                        }
+                        Version fullVersion = fullNodes.get(0).getId().getVersion();
+                        Criterion toVersion = createVersionCriterion(fullVersion, false);
+
+                        return createRCSNodeInfoCriteria(session, id).add(fromVersion).add(toVersion).list();
+                    } catch (IllegalArgumentException ex) {
+                        // This happens when the database has wrong values...
+                        LOGGER.warn("Invalid history for document " + id);
+                        return Collections.emptyList();
+                    }
+                }
+            });
+
+            XWikiDocumentArchive archiveDoc = new XWikiDocumentArchive(id);
+            if (nodes != null) {
+                archiveDoc.setNodes(nodes);
+            } else {
+                loadXWikiDocArchive(archiveDoc, true, context);
+            }
+            return archiveDoc;
+        } finally {
+            context.setDatabase(db);
+        }
+    }
+
+    /**
+     * @param version the version to compare with
+     * @param newer true for matching the versions newer than the passed one, false for matching the older ones
+     * @return a criterion matching the history nodes whose version is the passed one or a newer (or older) one
+     */
+    private Criterion createVersionCriterion(Version version, boolean newer)
+    {
+        Integer version1 = Integer.valueOf(version.at(0));
+        Integer version2 = Integer.valueOf(version.at(1));
+
+        return Restrictions.or(newer ? Restrictions.gt(VERSION1, version1) : Restrictions.lt(VERSION1, version1),
+            Restrictions.and(Restrictions.eq(VERSION1, version1), newer ? Restrictions.ge(VERSION2, version2)
+                : Restrictions.le(VERSION2, version2)));
+    }
+
+    /**
+     * @param session the Hibernate session
+     * @param id {@link XWikiRCSNodeInfo#getId()} document id
+     * @return a criteria matching the history nodes of the document
+     */
+    private Criteria createRCSNodeInfoCriteria(Session session, long id)
+    {
+        return session.createCriteria(XWikiRCSNodeInfo.class).add(Restrictions.eq(DOCID, Long.valueOf(id)))
+            .add(Restrictions.isNotNull(DIFF));
+    }
+
     @Override
     public XWikiRCSNodeContent loadRCSNodeContent(final XWikiRCSNodeId id, boolean bTransaction, XWikiContext context)
         throws XWikiException
@@ -0,0 +1,240 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregate the execution statistics of the SQL statements collected by {@link XWikiBatcher} across all requests.
+ * Exposed through JMX as <code>org.xwiki:type=Store,name=SQLStatistics</code>.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public final class XWikiSQLStatistics implements XWikiSQLStatisticsMBean
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiSQLStatistics.class);
+
+    private static final XWikiSQLStatistics INSTANCE = new XWikiSQLStatistics();
+
+    /**
+     * The maximum number of distinct statements for which statistics are collected. Statements generated with
+     * literals instead of parameters could otherwise fill the memory.
+     */
+    private static final int MAX_STATEMENTS = 5000;
+
+    private static final String JMX_NAME = "org.xwiki:type=Store,name=SQLStatistics";
+
+    /**
+     * Execution statistics of a statement.
+     */
+    private static class StatementStatistics
+    {
+        private final String sql;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong time = new AtomicLong();
+
+        StatementStatistics(String sql)
+        {
+            this.sql = sql;
+        }
+
+        /**
+         * @return the current values of the statistics
+         */
+        StatementSnapshot snapshot()
+        {
+            return new StatementSnapshot(this.sql, this.count.get(), this.time.get());
+        }
+    }
+
+    /**
+     * Values of the statistics of a statement at a given time. The statistics keep changing while being sorted so they
+     * are copied first: comparing changing values breaks the contract of the comparator.
+     */
+    private static final class StatementSnapshot
+    {
+        private final String sql;
+
+        private final long count;
+
+        private final long time;
+
+        StatementSnapshot(String sql, long count, long time)
+        {
+            this.sql = sql;
+            this.count = count;
+            this.time = time;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d executions, %d ms: %s", this.count, TimeUnit.NANOSECONDS.toMillis(this.time),
+                this.sql);
+        }
+    }
+
+    private final ConcurrentMap<String, StatementStatistics> statements =
+        new ConcurrentHashMap<String, StatementStatistics>();
+
+    private volatile int topSize = 20;
+
+    private boolean registered;
+
+    private XWikiSQLStatistics()
+    {
+    }
+
+    /**
+     * @return the unique instance
+     */
+    public static XWikiSQLStatistics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Register against the platform JMX server, if not already done.
+     */
+    public synchronized void register()
+    {
+        if (!this.registered) {
+            try {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                mbs.registerMBean(this, new ObjectName(JMX_NAME));
+                this.registered = true;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to register SQL statistics against the JMX Server: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param sql the executed statement
+     * @param time the time it took to execute the statement, in nanoseconds
+     */
+    public void executed(String sql, long time)
+    {
+        StatementStatistics statistics = this.statements.get(sql);
+
+        if (statistics == null) {
+            if (this.statements.size() >= MAX_STATEMENTS) {
+                return;
+            }
+
+            statistics = new StatementStatistics(sql);
+            StatementStatistics existing = this.statements.putIfAbsent(sql, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+
+        statistics.count.incrementAndGet();
+        statistics.time.addAndGet(time);
+    }
+
+    @Override
+    public int getStatementCount()
+    {
+        return this.statements.size();
+    }
+
+    @Override
+    public int getTopSize()
+    {
+        return this.topSize;
+    }
+
+    @Override
+    public void setTopSize(int topSize)
+    {
+        this.topSize = topSize;
+    }
+
+    @Override
+    public String[] getTopStatementsByCount()
+    {
+        return getTopStatements(new Comparator<StatementSnapshot>()
+        {
+            @Override
+            public int compare(StatementSnapshot s1, StatementSnapshot s2)
+            {
+                return Long.valueOf(s2.count).compareTo(s1.count);
+            }
+        });
+    }
+
+    @Override
+    public String[] getTopStatementsByTime()
+    {
+        return getTopStatements(new Comparator<StatementSnapshot>()
+        {
+            @Override
+            public int compare(StatementSnapshot s1, StatementSnapshot s2)
+            {
+                return Long.valueOf(s2.time).compareTo(s1.time);
+            }
+        });
+    }
+
+    /**
+     * @param comparator the order of the statements
+     * @return the first statements according to the passed order
+     */
+    private String[] getTopStatements(Comparator<StatementSnapshot> comparator)
+    {
+        List<StatementSnapshot> sorted = new ArrayList<StatementSnapshot>(this.statements.size());
+        for (StatementStatistics statistics : this.statements.values()) {
+            sorted.add(statistics.snapshot());
+        }
+        Collections.sort(sorted, comparator);
+
+        int size = Math.min(this.topSize, sorted.size());
+        String[] top = new String[size];
+        for (int i = 0; i < size; ++i) {
+            top[i] = sorted.get(i).toString();
+        }
+
+        return top;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.statements.clear();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+/**
+ * JMX interface of {@link XWikiSQLStatistics}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public interface XWikiSQLStatisticsMBean
+{
+    /**
+     * @return the number of distinct statements for which statistics are collected
+     */
+    int getStatementCount();
+
+    /**
+     * @return the number of statements returned by {@link #getTopStatementsByCount()} and
+     *         {@link #getTopStatementsByTime()}
+     */
+    int getTopSize();
+
+    /**
+     * @param topSize the number of statements returned by {@link #getTopStatementsByCount()} and
+     *            {@link #getTopStatementsByTime()}
+     */
+    void setTopSize(int topSize);
+
+    /**
+     * @return the most executed statements with their number of executions and total execution time
+     */
+    String[] getTopStatementsByCount();
+
+    /**
+     * @return the statements with the highest total execution time with their number of executions and total
+     *         execution time
+     */
+    String[] getTopStatementsByTime();
+
+    /**
+     * Forget all the collected statistics.
+     */
+    void reset();
+}
@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.store.hibernate.query;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
@@ -184,7 +185,12 @@ protected void populateParameters(org.hibernate.Query hquery, Query query)
             hquery.setMaxResults(query.getLimit());
         }
         for (Entry<String, Object> e : query.getNamedParameters().entrySet()) {
-            hquery.setParameter(e.getKey(), e.getValue());
+            if (e.getValue() instanceof Collection) {
+                // Used with "in (:parameter)" clauses
+                hquery.setParameterList(e.getKey(), (Collection< ? >) e.getValue());
+            } else {
+                hquery.setParameter(e.getKey(), e.getValue());
+            }
         }
         if (query.getPositionalParameters().size() > 0) {
             int start = Collections.min(query.getPositionalParameters().keySet());
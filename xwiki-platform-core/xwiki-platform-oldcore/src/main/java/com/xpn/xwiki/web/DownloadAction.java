@@ -19,19 +19,29 @@
  */
 package com.xpn.xwiki.web;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.xwiki.configuration.ConfigurationSource;
@@ -40,6 +50,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiAttachmentContent;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.plugin.XWikiPluginManager;
 import com.xpn.xwiki.util.Util;
@@ -77,8 +88,47 @@ public class DownloadAction extends XWikiAction
     /** The name of the HTTP Header that signals a byte-range request. */
     private static final String RANGE_HEADER_NAME = "Range";
 
-    /** The format of a valid range header. */
-    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("bytes=([0-9]+)?-([0-9]+)?");
+    /** The unit prefixing the byte ranges in the range header. */
+    private static final String RANGE_UNIT = "bytes=";
+
+    /** The format of a valid byte range in the range header. */
+    private static final Pattern RANGE_SPEC_PATTERN = Pattern.compile("([0-9]+)?-([0-9]+)?");
+
+    /** The name of the HTTP Header that makes a byte-range request conditional. */
+    private static final String IF_RANGE_HEADER_NAME = "If-Range";
+
+    /** The name of the HTTP Header that indicates the entity tags already known by the client. */
+    private static final String IF_NONE_MATCH_HEADER_NAME = "If-None-Match";
+
+    /** The name of the HTTP Header holding the entity tag of the content. */
+    private static final String ETAG_HEADER_NAME = "ETag";
+
+    /** The prefix of weak entity tags. */
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    /** The name of the HTTP Header indicating the range of bytes sent in a partial response. */
+    private static final String CONTENT_RANGE_HEADER_NAME = "Content-Range";
+
+    /** The line separator of HTTP multipart contents. */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * The maximum number of byte ranges sent in a {@code multipart/byteranges} response, the whole content is sent
+     * when more ranges are requested.
+     */
+    private static final int MAX_RANGES = 16;
+
+    /** The request attribute set by Tomcat when the connector is able to send files by itself. */
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+    /** The request attribute indicating to Tomcat the file to send. */
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+
+    /** The request attribute indicating to Tomcat the first byte of the file to send. */
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+
+    /** The request attribute indicating to Tomcat the end (exclusive) of the file to send. */
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
 
     @Override
     public String render(XWikiContext context) throws XWikiException
@@ -121,34 +171,123 @@ public String render(XWikiContext context) throws XWikiException
                 "Attachment content {0} not found", null, args);
         }
 
-        long lastModifiedOnClient = request.getDateHeader("If-Modified-Since");
-        long lastModifiedOnServer = attachment.getDate().getTime();
-        if (lastModifiedOnClient != -1 && lastModifiedOnClient >= lastModifiedOnServer) {
+        String etag = getETag(attachment, context);
+        if (isNotModified(attachment, etag, request)) {
             response.setStatus(XWikiResponse.SC_NOT_MODIFIED);
+            response.setHeader(ETAG_HEADER_NAME, etag);
             return null;
         }
 
         // Sending the content of the attachment
-        if (request.getHeader(RANGE_HEADER_NAME) != null) {
+        String range = request.getHeader(RANGE_HEADER_NAME);
+        if (range != null && isRangeApplicable(attachment, etag, request)) {
             try {
-                if (sendPartialContent(attachment, request, response, context)) {
+                if (sendPartialContent(attachment, range, etag, request, response, context)) {
                     return null;
                 }
             } catch (IOException ex) {
                 // Broken response...
             }
         }
-        sendContent(attachment, request, response, filename, context);
+        sendContent(attachment, etag, request, response, filename, context);
         return null;
     }
 
+    /**
+     * Compute a strong entity tag for the attachment content.
+     * <p>
+     * Every change of the content produces a new attachment version with a new date, so the identifier, version, date
+     * and size of the attachment are enough to identify the content without reading it.
+     * 
+     * @param attachment the attachment to get content from
+     * @param context the current request context
+     * @return the entity tag, quoted
+     * @throws XWikiException if the attachment content cannot be retrieved
+     */
+    private static String getETag(final XWikiAttachment attachment, final XWikiContext context)
+        throws XWikiException
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(attachment.getId());
+        key.append(SEPARATOR);
+        key.append(attachment.getVersion());
+        key.append(SEPARATOR);
+        key.append(attachment.getDate().getTime());
+        key.append(SEPARATOR);
+        key.append(attachment.getContentSize(context));
+
+        return '"' + DigestUtils.md5Hex(key.toString()) + '"';
+    }
+
+    /**
+     * Check the conditional request headers. As specified in RFC 2616, {@code If-None-Match} takes precedence over
+     * {@code If-Modified-Since} when both are present.
+     * 
+     * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
+     * @param request the current client request
+     * @return {@code true} if the client already has the current content
+     */
+    private static boolean isNotModified(final XWikiAttachment attachment, final String etag,
+        final XWikiRequest request)
+    {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER_NAME);
+        if (ifNoneMatch != null) {
+            for (String clientETagValue : StringUtils.split(ifNoneMatch, ',')) {
+                String clientETag = clientETagValue.trim();
+                // If-None-Match uses the weak comparison
+                if (clientETag.equals("*") || StringUtils.removeStart(clientETag, WEAK_ETAG_PREFIX).equals(etag)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        long lastModifiedOnClient = request.getDateHeader("If-Modified-Since");
+        long lastModifiedOnServer = attachment.getDate().getTime();
+        return lastModifiedOnClient != -1 && lastModifiedOnClient >= lastModifiedOnServer;
+    }
+
+    /**
+     * Check the {@code If-Range} header which asks to ignore the {@code Range} header when the content changed.
+     * 
+     * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
+     * @param request the current client request
+     * @return {@code true} if the {@code Range} header should be taken into account
+     */
+    private static boolean isRangeApplicable(final XWikiAttachment attachment, final String etag,
+        final XWikiRequest request)
+    {
+        String ifRange = request.getHeader(IF_RANGE_HEADER_NAME);
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_ETAG_PREFIX)) {
+            // If-Range uses the strong comparison
+            return ifRange.equals(etag);
+        }
+
+        try {
+            // HTTP dates have a precision of one second
+            return request.getDateHeader(IF_RANGE_HEADER_NAME) / 1000L == attachment.getDate().getTime() / 1000L;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     /**
      * Respond to a range request, either with the requested bytes, or with a {@code 416 REQUESTED RANGE NOT
-     * SATISFIABLE} response if the requested byte range falls outside the length of the attachment. If the range
+     * SATISFIABLE} response if none of the requested byte ranges overlap the content of the attachment. If the range
      * request header is syntactically invalid, nothing is written, and instead {@code false} is returned, letting the
      * action handler ignore the Range header and treat this as a normal (full) download request.
      * 
      * @param attachment the attachment to get content from
+     * @param range the value of the range header
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
@@ -158,76 +297,167 @@ public String render(XWikiContext context) throws XWikiException
      * @throws IOException if the response cannot be written
      */
     private static boolean sendPartialContent(final XWikiAttachment attachment,
+        final String range,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
         throws XWikiException, IOException
     {
-        String range = request.getHeader(RANGE_HEADER_NAME);
-        Matcher m = RANGE_HEADER_PATTERN.matcher(range);
-        if (m.matches()) {
-            String startStr = m.group(1);
-            String endStr = m.group(2);
-            Long start = NumberUtils.createLong(startStr);
-            Long end = NumberUtils.createLong(endStr);
-            if (start == null && end != null && end > 0) {
-                // Tail request, output the last <end> bytes
-                start = Math.max(attachment.getContentSize(context) - end, 0L);
-                end = attachment.getContentSize(context) - 1L;
+        long size = attachment.getContentSize(context);
+
+        List<long[]> ranges = parseRanges(range, size);
+        if (ranges == null) {
+            return false;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(CONTENT_RANGE_HEADER_NAME, "bytes */" + size);
+        } else if (ranges.size() == 1) {
+            long start = ranges.get(0)[0];
+            long end = ranges.get(0)[1];
+            setCommonHeaders(attachment, etag, request, response, context);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            setContentLength(response, end - start + 1L);
+            response.setHeader(CONTENT_RANGE_HEADER_NAME, getContentRange(start, end, size));
+            writeContent(attachment, start, end - start + 1L, request, response, context);
+        } else {
+            writeByteRanges(attachment, ranges, size, etag, request, response, context);
+        }
+
+        return true;
+    }
+
+    /**
+     * Parse the value of a {@code Range} header.
+     * 
+     * @param range the value of the range header
+     * @param size the size of the attachment content
+     * @return the satisfiable ranges as {@code [first byte, last byte]} pairs, sorted and with the overlapping or
+     *         adjacent ranges merged, an empty list if none of the ranges is satisfiable, {@code null} if the header is
+     *         syntactically invalid or asks for too many ranges
+     */
+    private static List<long[]> parseRanges(String range, long size)
+    {
+        if (!range.startsWith(RANGE_UNIT)) {
+            return null;
+        }
+
+        String[] rangeSpecs = StringUtils.split(range.substring(RANGE_UNIT.length()), ',');
+        if (rangeSpecs.length == 0) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (String rangeSpec : rangeSpecs) {
+            Matcher m = RANGE_SPEC_PATTERN.matcher(rangeSpec.trim());
+            if (!m.matches()) {
+                return null;
             }
+            Long start = NumberUtils.createLong(m.group(1));
+            Long end = NumberUtils.createLong(m.group(2));
             if (!isValidRange(start, end)) {
-                return false;
+                return null;
             }
-            if (end == null) {
-                end = attachment.getContentSize(context) - 1L;
+            if (start == null) {
+                // Tail request, output the last <end> bytes
+                if (end > 0 && size > 0) {
+                    ranges.add(new long[] {Math.max(size - end, 0L), size - 1L});
+                }
+            } else if (start < size) {
+                ranges.add(new long[] {start, end == null ? size - 1L : Math.min(end, size - 1L)});
             }
-            end = Math.min(end, attachment.getContentSize(context) - 1L);
-            writeByteRange(attachment, start, end, request, response, context);
-            return true;
         }
-        return false;
+
+        ranges = mergeRanges(ranges);
+
+        return ranges.size() <= MAX_RANGES ? ranges : null;
     }
 
     /**
-     * Write a byte range from the attachment to the response, if the requested range is valid and falls within the file
-     * limits.
+     * Merge the overlapping or adjacent ranges, so that a client can't make the server send the same bytes many times.
+     * 
+     * @param ranges the ranges to merge, as {@code [first byte, last byte]} pairs
+     * @return the merged ranges, sorted by first byte
+     */
+    private static List<long[]> mergeRanges(List<long[]> ranges)
+    {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges, new Comparator<long[]>()
+        {
+            @Override
+            public int compare(long[] range1, long[] range2)
+            {
+                return range1[0] < range2[0] ? -1 : (range1[0] == range2[0] ? 0 : 1);
+            }
+        });
+
+        List<long[]> merged = new ArrayList<long[]>(ranges.size());
+        long[] current = ranges.get(0);
+        for (long[] range : ranges.subList(1, ranges.size())) {
+            if (range[0] <= current[1] + 1L) {
+                current[1] = Math.max(current[1], range[1]);
+            } else {
+                merged.add(current);
+                current = range;
+            }
+        }
+        merged.add(current);
+
+        return merged;
+    }
+
+    /**
+     * Write several byte ranges from the attachment to the response as a {@code multipart/byteranges} content.
      * 
      * @param attachment the attachment to get content from
-     * @param start the first byte to write
-     * @param end the last byte to write
+     * @param ranges the ranges to write
+     * @param size the size of the attachment content
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
      * @throws XWikiException if the attachment content cannot be retrieved
      * @throws IOException if the response cannot be written
      */
-    private static void writeByteRange(final XWikiAttachment attachment, Long start, Long end,
+    private static void writeByteRanges(final XWikiAttachment attachment, List<long[]> ranges, long size,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
         throws XWikiException, IOException
     {
-        if (start >= 0 && start < attachment.getContentSize(context)) {
-            InputStream data = attachment.getContentInputStream(context);
-            data = new BoundedInputStream(data, end + 1);
-            data.skip(start);
-            setCommonHeaders(attachment, request, response, context);
-            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            if ((end - start + 1L) < Integer.MAX_VALUE) {
-                response.setContentLength((int) (end - start + 1));
-            }
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + SEPARATOR
-                + attachment.getContentSize(context));
-            IOUtils.copyLarge(data, response.getOutputStream());
-        } else {
-            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        String boundary = RandomStringUtils.randomAlphanumeric(32);
+        String mimetype = attachment.getMimeType(context);
+
+        setCommonHeaders(attachment, etag, request, response, context);
+        // Each part has its own content type
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        OutputStream out = response.getOutputStream();
+        for (long[] range : ranges) {
+            StringBuilder partHeader = new StringBuilder();
+            partHeader.append(CRLF).append("--").append(boundary).append(CRLF);
+            partHeader.append("Content-Type: ").append(mimetype).append(CRLF);
+            partHeader.append(CONTENT_RANGE_HEADER_NAME).append(": ").append(getContentRange(range[0], range[1], size));
+            partHeader.append(CRLF).append(CRLF);
+            out.write(partHeader.toString().getBytes(XWiki.DEFAULT_ENCODING));
+
+            writeContent(attachment, range[0], range[1] - range[0] + 1L, null, response, context);
         }
+        out.write((CRLF + "--" + boundary + "--" + CRLF).getBytes(XWiki.DEFAULT_ENCODING));
     }
 
     /**
      * Send the attachment content in the response.
      * 
      * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param filename the filename to show in the message in case an exception needs to be thrown
@@ -235,29 +465,109 @@ private static void writeByteRange(final XWikiAttachment attachment, Long start,
      * @throws XWikiException if something goes wrong
      */
     private static void sendContent(final XWikiAttachment attachment,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final String filename,
         final XWikiContext context)
         throws XWikiException
     {
-        InputStream stream = null;
         try {
-            setCommonHeaders(attachment, request, response, context);
+            setCommonHeaders(attachment, etag, request, response, context);
             response.setContentLength(attachment.getContentSize(context));
-            stream = attachment.getContentInputStream(context);
-            IOUtils.copy(stream, response.getOutputStream());
+            writeContent(attachment, 0, attachment.getContentSize(context), request, response, context);
         } catch (IOException e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_APP,
                 XWikiException.ERROR_XWIKI_APP_SEND_RESPONSE_EXCEPTION,
                 "Exception while sending response", e);
-        } finally {
-            if (stream != null) {
-                IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Write a portion of the attachment content to the response.
+     * <p>
+     * When the content is stored in a file it's streamed from the file channel, in chunks, instead of loading the whole
+     * content in memory. A file which outlives the request, as the ones of the filesystem attachment store, is even
+     * handed to the servlet container when it supports sending files by itself, so that it's not copied through the
+     * Java heap at all. Temporary files are never handed to the container since they could be deleted before it
+     * sends them.
+     * 
+     * @param attachment the attachment to get content from
+     * @param start the first byte to write
+     * @param length the number of bytes to write
+     * @param request the current client request, {@code null} if the container should not send the file by itself
+     * @param response the response to write to.
+     * @param context the current request context
+     * @throws XWikiException if the attachment content cannot be retrieved
+     * @throws IOException if the response cannot be written
+     */
+    private static void writeContent(final XWikiAttachment attachment, long start, long length,
+        final XWikiRequest request,
+        final XWikiResponse response,
+        final XWikiContext context)
+        throws XWikiException, IOException
+    {
+        XWikiAttachmentContent content = attachment.getAttachment_content();
+        File file = content != null ? content.getContentFile() : null;
+
+        if (file != null) {
+            if (request != null && content.isContentFilePersistent()
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+                request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+                request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+                request.setAttribute(SENDFILE_END_ATTRIBUTE, start + length);
+            } else {
+                FileInputStream fis = new FileInputStream(file);
+                try {
+                    FileChannel channel = fis.getChannel();
+                    WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+                    long position = start;
+                    long end = start + length;
+                    while (position < end) {
+                        long transferred = channel.transferTo(position, end - position, target);
+                        if (transferred <= 0) {
+                            throw new EOFException("Unexpected end of attachment content in [" + file + "]");
+                        }
+                        position += transferred;
+                    }
+                } finally {
+                    fis.close();
+                }
+            }
+        } else {
+            InputStream data = attachment.getContentInputStream(context);
+            try {
+                IOUtils.copyLarge(data, response.getOutputStream(), start, length);
+            } finally {
+                IOUtils.closeQuietly(data);
             }
         }
     }
 
+    /**
+     * @param response the response to write to.
+     * @param length the length of the content sent in the response
+     */
+    private static void setContentLength(final XWikiResponse response, long length)
+    {
+        if (length < Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(length));
+        }
+    }
+
+    /**
+     * @param start the first byte of the range
+     * @param end the last byte of the range
+     * @param size the size of the attachment content
+     * @return the value of the {@code Content-Range} header for the passed range
+     */
+    private static String getContentRange(long start, long end, long size)
+    {
+        return "bytes " + start + "-" + end + SEPARATOR + size;
+    }
+
     /**
      * Get the filename of the attachment from the path and the action.
      * 
@@ -282,11 +592,13 @@ private static String getFileName(final String path, final String action)
      * Set the response HTTP headers common to both partial (Range) and full responses.
      * 
      * @param attachment the attachment to get content from
+     * @param etag the entity tag of the attachment content
      * @param request the current client request
      * @param response the response to write to.
      * @param context the current request context
      */
     private static void setCommonHeaders(final XWikiAttachment attachment,
+        final String etag,
         final XWikiRequest request,
         final XWikiResponse response,
         final XWikiContext context)
@@ -329,6 +641,7 @@ private static void setCommonHeaders(final XWikiAttachment attachment,
         response.addHeader("Content-disposition", dispType + "; filename*=utf-8''" + ofilename);
 
         response.setDateHeader("Last-Modified", attachment.getDate().getTime());
+        response.setHeader(ETAG_HEADER_NAME, etag);
         // Advertise that downloads can be resumed
         response.setHeader("Accept-Ranges", "bytes");
     }
@@ -112,8 +112,13 @@ private void getPackageInfos(XWikiAttachment packFile, XWikiResponse response, X
             xarPackage.write(response.getOutputStream(), encoding);
         } else {
             PackageAPI importer = ((PackageAPI) xcontext.getWiki().getPluginApi("package", xcontext));
-            importer.Import(packFile.getContentInputStream(xcontext));
-            String xml = importer.toXml();
+            String xml;
+            try {
+                importer.Import(packFile.getContentInputStream(xcontext));
+                xml = importer.toXml();
+            } finally {
+                importer.close();
+            }
             byte[] result = xml.getBytes(encoding);
             response.setContentLength(result.length);
             response.getOutputStream().write(result);
@@ -205,7 +210,11 @@ private void importPackageOld(XWikiAttachment packFile, XWikiRequest request, XW
         }
 
         // Import files
-        importer.install();
+        try {
+            importer.install();
+        } finally {
+            importer.close();
+        }
     }
 
     private void importPackageWikiStream(XWikiAttachment packFile, XWikiRequest request, XWikiContext context)
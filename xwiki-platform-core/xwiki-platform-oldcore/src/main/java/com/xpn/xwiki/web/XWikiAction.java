@@ -60,6 +60,7 @@
 import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.fileupload.FileUploadPlugin;
+import com.xpn.xwiki.store.XWikiBatcher;
 
 /**
  * <p>
@@ -145,6 +146,9 @@ public ActionForward execute(XWikiContext context) throws Exception
         FileUploadPlugin fileupload = null;
         String docName = "";
 
+        // Start collecting the SQL statistics of this request
+        XWikiBatcher.getSQLStats().resetStats();
+
         try {
             String action = context.getAction();
 
@@ -432,6 +436,8 @@ public ActionForward execute(XWikiContext context) throws Exception
                 monitor.endRequest();
             }
 
+            XWikiBatcher.getSQLStats().endRequest(context);
+
             if (context != null) {
 
                 if (fileupload != null) {
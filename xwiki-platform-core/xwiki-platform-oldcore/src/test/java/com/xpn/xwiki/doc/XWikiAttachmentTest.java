@@ -23,12 +23,18 @@
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
+import org.xwiki.environment.Environment;
 
 import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
 
@@ -148,6 +154,129 @@ public void testSetContentViaOutputStream() throws Exception
         assertTrue(xac.isContentDirty());
     }
 
+    /**
+     * Small content provided as a byte array (which is what the Hibernate store does when loading an attachment)
+     * should be read directly and not be copied to the disk cache.
+     */
+    @Test
+    public void testSmallStoredContentIsNotCopiedToDiskCache() throws Exception
+    {
+        int attachLength = 5000;
+        int seed = (int) System.currentTimeMillis();
+        byte[] content = IOUtils.toByteArray(new RandomInputStream(attachLength, seed));
+        Set<String> cachedFiles = getAttachmentCacheFiles();
+
+        final XWikiAttachmentContent xac = new XWikiAttachmentContent(new XWikiAttachment());
+        xac.setContent(content);
+
+        assertTrue(cachedFiles.containsAll(getAttachmentCacheFiles()));
+        assertEquals(attachLength, xac.getSize());
+        assertEquals(attachLength, xac.getAttachment().getFilesize());
+        Assert.assertNull(xac.getContentFile());
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+        assertTrue(xac.isContentDirty());
+
+        // Reading the content again, or from a clone, does not copy it either
+        XWikiAttachmentContent clone = (XWikiAttachmentContent) xac.clone();
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), clone.getContentInputStream()));
+        assertTrue(cachedFiles.containsAll(getAttachmentCacheFiles()));
+
+        // The passed array is not shared
+        content[0]++;
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+    }
+
+    /**
+     * Big content provided as a byte array should not be copied to the disk cache either, it's only copied when it's
+     * modified.
+     */
+    @Test
+    public void testBigStoredContentIsNotCopiedToDiskCache() throws Exception
+    {
+        int attachLength = 20000;
+        int seed = (int) System.currentTimeMillis();
+        byte[] content = IOUtils.toByteArray(new RandomInputStream(attachLength, seed));
+        Set<String> cachedFiles = getAttachmentCacheFiles();
+
+        final XWikiAttachmentContent xac = new XWikiAttachmentContent(new XWikiAttachment());
+        xac.setContent(content);
+
+        assertTrue(cachedFiles.containsAll(getAttachmentCacheFiles()));
+        assertEquals(attachLength, xac.getSize());
+        assertEquals(attachLength, xac.getAttachment().getFilesize());
+        Assert.assertNull(xac.getContentFile());
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+        assertTrue(xac.isContentDirty());
+
+        content[0]++;
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+    }
+
+    /**
+     * Modifying the array returned by {@code getContent()} or the content of a clone should not modify the stored
+     * content.
+     */
+    @Test
+    public void testStoredContentIsNotShared() throws Exception
+    {
+        int attachLength = 20;
+        int seed = (int) System.currentTimeMillis();
+
+        final XWikiAttachmentContent xac = new XWikiAttachmentContent(new XWikiAttachment());
+        xac.setContent(IOUtils.toByteArray(new RandomInputStream(attachLength, seed)));
+        XWikiAttachmentContent clone = (XWikiAttachmentContent) xac.clone();
+
+        xac.getContent()[0]++;
+        clone.getContent()[0]++;
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), clone.getContentInputStream()));
+
+        OutputStream os = clone.getContentOutputStream();
+        IOUtils.copy(new RandomInputStream(attachLength, seed + 1), os);
+        os.close();
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), xac.getContentInputStream()));
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed + 1), clone.getContentInputStream()));
+    }
+
+    /**
+     * Modifying content provided as a byte array should copy it to the disk cache and leave the original array alone.
+     */
+    @Test
+    public void testModifyStoredContent() throws Exception
+    {
+        int attachLength = 20000;
+        int seed = (int) System.currentTimeMillis();
+        byte[] content = IOUtils.toByteArray(new RandomInputStream(attachLength, seed));
+        Set<String> cachedFiles = getAttachmentCacheFiles();
+
+        final XWikiAttachmentContent xac = new XWikiAttachmentContent();
+        xac.setContent(content);
+        xac.setContentDirty(false);
+
+        OutputStream os = xac.getContentOutputStream();
+        IOUtils.copy(new RandomInputStream(attachLength, seed + 1), os);
+        os.close();
+
+        assertFalse(cachedFiles.containsAll(getAttachmentCacheFiles()));
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed + 1), xac.getContentInputStream()));
+        Assert.assertNotNull(xac.getContentFile());
+        assertTrue(xac.isContentDirty());
+        assertTrue(IOUtils.contentEquals(new RandomInputStream(attachLength, seed), new ByteArrayInputStream(
+            content)));
+    }
+
+    /**
+     * @return the names of the files in the disk cache of attachment contents
+     */
+    private Set<String> getAttachmentCacheFiles() throws Exception
+    {
+        String[] files =
+            new File(getComponentManager().<Environment> getInstance(Environment.class).getTemporaryDirectory(),
+                "attachment-cache").list();
+
+        return files != null ? new HashSet<String>(Arrays.asList(files)) : new HashSet<String>();
+    }
+
     @Test
     public void testGetMimeType()
     {
@@ -19,6 +19,7 @@
  */
 package com.xpn.xwiki.doc;
 
+import java.util.Collections;
 import java.util.Date;
 
 import org.jmock.Mock;
@@ -326,6 +327,37 @@ public void testVerifyDiffAndFullRevisionAlgorithm() throws Exception
         assertFalse(archive.getNode(new Version(6, 1)).isDiff());
     }
 
+    public void testUpdateArchiveWithOnlyLatestNodes() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        String author = "XWiki.some author";
+
+        for (int i = 1; i <= 5; i++) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+
+        // The 5th revision is kept as a full content revision even if the older nodes are not loaded
+        XWikiDocumentArchive partialArchive = new XWikiDocumentArchive(doc.getId());
+        partialArchive.setLatestNodes(Collections.singletonList(archive.getLatestNode()), 5);
+        addRevisionToHistory(partialArchive, doc, "content 6.1", author, "6.1");
+        assertEquals(new Version(6, 1), partialArchive.getLatestVersion());
+        assertEquals(2, partialArchive.getNodes().size());
+        assertFalse(partialArchive.getNode(new Version(5, 1)).isDiff());
+        assertFalse(partialArchive.getNode(new Version(6, 1)).isDiff());
+        assertEquals(1, partialArchive.getUpdatedNodeInfos().size());
+        assertEquals(1, partialArchive.getUpdatedNodeContents().size());
+
+        // Any other revision is turned into a diff
+        partialArchive = new XWikiDocumentArchive(doc.getId());
+        partialArchive.setLatestNodes(Collections.singletonList(archive.getLatestNode()), 4);
+        addRevisionToHistory(partialArchive, doc, "content 6.1", author, "6.1");
+        assertTrue(partialArchive.getNode(new Version(5, 1)).isDiff());
+        assertFalse(partialArchive.getNode(new Version(6, 1)).isDiff());
+        assertEquals(1, partialArchive.getUpdatedNodeInfos().size());
+        assertEquals(2, partialArchive.getUpdatedNodeContents().size());
+    }
+
     private void addRevisionToHistory(XWikiDocumentArchive archive, XWikiDocument document, String content,
         String author, String comment) throws XWikiException
     {
@@ -476,6 +476,19 @@ public void testCloneSaveVersions()
         assertEquals(doc1.getVersion(), doc2.getVersion());
     }
 
+    public void testOriginalDocumentNotAffectedByInPlaceModifications()
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("wiki", DOCSPACE, DOCNAME));
+        doc.setContent("original content");
+        // What the store does when loading a document
+        doc.setOriginalDocument(doc.clone());
+
+        // Documents taken from the cache are sometimes modified without being cloned first
+        doc.setContent("modified content");
+
+        assertEquals("original content", doc.getOriginalDocument().getContent());
+    }
+
     public void testAddObject() throws XWikiException
     {
         XWikiDocument doc = new XWikiDocument(new DocumentReference("test", "test", "document"));
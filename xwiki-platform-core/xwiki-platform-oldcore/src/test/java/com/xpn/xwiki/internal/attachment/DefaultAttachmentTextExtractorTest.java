@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.attachment;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.cache.statistics.CacheStatisticsManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
+/**
+ * Unit tests for {@link DefaultAttachmentTextExtractor}.
+ * 
+ * @version $Id$
+ */
+public class DefaultAttachmentTextExtractorTest
+{
+    private static final byte[] CONTENT = "text content".getBytes();
+
+    private File permanentDirectory;
+
+    private DefaultAttachmentTextExtractor extractor = new DefaultAttachmentTextExtractor();
+
+    private XWikiContext xcontext = new XWikiContext();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.permanentDirectory = new File("target/test-" + getClass().getSimpleName());
+        FileUtils.deleteDirectory(this.permanentDirectory);
+
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+        ConfigurationSource configuration = mock(ConfigurationSource.class);
+        when(configuration.getProperty(DefaultAttachmentTextExtractor.MAXSIZE_PROPERTY,
+            DefaultAttachmentTextExtractor.MAXSIZE_DEFAULT)).thenReturn(DefaultAttachmentTextExtractor.MAXSIZE_DEFAULT);
+
+        ReflectionUtils.setFieldValue(this.extractor, "environment", environment);
+        ReflectionUtils.setFieldValue(this.extractor, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.extractor, "statisticsManager", mock(CacheStatisticsManager.class));
+
+        this.extractor.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.extractor.dispose();
+
+        FileUtils.deleteDirectory(this.permanentDirectory);
+    }
+
+    private XWikiAttachment mockAttachment(long id, String version, Date date) throws Exception
+    {
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(attachment.getId()).thenReturn(id);
+        when(attachment.getVersion()).thenReturn(version);
+        when(attachment.getDate()).thenReturn(date);
+        when(attachment.getFilesize()).thenReturn(CONTENT.length);
+        when(attachment.getFilename()).thenReturn("file.txt");
+        when(attachment.getContentInputStream(this.xcontext)).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return new ByteArrayInputStream(CONTENT);
+            }
+        });
+
+        return attachment;
+    }
+
+    @Test
+    public void getTextOfKnownVersionDoesNotReadContent() throws Exception
+    {
+        XWikiAttachment attachment = mockAttachment(1, "1.1", new Date(1000));
+
+        String text = this.extractor.getText(attachment, this.xcontext);
+
+        // Read once to compute the content hash and once to parse it
+        verify(attachment, times(2)).getContentInputStream(this.xcontext);
+
+        assertEquals(text, this.extractor.getText(attachment, this.xcontext));
+
+        verify(attachment, times(2)).getContentInputStream(this.xcontext);
+    }
+
+    @Test
+    public void getTextOfNewVersionWithSameContentDoesNotParseAgain() throws Exception
+    {
+        XWikiAttachment attachment = mockAttachment(1, "1.1", new Date(1000));
+        String text = this.extractor.getText(attachment, this.xcontext);
+
+        XWikiAttachment newVersion = mockAttachment(1, "1.2", new Date(2000));
+
+        assertEquals(text, this.extractor.getText(newVersion, this.xcontext));
+
+        // Only read to compute the content hash
+        verify(newVersion, times(1)).getContentInputStream(this.xcontext);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.cache;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.cache.config.CacheConfiguration;
+
+/**
+ * Validate {@link FileStringCache}.
+ * 
+ * @version $Id$
+ */
+public class FileStringCacheTest
+{
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.directory = new File("target/test-" + FileStringCacheTest.class.getSimpleName());
+        FileUtils.deleteDirectory(this.directory);
+    }
+
+    @Test
+    public void testSetGet()
+    {
+        FileStringCache cache = new FileStringCache(new CacheConfiguration("test"), this.directory, 10000);
+
+        Assert.assertNull(cache.get("key"));
+
+        cache.set("key", "value");
+
+        Assert.assertEquals("value", cache.get("key"));
+        Assert.assertEquals(1, cache.getStatistics().getHits());
+        Assert.assertEquals(1, cache.getStatistics().getMisses());
+
+        cache.remove("key");
+
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.getTotalSize());
+    }
+
+    @Test
+    public void testPersistence()
+    {
+        FileStringCache cache = new FileStringCache(new CacheConfiguration("test"), this.directory, 10000);
+        cache.set("key", "value");
+
+        cache = new FileStringCache(new CacheConfiguration("test"), this.directory, 10000);
+
+        Assert.assertEquals("value", cache.get("key"));
+        Assert.assertEquals(1, cache.getStatistics().getSize());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        FileStringCache cache = new FileStringCache(new CacheConfiguration("test"), this.directory, 10000);
+        cache.set("key1", "value1");
+        long entrySize = cache.getTotalSize();
+
+        cache = new FileStringCache(new CacheConfiguration("test"), this.directory, entrySize * 2);
+        cache.set("key2", "value2");
+        // Make key1 the most recently used
+        cache.get("key1");
+        cache.set("key3", "value3");
+
+        Assert.assertEquals("value1", cache.get("key1"));
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertEquals("value3", cache.get("key3"));
+        Assert.assertEquals(1, cache.getStatistics().getEvictions());
+    }
+}
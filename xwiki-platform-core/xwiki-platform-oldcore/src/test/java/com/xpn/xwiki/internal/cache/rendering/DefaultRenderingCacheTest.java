@@ -87,6 +87,8 @@ protected void registerComponents() throws Exception
         super.registerComponents();
 
         getConfigurationSource().setProperty("core.renderingcache.enabled", true);
+        getConfigurationSource().setProperty("core.renderingcache.ignoredparameters",
+            Collections.singletonList("utm_source"));
     }
 
     @Test
@@ -120,4 +122,26 @@ public void testGetSetRenderedContent() throws Exception
         Assert.assertNull(this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source",
             getContext()));
     }
+
+    @Test
+    public void testIgnoredParameters() throws Exception
+    {
+        getConfigurationSource().setProperty("core.renderingcache.documents",
+            Collections.singletonList(this.document.getPrefixedFullName()));
+
+        this.parameters.put("utm_source", new String[] {"newsletter"});
+
+        this.renderingCache.setRenderedContent(this.document.getDocumentReference(), "source", "renderedContent",
+            getContext());
+
+        this.parameters.put("utm_source", new String[] {"twitter"});
+
+        Assert.assertEquals("renderedContent",
+            this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source", getContext()));
+
+        this.parameters.put("param", new String[] {"a&b=c"});
+
+        Assert.assertNull(this.renderingCache.getRenderedContent(this.document.getDocumentReference(), "source",
+            getContext()));
+    }
 }
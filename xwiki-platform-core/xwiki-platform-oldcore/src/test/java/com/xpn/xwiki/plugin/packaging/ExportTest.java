@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.packaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.jmock.Mock;
+import org.xwiki.localization.LocalizationContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.store.XWikiVersioningStoreInterface;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Unit tests for the export of a {@link Package}.
+ * 
+ * @version $Id$
+ */
+public class ExportTest extends AbstractPackageTest
+{
+    private XWiki xwiki;
+
+    private Mock mockXWikiStore;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        this.xwiki = new XWiki();
+        getContext().setWiki(this.xwiki);
+        this.xwiki.setConfig(new XWikiConfig());
+
+        Mock mockLocalizationContext = registerMockComponent(LocalizationContext.class);
+        mockLocalizationContext.stubs().method("getCurrentLocale").will(returnValue(Locale.ROOT));
+
+        this.mockXWikiStore =
+            mock(XWikiHibernateStore.class, new Class[] {XWiki.class, XWikiContext.class}, new Object[] {this.xwiki,
+            getContext()});
+        this.xwiki.setStore((XWikiStoreInterface) this.mockXWikiStore.proxy());
+
+        Mock mockXWikiVersioningStore =
+            mock(XWikiHibernateVersioningStore.class, new Class[] {XWiki.class, XWikiContext.class}, new Object[] {
+            this.xwiki, getContext()});
+        mockXWikiVersioningStore.stubs().method("getXWikiDocumentArchive").will(returnValue(null));
+        this.xwiki.setVersioningStore((XWikiVersioningStoreInterface) mockXWikiVersioningStore.proxy());
+
+        Mock mockRightService = mock(XWikiRightService.class);
+        mockRightService.stubs().method("checkAccess").will(returnValue(true));
+        this.xwiki.setRightService((XWikiRightService) mockRightService.proxy());
+    }
+
+    /**
+     * The documents serialized in parallel must be written in the order of the package files.
+     * 
+     * @throws Exception
+     */
+    public void testParallelExportKeepsFilesOrder() throws Exception
+    {
+        this.xwiki.getConfig().setProperty("xwiki.plugin.packaging.export.threads", "4");
+
+        Package pack = new Package();
+        List<String> expectedEntries = new ArrayList<String>();
+        // More documents than the ones serialized in advance, not in alphabetical order
+        for (int i = 40; i > 0; --i) {
+            XWikiDocument doc = new XWikiDocument(new DocumentReference("xwiki", "Test", "Doc" + i));
+            doc.setContent("Content " + i);
+            assertTrue(pack.add(doc, getContext()));
+            expectedEntries.add(pack.getPathFromDocument(doc, getContext()));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pack.export(out, getContext());
+
+        List<String> entries = new ArrayList<String>();
+        ZipArchiveInputStream zis = new ZipArchiveInputStream(new ByteArrayInputStream(out.toByteArray()));
+        try {
+            for (ZipArchiveEntry entry = zis.getNextZipEntry(); entry != null; entry = zis.getNextZipEntry()) {
+                if (!entry.getName().equals(Package.DefaultPackageFileName)) {
+                    // Each entry must contain its own document
+                    int i = 40 - entries.size();
+                    assertTrue(IOUtils.toString(zis, "UTF-8").contains("Content " + i + "<"));
+                }
+                entries.add(entry.getName());
+            }
+        } finally {
+            zis.close();
+        }
+
+        // The package definition comes last
+        assertEquals(Package.DefaultPackageFileName, entries.remove(entries.size() - 1));
+        assertEquals(expectedEntries, entries);
+    }
+
+    /**
+     * Only the documents modified since the passed date are added, without being loaded.
+     * 
+     * @throws Exception
+     */
+    public void testAddAllWikiDocumentsModifiedSince() throws Exception
+    {
+        Date since = new Date(1000000L);
+
+        List<Object[]> documents = new ArrayList<Object[]>();
+        documents.add(new Object[] {"Test.Modified", ""});
+        documents.add(new Object[] {"Test.Modified", "fr"});
+        documents.add(new Object[] {"Test.Other", null});
+
+        Mock mockQuery = mock(Query.class);
+        mockQuery.expects(once()).method("bindValue").with(eq("since"), eq(since))
+            .will(returnValue(mockQuery.proxy()));
+        mockQuery.expects(once()).method("execute").will(returnValue(documents));
+
+        Mock mockQueryManager = mock(QueryManager.class);
+        mockQueryManager.expects(once()).method("createQuery")
+            .with(stringContains("where doc.date >= :since"), eq(Query.HQL)).will(returnValue(mockQuery.proxy()));
+        this.mockXWikiStore.stubs().method("getQueryManager").will(returnValue(mockQueryManager.proxy()));
+
+        Package pack = new Package();
+        pack.addAllWikiDocuments(since, getContext());
+
+        List<DocumentInfo> files = pack.getFiles();
+        assertEquals(3, files.size());
+        assertEquals("Test.Modified", files.get(0).getFullName());
+        assertEquals("", files.get(0).getLanguage());
+        assertEquals("Test.Modified", files.get(1).getFullName());
+        assertEquals("fr", files.get(1).getLanguage());
+        assertEquals("Test.Other", files.get(2).getFullName());
+        assertEquals("", files.get(2).getLanguage());
+        for (DocumentInfo file : files) {
+            assertEquals(DocumentInfo.ACTION_OVERWRITE, file.getAction());
+        }
+    }
+
+    /**
+     * Without date all the documents are added.
+     * 
+     * @throws Exception
+     */
+    public void testAddAllWikiDocuments() throws Exception
+    {
+        List<Object[]> documents = new ArrayList<Object[]>();
+        documents.add(new Object[] {"Test.Page", ""});
+
+        Mock mockQuery = mock(Query.class);
+        mockQuery.expects(once()).method("execute").will(returnValue(documents));
+
+        Mock mockQueryManager = mock(QueryManager.class);
+        mockQueryManager.expects(once()).method("createQuery")
+            .with(not(stringContains("doc.date")), eq(Query.HQL)).will(returnValue(mockQuery.proxy()));
+        this.mockXWikiStore.stubs().method("getQueryManager").will(returnValue(mockQueryManager.proxy()));
+
+        Package pack = new Package();
+        pack.addAllWikiDocuments(getContext());
+
+        assertEquals(1, pack.getFiles().size());
+        assertEquals("Test.Page", pack.getFiles().get(0).getFullName());
+    }
+}
@@ -20,6 +20,7 @@
 
 package com.xpn.xwiki.plugin.packaging;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -31,6 +32,7 @@
 import org.jmock.core.Invocation;
 import org.jmock.core.stub.CustomStub;
 import org.jmock.core.stub.VoidStub;
+import org.xwiki.environment.Environment;
 import org.xwiki.localization.LocalizationContext;
 import org.xwiki.model.reference.DocumentReference;
 
@@ -44,6 +46,7 @@
 import com.xpn.xwiki.store.XWikiStoreInterface;
 import com.xpn.xwiki.store.XWikiVersioningStoreInterface;
 import com.xpn.xwiki.user.api.XWikiRightService;
+import com.xpn.xwiki.web.Utils;
 
 public class ImportTest extends AbstractPackageTest
 {
@@ -421,4 +424,80 @@ public void testImportTranslationsOverwrite() throws Exception
         assertFalse(translationDoc.isNew());
     }
 
+    /**
+     * Test that the imported documents are read again from the package when needed instead of being kept in memory,
+     * and that the copy of the package is deleted when closing it.
+     * 
+     * @throws Exception
+     */
+    public void testImportDocumentsReadFromPackage() throws Exception
+    {
+        XWikiDocument doc1 = new XWikiDocument(new DocumentReference("Test", "Test", "DocLazy1"));
+        doc1.setContent("content 1");
+        XWikiDocument doc2 = new XWikiDocument(new DocumentReference("Test", "Test", "DocLazy2"));
+        doc2.setContent("content 2");
+
+        byte[] zipFile = this.createZipFile(new XWikiDocument[] {doc1, doc2}, new String[] {"UTF-8", "UTF-8"});
+
+        File packagesDir = new File(Utils.getComponent(Environment.class).getTemporaryDirectory(), "packaging");
+        int packageCount = packagesDir.exists() ? packagesDir.list().length : 0;
+
+        this.pack = new Package();
+        this.pack.Import(zipFile, getContext());
+
+        assertEquals(packageCount + 1, packagesDir.list().length);
+
+        DocumentInfo docInfo = this.pack.getFiles().get(0);
+        assertEquals("Test.DocLazy1", docInfo.getFullName());
+        XWikiDocument readDoc = docInfo.getDoc();
+        assertEquals("content 1", readDoc.getContent());
+        docInfo.releaseDoc();
+        // Read again from the package
+        assertNotSame(readDoc, docInfo.getDoc());
+        assertEquals("content 1", docInfo.getDoc().getContent());
+
+        this.pack.install(getContext());
+
+        assertEquals("content 1",
+            this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocLazy1"), getContext()).getContent());
+        assertEquals("content 2",
+            this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocLazy2"), getContext()).getContent());
+
+        this.pack.close();
+
+        assertEquals(packageCount, packagesDir.list().length);
+        docInfo.releaseDoc();
+        assertNull(docInfo.getDoc());
+    }
+
+    /**
+     * Test that the changes made by the document filters are not lost when installing the package.
+     * 
+     * @throws Exception
+     */
+    public void testImportDocumentsWithDocumentFilter() throws Exception
+    {
+        XWikiDocument doc1 = new XWikiDocument(new DocumentReference("Test", "Test", "DocFiltered"));
+        doc1.setContent("original content");
+
+        byte[] zipFile = this.createZipFile(new XWikiDocument[] {doc1}, new String[] {"UTF-8"});
+
+        this.pack = new Package();
+        this.pack.addDocumentFilter(new DocumentFilter()
+        {
+            @Override
+            public void filter(XWikiDocument doc, XWikiContext context) throws ExcludeDocumentException
+            {
+                doc.setContent("filtered content");
+            }
+        });
+        this.pack.Import(zipFile, getContext());
+        this.pack.install(getContext());
+        this.pack.close();
+
+        assertEquals("filtered content",
+            this.xwiki.getDocument(new DocumentReference("Test", "Test", "DocFiltered"), getContext()).getContent());
+        // The filtered document is kept in memory
+        assertEquals("filtered content", this.pack.getFiles().get(0).getDoc().getContent());
+    }
 }
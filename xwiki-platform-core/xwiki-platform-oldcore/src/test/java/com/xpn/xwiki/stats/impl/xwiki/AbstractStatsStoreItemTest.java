@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.BaseCollection;
+import com.xpn.xwiki.stats.impl.StatsUtil.PeriodType;
+import com.xpn.xwiki.stats.impl.XWikiStats;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+/**
+ * Unit tests for {@link AbstractStatsStoreItem}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class AbstractStatsStoreItemTest
+{
+    private XWikiHibernateStore store = mock(XWikiHibernateStore.class);
+
+    private Session session = mock(Session.class);
+
+    private Query query = mock(Query.class);
+
+    private XWikiStats stats = mock(XWikiStats.class);
+
+    private AbstractStatsStoreItem item = new AbstractStatsStoreItem("Space.Page", new Date(), PeriodType.MONTH,
+        new XWikiContext())
+    {
+        @Override
+        public String getId()
+        {
+            return this.name;
+        }
+
+        @Override
+        protected void storeInternal(List<XWikiStatsStoreItem> statsList)
+        {
+            // Not used by these tests
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception
+    {
+        when(this.store.executeWrite(any(XWikiContext.class), any(HibernateCallback.class))).thenAnswer(
+            new Answer<Object>()
+            {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable
+                {
+                    return ((HibernateCallback< ? >) invocation.getArguments()[1]).doInHibernate(session);
+                }
+            });
+        when(this.session.createQuery(anyString())).thenReturn(this.query);
+
+        when(this.stats.getIntValue("pageViews")).thenReturn(3);
+        when(this.stats.getIntValue("uniqueVisitors")).thenReturn(1);
+        when(this.stats.getId()).thenReturn(42L);
+    }
+
+    @Test
+    public void incrementWhenStored() throws Exception
+    {
+        when(this.query.executeUpdate()).thenReturn(1);
+
+        this.item.increment(this.store, this.stats, "pageViews", "uniqueVisitors");
+
+        verify(this.session).createQuery("update " + this.stats.getClass().getName()
+            + " set pageViews = coalesce(pageViews, 0) + :pageViews,"
+            + " uniqueVisitors = coalesce(uniqueVisitors, 0) + :uniqueVisitors where id = :id");
+        verify(this.query).setInteger("pageViews", 3);
+        verify(this.query).setInteger("uniqueVisitors", 1);
+        verify(this.query).setLong("id", 42L);
+        verify(this.store, never()).saveXWikiCollection(any(BaseCollection.class), any(XWikiContext.class),
+            anyBoolean());
+    }
+
+    @Test
+    public void incrementWhenNotStored() throws Exception
+    {
+        when(this.query.executeUpdate()).thenReturn(0);
+
+        this.item.increment(this.store, this.stats, "pageViews");
+
+        verify(this.query).setInteger("pageViews", 3);
+        verify(this.store).saveXWikiCollection(same(this.stats), any(XWikiContext.class), eq(false));
+    }
+}
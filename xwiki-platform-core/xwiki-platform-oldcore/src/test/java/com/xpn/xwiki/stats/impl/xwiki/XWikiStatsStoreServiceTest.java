@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.stats.impl.xwiki;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.context.internal.DefaultExecution;
+import org.xwiki.context.internal.DefaultExecutionContextManager;
+import org.xwiki.test.ComponentManagerRule;
+import org.xwiki.test.annotation.ComponentList;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Unit tests for {@link XWikiStatsStoreService}.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+@ComponentList({
+    DefaultExecution.class,
+    DefaultExecutionContextManager.class
+})
+public class XWikiStatsStoreServiceTest
+{
+    @Rule
+    public ComponentManagerRule componentManager = new ComponentManagerRule();
+
+    private XWikiContext context;
+
+    @Before
+    public void setUp()
+    {
+        Utils.setComponentManager(this.componentManager);
+
+        XWiki xwiki = mock(XWiki.class);
+        when(xwiki.ParamAsLong("stats.queue.size", 10000)).thenReturn(2L);
+        // Make sure the statistics are only stored when the service is stopped
+        when(xwiki.ParamAsLong("stats.queue.flushInterval", 1000)).thenReturn(600000L);
+
+        this.context = new XWikiContext();
+        this.context.setWiki(xwiki);
+    }
+
+    @After
+    public void tearDown()
+    {
+        Utils.setComponentManager(null);
+    }
+
+    private XWikiStatsStoreItem mockItem(String id)
+    {
+        XWikiStatsStoreItem item = mock(XWikiStatsStoreItem.class, id);
+        when(item.getId()).thenReturn(id);
+
+        return item;
+    }
+
+    @Test
+    public void stopStoresQueuedStatistics()
+    {
+        XWikiStatsStoreItem item1 = mockItem("item1");
+        XWikiStatsStoreItem item2 = mockItem("item2");
+
+        XWikiStatsStoreService service = new XWikiStatsStoreService(this.context);
+        service.add(item1);
+        service.add(item2);
+
+        service.start();
+        service.stop();
+
+        verify(item1).store(Arrays.asList(item1));
+        verify(item2).store(Arrays.asList(item2));
+    }
+
+    @Test
+    public void statisticsWithSameIdAreStoredTogether()
+    {
+        XWikiStatsStoreItem item1 = mockItem("item");
+        XWikiStatsStoreItem item2 = mockItem("item");
+
+        XWikiStatsStoreService service = new XWikiStatsStoreService(this.context);
+        service.add(item1);
+        service.add(item2);
+
+        service.start();
+        service.stop();
+
+        verify(item1).store(Arrays.asList(item1, item2));
+        verify(item2, never()).store(anyListOf(XWikiStatsStoreItem.class));
+    }
+
+    @Test
+    public void addDropsStatisticsWhenQueueIsFull()
+    {
+        XWikiStatsStoreItem item1 = mockItem("item1");
+        XWikiStatsStoreItem item2 = mockItem("item2");
+        XWikiStatsStoreItem item3 = mockItem("item3");
+
+        XWikiStatsStoreService service = new XWikiStatsStoreService(this.context);
+        service.add(item1);
+        service.add(item2);
+        service.add(item3);
+
+        service.start();
+        service.stop();
+
+        verify(item1).store(Arrays.asList(item1));
+        verify(item2).store(Arrays.asList(item2));
+        verify(item3, never()).store(anyListOf(XWikiStatsStoreItem.class));
+    }
+
+    @Test
+    public void addAcceptsStatisticsOnceQueueIsStored()
+    {
+        XWikiStatsStoreItem item1 = mockItem("item1");
+        XWikiStatsStoreItem item2 = mockItem("item2");
+        XWikiStatsStoreItem item3 = mockItem("item3");
+
+        XWikiStatsStoreService service = new XWikiStatsStoreService(this.context);
+        service.add(item1);
+        service.add(item2);
+
+        service.start();
+        service.stop();
+
+        service.add(item3);
+
+        service.start();
+        service.stop();
+
+        verify(item3).store(Arrays.asList(item3));
+    }
+
+    @Test
+    public void stopWhenNotStarted()
+    {
+        XWikiStatsStoreItem item = mockItem("item");
+
+        XWikiStatsStoreService service = new XWikiStatsStoreService(this.context);
+        service.add(item);
+
+        service.stop();
+
+        verify(item, never()).store(anyListOf(XWikiStatsStoreItem.class));
+    }
+}
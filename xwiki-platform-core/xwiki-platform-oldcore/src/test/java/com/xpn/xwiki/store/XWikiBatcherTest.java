@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.hibernate.Interceptor;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.jdbc.ConnectionManager;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XWikiBatcher}.
+ * 
+ * @version $Id$
+ */
+public class XWikiBatcherTest
+{
+    private XWikiBatcher batcher;
+
+    private XWikiBatcherStats stats;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Settings settings = mock(Settings.class);
+        when(settings.getJdbcBatchSize()).thenReturn(10);
+
+        SessionFactoryImplementor factory = mock(SessionFactoryImplementor.class);
+        when(factory.getSettings()).thenReturn(settings);
+
+        ConnectionManager connectionManager = mock(ConnectionManager.class);
+        when(connectionManager.getFactory()).thenReturn(factory);
+
+        this.batcher = new XWikiBatcher(connectionManager, mock(Interceptor.class));
+
+        this.stats = XWikiBatcher.getSQLStats();
+        this.stats.resetStats();
+    }
+
+    @Test
+    public void executeBatchIsCountedAndStartsNewRecentStatements() throws Exception
+    {
+        this.stats.addToSqlList("insert into a");
+
+        this.batcher.doExecuteBatch(mock(PreparedStatement.class));
+
+        assertEquals(1, this.stats.getExecuteBatchCounter());
+
+        this.stats.addToSqlList("select from b");
+
+        assertEquals(Arrays.asList("insert into a", "select from b"), this.stats.getSqlList());
+        assertEquals(Arrays.asList("select from b"), this.stats.getRecentSqlList());
+    }
+
+    @Test
+    public void abortBatchIsCounted()
+    {
+        this.batcher.abortBatch(new SQLException());
+
+        assertEquals(1, this.stats.getAbortBatchCounter());
+        assertEquals(0, this.stats.getExecuteBatchCounter());
+    }
+
+    @Test
+    public void resultSetsAreCounted() throws Exception
+    {
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(statement.executeQuery()).thenReturn(resultSet);
+
+        assertSame(resultSet, this.batcher.getResultSet(statement));
+        this.batcher.getResultSet(statement);
+
+        assertEquals(2, this.stats.getResultSetCounter());
+    }
+
+    @Test
+    public void statisticsAreKeptPerThread() throws Exception
+    {
+        this.stats.incrementPreparedSQLCounter();
+
+        final XWikiBatcherStats[] otherStats = new XWikiBatcherStats[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                otherStats[0] = XWikiBatcher.getSQLStats();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotSame(this.stats, otherStats[0]);
+        assertEquals(0, otherStats[0].getPreparedSQLCounter());
+        assertEquals(1, XWikiBatcher.getSQLStats().getPreparedSQLCounter());
+    }
+
+    @Test
+    public void sqlListIsBounded()
+    {
+        for (int i = 0; i < 1500; ++i) {
+            this.stats.addToSqlList("select " + i);
+        }
+
+        assertEquals(1000, this.stats.getSqlList().size());
+
+        this.stats.resetStats();
+
+        assertTrue(this.stats.getSqlList().isEmpty());
+        assertEquals(0, this.stats.getExecutionTime());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.util.AbstractCache;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Unit tests for {@link XWikiCacheStore}.
+ * 
+ * @version $Id$
+ */
+public class XWikiCacheStoreTest
+{
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private XWikiContext context = mock(XWikiContext.class);
+
+    private XWikiStoreInterface store = mock(XWikiStoreInterface.class);
+
+    private XWikiCacheStore cacheStore;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "explicit");
+        this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "currentmixed");
+        this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        this.mocker.registerMockComponent(DocumentReferenceResolver.TYPE_REFERENCE, "explicit");
+        this.mocker.registerMockComponent(EntityReferenceResolver.TYPE_STRING, "xclass");
+        this.mocker.registerMockComponent(EntityReferenceResolver.TYPE_STRING, "relative");
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "compact");
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "default");
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "local");
+        this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "local/uid");
+        EntityReferenceSerializer<String> uidSerializer =
+            this.mocker.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "uid");
+        when(uidSerializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                return invocation.getArguments()[0].toString();
+            }
+        });
+        this.mocker.registerMockComponent(ObservationManager.class);
+        this.mocker.registerMockComponent(RemoteObservationManagerContext.class);
+        CacheManager cacheManager = this.mocker.registerMockComponent(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenAnswer(new Answer<Cache<Object>>()
+        {
+            @Override
+            public Cache<Object> answer(InvocationOnMock invocation) throws Throwable
+            {
+                return new MapCache();
+            }
+        });
+
+        Utils.setComponentManager(this.mocker);
+
+        when(this.context.getWiki()).thenReturn(mock(XWiki.class));
+
+        this.cacheStore = new XWikiCacheStore(this.store, this.context);
+    }
+
+    @Test
+    public void loadMissingDocumentOnlyOnce() throws Exception
+    {
+        when(this.store.loadXWikiDoc(any(XWikiDocument.class), same(this.context))).thenAnswer(
+            new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation) throws Throwable
+                {
+                    XWikiDocument document = (XWikiDocument) invocation.getArguments()[0];
+                    document.setNew(true);
+                    return document;
+                }
+            });
+
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Missing");
+
+        assertTrue(this.cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.context).isNew());
+        assertTrue(this.cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.context).isNew());
+        assertFalse(this.cacheStore.exists(new XWikiDocument(reference), this.context));
+
+        verify(this.store, times(1)).loadXWikiDoc(any(XWikiDocument.class), same(this.context));
+        verify(this.store, never()).exists(any(XWikiDocument.class), same(this.context));
+        // Missing documents are not kept in the document cache
+        assertNull(this.cacheStore.getCache().get(new XWikiDocument(reference).getKey()));
+
+        assertEquals(1, this.cacheStore.getCacheMisses());
+        assertEquals(2, this.cacheStore.getNegativeCacheHits());
+        assertEquals(0, this.cacheStore.getCacheHits());
+    }
+
+    @Test
+    public void saveInvalidatesMissingDocument() throws Exception
+    {
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+        when(this.store.exists(any(XWikiDocument.class), same(this.context))).thenReturn(false);
+
+        assertFalse(this.cacheStore.exists(new XWikiDocument(reference), this.context));
+
+        this.cacheStore.saveXWikiDoc(new XWikiDocument(reference), this.context);
+
+        XWikiDocument existing = new XWikiDocument(reference);
+        existing.setNew(false);
+        when(this.store.loadXWikiDoc(any(XWikiDocument.class), same(this.context))).thenReturn(existing);
+
+        assertSame(existing, this.cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.context));
+        assertSame(existing, this.cacheStore.loadXWikiDoc(new XWikiDocument(reference), this.context));
+        assertTrue(this.cacheStore.exists(new XWikiDocument(reference), this.context));
+
+        verify(this.store, times(1)).exists(any(XWikiDocument.class), same(this.context));
+        verify(this.store, times(1)).loadXWikiDoc(any(XWikiDocument.class), same(this.context));
+        assertEquals(1, this.cacheStore.getCacheHits());
+    }
+
+    /**
+     * Simple map based cache.
+     */
+    private static class MapCache extends AbstractCache<Object>
+    {
+        private final Map<String, Object> map = new HashMap<String, Object>();
+
+        @Override
+        public void set(String key, Object value)
+        {
+            this.map.put(key, value);
+        }
+
+        @Override
+        public Object get(String key)
+        {
+            return this.map.get(key);
+        }
+
+        @Override
+        public void remove(String key)
+        {
+            this.map.remove(key);
+        }
+
+        @Override
+        public void removeAll()
+        {
+            this.map.clear();
+        }
+    }
+}
@@ -23,11 +23,15 @@
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
@@ -41,6 +45,8 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
@@ -48,8 +54,14 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.DBStringListProperty;
 import com.xpn.xwiki.objects.DoubleProperty;
 import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.LargeStringProperty;
+import com.xpn.xwiki.objects.ListProperty;
+import com.xpn.xwiki.objects.StringProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.NumberClass;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
@@ -254,4 +266,121 @@ public void createHibernateSequenceIfRequired() throws Exception
         verify(session).createSQLQuery("create sequence schema.hibernate_sequence");
         verify(sqlQuery).executeUpdate();
     }
+
+    /**
+     * Verify that the properties loaded for all the objects of a document at once are the same as the properties
+     * loaded one at a time.
+     */
+    @Test
+    public void loadXWikiObjectsPropertiesMatchesSinglePropertyLoading() throws Exception
+    {
+        // The content of the property tables, indexed by object id and property name.
+        final Map<Long, Map<String, Object>> values = new HashMap<Long, Map<String, Object>>();
+        values.put(1L, createPropertyValues(42, "first", null, Arrays.asList("a", "b")));
+        values.put(2L, createPropertyValues(7, "second", "some text", Collections.<String>emptyList()));
+
+        // The property index and the rows of each property table.
+        List<Object[]> index = new ArrayList<Object[]>();
+        List<Object[]> integerRows = new ArrayList<Object[]>();
+        List<Object[]> stringRows = new ArrayList<Object[]>();
+        List<Object[]> largeStringRows = new ArrayList<Object[]>();
+        List<Object[]> listRows = new ArrayList<Object[]>();
+        for (Map.Entry<Long, Map<String, Object>> entry : values.entrySet()) {
+            Long id = entry.getKey();
+            index.add(new Object[] {id, "age", IntegerProperty.class.getName()});
+            index.add(new Object[] {id, "title", StringProperty.class.getName()});
+            index.add(new Object[] {id, "content", LargeStringProperty.class.getName()});
+            index.add(new Object[] {id, "tags", DBStringListProperty.class.getName()});
+            integerRows.add(new Object[] {id, "age", entry.getValue().get("age")});
+            stringRows.add(new Object[] {id, "title", entry.getValue().get("title")});
+            largeStringRows.add(new Object[] {id, "content", entry.getValue().get("content")});
+            List<?> tags = (List<?>) entry.getValue().get("tags");
+            for (int i = 0; i < tags.size(); i++) {
+                listRows.add(new Object[] {id, "tags", i, tags.get(i)});
+            }
+        }
+
+        mockQuery("prop.classType from BaseProperty", index);
+        mockQuery("from IntegerProperty", integerRows);
+        mockQuery("from StringProperty", stringRows);
+        mockQuery("from LargeStringProperty", largeStringRows);
+        mockQuery("from DBStringListProperty", listRows);
+
+        // Single property loading reads the same tables.
+        when(context.get("hibsession")).thenReturn(session);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                BaseProperty property = (BaseProperty) invocation.getArguments()[0];
+                Object value = values.get(property.getId()).get(property.getName());
+                if (property instanceof ListProperty) {
+                    ((ListProperty) property).setList((List<String>) value);
+                } else {
+                    property.setValue(value);
+                }
+                return null;
+            }
+        }).when(session).load(any(BaseProperty.class), any(Serializable.class));
+
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getFullName()).thenReturn("Space.Page");
+
+        List<BaseObject> bulkObjects = Arrays.asList(createObject(1L), createObject(2L));
+        store.loadXWikiObjectsProperties(bulkObjects, document, session, context);
+
+        for (BaseObject bulkObject : bulkObjects) {
+            BaseObject singleObject = createObject(bulkObject.getId());
+            for (Object[] result : index) {
+                if (result[0].equals(singleObject.getId())) {
+                    String name = (String) result[1];
+                    singleObject.addField(name,
+                        store.loadXWikiCollectionProperty(singleObject, null, name, (String) result[2], context));
+                }
+            }
+
+            assertEquals(singleObject.getPropertyList(), bulkObject.getPropertyList());
+            for (String name : singleObject.getPropertyList()) {
+                BaseProperty expected = (BaseProperty) singleObject.getField(name);
+                BaseProperty actual = (BaseProperty) bulkObject.getField(name);
+                assertSame(expected.getClass(), actual.getClass());
+                assertEquals(expected.getValue(), actual.getValue());
+                assertFalse(actual.isValueDirty());
+            }
+        }
+
+        // The properties of both objects are loaded with one query for the index and one per property table.
+        verify(session, times(5)).createQuery(anyString());
+    }
+
+    private Map<String, Object> createPropertyValues(int age, String title, String content, List<String> tags)
+    {
+        Map<String, Object> objectValues = new HashMap<String, Object>();
+        objectValues.put("age", age);
+        objectValues.put("title", title);
+        objectValues.put("content", content);
+        objectValues.put("tags", tags);
+        return objectValues;
+    }
+
+    private BaseObject createObject(final long id)
+    {
+        return new BaseObject()
+        {
+            @Override
+            public long getId()
+            {
+                return id;
+            }
+        };
+    }
+
+    private void mockQuery(String statementPart, List<Object[]> rows)
+    {
+        Query query = mock(Query.class);
+        when(session.createQuery(contains(statementPart))).thenReturn(query);
+        when(query.list()).thenReturn(rows);
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XWikiSQLStatistics}.
+ * 
+ * @version $Id$
+ */
+public class XWikiSQLStatisticsTest
+{
+    private XWikiSQLStatistics statistics = XWikiSQLStatistics.getInstance();
+
+    private int topSize;
+
+    @Before
+    public void setUp()
+    {
+        this.statistics.reset();
+        this.topSize = this.statistics.getTopSize();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.statistics.reset();
+        this.statistics.setTopSize(this.topSize);
+    }
+
+    @Test
+    public void executionsAreAggregatedPerStatement()
+    {
+        this.statistics.executed("select a", TimeUnit.MILLISECONDS.toNanos(1));
+        this.statistics.executed("select b", TimeUnit.MILLISECONDS.toNanos(10));
+        this.statistics.executed("select a", TimeUnit.MILLISECONDS.toNanos(2));
+
+        assertEquals(2, this.statistics.getStatementCount());
+
+        assertArrayEquals(new String[] {"2 executions, 3 ms: select a", "1 executions, 10 ms: select b"},
+            this.statistics.getTopStatementsByCount());
+        assertArrayEquals(new String[] {"1 executions, 10 ms: select b", "2 executions, 3 ms: select a"},
+            this.statistics.getTopStatementsByTime());
+    }
+
+    @Test
+    public void topStatementsAreLimited()
+    {
+        this.statistics.executed("select a", 1);
+        this.statistics.executed("select a", 1);
+        this.statistics.executed("select b", 1);
+
+        this.statistics.setTopSize(1);
+
+        assertArrayEquals(new String[] {"2 executions, 0 ms: select a"}, this.statistics.getTopStatementsByCount());
+    }
+
+    @Test
+    public void numberOfStatementsIsBounded()
+    {
+        for (int i = 0; i < 6000; ++i) {
+            this.statistics.executed("select " + i, 1);
+        }
+
+        assertEquals(5000, this.statistics.getStatementCount());
+
+        // Statements already known are still counted
+        this.statistics.executed("select 0", 1);
+        this.statistics.setTopSize(1);
+
+        assertArrayEquals(new String[] {"2 executions, 0 ms: select 0"}, this.statistics.getTopStatementsByCount());
+
+        this.statistics.reset();
+
+        assertEquals(0, this.statistics.getStatementCount());
+    }
+
+    @Test(timeout = 60000)
+    public void topStatementsWhileExecuting() throws Exception
+    {
+        for (int i = 0; i < 1000; ++i) {
+            this.statistics.executed("select " + i, i);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread executor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; running.get(); i = (i + 7) % 1000) {
+                    statistics.executed("select " + i, 1000 - i);
+                }
+            }
+        };
+        executor.start();
+
+        try {
+            // Sorting statistics which keep changing used to break the contract of the comparator
+            for (int i = 0; i < 200; ++i) {
+                assertEquals(20, this.statistics.getTopStatementsByCount().length);
+                assertEquals(20, this.statistics.getTopStatementsByTime().length);
+            }
+        } finally {
+            running.set(false);
+            executor.join();
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package com.xpn.xwiki.web;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
@@ -27,10 +28,14 @@
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Assert;
 import org.junit.Test;
 import org.xwiki.model.reference.DocumentReference;
@@ -120,6 +125,7 @@ public void setUp() throws Exception
                 allowing(DownloadActionTest.this.response).setCharacterEncoding(with(""));
                 allowing(DownloadActionTest.this.response).getOutputStream();
                 will(returnValue(DownloadActionTest.this.out));
+                allowing(DownloadActionTest.this.response).setHeader(with("ETag"), with(any(String.class)));
                 allowing(DownloadActionTest.this.xwiki).getRightService().hasAccessLevel(
                     "programming", with(any(String.class)), with(any(String.class)), 
                     with(any(XWikiContext.class)));
@@ -591,6 +597,8 @@ public void testOutsideRange() throws XWikiException, IOException
             {
                 one(DownloadActionTest.this.response).setStatus(
                     with(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"),
+                    with("bytes */" + DownloadActionTest.this.fileContent.length));
             }
         });
         Assert.assertNull(this.action.render(getContext()));
@@ -608,6 +616,8 @@ public void testOutsideRestRange() throws XWikiException, IOException
             {
                 one(DownloadActionTest.this.response).setStatus(
                     with(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"),
+                    with("bytes */" + DownloadActionTest.this.fileContent.length));
             }
         });
         Assert.assertNull(this.action.render(getContext()));
@@ -624,6 +634,198 @@ public void testEmptyRange() throws XWikiException, IOException
         Assert.assertNull(this.action.render(getContext()));
     }
 
+    @Test
+    public void testIfNoneMatchSame() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        final String etag = getETag();
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue("\"other\", " + etag));
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_NOT_MODIFIED));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, null, d.getTime() - 1000l);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfNoneMatchDifferent() throws XWikiException, IOException
+    {
+        // If-None-Match takes precedence over If-Modified-Since
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue("\"other\""));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, null, d.getTime());
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfRangeDifferent() throws XWikiException, IOException
+    {
+        // The range is ignored when the content changed
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue("\"other\""));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=0-3", -1l);
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testIfRangeSame() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        final String etag = getETag();
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue(etag));
+            }
+        });
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=0-3", -1l);
+        setResponseExpectations(d.getTime(), 4);
+        setOutputExpectations(0, 4);
+        getMockery().checking(new Expectations()
+        {
+            {
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"),
+                    with("bytes 0-3/" + DownloadActionTest.this.fileContent.length));
+            }
+        });
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testMultipleRanges() throws XWikiException, IOException
+    {
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=0-1, 5-6, 129-", -1l);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        getMockery().checking(new Expectations()
+        {
+            {
+                one(DownloadActionTest.this.response).setContentType(with("text/plain"));
+                one(DownloadActionTest.this.response).setContentType(
+                    with(new BaseMatcher<String>()
+                    {
+                        @Override
+                        public boolean matches(Object other)
+                        {
+                            return ((String) other).startsWith("multipart/byteranges; boundary=");
+                        }
+
+                        @Override
+                        public void describeTo(Description desc)
+                        {
+                            desc.appendText("multipart/byteranges");
+                        }
+                    }));
+                one(DownloadActionTest.this.response).setHeader(with("Accept-Ranges"), with("bytes"));
+                one(DownloadActionTest.this.response).addHeader(with("Content-disposition"),
+                    with("inline; filename*=utf-8''file.txt"));
+                one(DownloadActionTest.this.response).setDateHeader(with("Last-Modified"), with(d.getTime()));
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                allowing(DownloadActionTest.this.out).write(with(any(byte[].class)));
+                will(new CustomAction("write")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        body.write((byte[]) invocation.getParameter(0));
+                        return null;
+                    }
+                });
+                allowing(DownloadActionTest.this.out).write(with(any(byte[].class)), with(any(int.class)),
+                    with(any(int.class)));
+                will(new CustomAction("write")
+                {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable
+                    {
+                        body.write((byte[]) invocation.getParameter(0), (Integer) invocation.getParameter(1),
+                            (Integer) invocation.getParameter(2));
+                        return null;
+                    }
+                });
+            }
+        });
+        Assert.assertNull(this.action.render(getContext()));
+
+        String content = body.toString(XWiki.DEFAULT_ENCODING);
+        Assert.assertTrue(content.contains("Content-Range: bytes 0-1/14\r\n\r\nab\r\n"));
+        Assert.assertTrue(content.contains("Content-Range: bytes 5-6/14\r\n\r\nfg\r\n"));
+        // The unsatisfiable range is skipped
+        Assert.assertEquals(2, StringUtils.countMatches(content, "Content-Range"));
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() throws XWikiException, IOException
+    {
+        // The overlapping and adjacent ranges are sent as a single range: bytes 1 to 7
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        setRequestExpectations(DEFAULT_URI, null, null, "bytes=4-7, 1-3, 2-5", -1l);
+        setResponseExpectations(d.getTime(), 7);
+        setOutputExpectations(1, 8);
+        getMockery().checking(new Expectations()
+        {
+            {
+                one(DownloadActionTest.this.response).setStatus(with(HttpServletResponse.SC_PARTIAL_CONTENT));
+                one(DownloadActionTest.this.response).setHeader(with("Content-Range"),
+                    with("bytes 1-7/" + DownloadActionTest.this.fileContent.length));
+            }
+        });
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    @Test
+    public void testTooManyRanges() throws XWikiException, IOException
+    {
+        // This test expects the whole file, since the client asked for too many distinct ranges
+        this.fileContent = StringUtils.repeat("abcdefghij", 4).getBytes(XWiki.DEFAULT_ENCODING);
+        final Date d = new Date();
+        createAttachment(d, DEFAULT_FILE_NAME);
+        StringBuilder range = new StringBuilder("bytes=");
+        for (int i = 0; i < this.fileContent.length; i += 2) {
+            range.append(i).append('-').append(i).append(',');
+        }
+        setRequestExpectations(DEFAULT_URI, null, null, range.toString(), -1l);
+        setResponseExpectations(d.getTime(), this.fileContent.length);
+        setOutputExpectations(0, this.fileContent.length);
+        Assert.assertNull(this.action.render(getContext()));
+    }
+
+    private String getETag() throws XWikiException
+    {
+        XWikiAttachment attachment = this.document.getAttachment(DEFAULT_FILE_NAME);
+
+        return '"' + DigestUtils.md5Hex(attachment.getId() + "/" + attachment.getVersion() + "/"
+            + attachment.getDate().getTime() + "/" + attachment.getContentSize(getContext())) + '"';
+    }
+
     private void createAttachment(Date d, String name) throws IOException
     {
         XWikiAttachment filetxt = new XWikiAttachment(this.document, name);
@@ -649,6 +851,10 @@ private void setRequestExpectations(final String uri, final String id, final Str
                 will(returnValue(forceDownload));
                 allowing(DownloadActionTest.this.request).getHeader(with("Range"));
                 will(returnValue(range));
+                allowing(DownloadActionTest.this.request).getHeader(with("If-Range"));
+                will(returnValue(null));
+                allowing(DownloadActionTest.this.request).getHeader(with("If-None-Match"));
+                will(returnValue(null));
             }
         });
     }
@@ -130,6 +130,7 @@ public Wiki importXAR(String wikiName, Boolean backup, String history, InputStre
             } catch (IOException e) {
                 throw new WebApplicationException(e);
             } finally {
+                importer.close();
                 xwikiContext.setDatabase(database);
             }
 
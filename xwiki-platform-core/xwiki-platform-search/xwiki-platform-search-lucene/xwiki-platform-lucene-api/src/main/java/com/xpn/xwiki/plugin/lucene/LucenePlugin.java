@@ -49,12 +49,14 @@
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -103,6 +105,11 @@ public class LucenePlugin extends XWikiDefaultPlugin
 
     private static final String DEFAULT_ANALYZER = "org.apache.lucene.analysis.standard.StandardAnalyzer";
 
+    /**
+     * The number of times to try acquiring the searchers when they keep being closed by concurrent flushes.
+     */
+    private static final int MAX_ACQUIRE_ATTEMPTS = 10;
+
     /**
      * Used to get the temporary directory.
      */
@@ -125,10 +132,11 @@ public class LucenePlugin extends XWikiDefaultPlugin
     protected Thread indexUpdaterThread;
 
     /**
-     * List of Lucene indexes used for searching. By default there is only one such index for all the wiki. One r
-     * is created for each entry in {@link #indexDirs}.
+     * Managers of the searchers used for searching the Lucene indexes. By default there is only one such index for all
+     * the wiki. One manager is created for each entry in {@link #indexDirs}. The managers are refreshed after each
+     * indexing batch so that searches share warm readers instead of opening new ones.
      */
-    private IndexReader[] indexReaders;
+    private volatile SearcherManager[] searcherManagers;
 
     /**
      * Comma separated list of directories holding Lucene index data. The first such directory is used by the internal
@@ -286,7 +294,12 @@ public SearchResults getSearchResultsFromIndexes(String query, String sortField,
     public SearchResults getSearchResults(String query, String sortField, String virtualWikiNames, String languages,
         XWikiContext context) throws Exception
     {
-        return search(query, sortField, virtualWikiNames, languages, this.indexReaders, context);
+        IndexSearcher[] searchers = acquireSearchers(context);
+        try {
+            return search(query, sortField, virtualWikiNames, languages, getIndexReaders(searchers), context);
+        } finally {
+            releaseSearchers(searchers);
+        }
     }
 
     /**
@@ -306,7 +319,12 @@ public SearchResults getSearchResults(String query, String sortField, String vir
     public SearchResults getSearchResults(String query, String[] sortField, String virtualWikiNames, String languages,
         XWikiContext context) throws Exception
     {
-        return search(query, sortField, virtualWikiNames, languages, this.indexReaders, context);
+        IndexSearcher[] searchers = acquireSearchers(context);
+        try {
+            return search(query, sortField, virtualWikiNames, languages, getIndexReaders(searchers), context);
+        } finally {
+            releaseSearchers(searchers);
+        }
     }
 
     /**
@@ -390,23 +408,31 @@ private SearchResults search(String query, String[] sortFields, String virtualWi
     private SearchResults search(String query, Sort sort, String virtualWikiNames, String languages,
         IndexReader[] indexes, XWikiContext context) throws IOException, ParseException
     {
-        IndexSearcher searcher = new IndexSearcher(new MultiReader(indexes, true));
+        // The passed readers stay owned by the caller, the multi reader only holds its own reference on them until
+        // the search results have read the hits.
+        MultiReader reader = new MultiReader(indexes, false);
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
 
-        // Enhance the base query with wiki names and languages.
-        Query q = buildQuery(query, virtualWikiNames, languages);
+            // Enhance the base query with wiki names and languages.
+            Query q = buildQuery(query, virtualWikiNames, languages);
 
-        // Perform the actual search
-        TopDocsCollector< ? extends ScoreDoc> results;
-        if (sort != null) {
-            results = TopFieldCollector.create(sort, 1000, true, true, false, false);
-        } else {
-            results = TopScoreDocCollector.create(1000, false);
-        }
-        searcher.search(q, results);
-        LOGGER.debug("query [{}] returned {} hits", q, results.getTotalHits());
+            // Perform the actual search
+            TopDocsCollector< ? extends ScoreDoc> results;
+            if (sort != null) {
+                results = TopFieldCollector.create(sort, 1000, true, true, false, false);
+            } else {
+                results = TopScoreDocCollector.create(1000, false);
+            }
+            searcher.search(q, results);
+            LOGGER.debug("query [{}] returned {} hits", q, results.getTotalHits());
 
-        // Transform the raw Lucene search results into XWiki-aware results
-        return new SearchResults(results, searcher, new com.xpn.xwiki.api.XWiki(context.getWiki(), context), context);
+            // Transform the raw Lucene search results into XWiki-aware results
+            return new SearchResults(results, searcher, new com.xpn.xwiki.api.XWiki(context.getWiki(), context),
+                context);
+        } finally {
+            reader.close();
+        }
     }
 
     /**
@@ -663,6 +689,8 @@ public void flushCache(XWikiContext context)
             this.indexUpdaterThread = null;
         }
 
+        closeSearcherManagers();
+
         this.indexRebuilder = null;
         this.analyzer = null;
 
@@ -719,17 +747,134 @@ private static void destroyIndexReaders(IndexReader [] indexReaders)
     }
 
     /**
-     * Opens the readers for the configured index Dirs after closing any already existing ones.
+     * Creates a searcher manager for each of a number of lucene indexes.
+     * 
+     * @param indexDirs Comma separated list of Lucene index directories to create searcher managers for.
+     * @return Array of searcher managers
      */
-    public synchronized void openIndexReaders(XWikiContext context)
+    private SearcherManager[] createSearcherManagers(String indexDirs, XWikiContext context) throws Exception
+    {
+        String[] dirs = StringUtils.split(indexDirs, ",");
+        List<SearcherManager> managersList = new ArrayList<SearcherManager>();
+        IndexWriterConfig cfg = new IndexWriterConfig(Version.LUCENE_40, this.analyzer);
+        for (String dir : dirs) {
+            Directory d = FSDirectory.open(new File(dir));
+            while (true) {
+                try {
+                    if (!DirectoryReader.indexExists(d)) {
+                        // If there's no index there, create an empty one; otherwise the reader
+                        // constructor will throw an exception and fail to initialize
+                        new IndexWriter(d, cfg).close();
+                    }
+
+                    managersList.add(new SearcherManager(d, null));
+                    break;
+                } catch (CorruptIndexException e) {
+                    handleCorruptIndex(context);
+                }
+            }
+        }
+
+        return managersList.toArray(new SearcherManager[managersList.size()]);
+    }
+
+    /**
+     * Closes the searcher managers, if any. Searchers currently acquired stay usable until released.
+     */
+    private synchronized void closeSearcherManagers()
+    {
+        if (this.searcherManagers != null) {
+            for (SearcherManager searcherManager : this.searcherManagers) {
+                try {
+                    searcherManager.close();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to close lucene searcher manager.", e);
+                }
+            }
+            this.searcherManagers = null;
+        }
+    }
+
+    /**
+     * Acquire the searchers, retrying with the new managers when they are being replaced by {@link #flushCache}.
+     * 
+     * @param context the XWiki context
+     * @return a searcher for each configured index, to be released with {@link #releaseSearchers(IndexSearcher[])}
+     * @throws IOException when failing to acquire a searcher
+     */
+    private IndexSearcher[] acquireSearchers(XWikiContext context) throws IOException
+    {
+        AlreadyClosedException closed = null;
+        for (int attempt = 0; attempt < MAX_ACQUIRE_ATTEMPTS; attempt++) {
+            SearcherManager[] managers = this.searcherManagers;
+            if (managers == null) {
+                // The managers have been closed by a flush which did not reopen them yet.
+                openIndexReaders(context);
+                continue;
+            }
+
+            IndexSearcher[] searchers = new IndexSearcher[managers.length];
+            try {
+                for (int i = 0; i < managers.length; i++) {
+                    searchers[i] = managers[i].acquire();
+                }
+
+                return searchers;
+            } catch (AlreadyClosedException e) {
+                releaseSearchers(searchers);
+
+                closed = e;
+            } catch (IOException e) {
+                releaseSearchers(searchers);
+
+                throw e;
+            }
+        }
+
+        throw new IOException("Failed to acquire the lucene index searchers", closed);
+    }
+
+    /**
+     * @param searchers the searchers acquired with {@link #acquireSearchers(XWikiContext)}
+     */
+    private void releaseSearchers(IndexSearcher[] searchers)
     {
-        if (this.indexReaders != null) {
-            destroyIndexReaders(this.indexReaders);
-            this.indexReaders = null;
+        for (IndexSearcher searcher : searchers) {
+            if (searcher != null) {
+                try {
+                    // Same as SearcherManager#release, which does not need the manager itself.
+                    searcher.getIndexReader().decRef();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to release lucene index searcher.", e);
+                }
+            }
         }
+    }
+
+    private static IndexReader[] getIndexReaders(IndexSearcher[] searchers)
+    {
+        IndexReader[] readers = new IndexReader[searchers.length];
+        for (int i = 0; i < searchers.length; i++) {
+            readers[i] = searchers[i].getIndexReader();
+        }
+
+        return readers;
+    }
 
+    /**
+     * Opens the searchers for the configured index Dirs the first time, and refreshes them the next times so that
+     * they see the latest changes committed to the indexes.
+     */
+    public synchronized void openIndexReaders(XWikiContext context)
+    {
         try {
-            this.indexReaders = createIndexReaders(this.indexDirs, context);
+            if (this.searcherManagers == null) {
+                this.searcherManagers = createSearcherManagers(this.indexDirs, context);
+            } else {
+                for (SearcherManager searcherManager : this.searcherManagers) {
+                    searcherManager.maybeRefresh();
+                }
+            }
         } catch (Exception e) {
             LOGGER.error("Error opening readers for index dirs [{}]", context.getWiki().Param(PROP_INDEX_DIR), e);
             throw new RuntimeException("Error opening readers for index dirs "
@@ -747,6 +892,15 @@ public long getQueueSize()
         return this.indexUpdater.getQueueSize();
     }
 
+    /**
+     * @return the number of documents which replaced an older unprocessed version of themselves in the queue
+     * @since 6.0M1
+     */
+    public long getQueueCoalescedCount()
+    {
+        return this.indexUpdater.getQueueCoalescedCount();
+    }
+
     public void queueDocument(XWikiDocument doc, XWikiContext context)
     {
         this.indexUpdater.queueDocument(doc, context, false);
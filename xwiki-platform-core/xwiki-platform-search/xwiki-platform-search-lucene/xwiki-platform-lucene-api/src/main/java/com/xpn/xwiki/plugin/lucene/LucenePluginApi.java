@@ -153,6 +153,22 @@ public long getQueueSize()
         }
     }
 
+    /**
+     * @return the number of documents which replaced an older version of themselves waiting in the queue, and thus
+     *         were indexed only once.
+     * @since 6.0M1
+     */
+    public long getQueueCoalescedCount()
+    {
+        try {
+            return getProtectedPlugin().getQueueCoalescedCount();
+        } catch (Exception e) {
+            LOGGER.error("Failed to get the number of coalesced documents in the queue", e);
+
+            return 0;
+        }
+    }
+
     /**
      * @return the number of documents Lucene index writer.
      */
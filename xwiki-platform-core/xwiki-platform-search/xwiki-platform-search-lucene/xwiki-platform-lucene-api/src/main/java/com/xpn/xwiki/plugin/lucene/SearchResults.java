@@ -22,9 +22,9 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,37 +48,68 @@ public class SearchResults extends Api
 {
     private final XWiki xwiki;
 
-    private final IndexSearcher searcher;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchResults.class);
 
-    private final TopDocsCollector< ? extends ScoreDoc> results;
+    /**
+     * The hits, in the order of the Lucene results.
+     */
+    private final ScoreDoc[] scoreDocs;
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(SearchResults.class);
+    /**
+     * The stored fields of each hit, {@code null} when they could not be loaded.
+     */
+    private final Document[] documents;
+
+    private final int totalHits;
 
     private List<SearchResult> relevantResults;
 
     /**
+     * The stored fields of the hits are read right away so that the searcher can be released as soon as the search is
+     * done, instead of staying open as long as this object is used.
+     * 
      * @param results Lucene search results
+     * @param searcher the searcher used to get the results
      * @param xwiki xwiki instance for access rights checking
      */
     public SearchResults(TopDocsCollector< ? extends ScoreDoc> results, IndexSearcher searcher, XWiki xwiki, XWikiContext context)
     {
         super(context);
 
-        this.results = results;
-        this.searcher = searcher;
         this.xwiki = xwiki;
+        this.totalHits = results.getTotalHits();
+        this.scoreDocs = results.topDocs().scoreDocs;
+        this.documents = new Document[this.scoreDocs.length];
+        for (int i = 0; i < this.scoreDocs.length; i++) {
+            try {
+                this.documents[i] = searcher.doc(this.scoreDocs[i].doc);
+            } catch (Exception e) {
+                LOGGER.error("Error getting search result", e);
+            }
+        }
+    }
+
+    /**
+     * @param index the index of the hit
+     * @return the stored fields of the hit, {@code null} when they could not be loaded
+     */
+    private Document getDocument(int index)
+    {
+        return this.documents[index];
     }
 
     private List<SearchResult> getRelevantResults()
     {
         if (this.relevantResults == null) {
             this.relevantResults = new ArrayList<SearchResult>();
-            TopDocs docs = this.results.topDocs();
 
-            for (int i = 0; i < docs.scoreDocs.length; i++) {
+            for (int i = 0; i < this.scoreDocs.length; i++) {
+                Document document = getDocument(i);
+                if (document == null) {
+                    continue;
+                }
                 try {
-                    SearchResult result =
-                        new SearchResult(this.searcher.doc(docs.scoreDocs[i].doc), docs.scoreDocs[i].score, this.xwiki);
+                    SearchResult result = new SearchResult(document, this.scoreDocs[i].score, this.xwiki);
 
                     if (result.isWikiContent()) {
                         String prefixedFullName =
@@ -182,15 +213,16 @@ public List<SearchResult> getResults(int beginIndex, int items)
         List<SearchResult> relResults = this.relevantResults;
         if (relResults == null) {
             relResults = new ArrayList<SearchResult>();
-            TopDocs docs = this.results.topDocs();
             String database = this.context.getDatabase();
             try {
-                for (int i = 0; i < docs.scoreDocs.length; i++) {
+                for (int i = 0; i < this.scoreDocs.length; i++) {
+                    Document document = getDocument(i);
+                    if (document == null) {
+                        continue;
+                    }
                     SearchResult result = null;
                     try {
-                        result =
-                            new SearchResult(this.searcher.doc(docs.scoreDocs[i].doc), docs.scoreDocs[i].score,
-                                this.xwiki);
+                        result = new SearchResult(document, this.scoreDocs[i].score, this.xwiki);
 
                         this.context.setDatabase(result.getWiki());
 
@@ -246,6 +278,6 @@ public int getHitcount()
      */
     public int getTotalHitcount()
     {
-        return this.results.getTotalHits();
+        return this.totalHits;
     }
 }
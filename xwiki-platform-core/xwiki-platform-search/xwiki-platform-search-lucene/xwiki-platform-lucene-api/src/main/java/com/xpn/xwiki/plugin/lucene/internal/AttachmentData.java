@@ -26,8 +26,6 @@
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexableField;
-import org.apache.tika.Tika;
-import org.apache.tika.metadata.Metadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +33,9 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.attachment.AttachmentTextExtractor;
 import com.xpn.xwiki.plugin.lucene.LucenePlugin;
+import com.xpn.xwiki.web.Utils;
 
 /**
  * Holds all data but the content of an attachment to be indexed. The content is retrieved at indexing time, which
@@ -213,12 +213,9 @@ private String getContentAsText(XWikiDocument doc, XWikiContext context)
 
             LOGGER.debug("Start parsing attachement [{}] in document [{}]", this.filename, doc.getDocumentReference());
 
-            Tika tika = new Tika();
+            AttachmentTextExtractor textExtractor = Utils.getComponent(AttachmentTextExtractor.class);
 
-            Metadata metadata = new Metadata();
-            metadata.set(Metadata.RESOURCE_NAME_KEY, this.filename);
-
-            contentText = StringUtils.lowerCase(tika.parseToString(att.getContentInputStream(context), metadata));
+            contentText = StringUtils.lowerCase(textExtractor.getText(att, context));
         } catch (Throwable ex) {
             LOGGER.warn("error getting content of attachment [{}] for document [{}]",
                 new Object[] {this.filename, doc.getDocumentReference(), ex});
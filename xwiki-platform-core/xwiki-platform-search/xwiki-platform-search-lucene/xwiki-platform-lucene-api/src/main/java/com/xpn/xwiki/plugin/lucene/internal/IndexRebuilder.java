@@ -27,7 +27,6 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -155,18 +154,7 @@ public synchronized int startIndex(Collection<String> wikis, String hqlFilter, b
                 if (wikis == null) {
                     this.indexUpdater.cleanIndex();
                 } else {
-                    try {
-                        IndexWriter writer = this.indexUpdater.openWriter(false);
-                        try {
-                            for (String wiki : wikis) {
-                                writer.deleteDocuments(new Term(IndexFields.DOCUMENT_WIKI, wiki));
-                            }
-                        } finally {
-                            writer.close();
-                        }
-                    } catch (IOException ex) {
-                        LOGGER.warn("Failed to clean wiki index: {}", ex.getMessage());
-                    }
+                    this.indexUpdater.cleanIndex(wikis);
                 }
             }
 
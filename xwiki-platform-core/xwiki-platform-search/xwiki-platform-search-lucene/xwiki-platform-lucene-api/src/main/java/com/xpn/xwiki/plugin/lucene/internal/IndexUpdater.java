@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 
@@ -32,6 +33,8 @@
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.util.Version;
@@ -117,6 +120,13 @@ public class IndexUpdater extends AbstractXWikiRunnable implements EventListener
 
     private Analyzer analyzer;
 
+    /**
+     * The writer kept open between indexing batches, lazily opened by {@link #getWriter(XWikiContext)} and closed when
+     * the main loop exits. Reusing it avoids paying the writer setup and the index lock acquisition on every polling
+     * cycle. It is discarded, and reopened on next use, when it becomes unusable after a fatal error.
+     */
+    private IndexWriter writer;
+
     private final XWikiContext xwikiContext;
 
     @Override
@@ -173,24 +183,34 @@ protected void runInternal()
      */
     private void runMainLoop()
     {
-        while (!this.exit) {
-            // Check if the indexing interval elapsed.
-            if (this.indexingTimer == 0) {
-                // Reset the indexing timer.
-                this.indexingTimer = this.indexingInterval;
+        try {
+            while (!this.exit) {
+                // Check if the indexing interval elapsed.
+                if (this.indexingTimer == 0) {
+                    // Reset the indexing timer.
+                    this.indexingTimer = this.indexingInterval;
 
-                // Poll the queue for documents to be indexed.
-                updateIndex();
-            }
+                    try {
+                        // Poll the queue for documents to be indexed.
+                        updateIndex();
+                    } catch (Exception e) {
+                        // Keep the updater thread alive, the next batch will get another chance.
+                        LOGGER.error("Failed to update the index", e);
+                    }
+                }
 
-            // Remove the exit interval from the indexing timer.
-            int sleepInterval = Math.min(EXIT_INTERVAL, this.indexingTimer);
-            this.indexingTimer -= sleepInterval;
-            try {
-                Thread.sleep(sleepInterval);
-            } catch (InterruptedException e) {
-                LOGGER.warn("Error while sleeping", e);
+                // Remove the exit interval from the indexing timer.
+                int sleepInterval = Math.min(EXIT_INTERVAL, this.indexingTimer);
+                this.indexingTimer -= sleepInterval;
+                try {
+                    Thread.sleep(sleepInterval);
+                } catch (InterruptedException e) {
+                    LOGGER.warn("Error while sleeping", e);
+                }
             }
+        } finally {
+            // Release the index lock so that the index can be reopened by another updater.
+            closeWriter();
         }
     }
 
@@ -205,62 +225,137 @@ private void updateIndex()
             LOGGER.debug("IndexUpdater: documents in queue, start indexing");
 
             XWikiContext context = getContext();
-            context.getWiki().getStore().cleanUp(context);
 
-            IndexWriter writer;
-            RETRY: while (true) {
-                // We will retry after repairing if the index was
-                // corrupt
+            indexQueue(context);
+
+            // Refresh the searchers outside of the updater lock, the batch has been committed already.
+            this.plugin.openIndexReaders(context);
+        }
+    }
+
+    /**
+     * Index the content of the queue with the long-lived writer and commit it. The lock of the updater is only held
+     * while writing to the index, not while extracting the content of the queued entries.
+     * 
+     * @param context the XWiki context
+     */
+    private void indexQueue(XWikiContext context)
+    {
+        context.getWiki().getStore().cleanUp(context);
+
+        try {
+            getWriter(context);
+        } catch (IOException e) {
+            LOGGER.error("Failed to open index", e);
+
+            throw new RuntimeException(e);
+        }
+
+        try {
+            int nb = 0;
+            while (!this.queue.isEmpty()) {
+                AbstractIndexData data = this.queue.remove();
+
                 try {
-                    try {
-                        writer = openWriter(false);
-                        break RETRY;
-                    } catch (CorruptIndexException e) {
-                        this.plugin.handleCorruptIndex(context);
+                    if (data.isDeleted()) {
+                        removeFromIndex(data, context);
+                    } else {
+                        addToIndex(data, context);
                     }
-                } catch (IOException e) {
-                    LOGGER.error("Failed to open index", e);
 
-                    throw new RuntimeException(e);
+                    ++nb;
+                } catch (Throwable e) {
+                    LOGGER.error("error indexing document [{}]", data, e);
                 }
             }
 
+            LOGGER.info("indexed [{}] docs to lucene index", nb);
+        } catch (Exception e) {
+            LOGGER.error("error indexing documents", e);
+        } finally {
             try {
-                int nb = 0;
-                while (!this.queue.isEmpty()) {
-                    AbstractIndexData data = this.queue.remove();
+                context.getWiki().getStore().cleanUp(context);
+            } catch (Exception e) {
+                LOGGER.error("Failed to cleanup hibernate session in lucene index updater.", e);
+            }
 
-                    try {
-                        if (data.isDeleted()) {
-                            removeFromIndex(writer, data, context);
-                        } else {
-                            addToIndex(writer, data, context);
-                        }
-
-                        ++nb;
-                    } catch (Throwable e) {
-                        LOGGER.error("error indexing document [{}]", data, e);
-                    }
-                }
+            // Make the batch durable and visible to the searchers without closing the writer.
+            commitWriter();
+        }
+    }
 
-                LOGGER.info("indexed [{}] docs to lucene index", nb);
-            } catch (Exception e) {
-                LOGGER.error("error indexing documents", e);
-            } finally {
-                try {
-                    context.getWiki().getStore().cleanUp(context);
-                } catch (Exception e) {
-                    LOGGER.error("Failed to cleanup hibernate session in lucene index updater.", e);
-                }
+    /**
+     * @param context the XWiki context, used to repair a corrupt index
+     * @return the long-lived writer of this updater, opened on first use
+     * @throws IOException when failing to open the writer
+     */
+    private synchronized IndexWriter getWriter(XWikiContext context) throws IOException
+    {
+        while (this.writer == null) {
+            try {
+                this.writer = openWriter(false);
+            } catch (CorruptIndexException e) {
+                // We will retry after repairing the corrupt index
+                this.plugin.handleCorruptIndex(context);
+            }
+        }
 
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    LOGGER.error("Failed to close writer.", e);
-                }
+        return this.writer;
+    }
+
+    /**
+     * Commit the long-lived writer, if open.
+     */
+    private synchronized void commitWriter()
+    {
+        if (this.writer != null) {
+            try {
+                this.writer.commit();
+            } catch (IOException e) {
+                LOGGER.error("Failed to commit writer.", e);
+            } catch (IllegalStateException e) {
+                // Also covers AlreadyClosedException: the writer can't commit anymore after a fatal error.
+                discardWriter(e);
             }
+        }
+    }
 
-            this.plugin.openIndexReaders(context);
+    /**
+     * Drop the long-lived writer after it became unusable, rolling it back to release the index lock. The changes it
+     * did not commit yet are lost. A new writer is opened on next use.
+     * 
+     * @param cause the error which made the writer unusable
+     */
+    private synchronized void discardWriter(Exception cause)
+    {
+        LOGGER.error("Discarding the lucene index writer, uncommitted changes are lost", cause);
+
+        IndexWriter w = this.writer;
+        this.writer = null;
+        if (w != null) {
+            try {
+                w.rollback();
+            } catch (Exception e) {
+                LOGGER.debug("Failed to rollback the discarded writer: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close the long-lived writer, if open, releasing the index lock.
+     */
+    private synchronized void closeWriter()
+    {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close writer.", e);
+            } catch (AlreadyClosedException e) {
+                LOGGER.debug("Writer already closed: {}", e.getMessage());
+            } finally {
+                this.writer = null;
+            }
         }
     }
 
@@ -287,30 +382,60 @@ protected IndexWriter openWriter(boolean create) throws IOException
         }
     }
 
-    private void addToIndex(IndexWriter writer, AbstractIndexData data, XWikiContext context) throws IOException,
-        XWikiException
+    private void addToIndex(AbstractIndexData data, XWikiContext context) throws IOException, XWikiException
     {
         LOGGER.debug("addToIndex: [{}]", data);
 
+        // Extracting the content (e.g. parsing the attachments) is the costly part, it's done out of the writer lock.
         Document luceneDoc = new Document();
         data.addDataToLuceneDocument(luceneDoc, context);
 
-        // collecting all the fields for using up in search
-        for (IndexableField field : luceneDoc.getFields()) {
-            if (!fields.contains(field.name())) {
-                fields.add(field.name());
+        write(data.getTerm(), luceneDoc, context);
+    }
+
+    private void removeFromIndex(AbstractIndexData data, XWikiContext context) throws IOException
+    {
+        LOGGER.debug("removeFromIndex: [{}]", data);
+
+        write(data.getTerm(), null, context);
+    }
+
+    /**
+     * Update or delete an entry of the index with the long-lived writer, retrying once with a new writer if the
+     * current one has been closed.
+     * 
+     * @param term the term identifying the entry
+     * @param luceneDoc the new content of the entry, {@code null} to delete it
+     * @param context the XWiki context
+     * @throws IOException when failing to write to the index
+     */
+    private synchronized void write(Term term, Document luceneDoc, XWikiContext context) throws IOException
+    {
+        if (luceneDoc != null) {
+            // collecting all the fields for using up in search
+            for (IndexableField field : luceneDoc.getFields()) {
+                if (!fields.contains(field.name())) {
+                    fields.add(field.name());
+                }
             }
         }
 
-        writer.updateDocument(data.getTerm(), luceneDoc);
+        try {
+            write(getWriter(context), term, luceneDoc);
+        } catch (AlreadyClosedException e) {
+            discardWriter(e);
+
+            write(getWriter(context), term, luceneDoc);
+        }
     }
 
-    private void removeFromIndex(IndexWriter writer, AbstractIndexData data, XWikiContext context)
-        throws CorruptIndexException, IOException
+    private static void write(IndexWriter writer, Term term, Document luceneDoc) throws IOException
     {
-        LOGGER.debug("removeFromIndex: [{}]", data);
-
-        writer.deleteDocuments(data.getTerm());
+        if (luceneDoc != null) {
+            writer.updateDocument(term, luceneDoc);
+        } else {
+            writer.deleteDocuments(term);
+        }
     }
 
     /**
@@ -321,17 +446,66 @@ public void setAnalyzer(Analyzer analyzer)
         this.analyzer = analyzer;
     }
 
-    public void cleanIndex()
+    public synchronized void cleanIndex()
     {
         LOGGER.info("trying to clear index for rebuilding");
 
         try {
+            if (this.writer != null) {
+                try {
+                    this.writer.deleteAll();
+                    this.writer.commit();
+
+                    return;
+                } catch (IllegalStateException e) {
+                    discardWriter(e);
+                }
+            }
+
             openWriter(true).close();
         } catch (IOException e) {
             LOGGER.error("Failed to clean index", e);
         }
     }
 
+    /**
+     * Remove from the index all the entries of the passed wikis.
+     * 
+     * @param wikis the wikis to remove from the index
+     * @since 6.0M1
+     */
+    public synchronized void cleanIndex(Collection<String> wikis)
+    {
+        try {
+            if (this.writer != null) {
+                try {
+                    deleteWikis(this.writer, wikis);
+
+                    return;
+                } catch (IllegalStateException e) {
+                    discardWriter(e);
+                }
+            }
+
+            IndexWriter w = openWriter(false);
+            try {
+                deleteWikis(w, wikis);
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to clean wiki index: {}", e.getMessage());
+        }
+    }
+
+    private static void deleteWikis(IndexWriter writer, Collection<String> wikis) throws IOException
+    {
+        for (String wiki : wikis) {
+            writer.deleteDocuments(new Term(IndexFields.DOCUMENT_WIKI, wiki));
+        }
+        writer.commit();
+    }
+
     public void queueDocument(XWikiDocument document, XWikiContext context, boolean deleted)
     {
         this.queue.add(new DocumentData(document, context, deleted));
@@ -428,14 +602,31 @@ public long getQueueSize()
         return this.queue.getSize();
     }
 
+    /**
+     * @return the number of documents which replaced an older unprocessed version of themselves in the queue
+     * @since 6.0M1
+     */
+    public long getQueueCoalescedCount()
+    {
+        return this.queue.getCoalescedCount();
+    }
+
     /**
      * @return the number of documents in Lucene index writer.
      */
-    public long getLuceneDocCount()
+    public synchronized long getLuceneDocCount()
     {
         int n = -1;
 
         try {
+            if (this.writer != null) {
+                try {
+                    return this.writer.numDocs();
+                } catch (AlreadyClosedException e) {
+                    discardWriter(e);
+                }
+            }
+
             IndexWriter w = openWriter(false);
             try {
                 n = w.numDocs();
@@ -19,18 +19,23 @@
  */
 package com.xpn.xwiki.plugin.lucene.internal;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.collections.Buffer;
 import org.apache.commons.collections.BufferUnderflowException;
-import org.apache.commons.collections.buffer.UnboundedFifoBuffer;
-
 
 /**
  * This class represents a Queue (FirstInFirstOut) for XWikiDocument objects. It is used during indexing of the wiki.
  * The index is updated whenever the processing queue is not empty. This class is threadsafe, as usually several threads
  * add elements and one thread removes them for processing.
+ * <p>
+ * The queue does not lock: the pending data are kept in a concurrent map indexed by their id and only the ids are
+ * queued, so that saving the same document several times before it's indexed results in a single indexing of its last
+ * version.
  * 
  * @version $Id$
  */
@@ -39,12 +44,24 @@
     /**
      * Maps names of documents to the document instances.
      */
-    private Map<String, AbstractIndexData> documentsByName = new HashMap<String, AbstractIndexData>();
+    private final ConcurrentMap<String, AbstractIndexData> documentsByName =
+        new ConcurrentHashMap<String, AbstractIndexData>();
 
     /**
      * Maintains FIFO order.
      */
-    private Buffer namesQueue = new UnboundedFifoBuffer();
+    private final Queue<String> namesQueue = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * The number of names in {@link #namesQueue}, since {@link ConcurrentLinkedQueue#size()} is not a constant-time
+     * operation.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The number of added elements which replaced an unprocessed element of the queue.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
 
     /**
      * Remove an item from the queue and return it. Since this is a FIFO, the element returned will be the oldes one in
@@ -53,9 +70,17 @@
      * @return The oldest element in the queue.
      * @throws BufferUnderflowException If the queue is empty.
      */
-    public synchronized AbstractIndexData remove() throws BufferUnderflowException
+    public AbstractIndexData remove() throws BufferUnderflowException
     {
-        return this.documentsByName.remove(this.namesQueue.remove());
+        String key = this.namesQueue.poll();
+        if (key == null) {
+            throw new BufferUnderflowException("The queue is empty");
+        }
+        this.size.decrementAndGet();
+
+        // Removing the data only after the name has been polled makes sure that a concurrent add either replaces the
+        // data we're about to return or queues the name again.
+        return this.documentsByName.remove(key);
     }
 
     /**
@@ -66,19 +91,18 @@ public synchronized AbstractIndexData remove() throws BufferUnderflowException
      * 
      * @param data IndexData object to add to the queue.
      */
-    @SuppressWarnings("unchecked")
-    public synchronized void add(AbstractIndexData data)
+    public void add(AbstractIndexData data)
     {
         String key = data.getId();
 
-        if (!this.documentsByName.containsKey(key)) {
+        // In any case put new version of this document in the map, overwriting possibly existing older version
+        if (this.documentsByName.put(key, data) == null) {
             // Document with this name not yet in the Queue, so add it
+            this.size.incrementAndGet();
             this.namesQueue.add(key);
+        } else {
+            this.coalesced.incrementAndGet();
         }
-
-        // In any case put new version of this document in the map, overwriting
-        // possibly existing older version
-        this.documentsByName.put(key, data);
     }
 
     /**
@@ -86,7 +110,7 @@ public synchronized void add(AbstractIndexData data)
      * 
      * @return <code>true</code> if the queue is empty, <code>false</code> otherwise.
      */
-    public synchronized boolean isEmpty()
+    public boolean isEmpty()
     {
         return this.namesQueue.isEmpty();
     }
@@ -96,8 +120,17 @@ public synchronized boolean isEmpty()
      * 
      * @return Number of elements in the queue.
      */
-    public synchronized int getSize()
+    public int getSize()
+    {
+        return this.size.get();
+    }
+
+    /**
+     * @return the number of added elements which replaced an unprocessed element of the queue instead of being queued
+     * @since 6.0M1
+     */
+    public long getCoalescedCount()
     {
-        return this.namesQueue.size();
+        return this.coalesced.get();
     }
 }
@@ -25,6 +25,7 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.display.internal.DisplayConfiguration;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.syntax.Syntax;
@@ -32,6 +33,7 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.attachment.DefaultAttachmentTextExtractor;
 import com.xpn.xwiki.plugin.lucene.internal.AttachmentData;
 import com.xpn.xwiki.test.AbstractBridgedComponentTestCase;
 
@@ -78,6 +80,18 @@ protected void registerComponents() throws Exception
                 will(returnValue(2));
             }
         });
+
+        // Disable the attachment text cache so that the attachments are always parsed.
+        final ConfigurationSource mockConfiguration =
+            registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        getMockery().checking(new Expectations()
+        {
+            {
+                allowing(mockConfiguration).getProperty(with(equal(DefaultAttachmentTextExtractor.MAXSIZE_PROPERTY)),
+                    with(any(Long.class)));
+                will(returnValue(0L));
+            }
+        });
     }
 
     private void assertGetFullText(String expect, String filename) throws IOException
@@ -114,6 +114,11 @@ public class DefaultSolrConfiguration implements SolrConfiguration
      */
     public static final int SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT = 100000;
 
+    /**
+     * The name of the configuration property containing the number of extraction threads.
+     */
+    public static final String SOLR_INDEXER_EXTRACTION_THREADS_PROPERTY = "solr.indexer.extraction.threads";
+
     /**
      * The Solr configuration source.
      */
@@ -180,4 +185,11 @@ public int getIndexerQueueCapacity()
         return this.configuration
             .getProperty(SOLR_INDEXER_QUEUE_CAPACITY_PROPERTY, SOLR_INDEXER_QUEUE_CAPACITY_DEFAULT);
     }
+
+    @Override
+    public int getIndexerExtractionThreads()
+    {
+        return this.configuration.getProperty(SOLR_INDEXER_EXTRACTION_THREADS_PROPERTY, Runtime.getRuntime()
+            .availableProcessors());
+    }
 }
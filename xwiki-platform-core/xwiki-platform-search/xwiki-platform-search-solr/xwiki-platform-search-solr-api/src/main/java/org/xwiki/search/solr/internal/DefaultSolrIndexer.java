@@ -19,17 +19,28 @@
  */
 package org.xwiki.search.solr.internal;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLifecycleException;
@@ -45,6 +56,7 @@
 import org.xwiki.search.solr.internal.api.SolrConfiguration;
 import org.xwiki.search.solr.internal.api.SolrIndexer;
 import org.xwiki.search.solr.internal.api.SolrIndexerException;
+import org.xwiki.search.solr.internal.api.SolrIndexerStatistics;
 import org.xwiki.search.solr.internal.api.SolrInstance;
 import org.xwiki.search.solr.internal.job.IndexerJob;
 import org.xwiki.search.solr.internal.job.IndexerRequest;
@@ -59,7 +71,8 @@
  * <p/>
  * This implementation does not directly process the given leaf-references, but adds them to a processing queue, in the
  * order they were received. The {@link Runnable} part of this implementation is the one that sequentially reads and
- * processes the queue.
+ * processes the queue. The metadata of the entities to index are extracted by a pool of threads while the results are
+ * sent to the Solr instance by the index thread, in the order of the queue.
  * 
  * @version $Id$
  * @since 5.1M2
@@ -68,12 +81,67 @@
 @Singleton
 public class DefaultSolrIndexer extends AbstractXWikiRunnable implements SolrIndexer, Initializable, Disposable
 {
+    /**
+     * Queue entry which can be superseded in place by a later operation on the same entities until it's taken from
+     * the queue, so that an entity modified many times while waiting in the queue keeps its position and is processed
+     * only once.
+     * 
+     * @version $Id$
+     */
+    private abstract static class AbstractQueueEntry
+    {
+        /**
+         * The indexing operation to perform.
+         */
+        public IndexOperation operation;
+
+        /**
+         * Indicate if the entry has been taken from the queue.
+         */
+        private boolean taken;
+
+        /**
+         * @param operation the indexing operation to perform.
+         */
+        public AbstractQueueEntry(IndexOperation operation)
+        {
+            this.operation = operation;
+        }
+
+        /**
+         * @return the key identifying the entries which target the same entities
+         */
+        public abstract Object getKey();
+
+        /**
+         * @param newOperation the operation queued after this entry for the same entities
+         * @return {@code false} if the entry has already been taken from the queue and thus can't be superseded
+         *         anymore
+         */
+        public synchronized boolean supersede(IndexOperation newOperation)
+        {
+            if (!this.taken) {
+                this.operation = newOperation;
+            }
+
+            return !this.taken;
+        }
+
+        /**
+         * Mark the entry as taken from the queue, its operation can't change anymore.
+         */
+        public synchronized void take()
+        {
+            this.taken = true;
+        }
+    }
+
     /**
      * Index queue entry.
      * 
      * @version $Id$
      */
-    private static class IndexQueueEntry
+    private static class IndexQueueEntry extends AbstractQueueEntry
     {
         /**
          * The reference of the entity to index.
@@ -85,19 +153,15 @@ public class DefaultSolrIndexer extends AbstractXWikiRunnable implements SolrInd
          */
         public String deleteQuery;
 
-        /**
-         * The indexing operation to perform.
-         */
-        public IndexOperation operation;
-
         /**
          * @param indexReference the reference of the entity to index.
          * @param operation the indexing operation to perform.
          */
         public IndexQueueEntry(EntityReference indexReference, IndexOperation operation)
         {
+            super(operation);
+
             this.reference = indexReference;
-            this.operation = operation;
         }
 
         /**
@@ -106,8 +170,15 @@ public IndexQueueEntry(EntityReference indexReference, IndexOperation operation)
          */
         public IndexQueueEntry(String deleteQuery, IndexOperation operation)
         {
+            super(operation);
+
             this.deleteQuery = deleteQuery;
-            this.operation = operation;
+        }
+
+        @Override
+        public Object getKey()
+        {
+            return this.reference != null ? this.reference : this.deleteQuery;
         }
 
         @Override
@@ -139,7 +210,7 @@ public String toString()
      * 
      * @version $Id$
      */
-    private static class ResolveQueueEntry
+    private static class ResolveQueueEntry extends AbstractQueueEntry
     {
         /**
          * The reference of the entity to index.
@@ -151,11 +222,6 @@ public String toString()
          */
         public boolean recurse;
 
-        /**
-         * The indexing operation to perform.
-         */
-        public IndexOperation operation;
-
         /**
          * @param reference the reference of the entity to index.
          * @param recurse also apply operation to reference children.
@@ -163,9 +229,104 @@ public String toString()
          */
         public ResolveQueueEntry(EntityReference reference, boolean recurse, IndexOperation operation)
         {
+            super(operation);
+
             this.reference = reference;
             this.recurse = recurse;
-            this.operation = operation;
+        }
+
+        @Override
+        public Object getKey()
+        {
+            return Pair.of(this.reference, this.recurse);
+        }
+    }
+
+    /**
+     * An index queue entry with the pending extraction of its metadata.
+     * 
+     * @version $Id$
+     */
+    private static class PendingEntry
+    {
+        /**
+         * The index queue entry.
+         */
+        public final IndexQueueEntry entry;
+
+        /**
+         * The extraction of the entity metadata, {@code null} if the operation does not need any.
+         */
+        public final Future<LengthSolrInputDocument> document;
+
+        /**
+         * @param entry the index queue entry
+         * @param document the extraction of the entity metadata
+         */
+        public PendingEntry(IndexQueueEntry entry, Future<LengthSolrInputDocument> document)
+        {
+            this.entry = entry;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Extract the metadata of an entity to index.
+     * 
+     * @version $Id$
+     */
+    private class Extraction implements Callable<LengthSolrInputDocument>
+    {
+        /**
+         * The reference of the entity to extract.
+         */
+        private final EntityReference reference;
+
+        /**
+         * @param reference the reference of the entity to extract
+         */
+        public Extraction(EntityReference reference)
+        {
+            this.reference = reference;
+        }
+
+        @Override
+        public LengthSolrInputDocument call() throws Exception
+        {
+            long start = System.nanoTime();
+            try {
+                return getSolrDocument(this.reference);
+            } finally {
+                statistics.extracted(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Create the extraction threads. Each thread gets its own execution context, initialized once and reused for all
+     * the extractions the thread performs, like the index thread used to do when it was extracting the metadata itself.
+     * 
+     * @version $Id$
+     */
+    private static class ExtractionThreadFactory implements ThreadFactory
+    {
+        /**
+         * The factory used to create the actual threads.
+         */
+        private final ThreadFactory factory = new BasicThreadFactory.Builder()
+            .namingPattern("XWiki Solr extraction thread %d").daemon(true).priority(Thread.NORM_PRIORITY - 1).build();
+
+        @Override
+        public Thread newThread(final Runnable worker)
+        {
+            return this.factory.newThread(new AbstractXWikiRunnable()
+            {
+                @Override
+                protected void runInternal()
+                {
+                    worker.run();
+                }
+            });
         }
     }
 
@@ -197,6 +358,8 @@ public void runInternal()
                     break;
                 }
 
+                take(latestResolveEntries, queueEntry);
+
                 try {
                     if (queueEntry.operation == IndexOperation.INDEX) {
                         Iterable<EntityReference> references;
@@ -207,14 +370,14 @@ public void runInternal()
                         }
 
                         for (EntityReference reference : references) {
-                            indexQueue.put(new IndexQueueEntry(reference, queueEntry.operation));
+                            putIndexEntry(new IndexQueueEntry(reference, queueEntry.operation));
                         }
                     } else {
                         if (queueEntry.recurse) {
-                            indexQueue.put(new IndexQueueEntry(solrRefereceResolver.getQuery(queueEntry.reference),
+                            putIndexEntry(new IndexQueueEntry(solrRefereceResolver.getQuery(queueEntry.reference),
                                 queueEntry.operation));
                         } else if (queueEntry.reference != null) {
-                            indexQueue.put(new IndexQueueEntry(queueEntry.reference, queueEntry.operation));
+                            putIndexEntry(new IndexQueueEntry(queueEntry.reference, queueEntry.operation));
                         }
                     }
                 } catch (Throwable e) {
@@ -225,6 +388,21 @@ public void runInternal()
 
             logger.debug("Stop SOLR resolver thread");
         }
+
+        /**
+         * Add an entry to the index queue, or supersede the operation of the unprocessed entry targeting the same index
+         * entries.
+         * 
+         * @param entry the entry to add
+         * @throws InterruptedException if interrupted while waiting for space in the index queue
+         */
+        private void putIndexEntry(IndexQueueEntry entry) throws InterruptedException
+        {
+            if (coalesce(latestIndexEntries, entry)) {
+                indexQueue.put(entry);
+            }
+            statistics.resolved();
+        }
     }
 
     /**
@@ -279,6 +457,44 @@ public void runInternal()
      */
     private BlockingQueue<ResolveQueueEntry> resolveQueue;
 
+    /**
+     * The entry waiting in the index queue for each entity or delete query, superseded in place by the later operations
+     * on the same index entries.
+     */
+    private final ConcurrentMap<Object, IndexQueueEntry> latestIndexEntries =
+        new ConcurrentHashMap<Object, IndexQueueEntry>();
+
+    /**
+     * The entry waiting in the resolve queue for each reference, see {@link #latestIndexEntries}.
+     */
+    private final ConcurrentMap<Object, ResolveQueueEntry> latestResolveEntries =
+        new ConcurrentHashMap<Object, ResolveQueueEntry>();
+
+    /**
+     * The threads extracting the metadata of the entities to index.
+     */
+    private ExecutorService extractors;
+
+    /**
+     * The maximum number of extractions submitted and not yet written by the index thread.
+     */
+    private int extractionWindow;
+
+    /**
+     * The counters of the indexer stages.
+     */
+    private final SolrIndexerStatistics statistics = new SolrIndexerStatistics();
+
+    /**
+     * The length of the current batch. Only accessed from the index thread.
+     */
+    private int batchLength;
+
+    /**
+     * The size of the current batch. Only accessed from the index thread.
+     */
+    private int batchSize;
+
     /**
      * Indexer jobs.
      */
@@ -314,6 +530,12 @@ public void initialize() throws InitializationException
         this.resolveThread.start();
         this.resolveThread.setPriority(Thread.NORM_PRIORITY - 1);
 
+        // Setup the extraction threads. Keep a few extractions in advance so that the threads don't wait for the index
+        // thread while it's sending the previous documents to the Solr instance.
+        int extractionThreads = Math.max(1, this.configuration.getIndexerExtractionThreads());
+        this.extractors = Executors.newFixedThreadPool(extractionThreads, new ExtractionThreadFactory());
+        this.extractionWindow = extractionThreads * 2;
+
         // Launch the index thread
         this.indexThread = new Thread(this);
         this.indexThread.setName("XWiki Solr index thread");
@@ -337,6 +559,14 @@ public void dispose() throws ComponentLifecycleException
         // Shutdown indexer jobs queue
         this.indexerJobs.shutdownNow();
 
+        // Shutdown the extraction threads and cancel the extractions which did not start, the index thread would
+        // otherwise wait for them forever
+        for (Runnable extraction : this.extractors.shutdownNow()) {
+            if (extraction instanceof Future) {
+                ((Future< ? >) extraction).cancel(false);
+            }
+        }
+
         // Stop the resolve thread. Clear the queue and send the stop signal without blocking. We know that the resolve
         // queue will remain empty after the clear call because we set the disposed flag above.
         this.resolveQueue.clear();
@@ -371,7 +601,9 @@ protected void runInternal()
             }
 
             // Add to the batch until either the batch size is achieved or the queue gets emptied
-            processBatch(queueEntry);
+            if (!processBatch(queueEntry)) {
+                break;
+            }
         }
 
         this.logger.debug("Stop SOLR indexer thread");
@@ -380,54 +612,118 @@ protected void runInternal()
     /**
      * Process a batch of operations that were just read from the index operations queue. This method also commits the
      * batch when it finishes to process it.
+     * <p>
+     * The metadata extraction of the entities to index is delegated to the extraction threads, but the results are
+     * written to the Solr instance in the order of the queue.
      * 
      * @param queueEntry the batch to process
+     * @return {@code false} if the stop signal has been found in the queue, {@code true} otherwise
      */
-    private void processBatch(IndexQueueEntry queueEntry)
+    private boolean processBatch(IndexQueueEntry queueEntry)
     {
         SolrInstance solrInstance = this.solrInstanceProvider.get();
 
-        int length = 0;
-        int size = 0;
+        this.batchLength = 0;
+        this.batchSize = 0;
+
+        Queue<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>(this.extractionWindow);
 
+        boolean running = true;
         for (IndexQueueEntry batchEntry = queueEntry; batchEntry != null; batchEntry = this.indexQueue.poll()) {
-            IndexOperation operation = batchEntry.operation;
+            if (batchEntry == INDEX_QUEUE_ENTRY_STOP) {
+                // Finish the current batch and stop (the stop entry has no key to check in the latest entries)
+                running = false;
+                break;
+            }
 
-            // For the current contiguous operations queue, group the changes
-            try {
-                if (IndexOperation.INDEX.equals(operation)) {
-                    LengthSolrInputDocument solrDocument = getSolrDocument(batchEntry.reference);
-                    if (solrDocument != null) {
-                        solrInstance.add(solrDocument);
-                        length += solrDocument.getLength();
-                        ++size;
-                    }
-                } else if (IndexOperation.DELETE.equals(operation)) {
-                    if (batchEntry.reference == null) {
-                        solrInstance.deleteByQuery(batchEntry.deleteQuery);
-                    } else {
-                        solrInstance.delete(this.solrRefereceResolver.getId(batchEntry.reference));
-                    }
+            take(this.latestIndexEntries, batchEntry);
 
-                    ++size;
+            Future<LengthSolrInputDocument> document = null;
+            if (IndexOperation.INDEX.equals(batchEntry.operation)) {
+                try {
+                    document = this.extractors.submit(new Extraction(batchEntry.reference));
+                } catch (RejectedExecutionException e) {
+                    // The component is being disposed, finish the current batch and stop
+                    this.logger.debug("Extraction of [{}] rejected, stopping the SOLR index thread",
+                        batchEntry.reference);
+                    running = false;
+                    break;
                 }
-            } catch (Throwable e) {
-                this.logger.error("Failed to process entry [{}]", batchEntry, e);
             }
+            pendingEntries.add(new PendingEntry(batchEntry, document));
 
-            // Commit the index changes so that they become available to queries. This is a costly operation and that is
-            // the reason why we perform it at the end of the batch.
-            if (shouldCommit(length, size)) {
-                commit();
-                length = 0;
-                size = 0;
+            // Don't extract too far ahead of what is being written
+            if (pendingEntries.size() >= this.extractionWindow) {
+                processEntry(pendingEntries.poll(), solrInstance);
             }
         }
 
+        // Write what's still being extracted
+        for (PendingEntry pendingEntry = pendingEntries.poll(); pendingEntry != null; pendingEntry =
+            pendingEntries.poll()) {
+            processEntry(pendingEntry, solrInstance);
+        }
+
         // Commit what's left
-        if (size > 0) {
+        if (this.batchSize > 0) {
             commit();
         }
+
+        return running;
+    }
+
+    /**
+     * Write a single operation to the Solr instance, waiting for its metadata to be extracted if needed, and commit the
+     * batch when it is big enough.
+     * 
+     * @param pendingEntry the operation to write
+     * @param solrInstance the Solr instance
+     */
+    private void processEntry(PendingEntry pendingEntry, SolrInstance solrInstance)
+    {
+        IndexQueueEntry batchEntry = pendingEntry.entry;
+        IndexOperation operation = batchEntry.operation;
+
+        // For the current contiguous operations queue, group the changes
+        try {
+            if (IndexOperation.INDEX.equals(operation)) {
+                LengthSolrInputDocument solrDocument = pendingEntry.document.get();
+                if (solrDocument != null) {
+                    solrInstance.add(solrDocument);
+                    this.batchLength += solrDocument.getLength();
+                    ++this.batchSize;
+                    this.statistics.written();
+                }
+            } else if (IndexOperation.DELETE.equals(operation)) {
+                if (batchEntry.reference == null) {
+                    solrInstance.deleteByQuery(batchEntry.deleteQuery);
+                } else {
+                    solrInstance.delete(this.solrRefereceResolver.getId(batchEntry.reference));
+                }
+
+                ++this.batchSize;
+                this.statistics.written();
+            }
+        } catch (ExecutionException e) {
+            this.logger.error("Failed to process entry [{}]", batchEntry, e.getCause());
+        } catch (CancellationException e) {
+            this.logger.debug("The extraction of entry [{}] has been cancelled", batchEntry);
+        } catch (InterruptedException e) {
+            this.logger.warn("The SOLR index thread has been interrupted while processing entry [{}]", batchEntry);
+
+            // Let the index thread stop
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            this.logger.error("Failed to process entry [{}]", batchEntry, e);
+        }
+
+        // Commit the index changes so that they become available to queries. This is a costly operation and that is
+        // the reason why we perform it at the end of the batch.
+        if (shouldCommit(this.batchLength, this.batchSize)) {
+            commit();
+            this.batchLength = 0;
+            this.batchSize = 0;
+        }
     }
 
     /**
@@ -438,7 +734,9 @@ private void commit()
         SolrInstance solrInstance = this.solrInstanceProvider.get();
 
         try {
+            long start = System.nanoTime();
             solrInstance.commit();
+            this.statistics.committed(System.nanoTime() - start);
         } catch (Exception e) {
             this.logger.error("Failed to commit index changes to the Solr server. Rolling back.", e);
 
@@ -527,17 +825,71 @@ public void delete(EntityReference reference, boolean recurse)
     private void addToQueue(EntityReference reference, boolean recurse, IndexOperation operation)
     {
         if (!this.disposed) {
-            // Don't block because the capacity of the resolver queue is not limited.
-            this.resolveQueue.offer(new ResolveQueueEntry(reference, recurse, operation));
+            ResolveQueueEntry entry = new ResolveQueueEntry(reference, recurse, operation);
+
+            // Only the latest operation queued for the same entities is applied, by the entry already waiting in the
+            // queue so that they don't lose their turn each time they are modified.
+            if (coalesce(this.latestResolveEntries, entry)) {
+                // Don't block because the capacity of the resolver queue is not limited.
+                this.resolveQueue.offer(entry);
+            }
+        }
+    }
+
+    /**
+     * Supersede the operation of the entry waiting in the queue for the same entities, if any.
+     * 
+     * @param waitingEntries the entries waiting in the queue
+     * @param entry the new entry
+     * @param <E> the type of the queue entries
+     * @return {@code true} if the new entry has to be added to the queue, {@code false} if it has been merged into the
+     *         waiting entry
+     */
+    private <E extends AbstractQueueEntry> boolean coalesce(ConcurrentMap<Object, E> waitingEntries, E entry)
+    {
+        Object key = entry.getKey();
+        while (true) {
+            E waitingEntry = waitingEntries.putIfAbsent(key, entry);
+            if (waitingEntry == null) {
+                return true;
+            }
+            if (waitingEntry.supersede(entry.operation)) {
+                this.statistics.coalesced();
+
+                return false;
+            }
+
+            // The waiting entry has just been taken from the queue, replace it
+            waitingEntries.remove(key, waitingEntry);
         }
     }
 
+    /**
+     * Freeze the operation of an entry taken from the queue, the next operations on the same entities are queued
+     * again.
+     * 
+     * @param waitingEntries the entries waiting in the queue
+     * @param entry the entry taken from the queue
+     * @param <E> the type of the queue entries
+     */
+    private static <E extends AbstractQueueEntry> void take(ConcurrentMap<Object, E> waitingEntries, E entry)
+    {
+        entry.take();
+        waitingEntries.remove(entry.getKey(), entry);
+    }
+
     @Override
     public int getQueueSize()
     {
         return this.indexQueue.size() + this.resolveQueue.size();
     }
 
+    @Override
+    public SolrIndexerStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
     @Override
     public IndexerJob startIndex(IndexerRequest request) throws SolrIndexerException
     {
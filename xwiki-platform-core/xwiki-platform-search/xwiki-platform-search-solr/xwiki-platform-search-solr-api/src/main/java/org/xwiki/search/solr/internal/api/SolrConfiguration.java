@@ -73,4 +73,10 @@
      * @since 5.1M2
      */
     int getIndexerQueueCapacity();
+
+    /**
+     * @return the number of threads extracting the metadata of the entities to index
+     * @since 6.0M1
+     */
+    int getIndexerExtractionThreads();
 }
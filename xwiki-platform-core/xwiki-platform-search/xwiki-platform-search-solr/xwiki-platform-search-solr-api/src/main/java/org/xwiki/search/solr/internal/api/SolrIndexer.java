@@ -62,6 +62,12 @@
      */
     int getQueueSize();
 
+    /**
+     * @return the counters of the resolve, extraction and write stages of the indexer
+     * @since 6.0M1
+     */
+    SolrIndexerStatistics getStatistics();
+
     /**
      * Start an indexing with specific criteria.
      * 
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the different stages of the {@link SolrIndexer}: the resolution of the references to index, the
+ * extraction of their metadata and the write of the result to the Solr instance.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class SolrIndexerStatistics
+{
+    /**
+     * The number of entries added to the index queue by the resolve stage.
+     */
+    private final AtomicLong resolved = new AtomicLong();
+
+    /**
+     * The number of queued operations skipped because a later operation was queued for the same entities.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * The number of entities processed by the extraction stage.
+     */
+    private final AtomicLong extracted = new AtomicLong();
+
+    /**
+     * The time spent extracting metadata, in nanoseconds and cumulated over all the extraction threads.
+     */
+    private final AtomicLong extractionTime = new AtomicLong();
+
+    /**
+     * The number of documents added to or deleted from the Solr instance by the write stage.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * The number of commits sent to the Solr instance.
+     */
+    private final AtomicLong commits = new AtomicLong();
+
+    /**
+     * The time spent committing, in nanoseconds.
+     */
+    private final AtomicLong commitTime = new AtomicLong();
+
+    /**
+     * Record an entry added to the index queue.
+     */
+    public void resolved()
+    {
+        this.resolved.incrementAndGet();
+    }
+
+    /**
+     * Record a queued operation superseded by a later one on the same entities.
+     */
+    public void coalesced()
+    {
+        this.coalesced.incrementAndGet();
+    }
+
+    /**
+     * Record the extraction of an entity metadata.
+     * 
+     * @param nanos the time spent extracting, in nanoseconds
+     */
+    public void extracted(long nanos)
+    {
+        this.extracted.incrementAndGet();
+        this.extractionTime.addAndGet(nanos);
+    }
+
+    /**
+     * Record an update sent to the Solr instance.
+     */
+    public void written()
+    {
+        this.written.incrementAndGet();
+    }
+
+    /**
+     * Record a commit of the Solr instance.
+     * 
+     * @param nanos the time spent committing, in nanoseconds
+     */
+    public void committed(long nanos)
+    {
+        this.commits.incrementAndGet();
+        this.commitTime.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of entries added to the index queue by the resolve stage
+     */
+    public long getResolved()
+    {
+        return this.resolved.get();
+    }
+
+    /**
+     * @return the number of queued operations skipped because a later operation was queued for the same entities
+     */
+    public long getCoalesced()
+    {
+        return this.coalesced.get();
+    }
+
+    /**
+     * @return the number of entities processed by the extraction stage
+     */
+    public long getExtracted()
+    {
+        return this.extracted.get();
+    }
+
+    /**
+     * @return the time spent extracting metadata in milliseconds, cumulated over all the extraction threads
+     */
+    public long getExtractionTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.extractionTime.get());
+    }
+
+    /**
+     * @return the number of documents added to or deleted from the Solr instance
+     */
+    public long getWritten()
+    {
+        return this.written.get();
+    }
+
+    /**
+     * @return the number of commits sent to the Solr instance
+     */
+    public long getCommits()
+    {
+        return this.commits.get();
+    }
+
+    /**
+     * @return the time spent committing in milliseconds
+     */
+    public long getCommitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.commitTime.get());
+    }
+}
@@ -19,25 +19,33 @@
  */
 package org.xwiki.search.solr.internal.job;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.LocaleUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
 import org.xwiki.job.Request;
 import org.xwiki.job.internal.AbstractJob;
-import org.xwiki.job.internal.DefaultJobStatus;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -62,13 +70,18 @@
 @Component
 @InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
 @Named(IndexerJob.JOBTYPE)
-public class IndexerJob extends AbstractJob<IndexerRequest, DefaultJobStatus<IndexerRequest>>
+public class IndexerJob extends AbstractJob<IndexerRequest, IndexerJobStatus>
 {
     /**
      * The id of the job.
      */
     public static final String JOBTYPE = "solr.indexer";
 
+    /**
+     * The number of documents compared at once between the database and the index.
+     */
+    private static final int BATCH_SIZE = 500;
+
     /**
      * Used to resolve Solr document id from reference.
      */
@@ -118,6 +131,13 @@ protected IndexerRequest castRequest(Request request)
         return indexerRequest;
     }
 
+    @Override
+    protected IndexerJobStatus createNewStatus(IndexerRequest request)
+    {
+        return new IndexerJobStatus(request, this.indexer.getStatistics(), this.observationManager,
+            this.loggerManager);
+    }
+
     @Override
     protected void runInternal() throws Exception
     {
@@ -142,12 +162,15 @@ protected void runInternal() throws Exception
 
     /**
      * Remove Solr documents not in the database anymore.
+     * <p>
+     * The indexed documents are read one page at a time (using a cursor sorted on the document id) and each page is
+     * checked against the database with a single query per wiki.
      * 
      * @throws SolrIndexerException when failing to clean the Solr index
      * @throws SolrServerException when failing to clean the Solr index
-     * @throws IllegalArgumentException when failing to clean the Solr index
+     * @throws QueryException when failing to clean the Solr index
      */
-    private void removeMissing() throws SolrIndexerException, SolrServerException, IllegalArgumentException
+    private void removeMissing() throws SolrIndexerException, SolrServerException, QueryException
     {
         this.logger.info("Remove Solr documents not in the database anymore");
 
@@ -155,36 +178,90 @@ private void removeMissing() throws SolrIndexerException, SolrServerException, I
 
         // Clean existing index
         SolrQuery solrQuery = new SolrQuery(this.solrResolver.getQuery(getRequest().getRootReference()));
-        solrQuery.setFields(FieldUtils.NAME, FieldUtils.SPACE, FieldUtils.WIKI, FieldUtils.DOCUMENT_LOCALE);
+        solrQuery.setFields(FieldUtils.NAME, FieldUtils.SPACE, FieldUtils.WIKI, FieldUtils.FULLNAME,
+            FieldUtils.DOCUMENT_LOCALE);
         solrQuery.addFilterQuery(FieldUtils.TYPE + ':' + EntityType.DOCUMENT.name());
+        solrQuery.setRows(BATCH_SIZE);
+        solrQuery.addSort(FieldUtils.ID, SolrQuery.ORDER.asc);
 
-        // TODO: be nicer with the memory when there is a lot of indexed documents and do smaller batches or stream the
-        // results
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
         QueryResponse response = solrInstance.query(solrQuery);
 
-        SolrDocumentList results = response.getResults();
-
-        notifyPushLevelProgress((int) results.getNumFound());
-
-        XWikiContext xcontext = xcontextProvider.get();
+        notifyPushLevelProgress((int) response.getResults().getNumFound());
 
         try {
-            for (SolrDocument solrDocument : results) {
-                DocumentReference reference =
-                    createDocumentReference((String) solrDocument.get(FieldUtils.WIKI),
-                        (String) solrDocument.get(FieldUtils.SPACE), (String) solrDocument.get(FieldUtils.NAME),
-                        (String) solrDocument.get(FieldUtils.DOCUMENT_LOCALE));
-                if (!xcontext.getWiki().exists(reference, xcontext)) {
-                    this.indexer.delete(reference, true);
+            while (!response.getResults().isEmpty()) {
+                removeMissing(response.getResults());
+
+                // The cursor does not move anymore when all the documents have been returned
+                String nextCursorMark = response.getNextCursorMark();
+                if (cursorMark.equals(nextCursorMark)) {
+                    break;
                 }
 
-                notifyStepPropress();
+                cursorMark = nextCursorMark;
+                solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+                response = solrInstance.query(solrQuery);
             }
         } finally {
             notifyPopLevelProgress();
         }
     }
 
+    /**
+     * Remove the passed Solr documents which are not in the database anymore.
+     * 
+     * @param solrDocuments a page of indexed documents
+     * @throws QueryException when failing to check the database
+     */
+    private void removeMissing(SolrDocumentList solrDocuments) throws QueryException
+    {
+        // Group the indexed documents by wiki
+        Map<String, Map<String, DocumentReference>> wikis = new HashMap<String, Map<String, DocumentReference>>();
+        Map<String, Set<String>> wikiFullNames = new HashMap<String, Set<String>>();
+        for (SolrDocument solrDocument : solrDocuments) {
+            String wiki = (String) solrDocument.get(FieldUtils.WIKI);
+            String fullName = (String) solrDocument.get(FieldUtils.FULLNAME);
+            String localeString = (String) solrDocument.get(FieldUtils.DOCUMENT_LOCALE);
+
+            Map<String, DocumentReference> wikiDocuments = wikis.get(wiki);
+            if (wikiDocuments == null) {
+                wikiDocuments = new HashMap<String, DocumentReference>();
+                wikis.put(wiki, wikiDocuments);
+                wikiFullNames.put(wiki, new HashSet<String>());
+            }
+
+            wikiDocuments.put(getKey(fullName, localeString), createDocumentReference(wiki,
+                (String) solrDocument.get(FieldUtils.SPACE), (String) solrDocument.get(FieldUtils.NAME), localeString));
+            wikiFullNames.get(wiki).add(fullName);
+        }
+
+        for (Map.Entry<String, Map<String, DocumentReference>> entry : wikis.entrySet()) {
+            Map<String, DocumentReference> wikiDocuments = entry.getValue();
+            Set<String> fullNames = wikiFullNames.get(entry.getKey());
+
+            // Forget about the documents which still exist
+            Query query =
+                this.queryManager.createQuery(
+                    "select doc.fullName, doc.language from Document doc where doc.fullName in (:fullNames)",
+                    Query.XWQL);
+            query.setWiki(entry.getKey());
+            query.bindValue("fullNames", fullNames);
+            for (Object[] document : query.<Object[]> execute()) {
+                wikiDocuments.remove(getKey((String) document[0], (String) document[1]));
+            }
+
+            for (DocumentReference reference : wikiDocuments.values()) {
+                this.indexer.delete(reference, true);
+            }
+        }
+
+        for (int i = 0; i < solrDocuments.size(); ++i) {
+            notifyStepPropress();
+        }
+    }
+
     /**
      * @param wiki the wiki part of the reference
      * @param space the space part of the reference
@@ -207,11 +284,9 @@ private DocumentReference createDocumentReference(String wiki, String space, Str
      * @throws QueryException when failing to index new documents
      * @throws XWikiException when failing to index new documents
      * @throws SolrIndexerException when failing to index new documents
-     * @throws IllegalArgumentException when failing to index new documents
      * @throws SolrServerException when failing to index new documents
      */
-    private void addMissing() throws QueryException, XWikiException, SolrIndexerException, IllegalArgumentException,
-        SolrServerException
+    private void addMissing() throws QueryException, XWikiException, SolrIndexerException, SolrServerException
     {
         if (getRequest().isOverwrite()) {
             this.logger.info("Index documents in [{}]", getRequest().getRootReference());
@@ -244,15 +319,16 @@ private void addMissing() throws QueryException, XWikiException, SolrIndexerExce
 
     /**
      * Index document (versions) not yet indexed in the passed wiki.
+     * <p>
+     * The documents are read from the database one page at a time (ordered by id) and the indexed versions of each
+     * page are retrieved with a single Solr query, so that the memory used does not depend on the number of documents.
      * 
      * @param wiki the wiki where to search for documents to index
      * @throws QueryException when failing to index new documents
      * @throws SolrIndexerException when failing to index new documents
-     * @throws IllegalArgumentException when failing to index new documents
      * @throws SolrServerException when failing to index new documents
      */
-    private void addMissing(String wiki) throws QueryException, SolrIndexerException, IllegalArgumentException,
-        SolrServerException
+    private void addMissing(String wiki) throws QueryException, SolrIndexerException, SolrServerException
     {
         this.logger.info("Index documents not yet indexed in wiki [{}]", wiki);
 
@@ -270,16 +346,67 @@ private void addMissing(String wiki) throws QueryException, SolrIndexerException
             documentReference = null;
         }
 
-        String q = "select doc.name, doc.space, doc.language, doc.version from Document doc";
+        List<String> conditions = new ArrayList<String>();
         if (spaceReference != null) {
-            q += " where doc.space=:space";
+            conditions.add("doc.space = :space");
         }
         if (documentReference != null) {
-            q += ", doc.name=:name";
+            conditions.add("doc.name = :name");
+        }
+
+        Query countQuery = createQuery("select count(doc.id) from Document doc", conditions, "", wiki, spaceReference,
+            documentReference);
+        List<Long> count = countQuery.<Long> execute();
+
+        notifyPushLevelProgress(count.get(0).intValue());
+
+        conditions.add("doc.id > :lastId");
+
+        try {
+            long lastId = Long.MIN_VALUE;
+            List<Object[]> documents;
+            do {
+                Query query =
+                    createQuery("select doc.fullName, doc.space, doc.name, doc.language, doc.version, doc.id"
+                        + " from Document doc", conditions, " order by doc.id", wiki, spaceReference,
+                        documentReference);
+                query.bindValue("lastId", lastId);
+                query.setLimit(BATCH_SIZE);
+
+                documents = query.<Object[]> execute();
+
+                if (!documents.isEmpty()) {
+                    addMissing(wiki, documents, solrInstance);
+
+                    lastId = (Long) documents.get(documents.size() - 1)[5];
+                }
+            } while (documents.size() == BATCH_SIZE);
+        } finally {
+            notifyPopLevelProgress();
         }
+    }
 
-        // TODO: be nicer with the memory when there is a lot of documents and do smaller batches
-        Query query = this.queryManager.createQuery(q, Query.XWQL);
+    /**
+     * @param select the select part of the statement
+     * @param conditions the conditions of the where clause
+     * @param order the order clause of the statement
+     * @param wiki the wiki where to execute the query
+     * @param spaceReference the space of the documents, if any
+     * @param documentReference the document, if any
+     * @return the query
+     * @throws QueryException when failing to create the query
+     */
+    private Query createQuery(String select, List<String> conditions, String order, String wiki,
+        EntityReference spaceReference, EntityReference documentReference) throws QueryException
+    {
+        StringBuilder statement = new StringBuilder(select);
+        if (!conditions.isEmpty()) {
+            statement.append(" where ");
+            statement.append(StringUtils.join(conditions, " and "));
+        }
+        statement.append(order);
+
+        Query query = this.queryManager.createQuery(statement.toString(), Query.XWQL);
         query.setWiki(wiki);
         if (spaceReference != null) {
             query.bindValue("space", spaceReference.getName());
@@ -288,49 +415,80 @@ private void addMissing(String wiki) throws QueryException, SolrIndexerException
             query.bindValue("name", documentReference.getName());
         }
 
-        List<Object[]> documents = query.<Object[]> execute();
-
-        notifyPushLevelProgress(documents.size());
-
-        try {
-            for (Object[] document : documents) {
-                addMissing(wiki, document, solrInstance);
-
-                notifyStepPropress();
-            }
-        } finally {
-            notifyPopLevelProgress();
-        }
+        return query;
     }
 
     /**
-     * Index document (versions) not yet indexed in the passed wiki.
+     * Index the passed documents when they are not yet indexed or the indexed version is not the current one.
      * 
      * @param wiki the wiki where to search for documents to index
-     * @param document the document found
-     * @param solrInstance used to start indexing of a document
+     * @param documents a page of documents found in the database
+     * @param solrInstance used to get the indexed version of the documents
      * @throws SolrIndexerException when failing to index new documents
-     * @throws IllegalArgumentException when failing to index new documents
      * @throws SolrServerException when failing to index new documents
      */
-    private void addMissing(String wiki, Object[] document, SolrInstance solrInstance) throws SolrIndexerException,
-        IllegalArgumentException, SolrServerException
+    private void addMissing(String wiki, List<Object[]> documents, SolrInstance solrInstance)
+        throws SolrIndexerException, SolrServerException
     {
-        String name = (String) document[0];
-        String space = (String) document[1];
-        String localeString = (String) document[2];
-        String version = (String) document[3];
+        Map<String, Object[]> missingDocuments = new LinkedHashMap<String, Object[]>(documents.size());
+        Set<String> fullNames = new LinkedHashSet<String>();
+        for (Object[] document : documents) {
+            String fullName = (String) document[0];
+            missingDocuments.put(getKey(fullName, (String) document[3]), document);
+            fullNames.add(fullName);
+        }
 
-        DocumentReference reference = createDocumentReference(wiki, space, name, localeString);
+        // Get the indexed versions of all the documents of the page at once
+        StringBuilder fullNameQuery = new StringBuilder();
+        for (String fullName : fullNames) {
+            fullNameQuery.append(fullNameQuery.length() == 0 ? FieldUtils.FULLNAME + ":(" : " OR ");
+            fullNameQuery.append(ClientUtils.escapeQueryChars(fullName));
+        }
+        fullNameQuery.append(')');
 
-        SolrQuery solrQuery =
-            new SolrQuery(FieldUtils.ID + ':' + ClientUtils.escapeQueryChars(this.solrResolver.getId(reference)));
-        solrQuery.addFilterQuery(FieldUtils.VERSION + ':' + ClientUtils.escapeQueryChars(version));
-        solrQuery.setFields(FieldUtils.ID);
+        SolrQuery solrQuery = new SolrQuery(fullNameQuery.toString());
+        solrQuery.addFilterQuery(FieldUtils.TYPE + ':' + EntityType.DOCUMENT.name());
+        solrQuery.addFilterQuery(FieldUtils.WIKI + ':' + ClientUtils.escapeQueryChars(wiki));
+        solrQuery.setFields(FieldUtils.FULLNAME, FieldUtils.DOCUMENT_LOCALE, FieldUtils.VERSION);
+        solrQuery.setRows(BATCH_SIZE);
 
-        QueryResponse response = solrInstance.query(solrQuery);
-        if (response.getResults().getNumFound() == 0) {
-            this.indexer.index(reference, true);
+        // There can be several translations for each document
+        SolrDocumentList results;
+        int start = 0;
+        do {
+            solrQuery.setStart(start);
+            results = solrInstance.query(solrQuery).getResults();
+
+            for (SolrDocument solrDocument : results) {
+                String key =
+                    getKey((String) solrDocument.get(FieldUtils.FULLNAME),
+                        (String) solrDocument.get(FieldUtils.DOCUMENT_LOCALE));
+                Object[] document = missingDocuments.get(key);
+                if (document != null && document[4].equals(solrDocument.get(FieldUtils.VERSION))) {
+                    missingDocuments.remove(key);
+                }
+            }
+
+            start += results.size();
+        } while (!results.isEmpty() && start < results.getNumFound());
+
+        for (Object[] document : missingDocuments.values()) {
+            this.indexer.index(
+                createDocumentReference(wiki, (String) document[1], (String) document[2], (String) document[3]), true);
+        }
+
+        for (int i = 0; i < documents.size(); ++i) {
+            notifyStepPropress();
         }
     }
+
+    /**
+     * @param fullName the full name of the document
+     * @param localeString the locale of the document as String
+     * @return the key used to match the documents found in the database and in the index
+     */
+    private String getKey(String fullName, String localeString)
+    {
+        return fullName + ':' + StringUtils.defaultString(localeString);
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.search.solr.internal.job;
+
+import org.xwiki.job.internal.DefaultJobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.search.solr.internal.api.SolrIndexerStatistics;
+
+/**
+ * The status of the {@link IndexerJob}, including the throughput of the indexer stages since the job started.
+ * 
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class IndexerJobStatus extends DefaultJobStatus<IndexerRequest>
+{
+    /**
+     * Serialization identifier.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The counters of the indexer, not serialized since they are only meaningful for the running instance.
+     */
+    private final transient SolrIndexerStatistics statistics;
+
+    /**
+     * The number of resolved entries when the job started.
+     */
+    private final long startResolved;
+
+    /**
+     * The number of extracted entities when the job started.
+     */
+    private final long startExtracted;
+
+    /**
+     * The number of written documents when the job started.
+     */
+    private final long startWritten;
+
+    /**
+     * The date when the job started.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * @param request the request provided when started the job
+     * @param statistics the counters of the indexer
+     * @param observationManager the observation manager component
+     * @param loggerManager the logger manager component
+     */
+    public IndexerJobStatus(IndexerRequest request, SolrIndexerStatistics statistics,
+        ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(request, observationManager, loggerManager, false);
+
+        this.statistics = statistics;
+        this.startResolved = statistics.getResolved();
+        this.startExtracted = statistics.getExtracted();
+        this.startWritten = statistics.getWritten();
+    }
+
+    /**
+     * @return the number of entries added to the index queue since the job started
+     */
+    public long getResolved()
+    {
+        return this.statistics != null ? this.statistics.getResolved() - this.startResolved : 0;
+    }
+
+    /**
+     * @return the number of entities whose metadata have been extracted since the job started
+     */
+    public long getExtracted()
+    {
+        return this.statistics != null ? this.statistics.getExtracted() - this.startExtracted : 0;
+    }
+
+    /**
+     * @return the number of documents added to or deleted from the Solr instance since the job started
+     */
+    public long getWritten()
+    {
+        return this.statistics != null ? this.statistics.getWritten() - this.startWritten : 0;
+    }
+
+    /**
+     * @return the number of resolved entries per second since the job started
+     */
+    public double getResolveThroughput()
+    {
+        return getThroughput(getResolved());
+    }
+
+    /**
+     * @return the number of extracted entities per second since the job started
+     */
+    public double getExtractionThroughput()
+    {
+        return getThroughput(getExtracted());
+    }
+
+    /**
+     * @return the number of written documents per second since the job started
+     */
+    public double getWriteThroughput()
+    {
+        return getThroughput(getWritten());
+    }
+
+    /**
+     * @param count the number of processed elements
+     * @return the number of processed elements per second since the job started
+     */
+    private double getThroughput(long count)
+    {
+        long elapsed = System.currentTimeMillis() - this.startTime;
+
+        return elapsed > 0 ? count * 1000D / elapsed : 0;
+    }
+}
@@ -67,6 +67,7 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.attachment.AttachmentTextExtractor;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
@@ -500,6 +501,9 @@ private XWikiAttachment createMockAttachment(String fileName, String mimeType, D
         when(attachment.getFilesize()).thenReturn(size);
         when(attachment.getContentInputStream(this.xcontext)).thenReturn(new ByteArrayInputStream(content.getBytes()));
 
+        AttachmentTextExtractor textExtractor = this.mocker.getInstance(AttachmentTextExtractor.class);
+        when(textExtractor.getText(attachment, this.xcontext)).thenReturn(content + '\n');
+
         String authorFullName = "XWiki." + authorAlias;
         when(attachment.getAuthor()).thenReturn(authorFullName);
 
@@ -19,6 +19,12 @@
  */
 package org.xwiki.security.authorization;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -115,6 +121,47 @@ public boolean hasAccess(Right right, DocumentReference userReference, EntityRef
         }
     }
 
+    @Override
+    public BitSet hasAccess(Right right, DocumentReference userReference,
+        List<? extends EntityReference> entityReferences)
+    {
+        BitSet result = new BitSet(entityReferences.size());
+
+        if (isSuperAdmin(userReference)) {
+            result.set(0, entityReferences.size());
+            return result;
+        }
+
+        if (right == null || right == Right.ILLEGAL || (!right.isReadOnly() && xwikiBridge.isWikiReadOnly())) {
+            return result;
+        }
+
+        UserSecurityReference user = securityReferenceFactory.newUserReference(userReference);
+
+        // Access of the user on the ancestors already resolved for the previous entities
+        Map<SecurityReference, SecurityAccess> resolved = new HashMap<SecurityReference, SecurityAccess>();
+
+        for (int i = 0; i < entityReferences.size(); i++) {
+            EntityReference entityReference = entityReferences.get(i);
+            try {
+                SecurityAccess securityAccess =
+                    getAccess(user, securityReferenceFactory.newEntityReference(entityReference), resolved);
+
+                RuleState access = securityAccess.get(right);
+                logAccess(access, userReference, entityReference, right, "access inquiry", true);
+                if (access == RuleState.ALLOW) {
+                    result.set(i);
+                }
+            } catch (Exception e) {
+                this.logger.error(String.format("Failed to load rights for user [%s] on [%s].",
+                    (userReference == null) ? AuthorizationException.NULL_USER : userReference,
+                    (entityReference == null) ? AuthorizationException.NULL_ENTITY : entityReference), e);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Verifies if the user identified by {@code userReference} has the access identified by {@code right} on the
      * entity identified by {@code entityReference}. Note that some rights may be checked higher in hierarchy of the
@@ -226,6 +273,53 @@ private SecurityAccess getAccess(UserSecurityReference user, SecurityReference e
         return access;
     }
 
+    /**
+     * Obtain the access for the user on the given entity, reusing the access already resolved on its ancestors for
+     * other entities, and load it into the cache if unavailable.
+     *
+     * @param user The user identity.
+     * @param entity The entity.  May be of type DOCUMENT, WIKI, or SPACE.
+     * @param resolved The access of the user on the entities that have already been resolved, indexed by the entity
+     *            holding the rules that decided it. It's completed with the entities resolved by this call.
+     * @return the cached access entry.
+     * @exception org.xwiki.security.authorization.AuthorizationException if an error occurs
+     */
+    private SecurityAccess getAccess(UserSecurityReference user, SecurityReference entity,
+        Map<SecurityReference, SecurityAccess> resolved) throws AuthorizationException
+    {
+        // Entities without any rule, which inherit the access of their first ancestor having rules
+        List<SecurityReference> inheriting = new ArrayList<SecurityReference>();
+
+        for (SecurityReference ref = entity; ref != null; ref = ref.getParentSecurityReference()) {
+            SecurityAccess access = resolved.get(ref);
+            if (access == null) {
+                SecurityRuleEntry entry = securityCache.get(ref);
+                if (entry == null) {
+                    // Not cached yet, let the loader fill the cache for the whole hierarchy of the entity
+                    return securityCacheLoader.load(user, entity).getAccess();
+                }
+                if (entry.isEmpty()) {
+                    inheriting.add(ref);
+                    continue;
+                }
+                SecurityAccessEntry accessEntry = securityCache.get(user, ref);
+                if (accessEntry == null) {
+                    return securityCacheLoader.load(user, entity).getAccess();
+                }
+                access = accessEntry.getAccess();
+                resolved.put(ref, access);
+            }
+
+            for (SecurityReference inheritingRef : inheriting) {
+                resolved.put(inheritingRef, access);
+            }
+
+            return access;
+        }
+
+        return securityCacheLoader.load(user, entity).getAccess();
+    }
+
     /**
      * Log access conclusion.
      * @param access The ALLOW or DENY state
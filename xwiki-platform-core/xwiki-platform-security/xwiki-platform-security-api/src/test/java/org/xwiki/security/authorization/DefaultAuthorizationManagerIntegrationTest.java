@@ -21,8 +21,11 @@
 package org.xwiki.security.authorization;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -482,6 +485,31 @@ public void testInheritancePolicyForLocalWikiAccess() throws Exception
         assertAccess(new RightSet(LOGIN, REGISTER), getUser("userA", "wikiAllowNoAdminA"), getDoc("docDenyA",     "any space",  "wikiAllowNoAdminA"));
     }
 
+    @Test
+    public void testBulkAccessMatchesSingleAccess() throws Exception
+    {
+        initialiseWikiMock("inheritancePolicyForLocalWikiAccess");
+
+        DocumentReference user = getUser("userA", "wikiDenyA");
+        List<EntityReference> entities = Arrays.<EntityReference>asList(
+            getDoc("any document", "any space", "wikiDenyA"),
+            getDoc("any document", "spaceAllowA", "wikiDenyA"),
+            getDoc("docDenyA", "spaceAllowA", "wikiDenyA"),
+            getDoc("any document", "spaceAllowANoAdmin", "wikiDenyA"),
+            getDoc("docDenyA", "spaceAllowANoAdmin", "wikiDenyA"),
+            getDoc("docAllowA", "any space", "wikiDenyA"),
+            getDoc("any document", "any space", "wikiDenyA"));
+
+        for (Right right : values()) {
+            BitSet bulkAccess = authorizationManager.hasAccess(right, user, entities);
+            for (int i = 0; i < entities.size(); i++) {
+                Assert.assertEquals(String.format("Bulk [%s] access on [%s]", right,
+                    getEntityReadableName(entities.get(i))),
+                    authorizationManager.hasAccess(right, user, entities.get(i)), bulkAccess.get(i));
+            }
+        }
+    }
+
     @Test
     public void testInheritancePolicyForNoAdminFarmAccess() throws Exception
     {
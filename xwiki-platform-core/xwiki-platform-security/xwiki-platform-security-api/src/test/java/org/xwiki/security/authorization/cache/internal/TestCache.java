@@ -20,11 +20,14 @@
 
 package org.xwiki.security.authorization.cache.internal;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheLoader;
 import org.xwiki.cache.event.CacheEntryEvent;
 import org.xwiki.cache.event.CacheEntryListener;
 
@@ -128,6 +131,51 @@ public void removeAll()
         cache.clear();
     }
 
+    @Override
+    public Map<String, T> getAll(Collection<String> keys)
+    {
+        Map<String, T> values = new HashMap<String, T>();
+        for (String key : keys) {
+            if (cache.containsKey(key)) {
+                values.put(key, cache.get(key));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAll(Map<String, ? extends T> entries)
+    {
+        for (Map.Entry<String, ? extends T> entry : entries.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys)
+    {
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public T computeIfAbsent(String key, CacheLoader<T> loader) throws CacheException
+    {
+        T value = cache.get(key);
+        if (value == null) {
+            try {
+                value = loader.load(key);
+            } catch (Exception e) {
+                throw new CacheException("Failed to load value", e);
+            }
+            if (value != null) {
+                set(key, value);
+            }
+        }
+        return value;
+    }
+
     @Override
     public void addCacheEntryListener(CacheEntryListener<T> tCacheEntryListener)
     {
@@ -49,4 +49,23 @@
      * @return the File for storing the content of a particular version of the attachment.
      */
     File getAttachmentVersionContentFile(final String versionName);
+
+    /**
+     * Get the blob index file for the attachment.
+     * The blob index tells which blob file holds the content of each version of the attachment.
+     *
+     * @return the File for storing the digest of the content of each version of an attachment.
+     * @since 6.0M1
+     */
+    File getAttachmentVersioningBlobIndexFile();
+
+    /**
+     * Get a file named after the digest of some content of the attachment.
+     * All the versions of the attachment which have the same content share this file.
+     *
+     * @param digest the SHA-1 digest of the content as an hexadecimal string.
+     * @return the File for storing the content of the attachment which has the given digest.
+     * @since 6.0M1
+     */
+    File getAttachmentBlobFile(final String digest);
 }
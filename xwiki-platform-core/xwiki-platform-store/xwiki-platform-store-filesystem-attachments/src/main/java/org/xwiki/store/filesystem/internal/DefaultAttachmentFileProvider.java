@@ -36,6 +36,20 @@ public class DefaultAttachmentFileProvider implements AttachmentFileProvider
      */
     private static final String ATTACH_ARCHIVE_META_FILENAME = "~METADATA.xml";
 
+    /**
+     * This stores the digest of the content of each revision of the attachment.
+     *
+     * @see #getAttachmentVersioningBlobIndexFile()
+     */
+    private static final String ATTACH_ARCHIVE_BLOB_INDEX_FILENAME = "~BLOBS.properties";
+
+    /**
+     * The name of the files storing the content of the revisions is this followed by the digest of the content.
+     *
+     * @see #getAttachmentBlobFile(String)
+     */
+    private static final String ATTACH_BLOB_FILENAME_PREFIX = "~BLOB-";
+
     /**
      * The directory where all information about this attachment resides.
      */
@@ -119,4 +133,28 @@ public File getAttachmentVersionContentFile(final String versionName)
         return new File(this.attachmentDir,
             GenericFileUtils.getVersionedFilename(this.attachmentFileName, versionName));
     }
+
+    /**
+     * {@inheritDoc}
+     * This will be a file named ~BLOBS.properties which will reside in the attachment directory.
+     *
+     * @see AttachmentFileProvider#getAttachmentVersioningBlobIndexFile()
+     */
+    public File getAttachmentVersioningBlobIndexFile()
+    {
+        return new File(this.attachmentDir, ATTACH_ARCHIVE_BLOB_INDEX_FILENAME);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The blob files reside in the attachment directory so they are only shared by the versions of the same
+     * attachment and are deleted along with it.
+     * The blob of some content whose digest is 0a1b... will be stored as ~BLOB-0a1b...
+     *
+     * @see AttachmentFileProvider#getAttachmentBlobFile(String)
+     */
+    public File getAttachmentBlobFile(final String digest)
+    {
+        return new File(this.attachmentDir, ATTACH_BLOB_FILENAME_PREFIX + digest);
+    }
 }
@@ -80,7 +80,7 @@ public FilesystemAttachmentContent clone()
     @Deprecated
     public byte[] getContent()
     {
-        if (this.getFileItem() != null) { return super.getContent(); }
+        if (this.isContentSet()) { return super.getContent(); }
 
         final InputStream is = this.getContentInputStream();
         try {
@@ -95,7 +95,7 @@ public byte[] getContent()
     @Override
     public InputStream getContentInputStream()
     {
-        if (this.getFileItem() != null) { return super.getContentInputStream(); }
+        if (this.isContentSet()) { return super.getContentInputStream(); }
 
         try {
             return new AutoCloseInputStream(new FileInputStream(this.storageFile));
@@ -104,10 +104,24 @@ public InputStream getContentInputStream()
         }
     }
 
+    @Override
+    public File getContentFile()
+    {
+        if (this.isContentSet()) { return super.getContentFile(); }
+
+        return this.storageFile;
+    }
+
+    @Override
+    public boolean isContentFilePersistent()
+    {
+        return !this.isContentSet();
+    }
+
     @Override
     public int getSize()
     {
-        if (this.getFileItem() != null) { return super.getSize(); }
+        if (this.isContentSet()) { return super.getSize(); }
 
         long size = this.storageFile.length();
         // The most important thing is that it doesn't roll over into the negative space.
@@ -20,8 +20,11 @@
 package org.xwiki.store.legacy.store.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
 import org.suigeneris.jrcs.rcs.Version;
@@ -44,12 +47,14 @@ public class AttachmentArchiveDeleteRunnable extends StartableTransactionRunnabl
      * @param archive the attachment archive to delete.
      * @param fileTools tools for getting the metadata and versions of the attachment and locks.
      * @param provider the file provider for gettign the files to delete.
+     * @throws IOException if the blob index of the attachment cannot be read.
      */
     public AttachmentArchiveDeleteRunnable(final XWikiAttachmentArchive archive,
         final FilesystemStoreTools fileTools,
         final AttachmentFileProvider provider)
+        throws IOException
     {
-        final List<File> toDelete = new ArrayList<File>();
+        final Set<File> toDelete = new LinkedHashSet<File>();
         toDelete.add(provider.getAttachmentVersioningMetaFile());
 
         final Version[] versions = archive.getVersions();
@@ -57,10 +62,44 @@ public AttachmentArchiveDeleteRunnable(final XWikiAttachmentArchive archive,
             toDelete.add(provider.getAttachmentVersionContentFile(versions[i].toString()));
         }
 
+        // The blob files are only shared by the versions of this attachment so they can all be deleted.
+        final File indexFile = provider.getAttachmentVersioningBlobIndexFile();
+        for (String digest : AttachmentBlobIndex.load(indexFile, fileTools.getLockForFile(indexFile)).getDigests()) {
+            toDelete.add(provider.getAttachmentBlobFile(digest));
+        }
+        // As well as the ones the index does not know about.
+        toDelete.addAll(getBlobFiles(provider));
+        toDelete.add(indexFile);
+
         for (File file : toDelete) {
             new FileDeleteTransactionRunnable(file,
                 fileTools.getBackupFile(file),
                 fileTools.getLockForFile(file)).runIn(this);
         }
     }
+
+    /**
+     * List the blob files of the attachment, including the ones which are not referenced by the blob index,
+     * e.g. because they were left behind by a save which did not complete.
+     *
+     * @param provider the file provider for getting the blob files of the attachment.
+     * @return all the blob files found in the directory of the attachment.
+     */
+    private static List<File> getBlobFiles(final AttachmentFileProvider provider)
+    {
+        final List<File> out = new ArrayList<File>();
+        // The name of the blob file of an empty digest is the prefix of all the blob file names.
+        final String prefix = provider.getAttachmentBlobFile("").getName();
+        final File[] files = provider.getAttachmentVersioningBlobIndexFile().getParentFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                // Skip the backup and temporary files of the transactions, their name continues after the digest.
+                if (file.isFile() && name.startsWith(prefix) && name.indexOf('~', prefix.length()) < 0) {
+                    out.add(file);
+                }
+            }
+        }
+        return out;
+    }
 }
@@ -20,8 +20,12 @@
 package org.xwiki.store.legacy.store.internal;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -29,7 +33,10 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.store.VoidAttachmentVersioningStore;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
 import org.suigeneris.jrcs.rcs.Version;
+import org.xwiki.store.FileDeleteTransactionRunnable;
 import org.xwiki.store.FileSaveTransactionRunnable;
 import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.store.StreamProvider;
@@ -42,6 +49,8 @@
  * A TransactionRunnable for saving attachment archives.
  * It uses a chain of FileSaveTransactionRunnable so the attachment will either be saved or fail
  * safely, it should not hang in a halfway state.
+ * The content of each version is stored in a file named after its digest so the versions having the
+ * same content are only stored once, and the files which are not used by any version anymore are deleted.
  *
  * @version $Id$
  * @since 3.0M2
@@ -78,6 +87,9 @@ public AttachmentArchiveSaveRunnable(final XWikiAttachmentArchive archive,
 
         final Version[] versions = archive.getVersions();
         final List<XWikiAttachment> attachmentVersions = new ArrayList<XWikiAttachment>(versions.length);
+        final AttachmentBlobIndex oldIndex = loadBlobIndex(fileTools, provider);
+        final AttachmentBlobIndex index = new AttachmentBlobIndex();
+        final Set<String> savedDigests = new HashSet<String>();
 
         // Add the content files which need updating and add the attachments to the list.
         for (int i = 0; i < versions.length; i++) {
@@ -87,12 +99,39 @@ public AttachmentArchiveSaveRunnable(final XWikiAttachmentArchive archive,
             attachmentVersions.add(attachVer);
 
             // If the content is not dirty and the file was already saved then we will not update.
-            if (attachVer.isContentDirty()
-                || !provider.getAttachmentVersionContentFile(versionName).exists())
-            {
+            if (isSaved(attachVer, versionName, provider, oldIndex, index)) {
+                continue;
+            }
+
+            // Versions having the same content share the same file.
+            final String digest = getDigest(attachVer, context);
+            index.setDigest(versionName, digest);
+            final File blobFile = provider.getAttachmentBlobFile(digest);
+            if (!blobFile.exists() && savedDigests.add(digest)) {
                 final StreamProvider contentProvider =
                     new AttachmentContentStreamProvider(attachVer, context);
-                addSaver(contentProvider, fileTools, provider.getAttachmentVersionContentFile(versionName));
+                addSaver(contentProvider, fileTools, blobFile);
+            }
+            // Remove the file in which the version was saved before the content was stored by digest.
+            final File versionFile = provider.getAttachmentVersionContentFile(versionName);
+            if (versionFile.exists()) {
+                new FileDeleteTransactionRunnable(versionFile,
+                    fileTools.getBackupFile(versionFile),
+                    fileTools.getLockForFile(versionFile)).runIn(this);
+            }
+        }
+
+        // Then the index of the content files.
+        addSaver(index, fileTools, provider.getAttachmentVersioningBlobIndexFile());
+
+        // The content files which are not referenced by the new index anymore are deleted.
+        final Set<String> digests = index.getDigests();
+        for (String digest : oldIndex.getDigests()) {
+            if (!digests.contains(digest)) {
+                final File blobFile = provider.getAttachmentBlobFile(digest);
+                new FileDeleteTransactionRunnable(blobFile,
+                    fileTools.getBackupFile(blobFile),
+                    fileTools.getLockForFile(blobFile)).runIn(this);
             }
         }
 
@@ -102,6 +141,85 @@ public AttachmentArchiveSaveRunnable(final XWikiAttachmentArchive archive,
         addSaver(metaProvider, fileTools, provider.getAttachmentVersioningMetaFile());
     }
 
+    /**
+     * Check if the content of a version of the attachment is already saved and does not need to be saved again.
+     *
+     * @param attachVer the version of the attachment.
+     * @param versionName the name of the version.
+     * @param provider the means to get the files storing the content of the attachment.
+     * @param oldIndex the blob index of the attachment as it is currently stored.
+     * @param index the blob index being saved, updated with the digest of the version if it is already saved.
+     * @return true if the content of the version does not need to be saved.
+     */
+    private static boolean isSaved(final XWikiAttachment attachVer,
+        final String versionName,
+        final AttachmentFileProvider provider,
+        final AttachmentBlobIndex oldIndex,
+        final AttachmentBlobIndex index)
+    {
+        if (attachVer.isContentDirty()) {
+            return false;
+        }
+        final String digest = oldIndex.getDigest(versionName);
+        if (digest == null) {
+            // Versions saved before the content was stored by digest.
+            return provider.getAttachmentVersionContentFile(versionName).exists();
+        }
+        if (provider.getAttachmentBlobFile(digest).exists()) {
+            index.setDigest(versionName, digest);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param fileTools the means to get the lock of the index file.
+     * @param provider the means to get the index file.
+     * @return the blob index of the attachment as it is currently stored.
+     * @throws XWikiException if the index cannot be read.
+     */
+    private static AttachmentBlobIndex loadBlobIndex(final FilesystemStoreTools fileTools,
+        final AttachmentFileProvider provider)
+        throws XWikiException
+    {
+        final File indexFile = provider.getAttachmentVersioningBlobIndexFile();
+        try {
+            return AttachmentBlobIndex.load(indexFile, fileTools.getLockForFile(indexFile));
+        } catch (IOException e) {
+            final Object[] args = {indexFile.getAbsolutePath()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Exception while reading attachment blob index {0}",
+                e, args);
+        }
+    }
+
+    /**
+     * Compute the digest of the content of an attachment, the content is streamed so this does not
+     * need to hold it in memory.
+     *
+     * @param attachment the attachment to get the content digest of.
+     * @param context the XWikiContext used to get the content of the attachment.
+     * @return the SHA-1 digest of the content as an hexadecimal string.
+     * @throws XWikiException if the content cannot be read.
+     */
+    private static String getDigest(final XWikiAttachment attachment, final XWikiContext context)
+        throws XWikiException
+    {
+        final InputStream is = attachment.getContentInputStream(context);
+        try {
+            return DigestUtils.sha1Hex(is);
+        } catch (IOException e) {
+            final Object[] args = {attachment.getFilename(), attachment.getVersion()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Exception while reading the content of attachment {0} version {1}",
+                e, args);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
     /**
      * Save some content safely in this runnable.
      *
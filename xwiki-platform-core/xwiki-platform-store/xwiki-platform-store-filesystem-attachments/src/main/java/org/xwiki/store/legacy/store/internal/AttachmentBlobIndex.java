@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.legacy.store.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.xwiki.store.StreamProvider;
+
+/**
+ * The index of the content blobs of an attachment, mapping each version of the attachment to the digest of its
+ * content. The content of a version is stored in a file named after this digest so the versions having the same
+ * content share the same file.
+ *
+ * @version $Id$
+ * @since 6.0M1
+ */
+public class AttachmentBlobIndex implements StreamProvider
+{
+    /**
+     * The comment written at the top of the index file.
+     */
+    private static final String COMMENT = "SHA-1 digest of the content of each version of the attachment";
+
+    /**
+     * The digest of the content of each version, by version name.
+     */
+    private final Properties digests = new Properties();
+
+    /**
+     * Load an index from a file.
+     *
+     * @param indexFile the file to load the index from.
+     * @param lock the lock to hold while reading the file.
+     * @return the index stored in the file or an empty index if the file does not exist.
+     * @throws IOException if the file cannot be read.
+     */
+    public static AttachmentBlobIndex load(final File indexFile, final ReadWriteLock lock) throws IOException
+    {
+        final AttachmentBlobIndex index = new AttachmentBlobIndex();
+        lock.readLock().lock();
+        try {
+            if (indexFile.exists()) {
+                final InputStream is = new FileInputStream(indexFile);
+                try {
+                    index.digests.load(is);
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return index;
+    }
+
+    /**
+     * @param versionName the name of the version of the attachment eg: "1.1" or "1.2"
+     * @return the digest of the content of this version or null if the version is not in the index.
+     */
+    public String getDigest(final String versionName)
+    {
+        return this.digests.getProperty(versionName);
+    }
+
+    /**
+     * @param versionName the name of the version of the attachment eg: "1.1" or "1.2"
+     * @param digest the digest of the content of this version.
+     */
+    public void setDigest(final String versionName, final String digest)
+    {
+        this.digests.setProperty(versionName, digest);
+    }
+
+    /**
+     * @return the digests of all the versions in the index, each digest is only listed once.
+     */
+    public Set<String> getDigests()
+    {
+        final Set<String> out = new HashSet<String>();
+        for (String versionName : this.digests.stringPropertyNames()) {
+            out.add(this.digests.getProperty(versionName));
+        }
+        return out;
+    }
+
+    @Override
+    public InputStream getStream() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.digests.store(out, COMMENT);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
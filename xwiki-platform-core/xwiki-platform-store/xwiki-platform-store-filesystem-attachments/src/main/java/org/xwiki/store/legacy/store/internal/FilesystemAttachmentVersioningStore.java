@@ -44,6 +44,8 @@
 
 /**
  * Filesystem based AttachmentVersioningStore implementation.
+ * Each version of the attachment is stored in its own file, named after the digest of its content
+ * so the versions having the same content are stored only once.
  *
  * @version $Id$
  * @since 3.0M2
@@ -146,9 +148,15 @@ XWikiAttachmentArchive loadArchive(final XWikiAttachment attachment,
             lock.readLock().unlock();
         }
 
+        final File indexFile = provider.getAttachmentVersioningBlobIndexFile();
+        final AttachmentBlobIndex index = AttachmentBlobIndex.load(indexFile, this.fileTools.getLockForFile(indexFile));
+
         // Get the content file and lock for each revision.
         for (XWikiAttachment attach : attachList) {
-            final File contentFile = provider.getAttachmentVersionContentFile(attach.getVersion());
+            final String digest = index.getDigest(attach.getVersion());
+            // Versions saved before the content was stored by digest have their own file.
+            final File contentFile = digest != null ? provider.getAttachmentBlobFile(digest)
+                : provider.getAttachmentVersionContentFile(attach.getVersion());
             attach.setAttachment_content(new FilesystemAttachmentContent(contentFile, attach));
             // Pass the document since it will be lost in the serialize/deserialize.
             attach.setDoc(attachment.getDoc());
@@ -252,8 +260,10 @@ public void deleteArchive(final XWikiAttachment attachment,
      *
      * @param archive The attachment archive to delete.
      * @return a StartableTransactionRunnable for deleting the attachment archive.
+     * @throws XWikiException if the files storing the content of the attachment versions cannot be listed.
      */
     public StartableTransactionRunnable getArchiveDeleteRunnable(final XWikiAttachmentArchive archive)
+        throws XWikiException
     {
         if (archive == null) {
             throw new NullPointerException("The archive to delete cannot be null.");
@@ -262,7 +272,18 @@ public StartableTransactionRunnable getArchiveDeleteRunnable(final XWikiAttachme
             throw new IllegalArgumentException(
                 "Cannot delete an archive unless it is associated with an attachment.");
         }
-        return new AttachmentArchiveDeleteRunnable(
-            archive, this.fileTools, this.fileTools.getAttachmentFileProvider(archive.getAttachment()));
+        try {
+            return new AttachmentArchiveDeleteRunnable(
+                archive, this.fileTools, this.fileTools.getAttachmentFileProvider(archive.getAttachment()));
+        } catch (IOException e) {
+            final Object[] args = {archive.getAttachment().getFilename(), UNKNOWN_NAME};
+            if (archive.getAttachment().getDoc() != null) {
+                args[1] = archive.getAttachment().getDoc().getFullName();
+            }
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Exception while reading the blob index of attachment {0} from document {1}",
+                e, args);
+        }
     }
 }
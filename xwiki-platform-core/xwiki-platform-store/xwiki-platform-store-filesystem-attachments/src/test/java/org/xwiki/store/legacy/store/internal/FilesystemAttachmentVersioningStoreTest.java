@@ -24,6 +24,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -31,6 +32,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.store.AttachmentVersioningStore;
 import com.xpn.xwiki.web.Utils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
@@ -137,9 +139,9 @@ public void saveArchiveTest() throws Exception
         // </attachment-list>
         Assert.assertTrue(this.provider.getAttachmentVersioningMetaFile().length() > 120);
 
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertTrue(this.getBlobFile("1.1").exists());
+        Assert.assertTrue(this.getBlobFile("1.2").exists());
+        Assert.assertTrue(this.getBlobFile("1.3").exists());
 
         // Prove that the attachment and attachment content are the same after saving.
         Assert.assertSame(attach, this.archive.getAttachment());
@@ -178,21 +180,110 @@ public void deleteArchiveTest() throws Exception
     {
         this.versionStore.saveArchive(this.archive, null, false);
 
+        final File blobFile1 = this.getBlobFile("1.1");
+        final File blobFile2 = this.getBlobFile("1.2");
+        final File blobFile3 = this.getBlobFile("1.3");
+
         Assert.assertTrue(this.provider.getAttachmentVersioningMetaFile().exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertTrue(this.provider.getAttachmentVersioningBlobIndexFile().exists());
+        Assert.assertTrue(blobFile1.exists());
+        Assert.assertTrue(blobFile2.exists());
+        Assert.assertTrue(blobFile3.exists());
 
         this.versionStore.deleteArchive(this.archive.getAttachment(), null, false);
 
         Assert.assertFalse(this.provider.getAttachmentVersioningMetaFile().exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersioningBlobIndexFile().exists());
+        Assert.assertFalse(blobFile1.exists());
+        Assert.assertFalse(blobFile2.exists());
+        Assert.assertFalse(blobFile3.exists());
+    }
+
+    @Test
+    public void saveArchiveWithSameContentTest() throws Exception
+    {
+        final XWikiAttachment attach = this.archive.getAttachment();
+        final XWikiAttachment version2 = this.archive.getRevision(attach, "1.2", null);
+        version2.setAttachment_content(new StringAttachmentContent("I am version 1.1"));
+        this.archive = new ListAttachmentArchive(Arrays.asList(this.archive.getRevision(attach, "1.1", null),
+            version2, this.archive.getRevision(attach, "1.3", null)));
+
+        this.versionStore.saveArchive(this.archive, null, false);
+
+        // Versions with the same content share the same file.
+        Assert.assertEquals(this.getBlobFile("1.1"), this.getBlobFile("1.2"));
+        Assert.assertFalse(this.getBlobFile("1.1").equals(this.getBlobFile("1.3")));
+        Assert.assertEquals("I am version 1.1", FileUtils.readFileToString(this.getBlobFile("1.2")));
+
+        final XWikiAttachmentArchive newArch =
+            this.versionStore.loadArchive(archive.getAttachment(), null, false);
+        Assert.assertEquals("I am version 1.1",
+            IOUtils.toString(newArch.getRevision(archive.getAttachment(), "1.2", null).getContentInputStream(null)));
+    }
+
+    @Test
+    public void saveArchiveDeletesUnreferencedBlobsTest() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+        final File oldBlobFile2 = this.getBlobFile("1.2");
+
+        final XWikiAttachment attach = this.archive.getAttachment();
+        final XWikiAttachment version2 = this.archive.getRevision(attach, "1.2", null);
+        version2.setAttachment_content(new StringAttachmentContent("I am version 1.1"));
+        this.archive = new ListAttachmentArchive(Arrays.asList(this.archive.getRevision(attach, "1.1", null),
+            version2, this.archive.getRevision(attach, "1.3", null)));
+
+        this.versionStore.saveArchive(this.archive, null, false);
+
+        // The content of version 1.2 is not used by any version anymore.
+        Assert.assertFalse(oldBlobFile2.exists());
+        Assert.assertEquals(this.getBlobFile("1.1"), this.getBlobFile("1.2"));
+        Assert.assertTrue(this.getBlobFile("1.1").exists());
+        Assert.assertTrue(this.getBlobFile("1.3").exists());
+    }
+
+    @Test
+    public void deleteArchiveDeletesBlobsMissingFromIndexTest() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+
+        // A blob left behind, e.g. by a save which did not complete.
+        final File strayBlobFile = this.provider.getAttachmentBlobFile("0123456789abcdef0123456789abcdef01234567");
+        FileUtils.writeStringToFile(strayBlobFile, "I am not referenced");
+
+        this.versionStore.deleteArchive(this.archive.getAttachment(), null, false);
+
+        Assert.assertFalse(strayBlobFile.exists());
+    }
+
+    @Test
+    public void loadArchiveSavedWithoutBlobIndexTest() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+
+        // Move the content where it was stored before the content was stored by digest.
+        for (String version : new String[] {"1.1", "1.2", "1.3"}) {
+            FileUtils.moveFile(this.getBlobFile(version), this.provider.getAttachmentVersionContentFile(version));
+        }
+        Assert.assertTrue(this.provider.getAttachmentVersioningBlobIndexFile().delete());
+
+        final XWikiAttachmentArchive newArch =
+            this.versionStore.loadArchive(archive.getAttachment(), null, false);
+        Assert.assertEquals("I am version 1.2",
+            IOUtils.toString(newArch.getRevision(archive.getAttachment(), "1.2", null).getContentInputStream(null)));
     }
 
     /* -------------------- Helpers -------------------- */
 
+    private File getBlobFile(final String version) throws IOException
+    {
+        final File indexFile = this.provider.getAttachmentVersioningBlobIndexFile();
+        final String digest =
+            AttachmentBlobIndex.load(indexFile, this.fileTools.getLockForFile(indexFile)).getDigest(version);
+        Assert.assertNotNull(digest);
+        return this.provider.getAttachmentBlobFile(digest);
+    }
+
     private static void resursiveDelete(final File toDelete) throws IOException
     {
         if (toDelete == null || !toDelete.exists()) {
@@ -41,6 +41,16 @@ public class XarEntry extends LocalDocumentReference
      */
     private int defaultAction;
 
+    /**
+     * @see #getEntrySize()
+     */
+    private long entrySize = -1;
+
+    /**
+     * @see #getEntryChecksum()
+     */
+    private long entryChecksum = -1;
+
     public XarEntry(LocalDocumentReference reference)
     {
         this(reference, null);
@@ -58,11 +68,44 @@ public XarEntry(LocalDocumentReference reference, String name, int defaultAction
         this.entryName = name;
     }
 
+    /**
+     * @param reference the reference of the document
+     * @param name the name of the entry in the ZIP stream
+     * @param size the uncompressed size of the entry content
+     * @param checksum the CRC-32 checksum of the entry content
+     * @since 6.0M1
+     */
+    public XarEntry(LocalDocumentReference reference, String name, long size, long checksum)
+    {
+        this(reference, name);
+
+        this.entrySize = size;
+        this.entryChecksum = checksum;
+    }
+
     public String getEntryName()
     {
         return this.entryName;
     }
 
+    /**
+     * @return the uncompressed size of the entry content as stored in the ZIP file, -1 if unknown
+     * @since 6.0M1
+     */
+    public long getEntrySize()
+    {
+        return this.entrySize;
+    }
+
+    /**
+     * @return the CRC-32 checksum of the entry content as stored in the ZIP file, -1 if unknown
+     * @since 6.0M1
+     */
+    public long getEntryChecksum()
+    {
+        return this.entryChecksum;
+    }
+
     public int getDefaultAction()
     {
         return this.defaultAction;
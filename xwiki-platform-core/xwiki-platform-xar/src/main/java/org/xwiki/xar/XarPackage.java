@@ -178,9 +178,11 @@ private void readEntry(InputStream stream, ZipArchiveEntry entry) throws XarExce
         if (entry.getName().equals(XarModel.PATH_PACKAGE)) {
             readDescriptor(stream);
         } else {
-            XarEntry xarEntry = new XarEntry(XarUtils.getReference(stream), entry.getName());
+            // Remember the size and checksum stored in the ZIP file to be able to cheaply compare entries of
+            // different packages
+            XarEntry xarEntry =
+                new XarEntry(XarUtils.getReference(stream), entry.getName(), entry.getSize(), entry.getCrc());
             this.entries.put(xarEntry, xarEntry);
-
         }
     }
 